@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.IOException;
+
+/**
+ * Keeps blocks uncompressed when compressing them saves too little.
+ *
+ * Every block ends with a flag byte that tells whether the rest of it is compressed or stored as is.
+ * Stored blocks are only copied when read, so incompressible data costs almost nothing to read.
+ */
+final class AdaptiveCompressor implements BlockCompressor {
+  private static final byte COMPRESSED = 0;
+  private static final byte STORED = 1;
+
+  private final BlockCompressor compressor;
+  private final int minSavingsPercent;
+
+  AdaptiveCompressor(BlockCompressor compressor, int minSavingsPercent) {
+    this.compressor = compressor;
+    this.minSavingsPercent = minSavingsPercent;
+  }
+
+  @Override
+  public int maxCompressedLength(int blockSize) {
+    return Math.max(compressor.maxCompressedLength(blockSize), blockSize) + 1;
+  }
+
+  @Override
+  public int uncompress(byte[] compressed, int compressedSize, byte[] uncompressed) throws IOException {
+    if (compressedSize < 1) {
+      throw new IOException("Corrupt block: missing compression flag");
+    }
+    byte flag = compressed[compressedSize - 1];
+    if (flag == COMPRESSED) {
+      return compressor.uncompress(compressed, compressedSize - 1, uncompressed);
+    }
+    if (flag != STORED || compressedSize - 1 > uncompressed.length) {
+      throw new IOException("Corrupt block: invalid compression flag " + flag);
+    }
+    System.arraycopy(compressed, 0, uncompressed, 0, compressedSize - 1);
+    return compressedSize - 1;
+  }
+
+  @Override
+  public int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) throws IOException {
+    int compressedSize = compressor.compress(uncompressed, uncompressedSize, compressed);
+    long savings = uncompressedSize - (long) compressedSize;
+    if (savings * 100 < (long) minSavingsPercent * uncompressedSize) {
+      System.arraycopy(uncompressed, 0, compressed, 0, uncompressedSize);
+      compressed[uncompressedSize] = STORED;
+      return uncompressedSize + 1;
+    }
+    compressed[compressedSize] = COMPRESSED;
+    return compressedSize + 1;
+  }
+}
@@ -60,6 +60,63 @@ enum AddressSize {
     void writeAddress(final long address, final DataOutputStream data) throws IOException {
       data.writeInt((int) address); // TODO: overflow?
     }
+  },
+  /**
+   * 40 bit addresses, for logs that are too large for INT, up to 256 GB divided by the entries per block.
+   */
+  INT40(5) {
+    @Override
+    long readAddress(RandomAccessData data) throws IOException {
+      return (data.readLittleEndianInt() & INT_MASK) | (long) data.readUnsignedByte() << 32;
+    }
+
+    @Override
+    long readAddress(RandomAccessDataStateless data, long pos) throws IOException {
+      return (data.readLittleEndianInt(pos) & INT_MASK) | (long) data.readUnsignedByte(pos + 4) << 32;
+    }
+
+    @Override
+    void writeAddress(long address, ReadWriteData data) throws IOException {
+      data.writeLittleEndianInt((int) address);
+      data.writeUnsignedByte((int) (address >>> 32) & 0xff);
+    }
+
+    @Override
+    void writeAddress(final long address, final DataOutputStream data) throws IOException {
+      data.writeByte((int) (address >>> 32));
+      data.writeInt((int) address);
+    }
+  },
+  /**
+   * 48 bit addresses, for logs up to 64 TB divided by the entries per block.
+   */
+  INT48(6) {
+    @Override
+    long readAddress(RandomAccessData data) throws IOException {
+      return (data.readLittleEndianInt() & INT_MASK)
+          | (long) data.readUnsignedByte() << 32
+          | (long) data.readUnsignedByte() << 40;
+    }
+
+    @Override
+    long readAddress(RandomAccessDataStateless data, long pos) throws IOException {
+      return (data.readLittleEndianInt(pos) & INT_MASK)
+          | (long) data.readUnsignedByte(pos + 4) << 32
+          | (long) data.readUnsignedByte(pos + 5) << 40;
+    }
+
+    @Override
+    void writeAddress(long address, ReadWriteData data) throws IOException {
+      data.writeLittleEndianInt((int) address);
+      data.writeUnsignedByte((int) (address >>> 32) & 0xff);
+      data.writeUnsignedByte((int) (address >>> 40) & 0xff);
+    }
+
+    @Override
+    void writeAddress(final long address, final DataOutputStream data) throws IOException {
+      data.writeShort((int) (address >>> 32));
+      data.writeInt((int) address);
+    }
   };
 
   private static final long INT_MASK = (1L << 32) - 1;
@@ -69,6 +126,30 @@ enum AddressSize {
     this.size = size;
   }
 
+  /**
+   * @return the largest log, in bytes, whose addresses fit in this size. Two bits are left unused,
+   * as for INT, which has always been limited to 1 GB divided by the entries per block.
+   */
+  long maxDataEnd(int entryBlockBits) {
+    if (this == LONG) {
+      return Long.MAX_VALUE;
+    }
+    return 1L << (8 * size - 2 - entryBlockBits);
+  }
+
+  /**
+   * @param compact whether the 5 and 6 byte sizes may be used, otherwise only 4 or 8
+   * @return the smallest address size that fits the log
+   */
+  static AddressSize forLog(long dataEnd, int entryBlockBits, boolean compact) {
+    for (AddressSize addressSize : compact ? new AddressSize[] {INT, INT40, INT48} : new AddressSize[] {INT}) {
+      if (dataEnd <= addressSize.maxDataEnd(entryBlockBits)) {
+        return addressSize;
+      }
+    }
+    return LONG;
+  }
+
   abstract long readAddress(RandomAccessData data) throws IOException;
   abstract long readAddress(RandomAccessDataStateless data, long pos) throws IOException;
 
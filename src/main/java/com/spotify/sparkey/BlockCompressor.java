@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.IOException;
+
+/**
+ * Compresses and uncompresses the blocks of a compressed log.
+ * Implementations must be safe to use from several threads at once.
+ */
+interface BlockCompressor {
+  int maxCompressedLength(int blockSize);
+
+  int uncompress(byte[] compressed, int compressedSize, byte[] uncompressed) throws IOException;
+
+  int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) throws IOException;
+}
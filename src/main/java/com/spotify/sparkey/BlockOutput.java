@@ -17,17 +17,48 @@ package com.spotify.sparkey;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
 
 interface BlockOutput {
-  void put(byte[] key, int keyLen, byte[] value, int valueLen) throws IOException;
+  void put(byte[] key, int keyOff, int keyLen, byte[] value, int valueOff, int valueLen) throws IOException;
 
-  void put(byte[] key, int keyLen, InputStream value, long valueLen) throws IOException;
+  void put(byte[] key, int keyOff, int keyLen, InputStream value, long valueLen) throws IOException;
 
-  void delete(byte[] key, int keyLen) throws IOException;
+  /**
+   * Write the remaining bytes of value, consuming them.
+   */
+  void put(byte[] key, int keyOff, int keyLen, ByteBuffer value) throws IOException;
+
+  void delete(byte[] key, int keyOff, int keyLen) throws IOException;
 
   void flush(boolean fsync) throws IOException;
 
   void close(boolean fsync) throws IOException;
 
+  /**
+   * Compress blocks on the given number of background threads, or on the calling thread if 0.
+   * Does nothing for uncompressed output.
+   */
+  void setCompressionThreads(int threads) throws IOException;
+
+  /**
+   * Report the offset of every block written from now on, relative to the start of the output,
+   * or stop if blockListener is null. Called in block order, possibly from another thread.
+   * Never called for uncompressed output, where every entry is its own block.
+   */
+  void setBlockListener(LongConsumer blockListener);
+
   int getMaxEntriesPerBlock();
+
+  /**
+   * @return the block that the last entry starts in. For compressed output, this is the number of
+   * blocks before it. For uncompressed output, it is the number of bytes written before the entry.
+   */
+  long getLastEntryBlock();
+
+  /**
+   * @return the number of entries that start before the last entry in its block
+   */
+  int getLastEntryIndex();
 }
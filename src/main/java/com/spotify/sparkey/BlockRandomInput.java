@@ -61,5 +61,12 @@ interface BlockRandomInput {
    * @param key byte array to compare against (only first {@code length} bytes are compared)
    * @return true if the bytes at current position match the first {@code length} bytes of {@code key}
    */
-  boolean readFullyCompare(int length, byte[] key) throws IOException;
+  default boolean readFullyCompare(int length, byte[] key) throws IOException {
+    return readFullyCompare(length, key, 0);
+  }
+
+  /**
+   * Like {@link #readFullyCompare(int, byte[])}, but compares against the bytes of key starting at keyOff.
+   */
+  boolean readFullyCompare(int length, byte[] key, int keyOff) throws IOException;
 }
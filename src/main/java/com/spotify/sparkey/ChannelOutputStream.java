@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends to a file through a large direct buffer and a single open channel.
+ *
+ * Small writes are encoded straight into the buffer, which is written to the channel when full.
+ * Writes that don't fit in the buffer are written together with the buffered data in one
+ * gathering write, without copying them. The same channel is used for positional writes,
+ * such as header updates, which don't move the append position.
+ */
+final class ChannelOutputStream extends OutputStream {
+  static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  // Enough for any unsigned VLQ long
+  private static final int MAX_VLQ_SIZE = 10;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final ByteBuffer[] gather = new ByteBuffer[2];
+  // The channel position, tracked to avoid asking the channel for it
+  private long written;
+  private boolean closed;
+
+  ChannelOutputStream(File file, long position, int bufferSize) throws IOException {
+    this.file = new RandomAccessFile(file, "rw");
+    try {
+      channel = this.file.getChannel();
+      channel.truncate(position);
+      channel.position(position);
+      written = position;
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    }
+    buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MAX_VLQ_SIZE));
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (!buffer.hasRemaining()) {
+      drain();
+    }
+    buffer.put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (len <= buffer.remaining()) {
+      buffer.put(b, off, len);
+      return;
+    }
+    if (len < buffer.capacity()) {
+      drain();
+      buffer.put(b, off, len);
+      return;
+    }
+    write(ByteBuffer.wrap(b, off, len));
+  }
+
+  /**
+   * Write the remaining bytes of src, consuming them.
+   */
+  void write(ByteBuffer src) throws IOException {
+    if (src.remaining() <= buffer.remaining()) {
+      buffer.put(src);
+      return;
+    }
+    if (src.remaining() < buffer.capacity()) {
+      drain();
+      buffer.put(src);
+      return;
+    }
+    buffer.flip();
+    gather[0] = buffer;
+    gather[1] = src;
+    try {
+      while (src.hasRemaining()) {
+        written += channel.write(gather);
+      }
+    } finally {
+      gather[1] = null;
+      buffer.clear();
+    }
+  }
+
+  void writeUnsignedVLQ(int value) throws IOException {
+    if (buffer.remaining() < MAX_VLQ_SIZE) {
+      drain();
+    }
+    while (value >= 1 << 7) {
+      buffer.put((byte) (value & 0x7f | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  void writeUnsignedVLQ(long value) throws IOException {
+    if (buffer.remaining() < MAX_VLQ_SIZE) {
+      drain();
+    }
+    while (value >= 1 << 7) {
+      buffer.put((byte) (value & 0x7f | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        written += channel.write(buffer);
+      }
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  /**
+   * @return the position of the next appended byte, including buffered data
+   */
+  long position() {
+    return written + buffer.position();
+  }
+
+  /**
+   * The channel of the file, for positional reads and writes.
+   * Writes to it must not overlap the appended data.
+   */
+  FileChannel getChannel() {
+    return channel;
+  }
+
+  FileDescriptor getFD() throws IOException {
+    return file.getFD();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      drain();
+    } finally {
+      file.close();
+    }
+  }
+}
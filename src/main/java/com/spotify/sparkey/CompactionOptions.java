@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Options for {@link Sparkey#compact(java.io.File, java.io.File, CompactionOptions)}.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * Sparkey.compact(src, dst, new CompactionOptions());
+ * Sparkey.compact(src, dst, new CompactionOptions()
+ *     .compressionType(CompressionType.ZSTD)
+ *     .compressionBlockSize(65536)
+ *     .threads(8));
+ * }</pre>
+ */
+public final class CompactionOptions {
+  private CompressionType compressionType;
+  private CompressionOptions compressionOptions;
+  private int compressionBlockSize;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private HashType hashType;
+  private SparkeyWriter.ConstructionMethod constructionMethod = SparkeyWriter.ConstructionMethod.AUTO;
+  private boolean fsync;
+  private ToLongFunction<byte[]> accessCounts;
+
+  /**
+   * Set the compression type of the compacted log. Default: the compression type of the source.
+   */
+  public CompactionOptions compressionType(CompressionType compressionType) {
+    this.compressionType = compressionType;
+    return this;
+  }
+
+  /**
+   * Set the compression options of the compacted log, such as the compression level.
+   * Default: the options of the source if it has the same compression type, otherwise the default options.
+   */
+  public CompactionOptions compressionOptions(CompressionOptions compressionOptions) {
+    this.compressionOptions = compressionOptions;
+    return this;
+  }
+
+  /**
+   * Set the compression block size of the compacted log. Default: the block size of the source.
+   * Must be set when compressing an uncompressed source.
+   */
+  public CompactionOptions compressionBlockSize(int compressionBlockSize) {
+    this.compressionBlockSize = compressionBlockSize;
+    return this;
+  }
+
+  /**
+   * Set the number of threads to read and write parts of the log with.
+   * Default: the number of available processors.
+   */
+  public CompactionOptions threads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be positive: " + threads);
+    }
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * Set the hash type of the new index. Default: the hash type of the source index.
+   */
+  public CompactionOptions hashType(HashType hashType) {
+    this.hashType = hashType;
+    return this;
+  }
+
+  /**
+   * Set the construction method of the new index. Default: AUTO
+   */
+  public CompactionOptions constructionMethod(SparkeyWriter.ConstructionMethod constructionMethod) {
+    this.constructionMethod = constructionMethod;
+    return this;
+  }
+
+  /**
+   * Set whether the compacted files should be synced to disk. Default: false
+   */
+  public CompactionOptions fsync(boolean fsync) {
+    this.fsync = fsync;
+    return this;
+  }
+
+  /**
+   * Lay out the compacted log with the most accessed entries first, so that they are packed into
+   * as few pages and compressed blocks as possible. Entries with a positive access count are written
+   * first, in order of decreasing count, and the rest follow in log order.
+   *
+   * The keys of the accessed entries are kept in memory while compacting.
+   *
+   * @param accessCounts the access count of a key, for example from sampling production lookups.
+   *                     Called from several threads at once.
+   */
+  public CompactionOptions accessCounts(ToLongFunction<byte[]> accessCounts) {
+    this.accessCounts = accessCounts;
+    return this;
+  }
+
+  CompressionType getCompressionType() {
+    return compressionType;
+  }
+
+  CompressionOptions getCompressionOptions() {
+    return compressionOptions;
+  }
+
+  int getCompressionBlockSize() {
+    return compressionBlockSize;
+  }
+
+  int getThreads() {
+    return threads;
+  }
+
+  HashType getHashType() {
+    return hashType;
+  }
+
+  SparkeyWriter.ConstructionMethod getConstructionMethod() {
+    return constructionMethod;
+  }
+
+  boolean isFsync() {
+    return fsync;
+  }
+
+  ToLongFunction<byte[]> getAccessCounts() {
+    return accessCounts;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToLongFunction;
+
+/**
+ * Rewrites a log with only the entries that the index points to.
+ *
+ * The indexed part of the log is split at block boundaries, and every part is scanned by its own thread,
+ * which checks liveness with its own index cursor and writes the live entries to its own segment of the
+ * new log. Values are streamed from the old log to the new one. The segments are merged in order, so the
+ * live entries keep their log order, and the index is built once at the end.
+ *
+ * With an access profile, the parts skip the accessed entries and collect their keys instead.
+ * These are sorted by decreasing access count and written to an extra first segment,
+ * looking up each value in the source.
+ */
+final class Compactor {
+  private Compactor() {
+  }
+
+  static void compact(File src, File dst, CompactionOptions options) throws IOException {
+    File indexFile = Sparkey.getIndexFile(src);
+    File logFile = Sparkey.getLogFile(src);
+    if (logFile.getCanonicalFile().equals(Sparkey.getLogFile(dst).getCanonicalFile())) {
+      throw new IllegalArgumentException("Can't compact a file into itself: " + src);
+    }
+
+    IndexHash index = IndexHash.open(indexFile, logFile);
+    try {
+      LogHeader logHeader = LogHeader.read(logFile);
+      if (logHeader.getDataEnd() != index.header.getDataEnd()) {
+        throw new IllegalArgumentException("The index doesn't cover the whole log, write the hash first: " + src);
+      }
+      CompressionType compressionType = options.getCompressionType();
+      if (compressionType == null) {
+        compressionType = logHeader.getCompressionType();
+      }
+      CompressionOptions compressionOptions = options.getCompressionOptions();
+      if (compressionOptions == null) {
+        compressionOptions = compressionType == logHeader.getCompressionType()
+            ? logHeader.getCompressionOptions() : new CompressionOptions();
+      }
+      int blockSize = options.getCompressionBlockSize();
+      if (blockSize <= 0) {
+        blockSize = logHeader.getCompressionBlockSize();
+      }
+      if (compressionType != CompressionType.NONE && blockSize <= 0) {
+        throw new IllegalArgumentException("The compression block size must be set when compressing an uncompressed log");
+      }
+      HashType hashType = options.getHashType();
+      if (hashType == null) {
+        hashType = index.header.getHashType();
+      }
+
+      long[] boundaries = LogSplitter.split(logFile, indexFile, logHeader, logHeader.size(),
+          index.header.getDataEnd(), options.getThreads());
+      int numParts = boundaries.length - 1;
+      ToLongFunction<byte[]> accessCounts = options.getAccessCounts();
+      int firstPart = accessCounts == null ? 0 : 1;
+
+      SegmentedSparkeyWriter segments = SegmentedSparkeyWriter.createNew(dst, compressionType, blockSize,
+          compressionOptions, firstPart + numParts);
+      try {
+        List<List<HotEntry>> hotParts = copyLiveEntries(logFile, indexFile, logHeader, index, boundaries,
+            segments, firstPart, accessCounts, options.getThreads());
+        if (accessCounts != null) {
+          copyHotEntries(index, hotParts, segments.getSegment(0));
+        }
+      } catch (IOException | RuntimeException e) {
+        segments.close();
+        throw e;
+      }
+
+      SparkeyWriter writer = segments.merge();
+      try {
+        writer.setFsync(options.isFsync());
+        writer.setHashType(hashType);
+        // Keep the compact addresses of the source, if it has any
+        int addressSize = index.header.getAddressSize();
+        writer.setCompactAddresses(addressSize != 4 && addressSize != 8);
+        writer.setConstructionMethod(options.getConstructionMethod());
+        writer.writeHash();
+      } finally {
+        writer.close();
+      }
+    } finally {
+      index.close();
+    }
+  }
+
+  /**
+   * @return the accessed entries of every part, in log order, or null if there is no access profile
+   */
+  private static List<List<HotEntry>> copyLiveEntries(File logFile, File indexFile, LogHeader logHeader,
+                                                      IndexHash index, long[] boundaries,
+                                                      SegmentedSparkeyWriter segments, int firstPart,
+                                                      ToLongFunction<byte[]> accessCounts, int threads)
+      throws IOException {
+    int numParts = boundaries.length - 1;
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, numParts), r -> {
+      Thread thread = new Thread(r, "sparkey-compactor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<List<HotEntry>>> futures = new ArrayList<>();
+      for (int i = 0; i < numParts; i++) {
+        Spliterator<SparkeyReader.Entry> entries =
+            new LiveEntrySpliterator(logFile, indexFile, logHeader, boundaries[i], boundaries[i + 1], index::duplicate);
+        SparkeyWriter segment = segments.getSegment(firstPart + i);
+        futures.add(executor.submit(() -> copy(entries, segment, accessCounts)));
+      }
+      // Wait for all parts before returning, since the segments are closed afterwards
+      List<List<HotEntry>> hotParts = accessCounts == null ? null : new ArrayList<>();
+      Throwable failure = null;
+      for (Future<List<HotEntry>> future : futures) {
+        try {
+          List<HotEntry> hotEntries = future.get();
+          if (hotParts != null) {
+            hotParts.add(hotEntries);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          for (Future<List<HotEntry>> other : futures) {
+            other.cancel(true);
+          }
+          throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      if (failure != null) {
+        throw new IOException(failure);
+      }
+      return hotParts;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Copy the live entries of a part to a segment, except for the accessed ones.
+   *
+   * @return the accessed entries, or null if there is no access profile
+   */
+  private static List<HotEntry> copy(Spliterator<SparkeyReader.Entry> entries, SparkeyWriter segment,
+                                     ToLongFunction<byte[]> accessCounts) throws IOException {
+    List<HotEntry> hotEntries = accessCounts == null ? null : new ArrayList<>();
+    IOException[] failure = new IOException[1];
+    boolean hasMore = true;
+    while (hasMore && failure[0] == null) {
+      hasMore = entries.tryAdvance(entry -> {
+        try {
+          // The iterator may reuse its key buffer, and hot keys are kept until all parts are done
+          byte[] key = Arrays.copyOf(entry.getKey(), entry.getKeyLength());
+          long accessCount = accessCounts == null ? 0 : accessCounts.applyAsLong(key);
+          if (accessCount > 0) {
+            hotEntries.add(new HotEntry(key, accessCount));
+          } else {
+            segment.put(key, entry.getValueAsStream(), entry.getValueLength());
+          }
+        } catch (IOException e) {
+          failure[0] = e;
+        }
+      });
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    return hotEntries;
+  }
+
+  private static void copyHotEntries(IndexHash index, List<List<HotEntry>> hotParts, SparkeyWriter segment)
+      throws IOException {
+    List<HotEntry> hotEntries = new ArrayList<>();
+    for (List<HotEntry> part : hotParts) {
+      hotEntries.addAll(part);
+    }
+    // Stable, so entries with the same count keep their log order
+    hotEntries.sort(Comparator.comparingLong((HotEntry entry) -> entry.accessCount).reversed());
+    for (HotEntry hotEntry : hotEntries) {
+      SparkeyReader.Entry entry = index.get(hotEntry.key.length, hotEntry.key);
+      segment.put(hotEntry.key, entry.getValueAsStream(), entry.getValueLength());
+    }
+  }
+
+  private static final class HotEntry {
+    private final byte[] key;
+    private final long accessCount;
+
+    private HotEntry(byte[] key, long accessCount) {
+      this.key = key;
+      this.accessCount = accessCount;
+    }
+  }
+}
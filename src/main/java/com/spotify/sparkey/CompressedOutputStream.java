@@ -19,19 +19,30 @@ import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.SyncFailedException;
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
 
-final class CompressedOutputStream extends OutputStream {
-  private final CompressorType compressor;
+final class CompressedOutputStream extends OutputStream implements CompressionPipeline.BlockWriter {
+  private final BlockCompressor compressor;
   private final int maxBlockSize;
   private final OutputStream output;
 
-  private final byte[] uncompressedBuffer;
+  private final byte[] blockBuffer;
   private final byte[] compressedBuffer;
   private final FileDescriptor fileDescriptor;
+  // The block being filled, either blockBuffer or a buffer of the pipeline
+  private byte[] uncompressedBuffer;
   private int pending;
+  private long numBlocks;
   private CompressedWriter listener = CompressedWriter.DUMMY;
 
-  CompressedOutputStream(CompressorType compressor, int maxBlockSize, OutputStream output, FileDescriptor fileDescriptor) throws IOException {
+  // Only used by the thread that writes the blocks
+  private long written;
+  private volatile LongConsumer blockListener;
+
+  private CompressionPipeline pipeline;
+
+  CompressedOutputStream(BlockCompressor compressor, int maxBlockSize, OutputStream output, FileDescriptor fileDescriptor) throws IOException {
     this.compressor = compressor;
     this.fileDescriptor = fileDescriptor;
     if (maxBlockSize < 10) {
@@ -39,32 +50,92 @@ final class CompressedOutputStream extends OutputStream {
     }
     this.maxBlockSize = maxBlockSize;
     this.output = output;
-    uncompressedBuffer = new byte[maxBlockSize];
+    blockBuffer = new byte[maxBlockSize];
     compressedBuffer = new byte[compressor.maxCompressedLength(maxBlockSize)];
+    uncompressedBuffer = blockBuffer;
   }
 
-  @Override
-  public void flush() throws IOException {
+  /**
+   * Compress blocks on the given number of threads, and write them from a separate I/O thread.
+   * With 0 threads, blocks are compressed and written by the calling thread.
+   * Ends the current block.
+   */
+  void setCompressionThreads(int threads) throws IOException {
+    endBlock();
+    if (pipeline != null) {
+      CompressionPipeline pipeline = this.pipeline;
+      this.pipeline = null;
+      uncompressedBuffer = blockBuffer;
+      pipeline.close();
+    }
+    if (threads > 0) {
+      pipeline = new CompressionPipeline(compressor, maxBlockSize, threads, this);
+      uncompressedBuffer = pipeline.getBuffer();
+    }
+  }
+
+  /**
+   * Report the offset of every block from now on, relative to the start of the stream, or stop if listener is null.
+   * The listener is called in block order, from the thread that writes the blocks.
+   */
+  void setBlockListener(LongConsumer blockListener) {
+    this.blockListener = blockListener;
+  }
+
+  /**
+   * End the pending block, if any. Unless there is a pipeline, the block is also compressed and written,
+   * but the output is not flushed.
+   */
+  void endBlock() throws IOException {
     if (pending == 0) {
       return;
     }
 
-    int compressedSize = compressor.compress(uncompressedBuffer, pending, compressedBuffer);
-    Util.writeUnsignedVLQ(compressedSize, output);
-    output.write(compressedBuffer, 0, compressedSize);
-    output.flush();
+    if (pipeline != null) {
+      uncompressedBuffer = pipeline.submit(pending);
+    } else {
+      int compressedSize = compressor.compress(uncompressedBuffer, pending, compressedBuffer);
+      writeBlock(compressedBuffer, compressedSize);
+    }
     pending = 0;
+    numBlocks++;
     listener.afterFlush();
   }
 
+  @Override
+  public void writeBlock(byte[] compressed, int compressedSize) throws IOException {
+    LongConsumer blockListener = this.blockListener;
+    if (blockListener != null) {
+      blockListener.accept(written);
+    }
+    Util.writeUnsignedVLQ(compressedSize, output);
+    output.write(compressed, 0, compressedSize);
+    written += Util.unsignedVLQSize(compressedSize) + compressedSize;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    endBlock();
+    if (pipeline != null) {
+      pipeline.drain();
+    }
+    output.flush();
+  }
+
   public void fsync() throws SyncFailedException {
     fileDescriptor.sync();
   }
 
   @Override
   public void close() throws IOException {
-    flush();
-    output.close();
+    try {
+      endBlock();
+      if (pipeline != null) {
+        pipeline.close();
+      }
+    } finally {
+      output.close();
+    }
   }
 
   @Override
@@ -90,19 +161,40 @@ final class CompressedOutputStream extends OutputStream {
     } else {
       System.arraycopy(b, off, uncompressedBuffer, pending, remaining);
       pending = maxBlockSize;
-      flush();
+      endBlock();
       return remaining;
     }
   }
 
+  /**
+   * Write the remaining bytes of src, consuming them.
+   */
+  void write(ByteBuffer src) throws IOException {
+    while (src.hasRemaining()) {
+      int len = Math.min(src.remaining(), remaining());
+      src.get(uncompressedBuffer, pending, len);
+      pending += len;
+      if (pending == maxBlockSize) {
+        endBlock();
+      }
+    }
+  }
+
   @Override
   public void write(int b) throws IOException {
     uncompressedBuffer[pending++] = (byte) b;
     if (pending == maxBlockSize) {
-      flush();
+      endBlock();
     }
   }
 
+  /**
+   * @return the number of ended blocks, which is the block number of the pending block
+   */
+  long getNumBlocks() {
+    return numBlocks;
+  }
+
   int getPending() {
     return pending;
   }
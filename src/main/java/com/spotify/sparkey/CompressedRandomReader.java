@@ -18,9 +18,12 @@ package com.spotify.sparkey;
 import java.io.IOException;
 
 final class CompressedRandomReader implements BlockRandomInput {
-  private final CompressorType compressor;
+  private final BlockCompressor compressor;
 
-  private long position;
+  // Log position of the block currently held in uncompressedBuf, or -1 if unknown
+  private long blockStart = -1;
+  // Log position of the block after it, which is where the underlying data is positioned
+  private long nextBlockStart = -1;
 
   private final BlockRandomInput data;
   private final int maxBlockSize;
@@ -30,7 +33,7 @@ final class CompressedRandomReader implements BlockRandomInput {
   private int bufPos;
   private int blockSize;
 
-  CompressedRandomReader(CompressorType compressor, BlockRandomInput data, int maxBlockSize) {
+  CompressedRandomReader(BlockCompressor compressor, BlockRandomInput data, int maxBlockSize) {
     this.compressor = compressor;
     this.data = data;
     this.maxBlockSize = maxBlockSize;
@@ -57,7 +60,10 @@ final class CompressedRandomReader implements BlockRandomInput {
     data.readFully(compressedBuf, 0, compressedSize);
     bufPos = 0;
     blockSize = compressor.uncompress(compressedBuf, compressedSize, uncompressedBuf);
-    position = -1;
+    blockStart = nextBlockStart;
+    if (nextBlockStart != -1) {
+      nextBlockStart += Util.unsignedVLQSize(compressedSize) + compressedSize;
+    }
   }
 
   @Override
@@ -74,11 +80,11 @@ final class CompressedRandomReader implements BlockRandomInput {
   }
 
   @Override
-  public boolean readFullyCompare(int length, byte[] key) throws IOException {
+  public boolean readFullyCompare(int length, byte[] key, int keyOff) throws IOException {
     int remaining = blockSize - bufPos;
     if (remaining >= length) {
       // Fast path: all bytes are in current buffer
-      boolean result = Util.equals(length, key, 0, uncompressedBuf, bufPos);
+      boolean result = Util.equals(length, key, keyOff, uncompressedBuf, bufPos);
       bufPos += length;  // Always advance position (matches readFully semantics)
       return result;
     } else {
@@ -89,7 +95,7 @@ final class CompressedRandomReader implements BlockRandomInput {
           fetchBlock();
         }
         int available = Math.min(blockSize - bufPos, length - offset);
-        if (!Util.equals(available, key, offset, uncompressedBuf, bufPos)) {
+        if (!Util.equals(available, key, keyOff + offset, uncompressedBuf, bufPos)) {
           // Continue advancing even on mismatch (matches readFully semantics)
           bufPos += available;
           offset += available;
@@ -112,14 +118,20 @@ final class CompressedRandomReader implements BlockRandomInput {
   /**
    * It's only valid to seek to known block starts.
    *
+   * Seeking to the block that is already decompressed reuses it, which makes
+   * reading several entries from the same block cheap.
+   *
    * @param position
    */
   @Override
   public void seek(long position) throws IOException {
-    if (position != this.position) {
-      this.position = position;
+    if (position != blockStart) {
+      if (position != nextBlockStart) {
+        data.seek(position);
+      }
+      nextBlockStart = position;
+      blockStart = -1;
       blockSize = 0;
-      data.seek(position);
     }
     bufPos = 0;
   }
@@ -140,7 +152,6 @@ final class CompressedRandomReader implements BlockRandomInput {
     CompressedRandomReader duplicate = new CompressedRandomReader(compressor, data.duplicate(), maxBlockSize);
     duplicate.bufPos = this.bufPos;
     duplicate.blockSize = this.blockSize;
-    duplicate.position = this.position;
     System.arraycopy(this.uncompressedBuf, 0, duplicate.uncompressedBuf, 0, this.blockSize);
     return duplicate;
   }
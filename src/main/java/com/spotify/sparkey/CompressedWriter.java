@@ -2,6 +2,8 @@ package com.spotify.sparkey;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
 
 class CompressedWriter implements BlockOutput {
   public static final CompressedWriter DUMMY = new CompressedWriter();
@@ -12,6 +14,8 @@ class CompressedWriter implements BlockOutput {
   private int currentNumEntries;
   private int maxEntriesPerBlock;
   private boolean flushed;
+  private long lastEntryBlock;
+  private int lastEntryIndex;
   private final int maxBlockSize;
 
   // Only used to initialize dummy
@@ -42,71 +46,83 @@ class CompressedWriter implements BlockOutput {
   }
 
   @Override
-  public void put(byte[] key, int keyLen, byte[] value, int valueLen) throws IOException {
-    int keySize = Util.unsignedVLQSize(keyLen + 1) + Util.unsignedVLQSize(valueLen);
-    int totalSize = keySize + keyLen + valueLen;
-
-    smartFlush(keySize, totalSize);
-    flushed = false;
-    currentNumEntries++;
-
-    Util.writeUnsignedVLQ(keyLen + 1, compressedOutputStream);
-    Util.writeUnsignedVLQ(valueLen, compressedOutputStream);
-    compressedOutputStream.write(key, 0, keyLen);
-    compressedOutputStream.write(value, 0, valueLen);
-
+  public void put(byte[] key, int keyOff, int keyLen, byte[] value, int valueOff, int valueLen) throws IOException {
+    beginPut(keyLen, valueLen);
+    compressedOutputStream.write(key, keyOff, keyLen);
+    compressedOutputStream.write(value, valueOff, valueLen);
+    endEntry();
+  }
 
-    // Make sure that the beginning of each block is the start of a key/value pair
-    if (flushed && compressedOutputStream.getPending() > 0) {
-      compressedOutputStream.flush();
-    }
+  @Override
+  public void put(byte[] key, int keyOff, int keyLen, InputStream value, long valueLen) throws IOException {
+    beginPut(keyLen, valueLen);
+    compressedOutputStream.write(key, keyOff, keyLen);
+    Util.copy(valueLen, value, compressedOutputStream, buf);
+    endEntry();
   }
 
   @Override
-  public void put(byte[] key, int keyLen, InputStream value, long valueLen) throws IOException {
+  public void put(byte[] key, int keyOff, int keyLen, ByteBuffer value) throws IOException {
+    beginPut(keyLen, value.remaining());
+    compressedOutputStream.write(key, keyOff, keyLen);
+    compressedOutputStream.write(value);
+    endEntry();
+  }
+
+  private void beginPut(int keyLen, long valueLen) throws IOException {
     int keySize = Util.unsignedVLQSize(keyLen + 1) + Util.unsignedVLQSize(valueLen);
     long totalSize = keySize + keyLen + valueLen;
 
     smartFlush(keySize, totalSize);
-    flushed = false;
-    currentNumEntries++;
+    beginEntry();
 
     Util.writeUnsignedVLQ(keyLen + 1, compressedOutputStream);
     Util.writeUnsignedVLQ(valueLen, compressedOutputStream);
-    compressedOutputStream.write(key, 0, keyLen);
-    Util.copy(valueLen, value, compressedOutputStream, buf);
+  }
 
+  private void beginEntry() {
+    flushed = false;
+    lastEntryBlock = compressedOutputStream.getNumBlocks();
+    lastEntryIndex = currentNumEntries;
+    currentNumEntries++;
+  }
+
+  private void endEntry() throws IOException {
     // Make sure that the beginning of each block is the start of a key/value pair
     if (flushed && compressedOutputStream.getPending() > 0) {
-      compressedOutputStream.flush();
+      compressedOutputStream.endBlock();
     }
   }
 
   private void smartFlush(int keySize, long totalSize) throws IOException {
     int remaining = compressedOutputStream.remaining();
     if (remaining < keySize) {
-      flush(false);
+      compressedOutputStream.endBlock();
     } else if (remaining < totalSize && totalSize < maxBlockSize - remaining) {
-      flush(false);
+      compressedOutputStream.endBlock();
     }
   }
 
   @Override
-  public void delete(byte[] key, int keyLen) throws IOException {
+  public void delete(byte[] key, int keyOff, int keyLen) throws IOException {
     int keySize = 1 + Util.unsignedVLQSize(keyLen + 1);
     smartFlush(keySize, keySize + keyLen);
-
-    flushed = false;
-    currentNumEntries++;
+    beginEntry();
 
     compressedOutputStream.write(0);
     Util.writeUnsignedVLQ(keyLen, compressedOutputStream);
-    compressedOutputStream.write(key, 0, keyLen);
+    compressedOutputStream.write(key, keyOff, keyLen);
+    endEntry();
+  }
 
-    // Make sure that the beginning of each block is the start of a key/value pair
-    if (flushed && compressedOutputStream.getPending() > 0) {
-      compressedOutputStream.flush();
-    }
+  @Override
+  public void setCompressionThreads(int threads) throws IOException {
+    compressedOutputStream.setCompressionThreads(threads);
+  }
+
+  @Override
+  public void setBlockListener(LongConsumer blockListener) {
+    compressedOutputStream.setBlockListener(blockListener);
   }
 
   @Override
@@ -118,4 +134,14 @@ class CompressedWriter implements BlockOutput {
   public int getMaxEntriesPerBlock() {
     return maxEntriesPerBlock;
   }
+
+  @Override
+  public long getLastEntryBlock() {
+    return lastEntryBlock;
+  }
+
+  @Override
+  public int getLastEntryIndex() {
+    return lastEntryIndex;
+  }
 }
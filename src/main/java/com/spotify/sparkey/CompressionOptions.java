@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+/**
+ * Options for how the blocks of a compressed log are compressed, for
+ * {@link Sparkey#createNew(java.io.File, CompressionType, int, CompressionOptions)}.
+ *
+ * The options are recorded in the log header, so appending to the log later uses the same options.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * // An offline build, where write time matters less than size and lookup speed
+ * Sparkey.createNew(file, CompressionType.ZSTD, 1024 * 1024, new CompressionOptions()
+ *     .level(19)
+ *     .longWindow(true)
+ *     .adaptive(10));
+ * }</pre>
+ */
+public final class CompressionOptions {
+  static final int DEFAULT_ZSTD_LEVEL = 3;
+  static final int MAX_ZSTD_LEVEL = 22;
+  static final int MAX_LZ4_LEVEL = 17;
+
+  // The options are stored above the compression type ordinal in the header
+  private static final int LEVEL_SHIFT = 8;
+  private static final int MIN_SAVINGS_SHIFT = 16;
+  private static final int ADAPTIVE_FLAG = 1 << 24;
+  private static final int LONG_WINDOW_FLAG = 1 << 25;
+
+  private int level;
+  private boolean adaptive;
+  private int minSavingsPercent;
+  private boolean longWindow;
+
+  /**
+   * Set the compression level. For ZSTD, 1 to 22, or negative for faster and weaker compression.
+   * For LZ4, 1 to 17 selects the high compression compressor, which is slower to write
+   * but just as fast to read. Snappy has no levels.
+   *
+   * Default: 0, the default of the compression type, which is 3 for ZSTD and fast compression for LZ4.
+   */
+  public CompressionOptions level(int level) {
+    if (level < Byte.MIN_VALUE || level > MAX_ZSTD_LEVEL) {
+      throw new IllegalArgumentException("Compression level out of range: " + level);
+    }
+    this.level = level;
+    return this;
+  }
+
+  /**
+   * Keep blocks uncompressed when compressing them would save less than minSavingsPercent of their size,
+   * which is flagged by an extra byte per block. Reading an uncompressed block is only a copy,
+   * so incompressible data, such as already compressed images or random ids, costs almost nothing
+   * to read. With 0, only blocks that would grow are kept uncompressed.
+   *
+   * Default: off, all blocks are compressed.
+   */
+  public CompressionOptions adaptive(int minSavingsPercent) {
+    if (minSavingsPercent < 0 || minSavingsPercent > 99) {
+      throw new IllegalArgumentException("minSavingsPercent must be between 0 and 99: " + minSavingsPercent);
+    }
+    this.adaptive = true;
+    this.minSavingsPercent = minSavingsPercent;
+    return this;
+  }
+
+  /**
+   * For ZSTD, enable long distance matching with a window that covers the whole block,
+   * like the --long option of the zstd tool. Each block is compressed on its own, so this only
+   * helps with large blocks, at the cost of slower writes. Meant for offline builds.
+   *
+   * Default: false
+   */
+  public CompressionOptions longWindow(boolean longWindow) {
+    this.longWindow = longWindow;
+    return this;
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  public boolean isAdaptive() {
+    return adaptive;
+  }
+
+  public int getMinSavingsPercent() {
+    return minSavingsPercent;
+  }
+
+  public boolean isLongWindow() {
+    return longWindow;
+  }
+
+  boolean isDefault() {
+    return level == 0 && !adaptive && !longWindow;
+  }
+
+  CompressionOptions copy() {
+    CompressionOptions copy = new CompressionOptions();
+    copy.level = level;
+    copy.adaptive = adaptive;
+    copy.minSavingsPercent = minSavingsPercent;
+    copy.longWindow = longWindow;
+    return copy;
+  }
+
+  void validate(CompressionType compressionType) {
+    if (isDefault()) {
+      return;
+    }
+    switch (compressionType) {
+      case NONE:
+        throw new IllegalArgumentException("Compression options require a compressed log");
+      case SNAPPY:
+        if (level != 0) {
+          throw new IllegalArgumentException("Snappy has no compression levels");
+        }
+        break;
+      case LZ4:
+        if (level < 0 || level > MAX_LZ4_LEVEL) {
+          throw new IllegalArgumentException("LZ4 compression level must be between 0 and " + MAX_LZ4_LEVEL + ": " + level);
+        }
+        break;
+      default:
+        break;
+    }
+    if (longWindow && compressionType != CompressionType.ZSTD && compressionType != CompressionType.ZSTD_DICTIONARY) {
+      throw new IllegalArgumentException("The long window is only supported by ZSTD");
+    }
+  }
+
+  /**
+   * @return the options, shifted to be stored along with the compression type
+   */
+  int encode() {
+    return (level & 0xff) << LEVEL_SHIFT
+        | minSavingsPercent << MIN_SAVINGS_SHIFT
+        | (adaptive ? ADAPTIVE_FLAG : 0)
+        | (longWindow ? LONG_WINDOW_FLAG : 0);
+  }
+
+  static CompressionOptions decode(int encoded) {
+    CompressionOptions options = new CompressionOptions();
+    options.level = (byte) (encoded >>> LEVEL_SHIFT);
+    options.minSavingsPercent = (encoded >>> MIN_SAVINGS_SHIFT) & 0xff;
+    options.adaptive = (encoded & ADAPTIVE_FLAG) != 0;
+    options.longWindow = (encoded & LONG_WINDOW_FLAG) != 0;
+    return options;
+  }
+
+  /**
+   * @return the compressor for blocks of the compression type with these options
+   * @param dictionary the dictionary of a ZSTD_DICTIONARY log, or null
+   */
+  BlockCompressor createCompressor(CompressionType compressionType, byte[] dictionary, int blockSize) {
+    BlockCompressor compressor;
+    switch (compressionType) {
+      case SNAPPY:
+        compressor = CompressorType.SNAPPY;
+        break;
+      case LZ4:
+        compressor = level == 0 ? CompressorType.LZ4 : new Lz4HighCompressor(level);
+        break;
+      case ZSTD:
+      case ZSTD_DICTIONARY:
+        if (level == 0 && !longWindow && (dictionary == null || dictionary.length == 0)) {
+          compressor = CompressorType.ZSTD;
+        } else {
+          compressor = new ZstdCompressor(dictionary, level == 0 ? DEFAULT_ZSTD_LEVEL : level,
+              longWindow ? ZstdCompressor.windowLog(blockSize) : 0);
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Not a compressed type: " + compressionType);
+    }
+    return adaptive ? new AdaptiveCompressor(compressor, minSavingsPercent) : compressor;
+  }
+
+  @Override
+  public String toString() {
+    return "CompressionOptions{" +
+        "level=" + level +
+        ", adaptive=" + adaptive +
+        ", minSavingsPercent=" + minSavingsPercent +
+        ", longWindow=" + longWindow +
+        '}';
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compresses blocks on a pool of threads and writes them in order from a single I/O thread.
+ *
+ * There are two blocks per compression thread, so that every thread can compress one block while
+ * the previous one is waiting to be written. The writing thread fills one block at a time and
+ * blocks when all of them are in flight.
+ */
+final class CompressionPipeline implements Closeable {
+  interface BlockWriter {
+    /**
+     * Called from the I/O thread for every compressed block, in order.
+     */
+    void writeBlock(byte[] compressed, int compressedSize) throws IOException;
+  }
+
+  private static final AtomicInteger PIPELINE_COUNTER = new AtomicInteger();
+
+  private final BlockCompressor compressor;
+  private final BlockWriter blockWriter;
+  private final ExecutorService compressionPool;
+  private final ExecutorService ioThread;
+  private final BlockingQueue<Block> freeBlocks;
+
+  private Block current;
+  private Future<?> lastWrite;
+
+  // The first failure of a compression or write. No blocks are written after it.
+  private volatile Throwable failure;
+
+  CompressionPipeline(BlockCompressor compressor, int maxBlockSize, int threads, BlockWriter blockWriter) {
+    this.compressor = compressor;
+    this.blockWriter = blockWriter;
+    int id = PIPELINE_COUNTER.incrementAndGet();
+    compressionPool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("sparkey-compression-" + id + "-"));
+    ioThread = Executors.newSingleThreadExecutor(new DaemonThreadFactory("sparkey-writer-io-" + id + "-"));
+
+    int numBlocks = 2 * threads;
+    freeBlocks = new ArrayBlockingQueue<>(numBlocks);
+    int maxCompressedSize = compressor.maxCompressedLength(maxBlockSize);
+    for (int i = 0; i < numBlocks; i++) {
+      freeBlocks.add(new Block(maxBlockSize, maxCompressedSize));
+    }
+    current = freeBlocks.remove();
+  }
+
+  /**
+   * @return the buffer to fill the next block into
+   */
+  byte[] getBuffer() {
+    return current.uncompressed;
+  }
+
+  /**
+   * Hand off the first size bytes of the buffer for compression and writing.
+   *
+   * @return the buffer to fill the next block into
+   */
+  byte[] submit(int size) throws IOException {
+    checkFailure();
+    final Block block = current;
+    block.size = size;
+    final Future<Integer> compressed = compressionPool.submit(block::compress);
+    lastWrite = ioThread.submit(() -> write(block, compressed));
+    try {
+      current = freeBlocks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    return current.uncompressed;
+  }
+
+  private void write(Block block, Future<Integer> compressed) {
+    try {
+      int compressedSize = compressed.get();
+      if (failure == null) {
+        blockWriter.writeBlock(block.compressed, compressedSize);
+      }
+    } catch (ExecutionException e) {
+      setFailure(e.getCause());
+    } catch (Throwable e) {
+      setFailure(e);
+    } finally {
+      freeBlocks.add(block);
+    }
+  }
+
+  private void setFailure(Throwable e) {
+    if (failure == null) {
+      failure = e;
+    }
+  }
+
+  /**
+   * Wait until all submitted blocks have been written.
+   */
+  void drain() throws IOException {
+    if (lastWrite != null) {
+      try {
+        lastWrite.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+        setFailure(e.getCause());
+      }
+      lastWrite = null;
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable failure = this.failure;
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    }
+    if (failure != null) {
+      throw new IOException(failure);
+    }
+  }
+
+  /**
+   * Write all submitted blocks and stop the threads.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      drain();
+    } finally {
+      compressionPool.shutdown();
+      ioThread.shutdown();
+    }
+  }
+
+  private final class Block {
+    private final byte[] uncompressed;
+    private final byte[] compressed;
+    private int size;
+
+    private Block(int maxBlockSize, int maxCompressedSize) {
+      uncompressed = new byte[maxBlockSize];
+      compressed = new byte[maxCompressedSize];
+    }
+
+    private int compress() throws IOException {
+      return compressor.compress(uncompressed, size, compressed);
+    }
+  }
+
+  private static final class DaemonThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    private DaemonThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -18,7 +18,10 @@ package com.spotify.sparkey;
 public enum CompressionType {
   NONE(new CompressionTypeBackendUncompressed()),
   SNAPPY(new CompressionTypeBackendCompressed(CompressorType.SNAPPY)),
-  ZSTD(new CompressionTypeBackendCompressed(CompressorType.ZSTD)),;
+  ZSTD(new CompressionTypeBackendCompressed(CompressorType.ZSTD)),
+  LZ4(new CompressionTypeBackendCompressed(CompressorType.LZ4)),
+  // ZSTD with a dictionary that is trained on the first entries and stored in the log
+  ZSTD_DICTIONARY(new CompressionTypeBackendCompressed(CompressorType.ZSTD)),;
 
   private final CompressionTypeBackend backend;
 
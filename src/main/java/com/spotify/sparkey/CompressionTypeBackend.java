@@ -15,20 +15,18 @@
  */
 package com.spotify.sparkey;
 
-import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 interface CompressionTypeBackend {
-    BlockOutput createBlockOutput(FileDescriptor fd, OutputStream outputStream, int maxBlockSize, int maxEntriesPerBlock) throws IOException;
-    BlockPositionedInputStream createBlockInput(InputStream inputStream, int maxBlockSize, long start);
+    BlockOutput createBlockOutput(ChannelOutputStream outputStream, int maxBlockSize, int maxEntriesPerBlock) throws IOException;
+    BlockPositionedInputStream createBlockInput(InputStream inputStream, int maxBlockSize, long start, long end);
     BlockRandomInput createRandomAccessData(ReadOnlyMemMap data, int maxBlockSize);
 }
 
 class CompressionTypeBackendUncompressed implements CompressionTypeBackend {
     @Override
-    public BlockPositionedInputStream createBlockInput(InputStream inputStream, int maxBlockSize, long start) {
+    public BlockPositionedInputStream createBlockInput(InputStream inputStream, int maxBlockSize, long start, long end) {
         return new UncompressedBlockPositionedInputStream(inputStream, start);
     }
 
@@ -38,21 +36,25 @@ class CompressionTypeBackendUncompressed implements CompressionTypeBackend {
     }
 
     @Override
-    public BlockOutput createBlockOutput(FileDescriptor fd, OutputStream outputStream, int maxBlockSize, int maxEntriesPerBlock) throws IOException {
-        return new UncompressedBlockOutput(outputStream, fd);
+    public BlockOutput createBlockOutput(ChannelOutputStream outputStream, int maxBlockSize, int maxEntriesPerBlock) throws IOException {
+        return new UncompressedBlockOutput(outputStream);
     }
 }
 
 class CompressionTypeBackendCompressed implements CompressionTypeBackend {
-    private final CompressorType compressor;
+    private final BlockCompressor compressor;
 
-    public CompressionTypeBackendCompressed(CompressorType compressor) {
+    public CompressionTypeBackendCompressed(BlockCompressor compressor) {
         this.compressor = compressor;
     }
 
+    BlockCompressor getCompressor() {
+        return compressor;
+    }
+
     @Override
-    public BlockPositionedInputStream createBlockInput(InputStream inputStream, int maxBlockSize, long start) {
-        return new CompressedReader(compressor, inputStream, maxBlockSize, start);
+    public BlockPositionedInputStream createBlockInput(InputStream inputStream, int maxBlockSize, long start, long end) {
+        return new ReadAheadCompressedReader(compressor, inputStream, maxBlockSize, start, end);
     }
 
     @Override
@@ -61,8 +63,8 @@ class CompressionTypeBackendCompressed implements CompressionTypeBackend {
     }
 
     @Override
-    public BlockOutput createBlockOutput(FileDescriptor fd, OutputStream outputStream, int maxBlockSize, int maxEntriesPerBlock) throws IOException {
-        return new CompressedWriter(new CompressedOutputStream(compressor, maxBlockSize, outputStream, fd), maxEntriesPerBlock);
+    public BlockOutput createBlockOutput(ChannelOutputStream outputStream, int maxBlockSize, int maxEntriesPerBlock) throws IOException {
+        return new CompressedWriter(new CompressedOutputStream(compressor, maxBlockSize, outputStream, outputStream.getFD()), maxEntriesPerBlock);
     }
 }
 
@@ -19,46 +19,71 @@ import java.io.IOException;
 
 import com.github.luben.zstd.Zstd;
 
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
 import org.xerial.snappy.Snappy;
 
-enum CompressorType {
+enum CompressorType implements BlockCompressor {
   SNAPPY {
     @Override
-    int maxCompressedLength(int blockSize) {
+    public int maxCompressedLength(int blockSize) {
       return Snappy.maxCompressedLength(blockSize);
     }
 
     @Override
-    int uncompress(byte[] compressed, int compressedSize, byte[] uncompressed) throws IOException {
+    public int uncompress(byte[] compressed, int compressedSize, byte[] uncompressed) throws IOException {
       return Snappy.uncompress(compressed, 0, compressedSize, uncompressed, 0);
     }
   
     @Override
-    int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) throws IOException {
+    public int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) throws IOException {
       return Snappy.compress(uncompressed, 0, uncompressedSize, compressed, 0);
     }
   },
 
   ZSTD {
     @Override
-    int maxCompressedLength(int blockSize) {
+    public int maxCompressedLength(int blockSize) {
       return (int)Zstd.compressBound(blockSize);
     }
 
     @Override
-    int uncompress(byte[] compressed, int compressedSize, byte[] uncompressed) throws IOException {
+    public int uncompress(byte[] compressed, int compressedSize, byte[] uncompressed) throws IOException {
       return (int)Zstd.decompressByteArray(uncompressed, 0, uncompressed.length, compressed, 0, compressedSize);
     }
   
     @Override
-    int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) throws IOException {
+    public int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) throws IOException {
       return (int)Zstd.compressByteArray(compressed, 0, compressed.length, uncompressed, 0, uncompressedSize, 3);
     }
-  },;
+  },
+
+  LZ4 {
+    @Override
+    public int maxCompressedLength(int blockSize) {
+      return Lz4.COMPRESSOR.maxCompressedLength(blockSize);
+    }
 
-  abstract int maxCompressedLength(int blockSize);
+    @Override
+    public int uncompress(byte[] compressed, int compressedSize, byte[] uncompressed) throws IOException {
+      try {
+        return Lz4.DECOMPRESSOR.decompress(compressed, 0, compressedSize, uncompressed, 0, uncompressed.length);
+      } catch (LZ4Exception e) {
+        throw new IOException("Corrupt LZ4 block", e);
+      }
+    }
 
-  abstract int uncompress(byte[] compressed, int compressedSize, byte[] uncompressed) throws IOException;
+    @Override
+    public int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) throws IOException {
+      return Lz4.COMPRESSOR.compress(uncompressed, 0, uncompressedSize, compressed, 0, compressed.length);
+    }
+  },;
 
-  abstract int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) throws IOException;
+  // Loads the native library only when LZ4 is used. Both are thread safe.
+  private static final class Lz4 {
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4SafeDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+  }
 }
\ No newline at end of file
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A writer that many threads can put and delete entries with at the same time.
+ *
+ * Entries are copied into batches, one per stripe, chosen by the hash of the key. Full batches are
+ * handed off to a single appender thread that writes them to the underlying writer, in the order they
+ * were handed off. Since all operations on a key go through the same stripe, and a stripe hands off its
+ * batches in order, operations on the same key are written in the order they were made, also across threads.
+ *
+ * All other operations are run on the appender thread after the pending batches of all stripes,
+ * and wait for it.
+ */
+final class ConcurrentSparkeyWriter implements SparkeyWriter {
+  private static final int MAX_BATCH_ENTRIES = 1024;
+  private static final int MAX_BATCH_BYTES = 1024 * 1024;
+
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  private final SparkeyWriter writer;
+  private final Stripe[] stripes;
+  private final ExecutorService appender;
+
+  // Limits the number of batches waiting for the appender
+  private final Semaphore inFlight;
+
+  // The first failure of the appender. No entries are written after it.
+  private volatile IOException failure;
+  private volatile boolean closed;
+
+  ConcurrentSparkeyWriter(SparkeyWriter writer, int numStripes) {
+    this.writer = writer;
+    stripes = new Stripe[numStripes];
+    for (int i = 0; i < numStripes; i++) {
+      stripes[i] = new Stripe();
+    }
+    inFlight = new Semaphore(2 * numStripes);
+    appender = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "sparkey-concurrent-writer-" + COUNTER.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  ConcurrentSparkeyWriter(SparkeyWriter writer) {
+    this(writer, Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1);
+  }
+
+  @Override
+  public void put(String key, String value) throws IOException {
+    add(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public void put(byte[] key, byte[] value) throws IOException {
+    add(key.clone(), value.clone());
+  }
+
+  @Override
+  public void put(final byte[] key, final InputStream valueStream, final long valueLen) throws IOException {
+    // Streamed values are not buffered, but written by the appender while the stripe is held
+    final byte[] keyCopy = key.clone();
+    final Stripe stripe = getStripe(keyCopy);
+    synchronized (stripe) {
+      checkState();
+      handOff(stripe);
+      await(submit(() -> {
+        writer.put(keyCopy, valueStream, valueLen);
+        return null;
+      }));
+    }
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    add(key.getBytes(StandardCharsets.UTF_8), null);
+  }
+
+  @Override
+  public void delete(byte[] key) throws IOException {
+    add(key.clone(), null);
+  }
+
+  @Override
+  public void put(byte[] key, int keyOff, int keyLen, byte[] value, int valueOff, int valueLen) throws IOException {
+    add(Arrays.copyOfRange(key, keyOff, keyOff + keyLen), Arrays.copyOfRange(value, valueOff, valueOff + valueLen));
+  }
+
+  @Override
+  public void put(ByteBuffer key, ByteBuffer value) throws IOException {
+    add(Util.remaining(key), Util.remaining(value));
+  }
+
+  @Override
+  public void delete(byte[] key, int keyOff, int keyLen) throws IOException {
+    add(Arrays.copyOfRange(key, keyOff, keyOff + keyLen), null);
+  }
+
+  @Override
+  public void delete(ByteBuffer key) throws IOException {
+    add(Util.remaining(key), null);
+  }
+
+  private void add(byte[] key, byte[] value) throws IOException {
+    final Stripe stripe = getStripe(key);
+    synchronized (stripe) {
+      checkState();
+      stripe.batch.add(key, value);
+      if (stripe.batch.isFull()) {
+        handOff(stripe);
+      }
+    }
+  }
+
+  private Stripe getStripe(byte[] key) {
+    return stripes[MurmurHash3.murmurHash3_x86_32(key, key.length, 0) & (stripes.length - 1)];
+  }
+
+  /**
+   * Hand off the pending batch of a stripe. Must be called while holding the stripe.
+   */
+  private void handOff(Stripe stripe) throws IOException {
+    final Batch batch = stripe.batch;
+    if (batch.size == 0) {
+      return;
+    }
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    stripe.batch = new Batch();
+    appender.execute(() -> {
+      try {
+        if (failure == null) {
+          batch.writeTo(writer);
+        }
+      } catch (IOException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        failure = new IOException(e);
+      } finally {
+        inFlight.release();
+      }
+    });
+  }
+
+  private void handOffAll() throws IOException {
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        handOff(stripe);
+      }
+    }
+  }
+
+  private void checkState() throws IOException {
+    if (closed) {
+      throw new IOException("Writer is closed");
+    }
+    final IOException failure = this.failure;
+    if (failure != null) {
+      throw new IOException("Failed to write entries", failure);
+    }
+  }
+
+  private <T> Future<T> submit(Callable<T> task) {
+    return appender.submit(task);
+  }
+
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Run an operation on the appender thread after all pending entries, and wait for it.
+   */
+  private void run(final WriterOperation operation) throws IOException {
+    checkState();
+    handOffAll();
+    await(submit(() -> {
+      operation.apply(writer);
+      return null;
+    }));
+    checkState();
+  }
+
+  /**
+   * Like {@link #run(WriterOperation)}, for the settings, which can't throw IOException.
+   */
+  private void runSetting(final WriterOperation operation) {
+    try {
+      handOffAll();
+      await(submit(() -> {
+        operation.apply(writer);
+        return null;
+      }));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    run(SparkeyWriter::flush);
+  }
+
+  @Override
+  public CompletableFuture<Long> flushAsync() throws IOException {
+    // Only waits for the flush to be requested, not for the sync
+    checkState();
+    handOffAll();
+    final CompletableFuture<Long> future = await(submit(writer::flushAsync));
+    checkState();
+    return future;
+  }
+
+  @Override
+  public long getDurableOffset() {
+    return writer.getDurableOffset();
+  }
+
+  @Override
+  public void writeHash() throws IOException {
+    run(SparkeyWriter::writeHash);
+  }
+
+  @Override
+  @Deprecated
+  public void writeHash(HashType hashType) throws IOException {
+    run(writer -> writer.writeHash(hashType));
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    // Entries added after this are rejected, so none are left behind in the stripes
+    closed = true;
+    try {
+      handOffAll();
+      await(submit(() -> {
+        writer.close();
+        return null;
+      }));
+    } finally {
+      appender.shutdown();
+    }
+    final IOException failure = this.failure;
+    if (failure != null) {
+      throw new IOException("Failed to write entries", failure);
+    }
+  }
+
+  @Override
+  public void setFsync(boolean fsync) {
+    runSetting(writer -> writer.setFsync(fsync));
+  }
+
+  @Override
+  public void setHashType(HashType hashType) {
+    runSetting(writer -> writer.setHashType(hashType));
+  }
+
+  @Override
+  public void setHashSparsity(double sparsity) {
+    runSetting(writer -> writer.setHashSparsity(sparsity));
+  }
+
+  @Override
+  public void setHashSeed(int hashSeed) {
+    runSetting(writer -> writer.setHashSeed(hashSeed));
+  }
+
+  @Override
+  public void setCaptureHashes(boolean captureHashes) {
+    runSetting(writer -> writer.setCaptureHashes(captureHashes));
+  }
+
+  @Override
+  public void setMaxMemory(long maxMemory) {
+    runSetting(writer -> writer.setMaxMemory(maxMemory));
+  }
+
+  @Override
+  public void setConstructionMethod(ConstructionMethod method) {
+    runSetting(writer -> writer.setConstructionMethod(method));
+  }
+
+  @Override
+  public void setCompactAddresses(boolean compactAddresses) {
+    runSetting(writer -> writer.setCompactAddresses(compactAddresses));
+  }
+
+  @Override
+  public void setCompressionThreads(int threads) throws IOException {
+    run(writer -> writer.setCompressionThreads(threads));
+  }
+
+  @Override
+  public void setGroupCommit(long maxDelayMillis, long maxBytes) throws IOException {
+    run(writer -> writer.setGroupCommit(maxDelayMillis, maxBytes));
+  }
+
+  private interface WriterOperation {
+    void apply(SparkeyWriter writer) throws IOException;
+  }
+
+  private static final class Stripe {
+    private Batch batch = new Batch();
+  }
+
+  private static final class Batch {
+    private final byte[][] keys = new byte[MAX_BATCH_ENTRIES][];
+
+    // Null for deletes
+    private final byte[][] values = new byte[MAX_BATCH_ENTRIES][];
+    private int size;
+    private long bytes;
+
+    void add(byte[] key, byte[] value) {
+      keys[size] = key;
+      values[size] = value;
+      size++;
+      bytes += key.length + (value == null ? 0 : value.length);
+    }
+
+    boolean isFull() {
+      return size == MAX_BATCH_ENTRIES || bytes >= MAX_BATCH_BYTES;
+    }
+
+    void writeTo(SparkeyWriter writer) throws IOException {
+      for (int i = 0; i < size; i++) {
+        if (values[i] == null) {
+          writer.delete(keys[i]);
+        } else {
+          writer.put(keys[i], values[i]);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.IOException;
+
+/**
+ * Displacement and hash collision statistics of a range of hash slots.
+ *
+ * Ranges can be scanned independently and merged in slot order,
+ * which gives the same result as scanning the whole table at once.
+ */
+final class DisplacementStats {
+  private long maxDisplacement;
+  private long totalDisplacement;
+  private long hashCollisions;
+
+  // Needed for counting collisions across range boundaries.
+  // The hash of an empty slot is read as well, since it is compared to the previous slot.
+  private long firstHash;
+  private boolean firstOccupied;
+  private long lastHash;
+  private boolean lastOccupied;
+
+  private DisplacementStats() {
+  }
+
+  static DisplacementStats scan(IndexHeader header, RandomAccessData indexData, long fromSlot, long toSlot) throws IOException {
+    HashType hashData = header.getHashType();
+    AddressSize addressData = header.getAddressData();
+    long capacity = header.getHashCapacity();
+    DisplacementStats stats = new DisplacementStats();
+
+    indexData.seek(fromSlot * header.getSlotSize());
+    boolean hasPrev = false;
+    long prevHash = -1;
+    for (long slot = fromSlot; slot < toSlot; slot++) {
+      long hash = hashData.readHash(indexData);
+      if (hasPrev && prevHash == hash) {
+        stats.hashCollisions++;
+      }
+      long position = addressData.readAddress(indexData);
+      boolean occupied = position != 0;
+      if (occupied) {
+        prevHash = hash;
+        hasPrev = true;
+        long displacement = IndexHash.getDisplacement(capacity, slot, hash);
+        stats.totalDisplacement += displacement;
+        stats.maxDisplacement = Math.max(stats.maxDisplacement, displacement);
+      } else {
+        hasPrev = false;
+      }
+      if (slot == fromSlot) {
+        stats.firstHash = hash;
+        stats.firstOccupied = occupied;
+      }
+      if (slot == toSlot - 1) {
+        stats.lastHash = hash;
+        stats.lastOccupied = occupied;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Merge the stats of consecutive ranges, covering the whole table, and store them in the header.
+   */
+  static void apply(IndexHeader header, DisplacementStats... ranges) {
+    long maxDisplacement = 0;
+    long totalDisplacement = 0;
+    long hashCollisions = 0;
+    DisplacementStats prev = null;
+    for (DisplacementStats range : ranges) {
+      maxDisplacement = Math.max(maxDisplacement, range.maxDisplacement);
+      totalDisplacement += range.totalDisplacement;
+      hashCollisions += range.hashCollisions;
+      if (prev != null && prev.lastOccupied && prev.lastHash == range.firstHash) {
+        hashCollisions++;
+      }
+      prev = range;
+    }
+    DisplacementStats first = ranges[0];
+    DisplacementStats last = ranges[ranges.length - 1];
+    if (first.firstOccupied && last.lastOccupied && first.firstHash == last.lastHash) {
+      hashCollisions++;
+    }
+    header.setTotalDisplacement(totalDisplacement);
+    header.setMaxDisplacement(maxDisplacement);
+    header.setHashCollisions(hashCollisions);
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs a log to disk in groups, on a background thread.
+ *
+ * The writer flushes its data to the file and requests a commit with a snapshot of the header.
+ * Requests are gathered for up to maxDelayMillis after the first one, or until maxBytes of data
+ * are waiting. The committer then syncs the data, writes the newest header and syncs again,
+ * which commits every request of the group with the same two syncs.
+ *
+ * The header is only written here, after the data it points to is synced, so a crash never
+ * leaves a header that points past the synced data.
+ */
+final class GroupCommitter implements Closeable {
+  private final FileChannel channel;
+  private final long maxDelayNanos;
+  private final long maxBytes;
+  private final Thread thread;
+  private volatile long durableOffset;
+
+  // Guarded by this
+  private long requestedOffset;
+  private ByteBuffer requestedHeader;
+  private long firstRequestNanos;
+  private List<CompletableFuture<Long>> waiting = new ArrayList<>();
+  private IOException failure;
+  private boolean closed;
+
+  GroupCommitter(FileChannel channel, long durableOffset, long maxDelayMillis, long maxBytes, String name) {
+    if (maxDelayMillis < 0) {
+      throw new IllegalArgumentException("maxDelayMillis must not be negative: " + maxDelayMillis);
+    }
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+    }
+    this.channel = channel;
+    this.durableOffset = durableOffset;
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    this.maxBytes = maxBytes;
+    thread = new Thread(this::run, "sparkey-group-commit-" + name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Request a commit of the data up to dataEnd, which must already be written to the channel.
+   *
+   * @param header the encoded header to write when committing
+   * @return a future that completes with the durable offset when the data is synced.
+   * It is completed from the committer thread.
+   */
+  synchronized CompletableFuture<Long> request(long dataEnd, ByteBuffer header) throws IOException {
+    if (failure != null) {
+      throw new IOException("Group commit failed", failure);
+    }
+    if (closed) {
+      throw new IOException("Group commit is closed");
+    }
+    if (requestedHeader == null) {
+      firstRequestNanos = System.nanoTime();
+    }
+    requestedOffset = dataEnd;
+    requestedHeader = header;
+    CompletableFuture<Long> future = new CompletableFuture<>();
+    waiting.add(future);
+    notifyAll();
+    return future;
+  }
+
+  /**
+   * @return the end of the data that is synced to disk, along with a header that points to it
+   */
+  long getDurableOffset() {
+    return durableOffset;
+  }
+
+  private void run() {
+    while (true) {
+      final long offset;
+      final ByteBuffer header;
+      final List<CompletableFuture<Long>> group;
+      synchronized (this) {
+        try {
+          while (requestedHeader == null && !closed) {
+            wait();
+          }
+          if (requestedHeader == null) {
+            return;
+          }
+          // Gather more requests, unless closing or enough data is waiting
+          while (!closed && requestedOffset - durableOffset < maxBytes) {
+            long remaining = firstRequestNanos + maxDelayNanos - System.nanoTime();
+            if (remaining <= 0) {
+              break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+          }
+        } catch (InterruptedException e) {
+          fail(new InterruptedIOException("Group commit was interrupted"));
+          return;
+        }
+        offset = requestedOffset;
+        header = requestedHeader;
+        group = waiting;
+        requestedHeader = null;
+        waiting = new ArrayList<>();
+      }
+
+      try {
+        channel.force(false);
+        LogHeader.write(channel, header, false);
+        channel.force(false);
+      } catch (IOException e) {
+        // The state of the file is unknown after a failed sync, so fail all later commits too
+        for (CompletableFuture<Long> future : group) {
+          future.completeExceptionally(e);
+        }
+        fail(e);
+        return;
+      }
+      durableOffset = offset;
+      for (CompletableFuture<Long> future : group) {
+        future.complete(offset);
+      }
+    }
+  }
+
+  private synchronized void fail(IOException e) {
+    failure = e;
+    for (CompletableFuture<Long> future : waiting) {
+      future.completeExceptionally(e);
+    }
+    waiting = new ArrayList<>();
+    requestedHeader = null;
+  }
+
+  /**
+   * Commit the pending requests and stop the committer thread.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    synchronized (this) {
+      if (failure != null) {
+        throw new IOException("Group commit failed", failure);
+      }
+    }
+  }
+
+  static long await(CompletableFuture<Long> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+}
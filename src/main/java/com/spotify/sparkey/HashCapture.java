@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Records the hash, block position, entry index and type of every entry as it is written to a log,
+ * so that the index can be built without reading the log again.
+ *
+ * The records are spilled to a temporary file next to the index, 20 bytes per entry.
+ * The file is deleted when the capture is closed.
+ * The address can't be computed up front, since it depends on the maximum number of entries
+ * per block of the finished log.
+ *
+ * For compressed logs, entries are recorded with the number of their block rather than its position,
+ * since blocks may be compressed in the background and their sizes are not known when the entries
+ * are written. The block positions are added separately as the blocks are written.
+ */
+final class HashCapture implements Closeable {
+  // Hash, block position or number, and entry index with the type as its lowest bit
+  static final int RECORD_SIZE = 8 + 8 + 4;
+
+  private static final int BUFFER_SIZE = (1 << 20) / RECORD_SIZE * RECORD_SIZE;
+
+  private final HashType hashType;
+  private final int hashSeed;
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private long numEntries;
+  private long position;
+
+  // Positions of the blocks by block number, or null if entries are recorded with their block positions
+  private long[] blockPositions;
+  private int numBlocks;
+
+  HashCapture(final File indexFile, final HashType hashType, final int hashSeed, final boolean blockNumbers)
+      throws IOException {
+    this.hashType = hashType;
+    this.hashSeed = hashSeed;
+    blockPositions = blockNumbers ? new long[1024] : null;
+    file = File.createTempFile(indexFile.getName() + "-hashes", ".tmp", indexFile.getCanonicalFile().getParentFile());
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    channel = randomAccessFile.getChannel();
+  }
+
+  /**
+   * @param block the position of the block, or its number if this capture records block numbers
+   */
+  void add(final byte[] key, final int keyOff, final int keyLen, final long block, final int entryIndex,
+           final SparkeyReader.Type type) throws IOException {
+    add(hashType.hash(keyLen, key, keyOff, hashSeed), block, entryIndex, type);
+  }
+
+  /**
+   * Like add, for a key that is already hashed with the hash type and seed of this capture.
+   */
+  void add(final long hash, final long block, final int entryIndex, final SparkeyReader.Type type)
+      throws IOException {
+    if (buffer.remaining() < RECORD_SIZE) {
+      flush();
+    }
+    final int typeBit = type == SparkeyReader.Type.DELETE ? 0 : 1;
+    buffer.putLong(hash);
+    buffer.putLong(block);
+    buffer.putInt(entryIndex << 1 | typeBit);
+    numEntries++;
+  }
+
+  /**
+   * Add the position of the next block. May be called from another thread than the one adding entries.
+   */
+  synchronized void addBlock(final long blockPosition) {
+    if (numBlocks == blockPositions.length) {
+      blockPositions = Arrays.copyOf(blockPositions, numBlocks * 2);
+    }
+    blockPositions[numBlocks++] = blockPosition;
+  }
+
+  private synchronized long[] getBlockPositions() {
+    return blockPositions;
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    buffer.clear();
+  }
+
+  HashType getHashType() {
+    return hashType;
+  }
+
+  int getHashSeed() {
+    return hashSeed;
+  }
+
+  long getNumEntries() {
+    return numEntries;
+  }
+
+  /**
+   * @return true if the captured entries can be used for an index of the log with the given hash settings.
+   */
+  boolean matches(final HashType hashType, final int hashSeed, final LogHeader logHeader) {
+    return this.hashType == hashType && this.hashSeed == hashSeed &&
+        numEntries == logHeader.getNumPuts() + logHeader.getNumDeletes();
+  }
+
+  /**
+   * Read a range of the captured entries, in log order. Ranges can be read concurrently,
+   * but not while entries are being added, and not before the blocks of the entries are written.
+   *
+   * @param entryBlockBits the number of bits used for the entry index in the addresses
+   */
+  HashedEntries entries(final long fromEntry, final long toEntry, final int entryBlockBits) throws IOException {
+    if (buffer.position() > 0) {
+      flush();
+    }
+    return new Reader(fromEntry * RECORD_SIZE, toEntry * RECORD_SIZE, entryBlockBits, getBlockPositions());
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      randomAccessFile.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+  private final class Reader extends HashedEntries {
+    private final long end;
+    private final int entryBlockBits;
+    private final long[] blockPositions;
+    private final ByteBuffer readBuffer;
+    private long readPosition;
+
+    private Reader(final long start, final long end, final int entryBlockBits, final long[] blockPositions) {
+      this.readPosition = start;
+      this.end = end;
+      this.entryBlockBits = entryBlockBits;
+      this.blockPositions = blockPositions;
+      readBuffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, end - start));
+      readBuffer.flip();
+    }
+
+    @Override
+    boolean next() throws IOException {
+      if (!readBuffer.hasRemaining()) {
+        if (readPosition == end) {
+          return false;
+        }
+        fill();
+      }
+      hash = readBuffer.getLong();
+      final long block = readBuffer.getLong();
+      final long blockPosition = blockPositions == null ? block : blockPositions[(int) block];
+      final int entryIndexAndType = readBuffer.getInt();
+      address = ((blockPosition << entryBlockBits) | (entryIndexAndType >>> 1)) << 1 | (entryIndexAndType & 1);
+      return true;
+    }
+
+    private void fill() throws IOException {
+      readBuffer.clear();
+      readBuffer.limit((int) Math.min(readBuffer.capacity(), end - readPosition));
+      while (readBuffer.hasRemaining()) {
+        final int n = channel.read(readBuffer, readPosition);
+        if (n < 0) {
+          throw new EOFException();
+        }
+        readPosition += n;
+      }
+      readBuffer.flip();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+/**
+ * Little endian reads and wide multiplication for hashing keys, in plain Java 8.
+ * Overridden in the Java 9+ and Java 22+ MRJAR variants with single wide reads and intrinsics.
+ */
+final class HashPrimitives {
+  private HashPrimitives() {
+  }
+
+  static int getInt(byte[] data, int off) {
+    return (data[off] & 0xff)
+        | (data[off + 1] & 0xff) << 8
+        | (data[off + 2] & 0xff) << 16
+        | (data[off + 3] & 0xff) << 24;
+  }
+
+  static long getLong(byte[] data, int off) {
+    return (getInt(data, off) & 0xFFFFFFFFL) | (long) getInt(data, off + 4) << 32;
+  }
+
+  /**
+   * @return the high 64 bits of the unsigned 128 bit product
+   */
+  static long unsignedMultiplyHigh(long x, long y) {
+    long x0 = x & 0xFFFFFFFFL;
+    long x1 = x >>> 32;
+    long y0 = y & 0xFFFFFFFFL;
+    long y1 = y >>> 32;
+    long p01 = x0 * y1;
+    long p10 = x1 * y0;
+    // At most three 32 bit values, so it can't overflow
+    long middle = ((x0 * y0) >>> 32) + (p01 & 0xFFFFFFFFL) + (p10 & 0xFFFFFFFFL);
+    return x1 * y1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+  }
+}
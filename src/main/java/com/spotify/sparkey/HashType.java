@@ -41,8 +41,8 @@ public enum HashType {
     }
 
     @Override
-    long hash(int keyLen, byte[] key, int seed) {
-      return MurmurHash3.murmurHash3_x64_64(key, keyLen, seed);
+    long hash(int keyLen, byte[] key, int keyOff, int seed) {
+      return MurmurHash3.murmurHash3_x64_64(key, keyOff, keyLen, seed);
     }
   },
   HASH_32_BITS(4) {
@@ -67,8 +67,39 @@ public enum HashType {
     }
 
     @Override
-    long hash(int keyLen, byte[] key, int seed) {
-      return MurmurHash3.murmurHash3_x86_32(key, keyLen, seed) & BITS_32;
+    long hash(int keyLen, byte[] key, int keyOff, int seed) {
+      return MurmurHash3.murmurHash3_x86_32(key, keyOff, keyLen, seed) & BITS_32;
+    }
+  },
+  /**
+   * 64 bit XXH3 hashes, which are several times faster to compute than MurmurHash3 on Java 9 and later.
+   * On Java 8 they are about as fast for keys of 17 to 128 bytes, and faster for other lengths.
+   * Indexes with this hash type can not be read by versions that predate it.
+   */
+  HASH_64_BITS_XXH3(8) {
+    @Override
+    long readHash(RandomAccessData data) throws IOException {
+      return data.readLittleEndianLong();
+    }
+
+    @Override
+    long readHash(RandomAccessDataStateless data, long pos) throws IOException {
+      return data.readLittleEndianLong(pos);
+    }
+
+    @Override
+    void writeHash(long hash, ReadWriteData data) throws IOException {
+      data.writeLittleEndianLong(hash);
+    }
+
+    @Override
+    void writeHash(final long hash, final DataOutputStream data) throws IOException {
+      data.writeLong(hash);
+    }
+
+    @Override
+    long hash(int keyLen, byte[] key, int keyOff, int seed) {
+      return XXH3.hash64(key, keyOff, keyLen, seed & INT_MASK);
     }
   };
 
@@ -87,7 +118,11 @@ public enum HashType {
   abstract void writeHash(long hash, ReadWriteData data) throws IOException;
   abstract void writeHash(long hash, DataOutputStream data) throws IOException;
 
-  abstract long hash(int keyLen, byte[] key, int seed);
+  long hash(int keyLen, byte[] key, int seed) {
+    return hash(keyLen, key, 0, seed);
+  }
+
+  abstract long hash(int keyLen, byte[] key, int keyOff, int seed);
 
   public int size() {
     return size;
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A primitive cursor over the hashes and addresses of log entries, as used for building an index.
+ *
+ * The address has the entry type as its lowest bit (1 for PUT, 0 for DELETE).
+ */
+abstract class HashedEntries implements Closeable {
+  long hash;
+  long address;
+
+  /**
+   * @return true if the hash and address of the next entry were loaded, false if there are no more entries.
+   */
+  abstract boolean next() throws IOException;
+
+  long getHash() {
+    return hash;
+  }
+
+  long getAddress() {
+    return address;
+  }
+
+  @Override
+  public void close() throws IOException {
+  }
+
+  /**
+   * Read and hash the entries of a range of a log.
+   */
+  static HashedEntries fromLog(final File logFile, final LogHeader logHeader, final long start, final long end,
+                               final HashType hashData, final int hashSeed) throws IOException {
+    return new LogEntries(new SparkeyLogIterator(logFile, logHeader, start, end).iterator(),
+        IndexHash.calcEntryBlockBits(logHeader.getMaxEntriesPerBlock()), hashData, hashSeed);
+  }
+
+  private static final class LogEntries extends HashedEntries {
+    private final Iterator<SparkeyReader.Entry> iterator;
+    private final int entryBlockBits;
+    private final HashType hashData;
+    private final int hashSeed;
+
+    private LogEntries(final Iterator<SparkeyReader.Entry> iterator, final int entryBlockBits,
+                       final HashType hashData, final int hashSeed) {
+      this.iterator = iterator;
+      this.entryBlockBits = entryBlockBits;
+      this.hashData = hashData;
+      this.hashSeed = hashSeed;
+    }
+
+    @Override
+    boolean next() {
+      if (!iterator.hasNext()) {
+        return false;
+      }
+      // Safe cast, since the iterator is known to be a SparkeyLogIterator
+      final SparkeyLogIterator.Entry entry = (SparkeyLogIterator.Entry) iterator.next();
+
+      final long position = entry.getPosition();
+      if (position < 0) {
+        throw new RuntimeException("Data size overflow");
+      }
+      final int typeBit = entry.getType() == SparkeyReader.Type.DELETE ? 0 : 1;
+      hash = hashData.hash(entry.getKeyLength(), entry.getKeyBuf(), hashSeed);
+      address = ((position << entryBlockBits) | entry.getEntryIndex()) << 1 | typeBit;
+      return true;
+    }
+  }
+}
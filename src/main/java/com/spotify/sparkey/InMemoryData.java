@@ -51,6 +51,23 @@ class InMemoryData implements ReadWriteData {
     curChunk = chunks[0];
   }
 
+  private InMemoryData(byte[][] chunks, long size) {
+    this.chunks = chunks;
+    this.size = size;
+    this.numChunks = chunks.length;
+    curChunkIndex = 0;
+    curChunk = chunks[0];
+  }
+
+  /**
+   * Create a view of the same data with its own position,
+   * so that disjoint parts of it can be accessed from different threads.
+   * The view must not be closed.
+   */
+  InMemoryData view() {
+    return new InMemoryData(chunks, size);
+  }
+
   public void writeLittleEndianLong(long value) throws IOException {
     writeUnsignedByte((int) ((value) & 0xFF));
     writeUnsignedByte((int) ((value >>> 8) & 0xFF));
@@ -20,9 +20,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Iterator;
 
-final class IndexHash {
+final class IndexHash implements LiveEntrySpliterator.Cursor {
   private final File indexFile;
   final IndexHeader header;
   private final File logFile;
@@ -131,48 +133,208 @@ final class IndexHash {
   static void createNew(
       File indexFile, File logFile, HashType hashType, double sparsity,
       boolean fsync, final int hashSeed, final long maxMemory,
-      final SparkeyWriter.ConstructionMethod wantedMethod) throws IOException {
+      final SparkeyWriter.ConstructionMethod wantedMethod, HashCapture capture,
+      boolean compactAddresses) throws IOException {
     if (sparsity < 1.3) {
       sparsity = 1.3;
     }
     LogHeader logHeader = LogHeader.read(logFile);
 
-    int addressSize = calcAddressSize(logHeader) ? 4 : 8;
     if (hashType == null) {
-      hashType = logHeader.getNumPuts() < (1 << 23) ? HashType.HASH_32_BITS : HashType.HASH_64_BITS;
+      hashType = defaultHashType(logHeader.getNumPuts());
+    }
+    if (capture != null && !capture.matches(hashType, hashSeed, logHeader)) {
+      capture = null;
     }
 
-    long capacity = 1L | (long) (logHeader.getNumPuts() * sparsity);
-
-    IndexHeader header = new IndexHeader(logHeader.getFileIdentifier(), logHeader.getDataEnd(),
-        logHeader.getMaxKeyLen(), logHeader.getMaxValueLen(), addressSize, hashType.size(), capacity, logHeader.getNumPuts(),
-        hashSeed,
-        calcEntryBlockBits(logHeader.getMaxEntriesPerBlock()));
+    IndexHeader header = newHeader(logHeader, hashType, sparsity, hashSeed, compactAddresses);
 
     long hashLength = header.getHashLength();
 
 
-    final boolean inMemory;
-    if (wantedMethod == SparkeyWriter.ConstructionMethod.AUTO) {
-      inMemory = hashLength <= maxMemory;
-    } else {
-      inMemory = wantedMethod == SparkeyWriter.ConstructionMethod.IN_MEMORY;
+    SparkeyWriter.ConstructionMethod method = wantedMethod;
+    if (method == SparkeyWriter.ConstructionMethod.AUTO) {
+      method = autoMethod(hashLength, maxMemory, Util.physicalMemory());
     }
 
-    if (inMemory) {
-      writeIndexInMemory(indexFile, logFile, fsync, logHeader, header, hashLength);
-    } else {
-      writeIndexWithSorting(indexFile, logFile, fsync, logHeader, header, hashLength, maxMemory);
+    switch (method) {
+      case PARALLEL:
+        writeIndexInParallel(indexFile, logFile, fsync, logHeader, header, hashLength, capture);
+        break;
+      case IN_MEMORY:
+        writeIndexInMemory(indexFile, logFile, fsync, logHeader, header, hashLength, capture);
+        break;
+      case MAPPED:
+        writeIndexMapped(indexFile, logFile, fsync, logHeader, header, hashLength, capture);
+        break;
+      default:
+        writeIndexWithSorting(indexFile, logFile, fsync, logHeader, header, hashLength, maxMemory, capture);
+    }
+  }
+
+  /**
+   * Use the heap if the table fits in maxMemory. Otherwise, random writes to a mapped table still run
+   * at memory speed as long as it stays in the page cache, so only sort if it doesn't fit in physical memory.
+   */
+  static SparkeyWriter.ConstructionMethod autoMethod(long hashLength, long maxMemory, long physicalMemory) {
+    if (hashLength <= maxMemory) {
+      return SparkeyWriter.ConstructionMethod.IN_MEMORY;
+    }
+    // Leave room for the log and the rest of the system
+    if (hashLength <= physicalMemory / 2) {
+      return SparkeyWriter.ConstructionMethod.MAPPED;
     }
+    return SparkeyWriter.ConstructionMethod.SORTING;
+  }
+
+  /**
+   * Create an index from captured entries that are already in wanted slot order, and in address order
+   * for the same wanted slot. Every entry then ends up at or after the slots of the previous ones,
+   * so the index is filled in one sequential pass without displacing any entries.
+   */
+  static void createNewInSlotOrder(File indexFile, File logFile, HashType hashType, double sparsity, boolean fsync,
+                                   int hashSeed, HashCapture capture, boolean compactAddresses) throws IOException {
+    LogHeader logHeader = LogHeader.read(logFile);
+    if (!capture.matches(hashType, hashSeed, logHeader)) {
+      throw new IllegalArgumentException("The captured entries don't match the log");
+    }
+    IndexHeader header = newHeader(logHeader, hashType, sparsity, hashSeed, compactAddresses);
+    ReadWriteData indexData = SparkeyImplSelector.mapIndex(header.getHashLength(), indexFile, header, fsync);
+    try {
+      fillFromEntries(indexData, logFile, header, logHeader,
+          capture.entries(0, capture.getNumEntries(), header.getEntryBlockBits()));
+      calculateMaxDisplacement(header, indexData);
+    } finally {
+      indexData.close();
+    }
+  }
+
+  /**
+   * Update the index with the entries appended to the log since it was written, instead of rebuilding it.
+   * The index is copied to newIndexFile and only the new entries are put and deleted in the copy,
+   * so the existing index stays intact until the copy replaces it.
+   *
+   * @return false if the index can't be updated for the log or the given settings, and must be rebuilt.
+   */
+  static boolean updateIncrementally(File indexFile, File newIndexFile, File logFile, HashType hashType,
+                                     double sparsity, boolean fsync, int hashSeed) throws IOException {
+    if (!indexFile.exists()) {
+      return false;
+    }
+    LogHeader logHeader = LogHeader.read(logFile);
+    IndexHeader oldHeader;
+    try {
+      oldHeader = IndexHeader.read(indexFile);
+    } catch (IOException e) {
+      // A broken index is rebuilt
+      return false;
+    }
+    if (indexFile.length() != oldHeader.size() + oldHeader.getHashLength()
+        || !canUpdate(oldHeader, logHeader, hashType, sparsity, hashSeed)) {
+      return false;
+    }
+
+    IndexHeader header = oldHeader.extendTo(logHeader, updatedEntryBlockBits(oldHeader, logHeader));
+    Files.copy(indexFile.toPath(), newIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    ReadWriteData indexData = SparkeyImplSelector.mapIndex(header.getHashLength(), newIndexFile, header, fsync);
+    try {
+      if (header.getEntryBlockBits() != oldHeader.getEntryBlockBits()) {
+        reencodeAddresses(indexData, oldHeader, header);
+      }
+      fillFromLog(indexData, logFile, header, oldHeader.getDataEnd(), header.getDataEnd(), logHeader);
+      calculateMaxDisplacement(header, indexData);
+    } finally {
+      indexData.close();
+    }
+    return true;
+  }
+
+  private static boolean canUpdate(IndexHeader header, LogHeader logHeader, HashType hashType, double sparsity,
+                                   int hashSeed) {
+    if (header.getFileIdentifier() != logHeader.getFileIdentifier()
+        || header.getDataEnd() < logHeader.size()
+        || header.getDataEnd() > logHeader.getDataEnd()) {
+      // Not an older version of the same log
+      return false;
+    }
+    if ((hashType != null && hashType != header.getHashType())
+        || (hashSeed != 0 && hashSeed != header.getHashSeed())) {
+      return false;
+    }
+    // The new addresses must fit in the existing address size
+    int entryBlockBits = updatedEntryBlockBits(header, logHeader);
+    if (logHeader.getDataEnd() > header.getAddressData().maxDataEnd(entryBlockBits)) {
+      return false;
+    }
+    // Every new put may add an entry
+    long maxEntries = header.getNumEntries() + logHeader.getNumPuts() - header.getNumPuts();
+    return header.getHashCapacity() >= maxEntries * Math.max(sparsity, 1.3);
+  }
+
+  /**
+   * The appended blocks may have more entries than the blocks the index was written for.
+   */
+  private static int updatedEntryBlockBits(IndexHeader header, LogHeader logHeader) {
+    return Math.max(header.getEntryBlockBits(), calcEntryBlockBits(logHeader.getMaxEntriesPerBlock()));
+  }
+
+  /**
+   * Rewrite the addresses of all slots for a larger number of entry index bits.
+   */
+  private static void reencodeAddresses(ReadWriteData indexData, IndexHeader oldHeader, IndexHeader header)
+      throws IOException {
+    AddressSize addressData = header.getAddressData();
+    int oldEntryBlockBits = oldHeader.getEntryBlockBits();
+    int oldEntryBlockBitmask = oldHeader.getEntryBlockBitsBitmask();
+    int entryBlockBits = header.getEntryBlockBits();
+    int slotSize = header.getSlotSize();
+    long hashCapacity = header.getHashCapacity();
+    for (long slot = 0; slot < hashCapacity; slot++) {
+      long pos = slot * slotSize + header.getHashSize();
+      indexData.seek(pos);
+      long address = addressData.readAddress(indexData);
+      if (address != 0) {
+        long block = address >>> oldEntryBlockBits;
+        int entryIndex = (int) address & oldEntryBlockBitmask;
+        indexData.seek(pos);
+        addressData.writeAddress((block << entryBlockBits) | entryIndex, indexData);
+      }
+    }
+  }
+
+  static HashType defaultHashType(long numPuts) {
+    return numPuts < (1 << 23) ? HashType.HASH_32_BITS : HashType.HASH_64_BITS;
+  }
+
+  static long calcHashCapacity(long numPuts, double sparsity) {
+    return 1L | (long) (numPuts * Math.max(sparsity, 1.3));
+  }
+
+  private static IndexHeader newHeader(LogHeader logHeader, HashType hashType, double sparsity, int hashSeed,
+                                       boolean compactAddresses) throws IOException {
+    int entryBlockBits = calcEntryBlockBits(logHeader.getMaxEntriesPerBlock());
+    int addressSize = AddressSize.forLog(logHeader.getDataEnd(), entryBlockBits, compactAddresses).size();
+    long capacity = calcHashCapacity(logHeader.getNumPuts(), sparsity);
+    return new IndexHeader(logHeader.getFileIdentifier(), logHeader.getDataEnd(),
+        logHeader.getMaxKeyLen(), logHeader.getMaxValueLen(), addressSize, hashType, capacity, logHeader.getNumPuts(),
+        hashSeed,
+        entryBlockBits);
   }
 
   private static void writeIndexWithSorting(final File indexFile, final File logFile, final boolean fsync, final LogHeader logHeader,
-                                            final IndexHeader header, final long hashLength, final long maxMemory) throws IOException {
+                                            final IndexHeader header, final long hashLength, final long maxMemory,
+                                            final HashCapture capture) throws IOException {
     //ReadWriteData indexData2 = new FileReadWriteData(hashLength, indexFile2, header2, fsync);
-    ReadWriteData indexData = new ReadWriteMemMap(hashLength, indexFile, header, fsync);
+    ReadWriteData indexData = SparkeyImplSelector.mapIndex(hashLength, indexFile, header, fsync);
     try {
-      fillFromLogSorted(indexData, logFile, header, logHeader.size(), header.getDataEnd(),
-          logHeader, maxMemory);
+      if (capture != null) {
+        long numEntries = capture.getNumEntries();
+        fillFromEntries(indexData, logFile, header, logHeader, SortHelper.sort(
+            capture.entries(0, numEntries, header.getEntryBlockBits()), numEntries, header.getHashCapacity(), maxMemory));
+      } else {
+        fillFromLogSorted(indexData, logFile, header, logHeader.size(), header.getDataEnd(),
+            logHeader, maxMemory);
+      }
       calculateMaxDisplacement(header, indexData);
     } finally {
       indexData.close();
@@ -180,73 +342,56 @@ final class IndexHash {
   }
 
   private static void writeIndexInMemory(final File indexFile, final File logFile, final boolean fsync, final LogHeader logHeader,
-                                         final IndexHeader header, final long hashLength) throws IOException {
+                                         final IndexHeader header, final long hashLength,
+                                         final HashCapture capture) throws IOException {
     ReadWriteData indexData = new FileFlushingData(hashLength, indexFile, header, fsync);
     //ReadWriteData indexData = new FileReadWriteData(hashLength, indexFile, header, fsync);
     //ReadWriteData indexData = new ReadWriteMemMap(hashLength, indexFile, header, fsync);
 
-    fillFromLog(indexData, logFile, header, logHeader.size(), header.getDataEnd(),
-        logHeader);
+    if (capture != null) {
+      fillFromEntries(indexData, logFile, header, logHeader,
+          capture.entries(0, capture.getNumEntries(), header.getEntryBlockBits()));
+    } else {
+      fillFromLog(indexData, logFile, header, logHeader.size(), header.getDataEnd(),
+          logHeader);
+    }
     calculateMaxDisplacement(header, indexData);
     indexData.close();
 
   }
 
-  private static void calculateMaxDisplacement(IndexHeader header, RandomAccessData indexData) throws IOException {
-    HashType hashData = header.getHashType();
-    AddressSize addressData = header.getAddressData();
-
-    long pos = 0;
-    indexData.seek(pos);
-    long capacity = header.getHashCapacity();
-
-    long maxDisplacement = 0;
-    long numHashCollisions = 0;
-    long totalDisplacement = 0;
-
-    boolean hasFirst = false;
-    long firstHash = 0;
-
-    boolean hasLast = false;
-    long lastHash = 0;
-
-    boolean hasPrev = false;
-    long prevHash = -1;
-    for (long slot = 0; slot < capacity; slot++) {
-      long hash = hashData.readHash(indexData);
-      if (hasPrev && prevHash == hash) {
-        numHashCollisions++;
-      }
-      long position = addressData.readAddress(indexData);
-      if (position != 0) {
-        prevHash = hash;
-        hasPrev = true;
-        long displacement = getDisplacement(capacity, slot, hash);
-        totalDisplacement += displacement;
-        maxDisplacement = Math.max(maxDisplacement, displacement);
-        if (slot == 0) {
-          firstHash = hash;
-          hasFirst = true;
-        }
-        if (slot == capacity - 1) {
-          lastHash = hash;
-          hasLast = true;
-        }
+  /**
+   * Like writeIndexInMemory, but the table is written straight into a mapping of the index file,
+   * so it is off-heap and doesn't need to be written out afterwards.
+   */
+  private static void writeIndexMapped(final File indexFile, final File logFile, final boolean fsync, final LogHeader logHeader,
+                                       final IndexHeader header, final long hashLength,
+                                       final HashCapture capture) throws IOException {
+    ReadWriteData indexData = SparkeyImplSelector.mapIndex(hashLength, indexFile, header, fsync);
+    try {
+      if (capture != null) {
+        fillFromEntries(indexData, logFile, header, logHeader,
+            capture.entries(0, capture.getNumEntries(), header.getEntryBlockBits()));
       } else {
-        hasPrev = false;
+        fillFromLog(indexData, logFile, header, logHeader.size(), header.getDataEnd(),
+            logHeader);
       }
+      calculateMaxDisplacement(header, indexData);
+    } finally {
+      indexData.close();
     }
-    if (hasFirst && hasLast && firstHash == lastHash) {
-      numHashCollisions++;
-    }
-    header.setTotalDisplacement(totalDisplacement);
-    header.setMaxDisplacement(maxDisplacement);
-    header.setHashCollisions(numHashCollisions);
   }
 
-  private static boolean calcAddressSize(LogHeader logHeader) {
-    int entryBlockBits = calcEntryBlockBits(logHeader.getMaxEntriesPerBlock());
-    return logHeader.getDataEnd() <= (1L << (30 - entryBlockBits));
+  private static void writeIndexInParallel(final File indexFile, final File logFile, final boolean fsync, final LogHeader logHeader,
+                                           final IndexHeader header, final long hashLength,
+                                           final HashCapture capture) throws IOException {
+    FileFlushingData indexData = new FileFlushingData(hashLength, indexFile, header, fsync);
+    ParallelIndexBuilder.fill(indexData, logFile, header, logHeader, capture, ParallelIndexBuilder.NUM_THREADS);
+    indexData.close();
+  }
+
+  private static void calculateMaxDisplacement(IndexHeader header, RandomAccessData indexData) throws IOException {
+    DisplacementStats.apply(header, DisplacementStats.scan(header, indexData, 0, header.getHashCapacity()));
   }
 
   void close() {
@@ -307,45 +452,55 @@ final class IndexHash {
       IndexHeader header,
       final long start, final long end,
       LogHeader logHeader, final long maxMemory) throws IOException {
+    final HashedEntries entries = SortHelper.sort(
+        logFile, start, end, header.getHashType(), header.getHashCapacity(), header.getHashSeed(), maxMemory);
+    fillFromEntries(indexData, logFile, header, logHeader, entries);
+  }
+
+  /**
+   * Insert hashed entries, reading keys from the log only to resolve hash collisions.
+   * Closes the entries.
+   */
+  private static void fillFromEntries(
+      ReadWriteData indexData, final File logFile,
+      IndexHeader header,
+      LogHeader logHeader, final HashedEntries entries) throws IOException {
     final HashType hashData = header.getHashType();
     AddressSize addressData = header.getAddressData();
 
     final long hashCapacity = header.getHashCapacity();
 
-    final BlockRandomInput logData =
-        logHeader.getCompressionTypeBackend().createRandomAccessData(new ReadOnlyMemMap(logFile), logHeader.getCompressionBlockSize());
-
     try {
-      final Iterator<SortHelper.Entry> iterator2 = SortHelper.sort(
-          logFile, start, end, hashData, hashCapacity, header.getHashSeed(), maxMemory);
-
-      final int maxEntriesPerBlock = logHeader.getMaxEntriesPerBlock();
-      final int entryIndexbits = calcEntryBlockBits(maxEntriesPerBlock);
-
-      final byte[] keyBuf1 = new byte[(int) logHeader.getMaxKeyLen()];
-      final byte[] keyBuf2 = new byte[(int) logHeader.getMaxKeyLen()];
-      while (iterator2.hasNext()) {
-        final SortHelper.Entry entry = iterator2.next();
-
-        // Safe cast, since the iterator is known to be a SparkeyLogIterator
-        final SparkeyReader.Type type = (entry.address & 1) == 0 ? SparkeyReader.Type.DELETE : SparkeyReader.Type.PUT;
-        final long address = entry.address >>> 1;
-        final long hash = entry.hash;
-        switch (type) {
-          case PUT:
-            put(indexData, header, hashCapacity, -1, keyBuf1,
-                logData, keyBuf2, hashData, addressData, header.getEntryBlockBitsBitmask(), entryIndexbits,
-                hash, address);
-            break;
-          case DELETE:
-            delete(indexData, header, hashCapacity, -1, keyBuf1, logData, keyBuf2,
-                hashData, addressData, header.getEntryBlockBitsBitmask(), entryIndexbits,
-                hash, address);
-            break;
+      final BlockRandomInput logData =
+          logHeader.getCompressionTypeBackend().createRandomAccessData(new ReadOnlyMemMap(logFile), logHeader.getCompressionBlockSize());
+      try {
+        final int maxEntriesPerBlock = logHeader.getMaxEntriesPerBlock();
+        final int entryIndexbits = calcEntryBlockBits(maxEntriesPerBlock);
+
+        final byte[] keyBuf1 = new byte[(int) logHeader.getMaxKeyLen()];
+        final byte[] keyBuf2 = new byte[(int) logHeader.getMaxKeyLen()];
+        while (entries.next()) {
+          final SparkeyReader.Type type = (entries.getAddress() & 1) == 0 ? SparkeyReader.Type.DELETE : SparkeyReader.Type.PUT;
+          final long address = entries.getAddress() >>> 1;
+          final long hash = entries.getHash();
+          switch (type) {
+            case PUT:
+              put(indexData, header, hashCapacity, -1, keyBuf1,
+                  logData, keyBuf2, hashData, addressData, header.getEntryBlockBitsBitmask(), entryIndexbits,
+                  hash, address);
+              break;
+            case DELETE:
+              delete(indexData, header, hashCapacity, -1, keyBuf1, logData, keyBuf2,
+                  hashData, addressData, header.getEntryBlockBitsBitmask(), entryIndexbits,
+                  hash, address);
+              break;
+          }
         }
+      } finally {
+        logData.close();
       }
     } finally {
-      logData.close();
+      entries.close();
     }
   }
 
@@ -355,7 +510,8 @@ final class IndexHash {
     }
   }
 
-  boolean isAt(int keyLen, byte[] key, long position, int entryIndex) throws IOException {
+  @Override
+  public boolean isAt(int keyLen, byte[] key, long position, int entryIndex) throws IOException {
     HashType hashData = header.getHashType();
     AddressSize addressData = header.getAddressData();
     long hash = hashData.hash(keyLen, key, hashSeed);
@@ -396,9 +552,13 @@ final class IndexHash {
   }
 
   SparkeyReader.Entry get(int keyLen, byte[] key) throws IOException {
+    return get(keyLen, key, 0);
+  }
+
+  SparkeyReader.Entry get(int keyLen, byte[] key, int keyOff) throws IOException {
     HashType hashData = header.getHashType();
     AddressSize addressData = header.getAddressData();
-    long hash = hashData.hash(keyLen, key, hashSeed);
+    long hash = hashData.hash(keyLen, key, keyOff, hashSeed);
     long wantedSlot = getWantedSlot(hash, hashCapacity);
 
     int start = indexStart;
@@ -428,8 +588,9 @@ final class IndexHash {
         keyLen2--;
         if (keyLen == keyLen2) {
           int valueLen2 = Util.readUnsignedVLQInt(logData);
-          if (logData.readFullyCompare(keyLen, key)) {
+          if (logData.readFullyCompare(keyLen, key, keyOff)) {
             // readFullyCompare already advanced position past the key
+            System.arraycopy(key, keyOff, keyBuf, 0, keyLen);
             entry.keyLen = keyLen2;
             entry.valueLen = valueLen2;
             stream.remaining = valueLen2;
@@ -668,7 +829,7 @@ final class IndexHash {
     return Long.remainderUnsigned(hash, capacity);
   }
 
-  private static long getDisplacement(long capacity, long slot, long hash) {
+  static long getDisplacement(long capacity, long slot, long hash) {
     long displacement = slot - getWantedSlot(hash, capacity);
     if (displacement >= 0) {
       return displacement;
@@ -677,11 +838,23 @@ final class IndexHash {
     }
   }
 
+  Iterator<SparkeyReader.Entry> slotIterator(long fromSlot, long toSlot) {
+    IndexSlotIterator.checkSlotRange(header, fromSlot, toSlot);
+    final IndexHash indexHash = duplicate();
+    final AddressSize addressData = header.getAddressData();
+    final int addressOffset = indexStart + header.getHashSize();
+    return new IndexSlotIterator(header, slot -> {
+      indexHash.indexData.seek(addressOffset + slot * slotSize);
+      return addressData.readAddress(indexHash.indexData);
+    }, indexHash.logData, fromSlot, toSlot, indexHash::closeDuplicate);
+  }
+
   IndexHash duplicate() {
     return new IndexHash(indexFile, logFile, header, logHeader, indexData.duplicate(), maxBlockSize, logData.duplicate());
   }
 
-  void closeDuplicate() {
+  @Override
+  public void closeDuplicate() {
     indexData.closeDuplicate();
     logData.closeDuplicate();
   }
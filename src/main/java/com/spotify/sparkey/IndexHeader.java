@@ -23,7 +23,14 @@ public final class IndexHeader extends CommonHeader {
   private static final int MAGIC_NUMBER = 0x9a11318f;
   static final int HEADER_SIZE = 112;
   private static final int MAJOR_VERSION = 1;
-  private static final int MINOR_VERSION = 1;
+  private static final int MINOR_VERSION = 2;
+  // Minor version 2 added hash algorithms other than MurmurHash3 and 5 and 6 byte addresses,
+  // so only indexes using them are written with it
+  private static final int BASE_MINOR_VERSION = 1;
+
+  // The hash size field holds the hash algorithm above the size in bytes
+  private static final int HASH_ALGORITHM_SHIFT = 8;
+  private static final int HASH_ALGORITHM_XXH3 = 1;
 
   private final int hashSeed;
 
@@ -42,26 +49,27 @@ public final class IndexHeader extends CommonHeader {
 
   private IndexHeader(int majorVersion, int minorVersion, int fileIdentifier, int hashSeed, long dataEnd,
                       long maxKeyLen, long maxValueLen, long garbageSize, long numEntries, int addressSize,
-                      int hashSize, long hashCapacity, long maxDisplacement, long numPuts, int entryBlockBits, long hashCollisions, long totalDisplacement) throws IOException {
+                      HashType hashType, long hashCapacity, long maxDisplacement, long numPuts, int entryBlockBits, long hashCollisions, long totalDisplacement) throws IOException {
     super(majorVersion, minorVersion, fileIdentifier, dataEnd, maxKeyLen, maxValueLen, numPuts);
     this.hashSeed = hashSeed;
     this.garbageSize = garbageSize;
     this.numEntries = numEntries;
     this.addressSize = addressSize;
-    this.hashSize = hashSize;
+    this.hashSize = hashType.size();
     this.hashCapacity = hashCapacity;
     this.maxDisplacement = maxDisplacement;
     this.entryBlockBits = entryBlockBits;
     this.hashCollisions = hashCollisions;
     this.totalDisplacement = totalDisplacement;
 
-    this.hashType = getHashType(hashSize);
+    this.hashType = hashType;
     this.addressData = getAddressData(addressSize);
   }
 
-  IndexHeader(int fileIdentifier, long dataEnd, long maxKeyLen, long maxValueLen, int addressSize, int hashSize,
+  IndexHeader(int fileIdentifier, long dataEnd, long maxKeyLen, long maxValueLen, int addressSize, HashType hashType,
               long capacity, long numPuts, int hashSeed, int entryBlockBits) throws IOException {
-    this(MAJOR_VERSION, MINOR_VERSION, fileIdentifier, hashSeed, dataEnd, maxKeyLen, maxValueLen, 0, 0, addressSize, hashSize, capacity, 0,
+    this(MAJOR_VERSION, needsMinorVersion2(addressSize, hashType) ? MINOR_VERSION : BASE_MINOR_VERSION,
+            fileIdentifier, hashSeed, dataEnd, maxKeyLen, maxValueLen, 0, 0, addressSize, hashType, capacity, 0,
             numPuts, entryBlockBits, 0, 0);
   }
 
@@ -97,14 +105,22 @@ public final class IndexHeader extends CommonHeader {
       long hashCollisions = Util.readLittleEndianLong(inputStream);
       long totalDisplacement = Util.readLittleEndianLong(inputStream);
 
-      return new IndexHeader(majorVersion, minorVersion, fileIdentifier, hashSeed, dataEnd, maxKeyLen, maxValueLen, garbageSize, numEntries, addressSize, hashSize, hashCapacity, maxDisplacement,
+      return new IndexHeader(majorVersion, minorVersion, fileIdentifier, hashSeed, dataEnd, maxKeyLen, maxValueLen, garbageSize, numEntries, addressSize, getHashType(hashSize), hashCapacity, maxDisplacement,
               numPuts, entryBlockBits, hashCollisions, totalDisplacement);
     }
   }
 
+  private static boolean needsMinorVersion2(int addressSize, HashType hashType) {
+    return hashType == HashType.HASH_64_BITS_XXH3 || (addressSize != 4 && addressSize != 8);
+  }
+
   private static AddressSize getAddressData(int size) {
     if (size == 4) {
       return AddressSize.INT;
+    } else if (size == 5) {
+      return AddressSize.INT40;
+    } else if (size == 6) {
+      return AddressSize.INT48;
     } else if (size == 8) {
       return AddressSize.LONG;
     } else {
@@ -112,16 +128,27 @@ public final class IndexHeader extends CommonHeader {
     }
   }
 
-  private static HashType getHashType(int size) {
-    if (size == 4) {
+  private static HashType getHashType(int hashSizeField) {
+    int size = hashSizeField & 0xff;
+    int algorithm = hashSizeField >>> HASH_ALGORITHM_SHIFT;
+    if (size == 4 && algorithm == 0) {
       return HashType.HASH_32_BITS;
-    } else if (size == 8) {
+    } else if (size == 8 && algorithm == 0) {
       return HashType.HASH_64_BITS;
+    } else if (size == 8 && algorithm == HASH_ALGORITHM_XXH3) {
+      return HashType.HASH_64_BITS_XXH3;
     } else {
-      throw new IllegalArgumentException("Can't support hash size " + size);
+      throw new IllegalArgumentException("Can't support hash size " + size + " with hash algorithm " + algorithm);
     }
   }
 
+  private static int hashSizeField(HashType hashType) {
+    if (hashType == HashType.HASH_64_BITS_XXH3) {
+      return hashType.size() | HASH_ALGORITHM_XXH3 << HASH_ALGORITHM_SHIFT;
+    }
+    return hashType.size();
+  }
+
   byte[] asBytes() {
     ByteBuffer byteBuffer = ByteBuffer.allocate(HEADER_SIZE);
     byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -140,7 +167,7 @@ public final class IndexHeader extends CommonHeader {
     byteBuffer.putLong(garbageSize); // 52
     byteBuffer.putLong(numEntries); // 60
     byteBuffer.putInt(addressSize); // 68
-    byteBuffer.putInt(hashSize); // 72
+    byteBuffer.putInt(hashSizeField(hashType)); // 72
     byteBuffer.putLong(hashCapacity); // 76
     byteBuffer.putLong(maxDisplacement); // 84
     byteBuffer.putInt(entryBlockBits); // 92
@@ -266,6 +293,14 @@ public final class IndexHeader extends CommonHeader {
     return (1 << entryBlockBits) - 1;
   }
 
+  void setNumEntries(long numEntries) {
+    this.numEntries = numEntries;
+  }
+
+  void setGarbageSize(long garbageSize) {
+    this.garbageSize = garbageSize;
+  }
+
   void setMaxDisplacement(long maxDisplacement) {
     this.maxDisplacement = maxDisplacement;
   }
@@ -294,12 +329,28 @@ public final class IndexHeader extends CommonHeader {
     return addressData;
   }
 
+  /**
+   * A copy of this header, for the same index extended to cover the log up to its current end.
+   * The entry counts and displacement stats are kept, and must be updated as the new entries are added.
+   */
+  IndexHeader extendTo(LogHeader logHeader, int entryBlockBits) {
+    try {
+      return new IndexHeader(
+          majorVersion, minorVersion, fileIdentifier, hashSeed, logHeader.getDataEnd(),
+          Math.max(maxKeyLen, logHeader.getMaxKeyLen()), Math.max(maxValueLen, logHeader.getMaxValueLen()),
+          garbageSize, numEntries, addressSize, hashType, hashCapacity, maxDisplacement, logHeader.getNumPuts(),
+          entryBlockBits, hashCollisions, totalDisplacement);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   @Override
   public IndexHeader clone() {
     try {
       return new IndexHeader(
           majorVersion, minorVersion, fileIdentifier, hashSeed, dataEnd, maxKeyLen, maxValueLen, garbageSize, numEntries,
-          addressSize, hashSize, hashCapacity, maxDisplacement, numPuts, entryBlockBits, hashCollisions, totalDisplacement);
+          addressSize, hashType, hashCapacity, maxDisplacement, numPuts, entryBlockBits, hashCollisions, totalDisplacement);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the live entries referenced by a range of index slots.
+ *
+ * Every non-empty slot references exactly one live entry, so no extra
+ * hash lookups are needed to filter out deleted or overwritten entries.
+ *
+ * Slots are read sequentially in chunks, and the entries of each chunk are
+ * read in log order, so the log is accessed mostly forward and every
+ * compressed block is decompressed at most once per chunk.
+ * The entry object is reused.
+ */
+final class IndexSlotIterator implements Iterator<SparkeyReader.Entry> {
+  static final int CHUNK_SLOTS = 4096;
+
+  /**
+   * Reads the address stored in a slot, 0 meaning that the slot is empty.
+   */
+  interface SlotReader {
+    long readAddress(long slot) throws IOException;
+  }
+
+  private final SlotReader slots;
+  private final BlockRandomInput logData;
+  private final Runnable onClose;
+  private final int entryBlockBits;
+  private final int entryBlockBitmask;
+  private final long toSlot;
+  private final byte[] keyBuf;
+  private final SlotEntry entry;
+
+  private long slot;
+  private boolean ready;
+  private boolean closed;
+
+  // Sorted addresses of the current chunk
+  private final long[] chunk;
+  private int chunkSize;
+  private int chunkPos;
+
+  // Where the previous entry was read from, to continue within a block without seeking
+  private long prevPosition = -1;
+  private int prevEntryIndex;
+
+  IndexSlotIterator(IndexHeader header, SlotReader slots, BlockRandomInput logData,
+                    long fromSlot, long toSlot, Runnable onClose) {
+    this.slots = slots;
+    this.logData = logData;
+    this.onClose = onClose;
+    this.entryBlockBits = header.getEntryBlockBits();
+    this.entryBlockBitmask = header.getEntryBlockBitsBitmask();
+    this.slot = fromSlot;
+    this.toSlot = toSlot;
+    this.keyBuf = new byte[(int) header.getMaxKeyLen()];
+    this.entry = new SlotEntry();
+    this.chunk = new long[(int) Math.min(CHUNK_SLOTS, toSlot - fromSlot)];
+  }
+
+  static void checkSlotRange(IndexHeader header, long fromSlot, long toSlot) {
+    if (fromSlot < 0 || toSlot > header.getHashCapacity() || fromSlot > toSlot) {
+      throw new IndexOutOfBoundsException("Invalid slot range [" + fromSlot + ", " + toSlot
+          + ") for hash capacity " + header.getHashCapacity());
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (ready) {
+      return true;
+    }
+    try {
+      if (chunkPos < chunkSize || fillChunk()) {
+        readEntry(chunk[chunkPos++]);
+        ready = true;
+        return true;
+      }
+    } catch (IOException e) {
+      close();
+      throw new RuntimeException(e);
+    }
+    close();
+    return false;
+  }
+
+  private boolean fillChunk() throws IOException {
+    chunkSize = 0;
+    chunkPos = 0;
+    while (chunkSize == 0 && slot < toSlot) {
+      long chunkEnd = Math.min(toSlot, slot + chunk.length);
+      for (; slot < chunkEnd; slot++) {
+        long address = slots.readAddress(slot);
+        if (address != 0) {
+          chunk[chunkSize++] = address;
+        }
+      }
+    }
+    // Addresses sort by block position first, and then by entry index within the block
+    Arrays.sort(chunk, 0, chunkSize);
+    return chunkSize > 0;
+  }
+
+  private void readEntry(long address) throws IOException {
+    int entryIndex = (int) (address) & entryBlockBitmask;
+    long position = address >>> entryBlockBits;
+    if (position == prevPosition && entryIndex > prevEntryIndex) {
+      // Continue from the end of the previous entry's key
+      logData.skipBytes(entry.remaining);
+      IndexHash.skipStuff(entryIndex - prevEntryIndex - 1, logData);
+    } else {
+      logData.seek(position);
+      IndexHash.skipStuff(entryIndex, logData);
+    }
+    prevPosition = position;
+    prevEntryIndex = entryIndex;
+    int keyLen = Util.readUnsignedVLQInt(logData);
+    if (keyLen == 0) {
+      throw new RuntimeException("Invalid data - reference to delete entry");
+    }
+    keyLen--;
+    entry.keyLen = keyLen;
+    entry.valueLen = Util.readUnsignedVLQInt(logData);
+    logData.readFully(keyBuf, 0, keyLen);
+    entry.remaining = entry.valueLen;
+  }
+
+  @Override
+  public SparkeyReader.Entry next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    ready = false;
+    return entry;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  private void close() {
+    if (!closed) {
+      closed = true;
+      onClose.run();
+    }
+  }
+
+  private class SlotEntry extends InputStream implements SparkeyReader.Entry {
+    private int keyLen;
+    private long valueLen;
+    private long remaining;
+
+    @Override
+    public int getKeyLength() {
+      return keyLen;
+    }
+
+    @Override
+    public byte[] getKey() {
+      if (keyBuf.length == keyLen) {
+        return keyBuf;
+      }
+      byte[] key = new byte[keyLen];
+      System.arraycopy(keyBuf, 0, key, 0, keyLen);
+      return key;
+    }
+
+    @Override
+    public String getKeyAsString() {
+      return new String(keyBuf, 0, keyLen, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long getValueLength() {
+      return valueLen;
+    }
+
+    @Override
+    public byte[] getValue() throws IOException {
+      if (valueLen > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Value size is " + valueLen + " bytes, can't store in byte[]");
+      }
+      byte[] value = new byte[(int) valueLen];
+      read(value, 0, value.length);
+      return value;
+    }
+
+    @Override
+    public String getValueAsString() throws IOException {
+      return new String(getValue(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public InputStream getValueAsStream() {
+      return this;
+    }
+
+    @Override
+    public SparkeyReader.Type getType() {
+      return SparkeyReader.Type.PUT;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining > 0) {
+        remaining--;
+        return logData.readUnsignedByte();
+      }
+      throw new EOFException();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len < 0) {
+        throw new IllegalArgumentException();
+      }
+      if (remaining >= len) {
+        remaining -= len;
+        logData.readFully(b, off, len);
+        return len;
+      }
+      throw new EOFException();
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (n < 0) {
+        throw new IllegalArgumentException();
+      }
+      if (remaining >= n) {
+        logData.skipBytes(n);
+        remaining -= n;
+        return n;
+      }
+      throw new EOFException();
+    }
+
+    @Override
+    public int available() {
+      if (remaining >= Integer.MAX_VALUE) {
+        return Integer.MAX_VALUE;
+      }
+      return (int) remaining;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the live entries of a log, splitting at block (or entry) boundaries.
+ *
+ * Every split scans its own part of the log and checks liveness with its own index cursor,
+ * so splits can be consumed concurrently.
+ *
+ * The possible split positions are looked up once, on the first split, and shared with all
+ * spliterators split off from it.
+ */
+final class LiveEntrySpliterator implements Spliterator<SparkeyReader.Entry> {
+  // Don't bother splitting small parts of the log
+  static final long MIN_SPLIT_SIZE = 64 * 1024;
+
+  // Number of split positions to look up per thread, so that splits can be balanced
+  private static final int PARTS_PER_THREAD = 8;
+
+  /**
+   * Checks if a log entry is the one the index points to for its key.
+   * Each split creates its own cursor and releases it with closeDuplicate when done.
+   */
+  interface Cursor {
+    boolean isAt(int keyLen, byte[] key, long position, int entryIndex) throws IOException;
+
+    void closeDuplicate();
+  }
+
+  interface CursorFactory {
+    Cursor create();
+  }
+
+  private final File logFile;
+  private final File indexFile;
+  private final LogHeader header;
+  private final CursorFactory cursorFactory;
+  private long start;
+  private final long end;
+
+  // Sorted positions where the log can be split, or null if not looked up yet
+  private long[] candidates;
+
+  private Iterator<SparkeyReader.Entry> iterator;
+  private Cursor cursor;
+
+  LiveEntrySpliterator(File logFile, File indexFile, LogHeader header, long start, long end, CursorFactory cursorFactory) {
+    this(logFile, indexFile, header, start, end, cursorFactory, null);
+  }
+
+  private LiveEntrySpliterator(File logFile, File indexFile, LogHeader header, long start, long end,
+                               CursorFactory cursorFactory, long[] candidates) {
+    this.logFile = logFile;
+    this.indexFile = indexFile;
+    this.header = header;
+    this.start = start;
+    this.end = end;
+    this.cursorFactory = cursorFactory;
+    this.candidates = candidates;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super SparkeyReader.Entry> action) {
+    if (iterator == null) {
+      iterator = new SparkeyLogIterator(logFile, header, start, end).iterator();
+      cursor = cursorFactory.create();
+    }
+    try {
+      while (iterator.hasNext()) {
+        // Safe cast, since the iterator is guaranteed to be a SparkeyLogIterator
+        SparkeyLogIterator.Entry entry = (SparkeyLogIterator.Entry) iterator.next();
+        if (entry.getType() == SparkeyReader.Type.PUT
+            && cursor.isAt(entry.getKeyLength(), entry.getKeyBuf(), entry.getPosition(), entry.getEntryIndex())) {
+          action.accept(entry);
+          return true;
+        }
+      }
+    } catch (IOException e) {
+      closeCursor();
+      throw new RuntimeException(e);
+    }
+    closeCursor();
+    return false;
+  }
+
+  private void closeCursor() {
+    if (cursor != null) {
+      cursor.closeDuplicate();
+      cursor = null;
+    }
+  }
+
+  @Override
+  public Spliterator<SparkeyReader.Entry> trySplit() {
+    if (iterator != null || end - start < 2 * MIN_SPLIT_SIZE) {
+      return null;
+    }
+    if (candidates == null) {
+      int parts = (int) Math.min(
+          (long) ForkJoinPool.getCommonPoolParallelism() * PARTS_PER_THREAD, (end - start) / MIN_SPLIT_SIZE);
+      try {
+        candidates = LogSplitter.candidates(logFile, indexFile, header, start, end, Math.max(2, parts));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    long boundary = closestCandidate(start + (end - start) / 2);
+    if (boundary <= start || boundary >= end) {
+      return null;
+    }
+    LiveEntrySpliterator prefix =
+        new LiveEntrySpliterator(logFile, indexFile, header, start, boundary, cursorFactory, candidates);
+    start = boundary;
+    return prefix;
+  }
+
+  /**
+   * @return the candidate closest to target, or -1 if there are none.
+   */
+  private long closestCandidate(long target) {
+    int i = Arrays.binarySearch(candidates, target);
+    if (i >= 0) {
+      return candidates[i];
+    }
+    int after = -i - 1;
+    if (after == candidates.length) {
+      return after == 0 ? -1 : candidates[after - 1];
+    }
+    if (after == 0 || candidates[after] - target <= target - candidates[after - 1]) {
+      return candidates[after];
+    }
+    return candidates[after - 1];
+  }
+
+  /**
+   * @return the remaining number of log bytes, which is proportional to the number of entries.
+   */
+  @Override
+  public long estimateSize() {
+    return end - start;
+  }
+
+  @Override
+  public int characteristics() {
+    return NONNULL | ORDERED;
+  }
+}
@@ -19,37 +19,60 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.Random;
 
 public final class LogHeader extends CommonHeader {
   private static final int MAGIC_NUMBER = 0x49b39c95;
   private static final int HEADER_SIZE = 84;
   private static final int MAJOR_VERSION = 1;
-  private static final int MINOR_VERSION = 0;
+  private static final int MINOR_VERSION = 1;
+  // The first minor version with compression options and a dictionary region after the header
+  private static final int EXTENDED_MINOR_VERSION = 1;
+  private static final int COMPRESSION_TYPE_MASK = 0xff;
 
   private long numDeletes;
   private long deleteSize;
   private long putSize;
 
   private final CompressionType compressionType;
+  private final CompressionOptions compressionOptions;
   private final int compressionBlockSize;
   private int maxEntriesPerBlock;
 
+  // For ZSTD_DICTIONARY logs: the dictionary stored after the header, or null until it is written
+  private byte[] dictionary;
+  private CompressionTypeBackend backend;
+
   private LogHeader(int majorVersion, int minorVersion, int fileIdentifier, long numPuts, long numDeletes,
                     long dataEnd, long maxKeyLen, long maxValueLen, long deleteSize, CompressionType compressionType,
-                    int compressionBlockSize, long putSize, int maxEntriesPerBlock) throws IOException {
+                    CompressionOptions compressionOptions, int compressionBlockSize, long putSize, int maxEntriesPerBlock,
+                    byte[] dictionary) throws IOException {
     super(majorVersion, minorVersion, fileIdentifier, dataEnd, maxKeyLen, maxValueLen, numPuts);
     this.numDeletes = numDeletes;
     this.deleteSize = deleteSize;
     this.compressionType = compressionType;
+    this.compressionOptions = compressionOptions;
     this.compressionBlockSize = compressionBlockSize;
     this.putSize = putSize;
     this.maxEntriesPerBlock = maxEntriesPerBlock;
+    this.dictionary = dictionary;
   }
 
   LogHeader(CompressionType compressionType, int compressionBlockSize) throws IOException {
-    this(MAJOR_VERSION, MINOR_VERSION, new Random().nextInt(), 0, 0, HEADER_SIZE, 0, 0, 0, compressionType, compressionBlockSize, 0,
-            0);
+    this(compressionType, compressionBlockSize, new CompressionOptions());
+  }
+
+  LogHeader(CompressionType compressionType, int compressionBlockSize, CompressionOptions compressionOptions)
+      throws IOException {
+    // Older readers can read the log unless it uses the extensions
+    this(MAJOR_VERSION,
+            compressionType == CompressionType.ZSTD_DICTIONARY || !compressionOptions.isDefault() ? EXTENDED_MINOR_VERSION : 0,
+            new Random().nextInt(), 0, 0, HEADER_SIZE, 0, 0, 0, compressionType, compressionOptions.copy(),
+            compressionBlockSize, 0, 0, null);
+    compressionOptions.validate(compressionType);
   }
 
   static LogHeader read(File file) throws IOException {
@@ -81,39 +104,92 @@ public final class LogHeader extends CommonHeader {
       if (dataEnd > file.length()) {
         throw new IOException("Corrupt log file '" + file.toString() + "': expected at least " + dataEnd + " size but was " + file.length());
       }
+      CompressionOptions compressionOptions = CompressionOptions.decode(compressionType & ~COMPRESSION_TYPE_MASK);
+      compressionType &= COMPRESSION_TYPE_MASK;
+      if (compressionType >= CompressionType.values().length) {
+        throw new IOException("Unknown compression type " + compressionType + " in log file: " + file);
+      }
 
-      return new LogHeader(majorVersion, minorVersion, fileIdentifier, numPuts, numDeletes, dataEnd, maxKeyLen, maxValueLen, deleteSize, CompressionType.values()[compressionType], compressionBlockSize, putSize,
-              maxEntriesPerBlock);
+      // The dictionary region is written along with the first entries
+      byte[] dictionary = null;
+      if (compressionType == CompressionType.ZSTD_DICTIONARY.ordinal() && dataEnd > HEADER_SIZE) {
+        int dictionarySize = Util.readLittleEndianInt(inputStream);
+        if (dictionarySize < 0 || dictionarySize > dataEnd - HEADER_SIZE - 4) {
+          throw new IOException("Corrupt log file '" + file.toString() + "': invalid dictionary size " + dictionarySize);
+        }
+        dictionary = new byte[dictionarySize];
+        Util.readFully(inputStream, dictionary, dictionarySize);
+      }
+
+      return new LogHeader(majorVersion, minorVersion, fileIdentifier, numPuts, numDeletes, dataEnd, maxKeyLen, maxValueLen, deleteSize, CompressionType.values()[compressionType], compressionOptions, compressionBlockSize, putSize,
+              maxEntriesPerBlock, dictionary);
     }
   }
 
   void write(File file, boolean fsync) throws IOException {
     try (RandomAccessFile rw = new RandomAccessFile(file, "rw")) {
-      rw.seek(0);
-      Util.writeLittleEndianInt(MAGIC_NUMBER, rw);
-      Util.writeLittleEndianInt(majorVersion, rw);
-      Util.writeLittleEndianInt(minorVersion, rw);
-      Util.writeLittleEndianInt(fileIdentifier, rw);
-      Util.writeLittleEndianLong(numPuts, rw);
-      Util.writeLittleEndianLong(numDeletes, rw);
-      Util.writeLittleEndianLong(dataEnd, rw);
-      Util.writeLittleEndianLong(maxKeyLen, rw);
-      Util.writeLittleEndianLong(maxValueLen, rw);
-      Util.writeLittleEndianLong(deleteSize, rw);
-      Util.writeLittleEndianInt(compressionType.ordinal(), rw);
-      Util.writeLittleEndianInt(compressionBlockSize, rw);
-      Util.writeLittleEndianLong(putSize, rw);
-      Util.writeLittleEndianInt(maxEntriesPerBlock, rw);
-
-      if (rw.getFilePointer() != HEADER_SIZE) {
-        throw new RuntimeException("Programming error! Header size was incorrect, expected " + HEADER_SIZE + " but was " + rw.getFilePointer());
-      }
-      if (fsync) {
-        rw.getFD().sync();
-      }
+      write(rw.getChannel(), fsync);
     }
   }
 
+  /**
+   * Write the header at the start of the channel, in a single write, without moving the channel position.
+   */
+  void write(FileChannel channel, boolean fsync) throws IOException {
+    write(channel, encode(), fsync);
+  }
+
+  /**
+   * Write an encoded header at the start of the channel, without moving the channel position.
+   */
+  static void write(FileChannel channel, ByteBuffer encoded, boolean fsync) throws IOException {
+    ByteBuffer buffer = encoded.duplicate();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, buffer.position());
+    }
+    if (fsync) {
+      channel.force(true);
+    }
+  }
+
+  /**
+   * @return a snapshot of the header, as written to the file
+   */
+  ByteBuffer encode() {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC_NUMBER);
+    buffer.putInt(majorVersion);
+    buffer.putInt(minorVersion);
+    buffer.putInt(fileIdentifier);
+    buffer.putLong(numPuts);
+    buffer.putLong(numDeletes);
+    buffer.putLong(dataEnd);
+    buffer.putLong(maxKeyLen);
+    buffer.putLong(maxValueLen);
+    buffer.putLong(deleteSize);
+    buffer.putInt(compressionType.ordinal() | compressionOptions.encode());
+    buffer.putInt(compressionBlockSize);
+    buffer.putLong(putSize);
+    buffer.putInt(maxEntriesPerBlock);
+
+    if (buffer.position() != HEADER_SIZE) {
+      throw new RuntimeException("Programming error! Header size was incorrect, expected " + HEADER_SIZE + " but was " + buffer.position());
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * @return the dictionary region that follows the header, as written to the file
+   */
+  ByteBuffer encodeDictionary() {
+    ByteBuffer buffer = ByteBuffer.allocate(4 + dictionary.length).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(dictionary.length);
+    buffer.put(dictionary);
+    buffer.flip();
+    return buffer;
+  }
+
   public int getMajorVersion() {
     return majorVersion;
   }
@@ -142,8 +218,42 @@ public final class LogHeader extends CommonHeader {
     return compressionType;
   }
 
+  /**
+   * @return a copy of the options the blocks are compressed with
+   */
+  public CompressionOptions getCompressionOptions() {
+    return compressionOptions.copy();
+  }
+
   CompressionTypeBackend getCompressionTypeBackend() {
-    return getCompressionType().getBackend();
+    if (compressionType == CompressionType.NONE
+            || compressionOptions.isDefault() && (dictionary == null || dictionary.length == 0)) {
+      return compressionType.getBackend();
+    }
+    if (backend == null) {
+      backend = new CompressionTypeBackendCompressed(
+              compressionOptions.createCompressor(compressionType, dictionary, compressionBlockSize));
+    }
+    return backend;
+  }
+
+  /**
+   * @return the dictionary of a ZSTD_DICTIONARY log, or null if it is not written yet
+   */
+  byte[] getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * Set the dictionary of a ZSTD_DICTIONARY log, which must be written right after the header.
+   * An empty dictionary compresses like plain ZSTD.
+   */
+  void setDictionary(byte[] dictionary) {
+    if (compressionType != CompressionType.ZSTD_DICTIONARY) {
+      throw new IllegalStateException("Only " + CompressionType.ZSTD_DICTIONARY + " logs have a dictionary");
+    }
+    this.dictionary = dictionary;
+    backend = null;
   }
 
   public long getDataEnd() {
@@ -171,8 +281,25 @@ public final class LogHeader extends CommonHeader {
     deleteSize += size;
   }
 
+  /**
+   * @return where the entries start, after the header and the dictionary region if there is one
+   */
   public long size() {
-    return HEADER_SIZE;
+    return dictionary == null ? HEADER_SIZE : HEADER_SIZE + 4 + dictionary.length;
+  }
+
+  /**
+   * Account for the entries of another log that was appended after the data of this one.
+   * Only merges the counters, the new data end must be set with {@link #setDataEnd(long)}.
+   */
+  void append(LogHeader other) {
+    numPuts += other.numPuts;
+    numDeletes += other.numDeletes;
+    maxKeyLen = Math.max(maxKeyLen, other.maxKeyLen);
+    maxValueLen = Math.max(maxValueLen, other.maxValueLen);
+    putSize += other.putSize;
+    deleteSize += other.deleteSize;
+    maxEntriesPerBlock = Math.max(maxEntriesPerBlock, other.maxEntriesPerBlock);
   }
 
   void setDataEnd(long dataEnd) {
@@ -193,8 +320,10 @@ public final class LogHeader extends CommonHeader {
             ",\n deleteSize=" + deleteSize +
             ",\n putSize=" + putSize +
             ",\n compressionType=" + compressionType +
+            ",\n compressionOptions=" + compressionOptions +
             ",\n compressionBlockSize=" + compressionBlockSize +
             ",\n maxEntriesPerBlock=" + maxEntriesPerBlock +
+            (dictionary == null ? "" : ",\n dictionarySize=" + dictionary.length) +
             '}';
   }
 
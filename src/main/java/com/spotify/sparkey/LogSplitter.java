@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Finds positions where a log file can be split into independently readable segments.
+ *
+ * A segment must start at an entry boundary for uncompressed logs, and at a block
+ * boundary for compressed logs, since entry indexes and decompression both restart there.
+ * Entries may span several blocks of a compressed log, so the block must also start with an entry.
+ */
+final class LogSplitter {
+  // Number of index slots to sample per wanted segment
+  private static final int SAMPLES_PER_PART = 256;
+
+  private LogSplitter() {
+  }
+
+  /**
+   * Split [start, end) into at most {@code parts} segments of roughly equal size.
+   *
+   * If a matching index file is given, its addresses are sampled to find boundaries,
+   * which only touches a few pages of the index. Otherwise the log is walked block by
+   * block (or entry by entry for uncompressed logs).
+   *
+   * @return the sorted segment boundaries, starting with start and ending with end
+   */
+  static long[] split(File logFile, File indexFile, LogHeader header, long start, long end, int parts) throws IOException {
+    if (parts < 1) {
+      throw new IllegalArgumentException("parts must be positive: " + parts);
+    }
+    if (parts == 1 || end - start <= 1) {
+      return new long[] {start, end};
+    }
+
+    long[] targets = targets(start, end, parts);
+    return pick(start, end, targets, candidates(logFile, indexFile, header, start, end, targets));
+  }
+
+  /**
+   * Find positions in (start, end) where the log can be split, for up to {@code parts} segments.
+   *
+   * This does the same sampling (or walking) as {@link #split}, but returns all candidates,
+   * so that callers that split repeatedly only have to look them up once.
+   *
+   * @return the sorted candidate positions
+   */
+  static long[] candidates(File logFile, File indexFile, LogHeader header, long start, long end, int parts) throws IOException {
+    if (parts < 2 || end - start <= 1) {
+      return new long[0];
+    }
+    return candidates(logFile, indexFile, header, start, end, targets(start, end, parts));
+  }
+
+  private static long[] candidates(File logFile, File indexFile, LogHeader header, long start, long end, long[] targets) throws IOException {
+    long[] candidates = indexFile == null ? null : sampleIndex(indexFile, header, start, end, targets.length + 1);
+    if (candidates == null) {
+      candidates = walk(logFile, header, start, end, targets);
+    }
+    return candidates;
+  }
+
+  private static long[] targets(long start, long end, int parts) {
+    long[] targets = new long[parts - 1];
+    for (int i = 1; i < parts; i++) {
+      targets[i - 1] = start + (long) ((end - start) * ((double) i / parts));
+    }
+    return targets;
+  }
+
+  private static long[] pick(long start, long end, long[] targets, long[] candidates) {
+    long[] boundaries = new long[targets.length + 2];
+    int numBoundaries = 0;
+    boundaries[numBoundaries++] = start;
+    int c = 0;
+    for (long target : targets) {
+      while (c < candidates.length && candidates[c] < target) {
+        c++;
+      }
+      if (c == candidates.length) {
+        break;
+      }
+      long candidate = candidates[c];
+      if (candidate > boundaries[numBoundaries - 1] && candidate < end) {
+        boundaries[numBoundaries++] = candidate;
+      }
+    }
+    boundaries[numBoundaries++] = end;
+    return Arrays.copyOf(boundaries, numBoundaries);
+  }
+
+  /**
+   * @return sorted block positions referenced by the index, or null if there is no usable index.
+   */
+  private static long[] sampleIndex(File indexFile, LogHeader logHeader, long start, long end, int parts) throws IOException {
+    if (!indexFile.isFile()) {
+      return null;
+    }
+    IndexHeader header;
+    try {
+      header = IndexHeader.read(indexFile);
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+    if (header.getFileIdentifier() != logHeader.getFileIdentifier()
+        || header.getDataEnd() < end
+        || indexFile.length() != header.size() + header.getHashLength()) {
+      return null;
+    }
+    long capacity = header.getHashCapacity();
+    long numSamples = Math.min(capacity, (long) parts * SAMPLES_PER_PART);
+    if (header.getNumEntries() < numSamples) {
+      return null;
+    }
+
+    AddressSize addressData = header.getAddressData();
+    int entryBlockBits = header.getEntryBlockBits();
+    int slotSize = header.getSlotSize();
+    long addressOffset = header.size() + header.getHashSize();
+
+    long[] positions = new long[(int) numSamples];
+    int numPositions = 0;
+    ReadOnlyMemMap indexData = new ReadOnlyMemMap(indexFile);
+    try {
+      for (long i = 0; i < numSamples; i++) {
+        long slot = (long) (capacity * ((double) i / numSamples));
+        indexData.seek(addressOffset + slot * slotSize);
+        long address = addressData.readAddress(indexData);
+        if (address != 0) {
+          long position = address >>> entryBlockBits;
+          if (position > start && position < end) {
+            positions[numPositions++] = position;
+          }
+        }
+      }
+    } finally {
+      indexData.close();
+    }
+    positions = Arrays.copyOf(positions, numPositions);
+    Arrays.sort(positions);
+    return positions;
+  }
+
+  /**
+   * @return the first block (or entry) position at or after each target that starts with an entry.
+   */
+  private static long[] walk(File logFile, LogHeader header, long start, long end, long[] targets) throws IOException {
+    boolean compressed = header.getCompressionType() != CompressionType.NONE;
+    int blockSize = header.getCompressionBlockSize();
+    BlockCompressor compressor = null;
+    byte[] compressedBuf = null;
+    byte[] uncompressedBuf = null;
+    if (compressed) {
+      compressor = ((CompressionTypeBackendCompressed) header.getCompressionTypeBackend()).getCompressor();
+      compressedBuf = new byte[compressor.maxCompressedLength(blockSize)];
+      uncompressedBuf = new byte[blockSize];
+    }
+
+    long[] positions = new long[targets.length];
+    int numPositions = 0;
+    BlockRandomInput logData = new UncompressedBlockRandomInput(new ReadOnlyMemMap(logFile));
+    try {
+      long pos = start;
+      boolean entryStart = true;
+      logData.seek(pos);
+      for (long target : targets) {
+        while ((pos < target || !entryStart) && pos < end) {
+          if (compressed) {
+            int compressedSize = Util.readUnsignedVLQInt(logData);
+            long next = pos + Util.unsignedVLQSize(compressedSize) + compressedSize;
+            if (next >= target) {
+              // Only a full block can end in the middle of an entry
+              logData.readFully(compressedBuf, 0, compressedSize);
+              entryStart = compressor.uncompress(compressedBuf, compressedSize, uncompressedBuf) < blockSize;
+            } else {
+              logData.skipBytes(compressedSize);
+            }
+            pos = next;
+          } else {
+            int first = Util.readUnsignedVLQInt(logData);
+            int second = Util.readUnsignedVLQInt(logData);
+            long skip = first == 0 ? second : first - 1 + (long) second;
+            logData.skipBytes(skip);
+            pos += Util.unsignedVLQSize(first) + Util.unsignedVLQSize(second) + skip;
+          }
+        }
+        if (pos >= end) {
+          break;
+        }
+        positions[numPositions++] = pos;
+      }
+    } finally {
+      logData.close();
+    }
+    return Arrays.copyOf(positions, numPositions);
+  }
+}
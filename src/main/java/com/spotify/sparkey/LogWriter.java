@@ -16,19 +16,42 @@
 package com.spotify.sparkey;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 final class LogWriter {
   private final LogHeader header;
   private final File file;
-  private final BlockOutput logStream;
+  private final ChannelOutputStream output;
+  // Null while the first entries of a new ZSTD_DICTIONARY log are sampled
+  private BlockOutput logStream;
+  private DictionarySample sample;
+  // Where the entries written by this writer start
+  private long dataStart;
+  private HashCapture capture;
+  private int compressionThreads;
   private boolean closed;
 
-  private LogWriter(File file, CompressionType compressionType, int compressionBlockSize) throws IOException {
+  private volatile GroupCommitter committer;
+  private long maxCommitBytes;
+  // Where the last requested commit ends
+  private long requestedEnd;
+  // Where the last synchronously synced data ends
+  private volatile long durableOffset;
+
+  private LogWriter(File file, CompressionType compressionType, int compressionBlockSize,
+                    CompressionOptions compressionOptions) throws IOException {
     this.file = file;
-    header = new LogHeader(compressionType, compressionBlockSize);
-    header.write(file, false);
-    logStream = setup(header, file);
+    header = new LogHeader(compressionType, compressionBlockSize, compressionOptions);
+    dataStart = header.getDataEnd();
+    durableOffset = dataStart;
+    output = open(file, dataStart);
+    header.write(output.getChannel(), false);
+    startOrSample();
   }
 
   private LogWriter(File file) throws IOException {
@@ -37,31 +60,114 @@ final class LogWriter {
       throw new FileNotFoundException(file.getCanonicalPath());
     }
     header = LogHeader.read(file);
-    logStream = setup(header, file);
+    dataStart = header.getDataEnd();
+    durableOffset = dataStart;
+    output = open(file, dataStart);
+    startOrSample();
+  }
+
+  /**
+   * Start writing entries, unless the log still needs a dictionary, which is trained on
+   * the first entries before they are written.
+   */
+  private void startOrSample() throws IOException {
+    if (header.getCompressionType() == CompressionType.ZSTD_DICTIONARY && header.getDictionary() == null) {
+      sample = new DictionarySample();
+    } else {
+      logStream = setup(header, output);
+    }
+  }
+
+  /**
+   * Train the dictionary on the sampled entries, write it after the header and then write the entries.
+   * Does nothing if the log is already started.
+   */
+  private void startLog() throws IOException {
+    DictionarySample sample = this.sample;
+    if (sample == null) {
+      return;
+    }
+    this.sample = null;
+    header.setDictionary(ZstdCompressor.train(sample.samples(header.getCompressionBlockSize())));
+    output.write(header.encodeDictionary());
+    dataStart = header.size();
+    header.setDataEnd(dataStart);
+    logStream = setup(header, output);
+    if (compressionThreads > 0) {
+      logStream.setCompressionThreads(compressionThreads);
+    }
+    setCapture(capture);
+    sample.replay(this);
   }
 
   File getFile() {
     return file;
   }
 
-  private static BlockOutput setup(LogHeader header, File file) throws IOException {
-    truncate(file, header.getDataEnd());
-    FileOutputStream fileOutputStream = new FileOutputStream(file, true);
-    Sparkey.incrOpenFiles();
-    FileDescriptor fd = fileOutputStream.getFD();
-    OutputStream stream = new BufferedOutputStream(fileOutputStream, 1024 * 1024);
-    return header.getCompressionTypeBackend().createBlockOutput(fd, stream, header.getCompressionBlockSize(),
-            header.getMaxEntriesPerBlock());
+  long getNumEntries() {
+    return header.getNumPuts() + header.getNumDeletes() + (sample == null ? 0 : sample.size());
+  }
+
+  boolean isCompressed() {
+    return header.getCompressionType() != CompressionType.NONE;
+  }
+
+  void setCompressionThreads(int threads) throws IOException {
+    compressionThreads = threads;
+    if (logStream != null) {
+      logStream.setCompressionThreads(threads);
+    }
+  }
+
+  /**
+   * Record the hash of every entry written from now on, or stop recording if capture is null.
+   * For compressed logs, the capture must record block numbers.
+   */
+  void setCapture(HashCapture capture) {
+    this.capture = capture;
+    if (logStream == null) {
+      // Applied when the log is started
+      return;
+    }
+    logStream.setBlockListener(capture == null ? null : offset -> capture.addBlock(dataStart + offset));
+  }
+
+  private void capture(byte[] key, int keyOff, int keyLen, SparkeyReader.Type type) throws IOException {
+    if (capture != null) {
+      capture.add(key, keyOff, keyLen, getLastEntryBlock(), logStream.getLastEntryIndex(), type);
+    }
   }
 
-  private static void truncate(File file, long size) throws IOException {
-    try (RandomAccessFile rw = new RandomAccessFile(file, "rw")) {
-      rw.setLength(size);
+  private long getLastEntryBlock() {
+    long block = logStream.getLastEntryBlock();
+    if (!isCompressed()) {
+      block += dataStart;
     }
+    return block;
+  }
+
+  /**
+   * Open the file for appending at dataEnd, dropping anything after it.
+   * The same channel is kept open for rewriting the header.
+   */
+  private static ChannelOutputStream open(File file, long dataEnd) throws IOException {
+    ChannelOutputStream output = new ChannelOutputStream(file, dataEnd, ChannelOutputStream.DEFAULT_BUFFER_SIZE);
+    Sparkey.incrOpenFiles();
+    return output;
+  }
+
+  private static BlockOutput setup(LogHeader header, ChannelOutputStream output) throws IOException {
+    return header.getCompressionTypeBackend().createBlockOutput(output, header.getCompressionBlockSize(),
+            header.getMaxEntriesPerBlock());
   }
 
   static LogWriter createNew(File file, CompressionType compressionType, int compressionBlockSize) throws IOException {
-    return new LogWriter(file, compressionType, compressionBlockSize);
+    return createNew(file, compressionType, compressionBlockSize, new CompressionOptions());
+  }
+
+  static LogWriter createNew(File file, CompressionType compressionType, int compressionBlockSize,
+                             CompressionOptions compressionOptions) throws IOException {
+    return new LogWriter(file, compressionType, compressionBlockSize, compressionOptions);
   }
 
   static LogWriter openExisting(File file) throws IOException {
@@ -69,24 +175,104 @@ final class LogWriter {
   }
 
   void flush(boolean fsync) throws IOException {
+    if (closed) {
+      // Everything, including the header, was written when closing
+      return;
+    }
+    startLog();
+    if (committer != null) {
+      GroupCommitter.await(commit());
+      return;
+    }
     logStream.flush(fsync);
     writeHeader(fsync);
+    if (fsync) {
+      durableOffset = header.getDataEnd();
+    }
+  }
+
+  /**
+   * Sync to disk in groups on a background thread, see {@link SparkeyWriter#setGroupCommit(long, long)}.
+   */
+  void setGroupCommit(long maxDelayMillis, long maxBytes) throws IOException {
+    if (closed) {
+      throw new IOException("Writer is closed");
+    }
+    if (committer != null) {
+      throw new IllegalStateException("Group commit is already enabled");
+    }
+    // Start from a synced header, since the committer only syncs what is written after this
+    flush(true);
+    requestedEnd = header.getDataEnd();
+    maxCommitBytes = maxBytes;
+    committer = new GroupCommitter(output.getChannel(), durableOffset, maxDelayMillis, maxBytes, file.getName());
+  }
+
+  /**
+   * Like flush, but with group commit, only request the commit instead of waiting for it.
+   *
+   * @return a future that completes with the durable offset
+   */
+  CompletableFuture<Long> flushAsync(boolean fsync) throws IOException {
+    if (closed || committer == null) {
+      flush(fsync);
+      return CompletableFuture.completedFuture(getDurableOffset());
+    }
+    return commit();
+  }
+
+  /**
+   * Flush the data to the file and request a group commit of it.
+   */
+  private CompletableFuture<Long> commit() throws IOException {
+    logStream.flush(false);
+    header.setMaxEntriesPerBlock(logStream.getMaxEntriesPerBlock());
+    header.setDataEnd(output.position());
+    requestedEnd = header.getDataEnd();
+    return committer.request(requestedEnd, header.encode());
+  }
+
+  private void commitIfFull() throws IOException {
+    if (committer != null && output.position() - requestedEnd >= maxCommitBytes) {
+      commit();
+    }
+  }
+
+  long getDurableOffset() {
+    GroupCommitter committer = this.committer;
+    return committer != null ? committer.getDurableOffset() : durableOffset;
   }
 
   private void writeHeader(boolean fsync) throws IOException {
     header.setMaxEntriesPerBlock(logStream.getMaxEntriesPerBlock());
-    header.setDataEnd(file.length());
-    header.write(file, fsync);
+    header.setDataEnd(output.position());
+    header.write(output.getChannel(), fsync);
   }
 
   void close(boolean fsync) throws IOException {
     if (closed) {
       return;
     }
+    startLog();
+    GroupCommitter committer = this.committer;
+    if (committer != null) {
+      try {
+        commit();
+      } finally {
+        committer.close();
+      }
+      durableOffset = committer.getDurableOffset();
+      this.committer = null;
+    }
     closed = true;
-    logStream.close(fsync);
-    Sparkey.decrOpenFiles();
+    // The header is written before closing, since it shares the channel with the log
+    logStream.flush(fsync);
     writeHeader(fsync);
+    if (fsync) {
+      durableOffset = header.getDataEnd();
+    }
+    logStream.close(false);
+    Sparkey.decrOpenFiles();
   }
 
   void put(String key, String value) throws IOException {
@@ -94,13 +280,65 @@ final class LogWriter {
   }
 
   void put(byte[] key, byte[] value) throws IOException {
-    logStream.put(key, key.length, value, value.length);
-    header.put(key.length, value.length);
+    put(key, 0, key.length, value, 0, value.length);
+  }
+
+  void put(byte[] key, int keyOff, int keyLen, byte[] value, int valueOff, int valueLen) throws IOException {
+    if (holdBack(keyLen + (long) valueLen)) {
+      sample.add(key, keyOff, keyLen, Arrays.copyOfRange(value, valueOff, valueOff + valueLen));
+      return;
+    }
+    logStream.put(key, keyOff, keyLen, value, valueOff, valueLen);
+    header.put(keyLen, valueLen);
+    capture(key, keyOff, keyLen, SparkeyReader.Type.PUT);
+    commitIfFull();
+  }
+
+  /**
+   * Like put, for a key that is already hashed with the hash type and seed of the capture.
+   * Entries held back for the dictionary sample are hashed again when they are written.
+   */
+  void put(long hash, byte[] key, int keyOff, int keyLen, byte[] value, int valueOff, int valueLen) throws IOException {
+    if (holdBack(keyLen + (long) valueLen)) {
+      sample.add(key, keyOff, keyLen, Arrays.copyOfRange(value, valueOff, valueOff + valueLen));
+      return;
+    }
+    logStream.put(key, keyOff, keyLen, value, valueOff, valueLen);
+    header.put(keyLen, valueLen);
+    if (capture != null) {
+      capture.add(hash, getLastEntryBlock(), logStream.getLastEntryIndex(), SparkeyReader.Type.PUT);
+    }
+    commitIfFull();
+  }
+
+  /**
+   * Write the remaining bytes of value, without changing its position.
+   */
+  void put(byte[] key, int keyOff, int keyLen, ByteBuffer value) throws IOException {
+    int valueLen = value.remaining();
+    if (holdBack(keyLen + (long) valueLen)) {
+      byte[] valueCopy = new byte[valueLen];
+      value.duplicate().get(valueCopy);
+      sample.add(key, keyOff, keyLen, valueCopy);
+      return;
+    }
+    logStream.put(key, keyOff, keyLen, value.duplicate());
+    header.put(keyLen, valueLen);
+    capture(key, keyOff, keyLen, SparkeyReader.Type.PUT);
+    commitIfFull();
   }
 
   void put(byte[] key, InputStream value, long valueLen) throws IOException {
-    logStream.put(key, key.length, value, valueLen);
+    if (holdBack(key.length + valueLen)) {
+      byte[] valueCopy = new byte[(int) valueLen];
+      Util.readFully(value, valueCopy, valueCopy.length);
+      sample.add(key, 0, key.length, valueCopy);
+      return;
+    }
+    logStream.put(key, 0, key.length, value, valueLen);
     header.put(key.length, valueLen);
+    capture(key, 0, key.length, SparkeyReader.Type.PUT);
+    commitIfFull();
   }
 
   void delete(String key) throws IOException {
@@ -108,10 +346,102 @@ final class LogWriter {
   }
 
   void delete(byte[] key) throws IOException {
-    if (key.length <= header.getMaxKeyLen()) {
-      logStream.delete(key, key.length);
-      header.delete(key.length);
+    delete(key, 0, key.length);
+  }
+
+  void delete(byte[] key, int keyOff, int keyLen) throws IOException {
+    // Sampled deletes are checked against the key lengths when they are replayed
+    if (holdBack(keyLen)) {
+      sample.add(key, keyOff, keyLen, null);
+      return;
+    }
+    if (keyLen <= header.getMaxKeyLen()) {
+      logStream.delete(key, keyOff, keyLen);
+      header.delete(keyLen);
+      capture(key, keyOff, keyLen, SparkeyReader.Type.DELETE);
+      commitIfFull();
+    }
+  }
+
+  /**
+   * @return true if an entry of the given size should be held back for the dictionary sample.
+   * Starts the log if the sample is full.
+   */
+  private boolean holdBack(long entrySize) throws IOException {
+    if (sample == null) {
+      return false;
+    }
+    if (sample.fits(entrySize)) {
+      return true;
     }
+    startLog();
+    return false;
   }
 
+  /**
+   * The first entries of a new ZSTD_DICTIONARY log, held back until there are enough of them to train
+   * the dictionary on, since the dictionary is written before the first block.
+   */
+  private static final class DictionarySample {
+    private final List<byte[]> keys = new ArrayList<>();
+    // Null for deletes
+    private final List<byte[]> values = new ArrayList<>();
+    private long size;
+
+    boolean fits(long entrySize) {
+      return size + entrySize <= ZstdCompressor.MAX_SAMPLE_SIZE;
+    }
+
+    /**
+     * @param value the value, owned by the sample, or null for a delete
+     */
+    void add(byte[] key, int keyOff, int keyLen, byte[] value) {
+      keys.add(Arrays.copyOfRange(key, keyOff, keyOff + keyLen));
+      values.add(value);
+      size += keyLen + (value == null ? 0 : value.length);
+    }
+
+    int size() {
+      return keys.size();
+    }
+
+    /**
+     * @return the puts, encoded like in the log and grouped into samples the size of a block
+     */
+    List<byte[]> samples(int blockSize) throws IOException {
+      List<byte[]> samples = new ArrayList<>();
+      ByteArrayOutputStream block = new ByteArrayOutputStream();
+      for (int i = 0; i < keys.size(); i++) {
+        byte[] key = keys.get(i);
+        byte[] value = values.get(i);
+        if (value == null) {
+          continue;
+        }
+        Util.writeUnsignedVLQ(key.length + 1, block);
+        Util.writeUnsignedVLQ(value.length, block);
+        block.write(key);
+        block.write(value);
+        if (block.size() >= blockSize) {
+          samples.add(block.toByteArray());
+          block.reset();
+        }
+      }
+      if (block.size() > 0) {
+        samples.add(block.toByteArray());
+      }
+      return samples;
+    }
+
+    void replay(LogWriter writer) throws IOException {
+      for (int i = 0; i < keys.size(); i++) {
+        byte[] key = keys.get(i);
+        byte[] value = values.get(i);
+        if (value == null) {
+          writer.delete(key);
+        } else {
+          writer.put(key, value);
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.IOException;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * LZ4 with the high compression compressor at a given level. The blocks are plain LZ4 blocks,
+ * which decompress just as fast as those of the fast compressor.
+ */
+final class Lz4HighCompressor implements BlockCompressor {
+  private final LZ4Compressor compressor;
+
+  Lz4HighCompressor(int level) {
+    compressor = LZ4Factory.fastestInstance().highCompressor(level);
+  }
+
+  @Override
+  public int maxCompressedLength(int blockSize) {
+    return compressor.maxCompressedLength(blockSize);
+  }
+
+  @Override
+  public int uncompress(byte[] compressed, int compressedSize, byte[] uncompressed) throws IOException {
+    return CompressorType.LZ4.uncompress(compressed, compressedSize, uncompressed);
+  }
+
+  @Override
+  public int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) throws IOException {
+    return compressor.compress(uncompressed, 0, uncompressedSize, compressed, 0, compressed.length);
+  }
+}
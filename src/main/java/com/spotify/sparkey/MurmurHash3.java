@@ -16,6 +16,10 @@ package com.spotify.sparkey;
 final class MurmurHash3 {
 
   static int murmurHash3_x86_32(byte[] data, int len, int seed) {
+    return murmurHash3_x86_32(data, 0, len, seed);
+  }
+
+  static int murmurHash3_x86_32(byte[] data, int off, int len, int seed) {
     final int nblocks = len / 4;
 
     int h1 = seed;
@@ -27,7 +31,7 @@ final class MurmurHash3 {
     // body
 
     for (int i = 0; i < nblocks; i++) {
-      int k1 = getBlock32(data, 4 * i);
+      int k1 = getBlock32(data, off + 4 * i);
 
       k1 *= c1;
       k1 = (k1 << 15) | (k1 >>> (32 - 15));
@@ -41,7 +45,7 @@ final class MurmurHash3 {
     //----------
     // tail
 
-    int tail = 4 * nblocks;
+    int tail = off + 4 * nblocks;
 
     int k1 = 0;
 
@@ -81,9 +85,9 @@ final class MurmurHash3 {
             Util.unsignedByte(data[i + 3]) << 24;
   }
 
-  private static long getBlock64(byte[] data, int i) {
-    long low = ((long) getBlock32(data, 8 * i)) & 0xFFFFFFFFL;
-    long high = ((long) getBlock32(data, 8 * i + 4)) & 0xFFFFFFFFL;
+  private static long getBlock64(byte[] data, int off, int i) {
+    long low = ((long) getBlock32(data, off + 8 * i)) & 0xFFFFFFFFL;
+    long high = ((long) getBlock32(data, off + 8 * i + 4)) & 0xFFFFFFFFL;
     return low | high << 32;
   }
 
@@ -98,6 +102,10 @@ final class MurmurHash3 {
   }
 
   static long murmurHash3_x64_64(byte[] data, int len, int seed) {
+    return murmurHash3_x64_64(data, 0, len, seed);
+  }
+
+  static long murmurHash3_x64_64(byte[] data, int off, int len, int seed) {
     final int nblocks = len / 16;
 
     long h1 = ((long) seed) & 0xFFFFFFFFL;
@@ -110,8 +118,8 @@ final class MurmurHash3 {
     // body
 
     for (int i = 0; i < nblocks; i++) {
-      long k1 = getBlock64(data, 2 * i);
-      long k2 = getBlock64(data, 2 * i + 1);
+      long k1 = getBlock64(data, off, 2 * i);
+      long k2 = getBlock64(data, off, 2 * i + 1);
 
       k1 *= c1;
       k1 = ROTL64(k1, 31);
@@ -135,7 +143,7 @@ final class MurmurHash3 {
     //----------
     // tail
 
-    int tail = 16 * nblocks;
+    int tail = off + 16 * nblocks;
 
     long k1 = 0;
     long k2 = 0;
@@ -0,0 +1,553 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fills a hash index from a log using multiple threads.
+ *
+ * The result is identical to the SORTING construction. In a run of occupied slots, entries are
+ * ordered by wanted slot, and entries with the same wanted slot by the address that inserted their
+ * key (after its last delete, if any). The builder computes that layout directly:
+ * <ol>
+ *   <li>The log is split into segments, which are decoded and hashed concurrently, or read from the
+ *   hashes captured by the writer. Every entry is buffered by the partition (range of wanted slots)
+ *   it belongs to.</li>
+ *   <li>Each partition sorts its entries by wanted slot, in log order, and resolves overwrites and
+ *   deletes. Keys are only compared for entries with equal hashes, like when inserting.</li>
+ *   <li>The first slot of each partition follows from the live entry counts, including the entries
+ *   that spill over from the previous partition or wrap around the end of the table.</li>
+ *   <li>The partitions write their disjoint slot ranges concurrently.</li>
+ * </ol>
+ * This needs about 16 bytes of memory per log entry, on top of the index itself.
+ */
+final class ParallelIndexBuilder {
+  // Not marked as final to support tweaking for test purposes
+  static int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+  // Log segments and partitions per thread, for load balancing
+  private static final int TASKS_PER_THREAD = 4;
+
+  // Bound the size of the per partition arrays
+  private static final long MAX_PARTITION_SLOTS = 1 << 22;
+  private static final long MAX_PARTITION_ENTRIES = 1 << 24;
+
+  private final InMemoryData indexData;
+  private final File logFile;
+  private final IndexHeader header;
+  private final LogHeader logHeader;
+  private final HashCapture capture;
+  private final HashType hashData;
+  private final AddressSize addressData;
+  private final long capacity;
+  private final int slotSize;
+  private final int entryBlockBits;
+  private final int entryBlockBitmask;
+  private final long slotsPerPartition;
+  private final int numPartitions;
+  private final int threads;
+  private final ExecutorService executor;
+
+  private ParallelIndexBuilder(InMemoryData indexData, File logFile, IndexHeader header, LogHeader logHeader,
+                               HashCapture capture, int threads, ExecutorService executor) {
+    this.indexData = indexData;
+    this.logFile = logFile;
+    this.header = header;
+    this.logHeader = logHeader;
+    this.capture = capture;
+    this.threads = threads;
+    this.executor = executor;
+    hashData = header.getHashType();
+    addressData = header.getAddressData();
+    capacity = header.getHashCapacity();
+    slotSize = header.getSlotSize();
+    entryBlockBits = header.getEntryBlockBits();
+    entryBlockBitmask = header.getEntryBlockBitsBitmask();
+
+    long numLogEntries = logHeader.getNumPuts() + logHeader.getNumDeletes();
+    long wantedPartitions = Math.max((long) threads * TASKS_PER_THREAD, Math.max(
+        divideRoundingUp(capacity, MAX_PARTITION_SLOTS),
+        divideRoundingUp(numLogEntries, MAX_PARTITION_ENTRIES)));
+    slotsPerPartition = divideRoundingUp(capacity, Math.min(capacity, wantedPartitions));
+    numPartitions = (int) divideRoundingUp(capacity, slotsPerPartition);
+  }
+
+  /**
+   * Fill an empty index with the entries of the log, and update the entry counts and
+   * displacement statistics of the header.
+   *
+   * @param capture the hashes of the log entries, or null to read them from the log
+   */
+  static void fill(InMemoryData indexData, File logFile, IndexHeader header, LogHeader logHeader,
+                   HashCapture capture, int threads) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be positive: " + threads);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+    try {
+      new ParallelIndexBuilder(indexData, logFile, header, logHeader, capture, threads, executor).fill();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void fill() throws IOException {
+    final List<Records[]> segments = runAll(readTasks());
+
+    final BlockRandomInput logData = logHeader.getCompressionTypeBackend().createRandomAccessData(
+        new ReadOnlyMemMap(logFile), logHeader.getCompressionBlockSize());
+    final List<Partition> partitions;
+    try {
+      List<Callable<Partition>> resolveTasks = new ArrayList<>();
+      for (int i = 0; i < numPartitions; i++) {
+        final int partition = i;
+        resolveTasks.add(() -> {
+          BlockRandomInput duplicate = logData.duplicate();
+          try {
+            return resolvePartition(partition, segments, new Resolver(duplicate));
+          } finally {
+            duplicate.closeDuplicate();
+          }
+        });
+      }
+      partitions = runAll(resolveTasks);
+    } finally {
+      logData.close();
+    }
+
+    placePartitions(partitions);
+
+    List<Callable<Void>> writeTasks = new ArrayList<>();
+    for (final Partition partition : partitions) {
+      writeTasks.add(() -> {
+        writePartition(partition, indexData.view());
+        return null;
+      });
+    }
+    runAll(writeTasks);
+
+    List<Callable<DisplacementStats>> statsTasks = new ArrayList<>();
+    for (int i = 0; i < numPartitions; i++) {
+      final long fromSlot = i * slotsPerPartition;
+      final long toSlot = Math.min(capacity, fromSlot + slotsPerPartition);
+      statsTasks.add(() -> DisplacementStats.scan(header, indexData.view(), fromSlot, toSlot));
+    }
+    DisplacementStats.apply(header, runAll(statsTasks).toArray(new DisplacementStats[0]));
+
+    long numEntries = 0;
+    long garbageSize = 0;
+    for (Partition partition : partitions) {
+      numEntries += partition.count;
+      garbageSize += partition.garbageSize;
+    }
+    header.setNumEntries(numEntries);
+    header.setGarbageSize(garbageSize);
+  }
+
+  /**
+   * Split the entries into segments in log order, either by ranges of captured entries
+   * or by block boundaries of the log.
+   */
+  private List<Callable<Records[]>> readTasks() throws IOException {
+    List<Callable<Records[]>> readTasks = new ArrayList<>();
+    int numSegments = threads * TASKS_PER_THREAD;
+    if (capture != null) {
+      long numEntries = capture.getNumEntries();
+      for (int i = 0; i < numSegments; i++) {
+        // Created up front, since the capture is not thread safe
+        final HashedEntries entries = capture.entries(
+            numEntries * i / numSegments, numEntries * (i + 1) / numSegments, entryBlockBits);
+        readTasks.add(() -> readSegment(entries));
+      }
+    } else {
+      final long[] boundaries = LogSplitter.split(logFile, Sparkey.getIndexFile(logFile), logHeader,
+          logHeader.size(), header.getDataEnd(), numSegments);
+      for (int i = 0; i + 1 < boundaries.length; i++) {
+        final long start = boundaries[i];
+        final long end = boundaries[i + 1];
+        readTasks.add(() -> readSegment(HashedEntries.fromLog(logFile, logHeader, start, end, hashData, header.getHashSeed())));
+      }
+    }
+    return readTasks;
+  }
+
+  /**
+   * Buffer the hashed entries of a segment by partition, in log order.
+   * The lowest bit of the buffered address is set for puts.
+   */
+  private Records[] readSegment(HashedEntries entries) throws IOException {
+    Records[] records = new Records[numPartitions];
+    try {
+      while (entries.next()) {
+        long hash = entries.getHash();
+        int partition = (int) (IndexHash.getWantedSlot(hash, capacity) / slotsPerPartition);
+        if (records[partition] == null) {
+          records[partition] = new Records();
+        }
+        records[partition].add(hash, entries.getAddress());
+      }
+    } finally {
+      entries.close();
+    }
+    return records;
+  }
+
+  private Partition resolvePartition(int partition, List<Records[]> segments, Resolver resolver) throws IOException {
+    long firstSlot = partition * slotsPerPartition;
+    int numSlots = (int) (Math.min(capacity, firstSlot + slotsPerPartition) - firstSlot);
+
+    long total = 0;
+    for (Records[] segment : segments) {
+      if (segment[partition] != null) {
+        total += segment[partition].size;
+      }
+    }
+    if (total > Integer.MAX_VALUE - 8) {
+      throw new IOException("Too many log entries for hash slots " + firstSlot + " to " + (firstSlot + numSlots));
+    }
+
+    // Counting sort by wanted slot, which keeps the log order within each slot
+    long[] hashes = new long[(int) total];
+    long[] addresses = new long[(int) total];
+    int[] offsets = new int[numSlots + 1];
+    for (Records[] segment : segments) {
+      Records records = segment[partition];
+      for (int i = 0; records != null && i < records.size; i++) {
+        offsets[(int) (IndexHash.getWantedSlot(records.hashes[i], capacity) - firstSlot) + 1]++;
+      }
+    }
+    for (int i = 0; i < numSlots; i++) {
+      offsets[i + 1] += offsets[i];
+    }
+    for (Records[] segment : segments) {
+      Records records = segment[partition];
+      for (int i = 0; records != null && i < records.size; i++) {
+        int index = offsets[(int) (IndexHash.getWantedSlot(records.hashes[i], capacity) - firstSlot)]++;
+        hashes[index] = records.hashes[i];
+        addresses[index] = records.addresses[i];
+      }
+      segment[partition] = null;
+    }
+
+    // offsets[i] is now the end of the entries of slot i.
+    // The live entries are compacted into the front of the arrays.
+    int count = 0;
+    int from = 0;
+    long lastPosition = firstSlot - 1;
+    for (int i = 0; i < numSlots; i++) {
+      int to = offsets[i];
+      if (to > from) {
+        int before = count;
+        count = resolver.resolve(hashes, addresses, from, to, count);
+        int added = count - before;
+        if (added > 0) {
+          lastPosition = Math.max(firstSlot + i + added - 1, lastPosition + added);
+        }
+      }
+      from = to;
+    }
+    return new Partition(firstSlot, hashes, addresses, count, lastPosition + 1, resolver.garbageSize);
+  }
+
+  /**
+   * Compute the first slot of every partition.
+   *
+   * Entries are placed at their wanted slot, or right after the previous entry if that is taken,
+   * so the end of a partition depends on where it starts only through the spill from the previous
+   * partition: end = max(end if starting at its first slot, start + count).
+   * Entries spilling past the end of the table wrap around to the first partition,
+   * which can in turn push the last partition further, so iterate until it is stable.
+   */
+  private void placePartitions(List<Partition> partitions) throws IOException {
+    long wrapped = 0;
+    while (true) {
+      long end = wrapped;
+      for (Partition partition : partitions) {
+        partition.start = Math.max(partition.firstSlot, end);
+        end = partition.count == 0 ? partition.start : Math.max(partition.localEnd, partition.start + partition.count);
+      }
+      long newWrapped = Math.max(0, end - capacity);
+      if (newWrapped <= wrapped) {
+        return;
+      }
+      if (newWrapped >= capacity) {
+        throw new IOException("No free slots in the hash");
+      }
+      wrapped = newWrapped;
+    }
+  }
+
+  private void writePartition(Partition partition, InMemoryData data) throws IOException {
+    long position = partition.start - 1;
+    long nextSlot = -1;
+    for (int i = 0; i < partition.count; i++) {
+      long hash = partition.hashes[i];
+      position = Math.max(IndexHash.getWantedSlot(hash, capacity), position + 1);
+      long slot = position >= capacity ? position - capacity : position;
+      if (slot != nextSlot) {
+        data.seek(slot * slotSize);
+      }
+      hashData.writeHash(hash, data);
+      addressData.writeAddress(partition.addresses[i], data);
+      nextSlot = slot + 1;
+    }
+  }
+
+  /**
+   * Run the tasks and wait for all of them to finish, even if some fail,
+   * since they may be using resources that are closed after this returns.
+   */
+  private <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+    List<Future<T>> futures = new ArrayList<>(tasks.size());
+    for (Callable<T> task : tasks) {
+      futures.add(executor.submit(task));
+    }
+    List<T> results = new ArrayList<>(tasks.size());
+    Throwable failure = null;
+    for (Future<T> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        for (Future<T> other : futures) {
+          other.cancel(true);
+        }
+        throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    }
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    }
+    if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+    if (failure != null) {
+      throw new RuntimeException(failure);
+    }
+    return results;
+  }
+
+  private static long divideRoundingUp(long value, long divisor) {
+    return (value + divisor - 1) / divisor;
+  }
+
+  /**
+   * Resolves the entries of a single wanted slot into the live entries, in index order.
+   */
+  private final class Resolver {
+    private final BlockRandomInput logData;
+    private final byte[] keyBuf;
+    private final byte[] keyBuf2;
+    private int keyLen;
+    private int valueLen;
+    private long garbageSize;
+
+    // Distinct keys of the current wanted slot
+    private long[] stateHash = new long[0];
+    private long[] stateKeyAddress = new long[0];
+    private byte[][] stateKey = new byte[0][];
+    private long[] stateAnchor = new long[0];
+    private long[] stateLive = new long[0];
+    private Integer[] order = new Integer[0];
+
+    private Resolver(BlockRandomInput logData) {
+      this.logData = logData;
+      keyBuf = new byte[(int) logHeader.getMaxKeyLen()];
+      keyBuf2 = new byte[(int) logHeader.getMaxKeyLen()];
+    }
+
+    /**
+     * @return the new number of live entries, after adding the live entries of [from, to) at index count
+     */
+    int resolve(long[] hashes, long[] addresses, int from, int to, int count) throws IOException {
+      if (to - from == 1) {
+        // Common case: nothing to overwrite or delete
+        if ((addresses[from] & 1) != 0) {
+          hashes[count] = hashes[from];
+          addresses[count] = addresses[from] >>> 1;
+          count++;
+        }
+        return count;
+      }
+
+      ensureCapacity(to - from);
+      int numStates = 0;
+      for (int i = from; i < to; i++) {
+        long hash = hashes[i];
+        long address = addresses[i] >>> 1;
+        boolean put = (addresses[i] & 1) != 0;
+
+        int state = -1;
+        int keyLen = -1;
+        for (int s = 0; s < numStates && state == -1; s++) {
+          if (stateHash[s] == hash) {
+            byte[] key2 = getStateKey(s);
+            if (keyLen == -1) {
+              keyLen = readEntry(address, keyBuf);
+            }
+            if (keyLen == key2.length && Util.equals(keyLen, keyBuf, key2)) {
+              state = s;
+            }
+          }
+        }
+
+        if (state == -1) {
+          if (!put) {
+            // Deleting a key that doesn't exist
+            continue;
+          }
+          state = numStates++;
+          stateHash[state] = hash;
+          stateKeyAddress[state] = address;
+          stateKey[state] = keyLen == -1 ? null : Arrays.copyOf(keyBuf, keyLen);
+          stateLive[state] = 0;
+        }
+
+        if (stateLive[state] != 0) {
+          // Overwritten or deleted
+          readEntry(stateLive[state], keyBuf2);
+          garbageSize += this.keyLen + this.valueLen
+              + Util.unsignedVLQSize(this.keyLen + 1) + Util.unsignedVLQSize(this.valueLen);
+        } else if (put) {
+          stateAnchor[state] = address;
+        }
+        stateLive[state] = put ? address : 0;
+      }
+
+      for (int s = 0; s < numStates; s++) {
+        order[s] = s;
+      }
+      Arrays.sort(order, 0, numStates, (a, b) -> Long.compare(stateAnchor[a], stateAnchor[b]));
+      for (int s = 0; s < numStates; s++) {
+        int state = order[s];
+        if (stateLive[state] != 0) {
+          hashes[count] = stateHash[state];
+          addresses[count] = stateLive[state];
+          count++;
+        }
+      }
+      return count;
+    }
+
+    private byte[] getStateKey(int state) throws IOException {
+      if (stateKey[state] == null) {
+        int len = readEntry(stateKeyAddress[state], keyBuf2);
+        stateKey[state] = Arrays.copyOf(keyBuf2, len);
+      }
+      return stateKey[state];
+    }
+
+    /**
+     * Read the key of an entry, and remember its key and value length.
+     */
+    private int readEntry(long address, byte[] buf) throws IOException {
+      logData.seek(address >>> entryBlockBits);
+      IndexHash.skipStuff((int) address & entryBlockBitmask, logData);
+      int first = Util.readUnsignedVLQInt(logData);
+      int second = Util.readUnsignedVLQInt(logData);
+      if (first == 0) {
+        keyLen = second;
+        valueLen = 0;
+      } else {
+        keyLen = first - 1;
+        valueLen = second;
+      }
+      logData.readFully(buf, 0, keyLen);
+      return keyLen;
+    }
+
+    private void ensureCapacity(int size) {
+      if (stateHash.length < size) {
+        stateHash = new long[size];
+        stateKeyAddress = new long[size];
+        stateKey = new byte[size][];
+        stateAnchor = new long[size];
+        stateLive = new long[size];
+        order = new Integer[size];
+      }
+    }
+  }
+
+  private static final class Partition {
+    private final long firstSlot;
+    private final long[] hashes;
+    private final long[] addresses;
+    private final int count;
+    // The end of the partition, if it starts at its first slot
+    private final long localEnd;
+    private final long garbageSize;
+    private long start;
+
+    private Partition(long firstSlot, long[] hashes, long[] addresses, int count, long localEnd, long garbageSize) {
+      this.firstSlot = firstSlot;
+      this.hashes = hashes;
+      this.addresses = addresses;
+      this.count = count;
+      this.localEnd = localEnd;
+      this.garbageSize = garbageSize;
+    }
+  }
+
+  private static final class Records {
+    private long[] hashes = new long[16];
+    private long[] addresses = new long[16];
+    private int size;
+
+    private void add(long hash, long address) {
+      if (size == hashes.length) {
+        if (size > Integer.MAX_VALUE / 2) {
+          throw new IllegalStateException("Too many log entries for a single partition");
+        }
+        hashes = Arrays.copyOf(hashes, size * 2);
+        addresses = Arrays.copyOf(addresses, size * 2);
+      }
+      hashes[size] = hash;
+      addresses[size] = address;
+      size++;
+    }
+  }
+
+  private static final class DaemonThreadFactory implements ThreadFactory {
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "sparkey-index-builder-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sequential reader of a compressed log that decompresses blocks ahead of the consumer.
+ *
+ * The compressed blocks are read from the underlying stream on the consuming thread,
+ * and decompressed by a shared pool of daemon threads into a ring of buffers.
+ * The pool threads only ever touch the ring buffers, never the stream, so closing
+ * (or abandoning) the reader never has to wait for them.
+ *
+ * If the pool is busy with other readers, the consumer decompresses the block it needs itself
+ * instead of waiting in line.
+ *
+ * Blocks are only read ahead up to the end position. Blocks past it are still read on demand,
+ * since an entry that starts before the end may continue in the following blocks.
+ */
+final class ReadAheadCompressedReader extends BlockPositionedInputStream {
+  // Number of blocks to have in flight, including the one being consumed
+  static final int READ_AHEAD_BLOCKS = 4;
+
+  private final BlockCompressor compressor;
+  private final long end;
+  private final Slot[] slots;
+
+  // Position of the next block to schedule
+  private long scanPos;
+
+  // Ring of scheduled slots, the first one being consumed
+  private int head;
+  private int numScheduled;
+
+  private byte[] uncompressedBuf;
+  private int bufPos;
+  private int blockSize;
+
+  private long curBlockStart;
+  private long nextBlockStart;
+
+  public ReadAheadCompressedReader(BlockCompressor compressor, InputStream data, int maxBlockSize, long start, long end) {
+    super(data);
+    this.compressor = compressor;
+    this.end = end;
+    int maxCompressedSize = compressor.maxCompressedLength(maxBlockSize);
+    slots = new Slot[READ_AHEAD_BLOCKS];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new Slot(maxCompressedSize, maxBlockSize);
+    }
+    scanPos = start;
+    curBlockStart = start;
+    nextBlockStart = start;
+  }
+
+  private void schedule() throws IOException {
+    while (numScheduled < slots.length && scanPos < end) {
+      scheduleBlock();
+    }
+  }
+
+  private void scheduleBlock() throws IOException {
+    Slot slot = slots[(head + numScheduled) % slots.length];
+    int compressedSize = Util.readUnsignedVLQInt(input);
+    if (compressedSize > slot.compressedBuf.length) {
+      throw new IOException("Corrupt log: block of " + compressedSize + " bytes at position " + scanPos);
+    }
+    readFully(slot.compressedBuf, compressedSize);
+    slot.blockStart = scanPos;
+    scanPos += Util.unsignedVLQSize(compressedSize) + compressedSize;
+    slot.nextBlockStart = scanPos;
+    slot.compressedSize = compressedSize;
+    slot.task = new FutureTask<>(slot::uncompress);
+    Pool.EXECUTOR.execute(slot.task);
+    numScheduled++;
+  }
+
+  private void readFully(byte[] buf, int len) throws IOException {
+    int off = 0;
+    while (off < len) {
+      int n = input.read(buf, off, len - off);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      off += n;
+    }
+  }
+
+  private void fetchBlock() throws IOException {
+    if (uncompressedBuf != null) {
+      // The current block is consumed, so its slot can be reused
+      uncompressedBuf = null;
+      head = (head + 1) % slots.length;
+      numScheduled--;
+    }
+    schedule();
+    if (numScheduled == 0) {
+      // Past the end, throws EOFException at the end of the data
+      scheduleBlock();
+    }
+    Slot slot = slots[head];
+    // No-op if a pool thread already started on it
+    slot.task.run();
+    int uncompressedSize;
+    try {
+      uncompressedSize = slot.task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+    slot.task = null;
+
+    uncompressedBuf = slot.uncompressedBuf;
+    bufPos = 0;
+    blockSize = uncompressedSize;
+    curBlockStart = slot.blockStart;
+    nextBlockStart = slot.nextBlockStart;
+  }
+
+  @Override
+  public int read() throws IOException {
+    while (bufPos == blockSize) {
+      fetchBlock();
+    }
+    return ((int) uncompressedBuf[bufPos++]) & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int remain = len;
+    while (remain > 0) {
+      if (bufPos == blockSize) {
+        fetchBlock();
+      }
+      int n = Math.min(remain, blockSize - bufPos);
+      System.arraycopy(uncompressedBuf, bufPos, b, off, n);
+      bufPos += n;
+      off += n;
+      remain -= n;
+    }
+    return len;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long remain = n;
+    while (remain > 0) {
+      if (bufPos == blockSize) {
+        fetchBlock();
+      }
+      int skipped = (int) Math.min(remain, blockSize - bufPos);
+      bufPos += skipped;
+      remain -= skipped;
+    }
+    return n;
+  }
+
+  @Override
+  long getBlockPosition() {
+    if (bufPos == blockSize) {
+      return nextBlockStart;
+    }
+    return curBlockStart;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return blockSize - bufPos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Slot slot : slots) {
+      if (slot.task != null) {
+        slot.task.cancel(false);
+        slot.task = null;
+      }
+    }
+    numScheduled = 0;
+    super.close();
+  }
+
+  private final class Slot {
+    private final byte[] compressedBuf;
+    private final byte[] uncompressedBuf;
+    private int compressedSize;
+    private long blockStart;
+    private long nextBlockStart;
+    private FutureTask<Integer> task;
+
+    private Slot(int maxCompressedSize, int maxBlockSize) {
+      compressedBuf = new byte[maxCompressedSize];
+      uncompressedBuf = new byte[maxBlockSize];
+    }
+
+    private int uncompress() throws IOException {
+      return compressor.uncompress(compressedBuf, compressedSize, uncompressedBuf);
+    }
+  }
+
+  private static final class Pool {
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+          private final AtomicInteger counter = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "sparkey-read-ahead-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+}
@@ -264,13 +264,17 @@ final class ReadOnlyMemMap implements RandomAccessData {
   }
 
   public boolean readFullyCompare(int length, byte[] key) throws IOException {
+    return readFullyCompare(length, key, 0);
+  }
+
+  public boolean readFullyCompare(int length, byte[] key, int keyOff) throws IOException {
     ByteBuffer curChunk = getCurChunk();
     int remaining = curChunk.remaining();
     if (remaining >= length) {
       // Fast path: all bytes are in current chunk
       int pos = curChunk.position();
       for (int i = 0; i < length; i++) {
-        if (curChunk.get(pos + i) != key[i]) {
+        if (curChunk.get(pos + i) != key[keyOff + i]) {
           // Still advance position even on mismatch (matches readFully semantics)
           curChunk.position(pos + length);
           return false;
@@ -286,7 +290,7 @@ final class ReadOnlyMemMap implements RandomAccessData {
         int available = Math.min(curChunk.remaining(), length - keyOffset);
         int pos = curChunk.position();
         for (int i = 0; i < available; i++) {
-          if (curChunk.get(pos + i) != key[keyOffset + i]) {
+          if (curChunk.get(pos + i) != key[keyOff + keyOffset + i]) {
             // Still advance position even on mismatch
             curChunk.position(pos + available);
             skipBytes(length - keyOffset - available);
@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sorts key/value records by wanted slot, keeping their order for records with the same wanted slot.
+ *
+ * The records are read into runs that fit in memory, and the keys of every run are hashed once and
+ * sorted with {@link SortHelper}. If all records fit in a single run, they are returned from memory.
+ * Otherwise the sorted runs are written with their hashes to a temporary file, and streamed back
+ * with a heap of run indices, so every record is read sequentially.
+ */
+final class RecordSorter {
+  // Key length and value length
+  static final int RECORD_HEADER_SIZE = 2 * 4;
+
+  // Hash, before the record in a run file
+  private static final int HASH_SIZE = 8;
+
+  private static final int IO_BUFFER_SIZE = 1 << 20;
+  private static final int MIN_MERGE_BUFFER_SIZE = 1 << 12;
+
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private RecordSorter() {
+  }
+
+  /**
+   * Sort the records of a file, each of which is a key length and a value length as ints,
+   * followed by the key and the value.
+   *
+   * @param tempFilePrefix the prefix of the temporary file for the sorted runs, which is created next to the records
+   * @param maxMemory the memory to use for sorting, in bytes
+   * @return the sorted records. Must be closed to remove any temporary files.
+   */
+  static SortedRecords sort(final File recordFile, final long size, final long numRecords,
+                            final HashType hashType, final int hashSeed, final long hashCapacity,
+                            final String tempFilePrefix, final long maxMemory) throws IOException {
+    final long averageRecordSize = numRecords == 0 ? RECORD_HEADER_SIZE : Math.max(RECORD_HEADER_SIZE, size / numRecords);
+    final long runRecords = Math.max(1, maxMemory / (averageRecordSize + SortHelper.BYTES_PER_ENTRY));
+    final int dataCapacity = (int) Math.min(Math.min(size, runRecords * averageRecordSize), MAX_ARRAY_SIZE);
+    final long maxRunRecords = Math.max(1, (maxMemory - dataCapacity) / SortHelper.BYTES_PER_ENTRY);
+    final Run run = new Run(hashType, hashSeed, hashCapacity, dataCapacity, maxRunRecords);
+
+    RunFile runFile = null;
+    try (DataInputStream input =
+             new DataInputStream(new BufferedInputStream(new FileInputStream(recordFile), IO_BUFFER_SIZE))) {
+      for (long i = 0; i < numRecords; i++) {
+        final int keyLen = input.readInt();
+        final int valueLen = input.readInt();
+        if (run.isFull(RECORD_HEADER_SIZE + keyLen + valueLen)) {
+          if (runFile == null) {
+            runFile = new RunFile(File.createTempFile(tempFilePrefix, ".tmp",
+                recordFile.getCanonicalFile().getParentFile()));
+          }
+          runFile.writeRun(run);
+        }
+        run.add(input, keyLen, valueLen);
+      }
+
+      if (runFile == null) {
+        return new InMemoryRecords(run);
+      }
+      runFile.writeRun(run);
+      final SortedRecords merged = new MergedRecords(runFile, hashCapacity, maxMemory);
+      runFile = null;
+      return merged;
+    } finally {
+      if (runFile != null) {
+        runFile.close();
+      }
+    }
+  }
+
+  /**
+   * A cursor over sorted records. The key and value are only valid until the next call to next.
+   */
+  abstract static class SortedRecords implements Closeable {
+    long hash;
+    byte[] buffer;
+    int keyOffset;
+    int keyLength;
+    int valueOffset;
+    int valueLength;
+
+    /**
+     * @return true if the next record was loaded, false if there are no more records.
+     */
+    abstract boolean next() throws IOException;
+
+    long getHash() {
+      return hash;
+    }
+
+    byte[] getBuffer() {
+      return buffer;
+    }
+
+    int getKeyOffset() {
+      return keyOffset;
+    }
+
+    int getKeyLength() {
+      return keyLength;
+    }
+
+    int getValueOffset() {
+      return valueOffset;
+    }
+
+    int getValueLength() {
+      return valueLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+  }
+
+  private static int getInt(final byte[] buf, final int off) {
+    return (buf[off] & 0xFF) << 24 | (buf[off + 1] & 0xFF) << 16 | (buf[off + 2] & 0xFF) << 8 | (buf[off + 3] & 0xFF);
+  }
+
+  private static void putInt(final byte[] buf, final int off, final int value) {
+    buf[off] = (byte) (value >>> 24);
+    buf[off + 1] = (byte) (value >>> 16);
+    buf[off + 2] = (byte) (value >>> 8);
+    buf[off + 3] = (byte) value;
+  }
+
+  /**
+   * Records in input order, stored one after another in a single array.
+   */
+  private static final class Run {
+    private final HashType hashType;
+    private final int hashSeed;
+    private final long hashCapacity;
+    private final long maxRecords;
+    private byte[] data;
+    private int size;
+    private long numRecords;
+
+    private Run(final HashType hashType, final int hashSeed, final long hashCapacity, final int dataCapacity,
+                final long maxRecords) {
+      this.hashType = hashType;
+      this.hashSeed = hashSeed;
+      this.hashCapacity = hashCapacity;
+      this.maxRecords = maxRecords;
+      data = new byte[dataCapacity];
+    }
+
+    boolean isFull(final int recordSize) {
+      return numRecords > 0 && (numRecords == maxRecords || data.length - size < recordSize);
+    }
+
+    void add(final DataInputStream input, final int keyLen, final int valueLen) throws IOException {
+      final int recordSize = RECORD_HEADER_SIZE + keyLen + valueLen;
+      if (data.length - size < recordSize) {
+        // Only for a single record larger than the run
+        data = new byte[recordSize];
+      }
+      putInt(data, size, keyLen);
+      putInt(data, size + 4, valueLen);
+      input.readFully(data, size + RECORD_HEADER_SIZE, keyLen + valueLen);
+      size += recordSize;
+      numRecords++;
+    }
+
+    void clear() {
+      size = 0;
+      numRecords = 0;
+    }
+
+    /**
+     * @return the hashes of the records in wanted slot order, with the record offsets as addresses
+     */
+    HashedEntries sort() throws IOException {
+      return SortHelper.sort(new RunEntries(), numRecords, hashCapacity, Long.MAX_VALUE);
+    }
+
+    private final class RunEntries extends HashedEntries {
+      private int offset;
+
+      @Override
+      boolean next() {
+        if (offset == size) {
+          return false;
+        }
+        final int keyLen = getInt(data, offset);
+        final int valueLen = getInt(data, offset + 4);
+        hash = hashType.hash(keyLen, data, offset + RECORD_HEADER_SIZE, hashSeed);
+        address = offset;
+        offset += RECORD_HEADER_SIZE + keyLen + valueLen;
+        return true;
+      }
+    }
+  }
+
+  private static final class InMemoryRecords extends SortedRecords {
+    private final Run run;
+    private final HashedEntries sorted;
+
+    private InMemoryRecords(final Run run) throws IOException {
+      this.run = run;
+      this.sorted = run.sort();
+    }
+
+    @Override
+    boolean next() throws IOException {
+      if (!sorted.next()) {
+        return false;
+      }
+      final int offset = (int) sorted.getAddress();
+      hash = sorted.getHash();
+      buffer = run.data;
+      keyLength = getInt(buffer, offset);
+      valueLength = getInt(buffer, offset + 4);
+      keyOffset = offset + RECORD_HEADER_SIZE;
+      valueOffset = keyOffset + keyLength;
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      sorted.close();
+    }
+  }
+
+  /**
+   * Sorted runs of hashes and records, stored one after another in a temporary file.
+   */
+  private static final class RunFile implements Closeable {
+    private final File file;
+    private final DataOutputStream output;
+    private final List<Long> runStarts = new ArrayList<>();
+    private final List<Long> runSizes = new ArrayList<>();
+    private long position;
+
+    private RunFile(final File file) throws IOException {
+      this.file = file;
+      output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+    }
+
+    void writeRun(final Run run) throws IOException {
+      runStarts.add(position);
+      runSizes.add(run.numRecords);
+      final HashedEntries sorted = run.sort();
+      try {
+        while (sorted.next()) {
+          final int offset = (int) sorted.getAddress();
+          final int recordSize = RECORD_HEADER_SIZE + getInt(run.data, offset) + getInt(run.data, offset + 4);
+          output.writeLong(sorted.getHash());
+          output.write(run.data, offset, recordSize);
+          position += HASH_SIZE + recordSize;
+        }
+      } finally {
+        sorted.close();
+      }
+      run.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        output.close();
+      } finally {
+        file.delete();
+      }
+    }
+  }
+
+  private static final class MergedRecords extends SortedRecords {
+    private final RunFile runFile;
+    private final RunReader[] readers;
+
+    // Binary min-heap of indices into readers. The top reader is advanced on the next call to next,
+    // since its buffer holds the current record.
+    private final int[] heap;
+    private int heapSize;
+    private boolean started;
+
+    private MergedRecords(final RunFile runFile, final long hashCapacity, final long maxMemory) throws IOException {
+      this.runFile = runFile;
+      runFile.output.close();
+      final int numRuns = runFile.runStarts.size();
+      final int bufferSize = (int) Math.max(MIN_MERGE_BUFFER_SIZE, Math.min(IO_BUFFER_SIZE, maxMemory / numRuns));
+      readers = new RunReader[numRuns];
+      heap = new int[numRuns];
+      try {
+        for (int i = 0; i < numRuns; i++) {
+          readers[i] = new RunReader(runFile.file, runFile.runStarts.get(i), runFile.runSizes.get(i), hashCapacity,
+              bufferSize);
+          if (readers[i].next()) {
+            heap[heapSize++] = i;
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        close();
+        throw e;
+      }
+      for (int i = heapSize / 2 - 1; i >= 0; i--) {
+        siftDown(i);
+      }
+    }
+
+    @Override
+    boolean next() throws IOException {
+      if (started && heapSize > 0) {
+        if (!readers[heap[0]].next()) {
+          heap[0] = heap[--heapSize];
+        }
+        siftDown(0);
+      }
+      started = true;
+      if (heapSize == 0) {
+        return false;
+      }
+      final RunReader reader = readers[heap[0]];
+      hash = reader.hash;
+      buffer = reader.buffer;
+      keyOffset = 0;
+      keyLength = reader.keyLength;
+      valueOffset = reader.keyLength;
+      valueLength = reader.valueLength;
+      return true;
+    }
+
+    /**
+     * Ties go to the earlier run, which holds the earlier records.
+     */
+    private boolean less(final int a, final int b) {
+      final long wantedSlotA = readers[a].wantedSlot;
+      final long wantedSlotB = readers[b].wantedSlot;
+      if (wantedSlotA != wantedSlotB) {
+        return wantedSlotA < wantedSlotB;
+      }
+      return a < b;
+    }
+
+    private void siftDown(int i) {
+      final int value = heap[i];
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= heapSize) {
+          break;
+        }
+        if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+          child++;
+        }
+        if (!less(heap[child], value)) {
+          break;
+        }
+        heap[i] = heap[child];
+        i = child;
+      }
+      if (i < heapSize) {
+        heap[i] = value;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        for (RunReader reader : readers) {
+          if (reader != null) {
+            Util.nonThrowingClose(reader.input);
+          }
+        }
+      } finally {
+        runFile.close();
+      }
+    }
+  }
+
+  private static final class RunReader {
+    private final DataInputStream input;
+    private final long hashCapacity;
+    private long remaining;
+
+    private long hash;
+    private long wantedSlot;
+    private byte[] buffer = new byte[64];
+    private int keyLength;
+    private int valueLength;
+
+    private RunReader(final File file, final long start, final long numRecords, final long hashCapacity,
+                      final int bufferSize) throws IOException {
+      final FileInputStream fileInput = new FileInputStream(file);
+      try {
+        fileInput.getChannel().position(start);
+      } catch (IOException e) {
+        fileInput.close();
+        throw e;
+      }
+      this.input = new DataInputStream(new BufferedInputStream(fileInput, bufferSize));
+      this.remaining = numRecords;
+      this.hashCapacity = hashCapacity;
+    }
+
+    boolean next() throws IOException {
+      if (remaining == 0) {
+        return false;
+      }
+      remaining--;
+      hash = input.readLong();
+      wantedSlot = IndexHash.getWantedSlot(hash, hashCapacity);
+      keyLength = input.readInt();
+      valueLength = input.readInt();
+      final int recordSize = keyLength + valueLength;
+      if (recordSize > buffer.length) {
+        buffer = new byte[Math.max(recordSize, 2 * buffer.length)];
+      }
+      input.readFully(buffer, 0, recordSize);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes a log as a number of segments that can be written in parallel, one thread per segment,
+ * and then merged into a single log.
+ *
+ * The first segment is written directly to the log file, and the other segments to temporary files
+ * next to it. Merging copies the data of the other segments to the end of the log as it is, without
+ * recompressing anything, since blocks never span segments and entry addresses only depend on
+ * the block positions. The log header statistics of all segments are combined.
+ *
+ * Segments of a {@link CompressionType#ZSTD_DICTIONARY} log each train their own dictionary, so
+ * their blocks are recompressed with the dictionary of the first segment when they are merged.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * SegmentedSparkeyWriter segments = Sparkey.createSegmented(file, CompressionType.ZSTD, 65536, 8);
+ * // Let thread i write its entries to segments.getSegment(i), then
+ * SparkeyWriter writer = segments.merge();
+ * writer.writeHash();
+ * writer.close();
+ * }</pre>
+ */
+public final class SegmentedSparkeyWriter implements Closeable {
+  private final File file;
+  private final File[] segmentFiles;
+  private final SparkeyWriter[] segments;
+  private boolean done;
+
+  private SegmentedSparkeyWriter(File file, File[] segmentFiles, SparkeyWriter[] segments) {
+    this.file = file;
+    this.segmentFiles = segmentFiles;
+    this.segments = segments;
+  }
+
+  static SegmentedSparkeyWriter createNew(File file, CompressionType compressionType, int compressionBlockSize,
+                                          CompressionOptions compressionOptions, int numSegments) throws IOException {
+    if (numSegments < 1) {
+      throw new IllegalArgumentException("numSegments must be positive: " + numSegments);
+    }
+    File logFile = Sparkey.getLogFile(file);
+    File parentFile = logFile.getCanonicalFile().getParentFile();
+    File[] segmentFiles = new File[numSegments];
+    SparkeyWriter[] segments = new SparkeyWriter[numSegments];
+    SegmentedSparkeyWriter writer = new SegmentedSparkeyWriter(file, segmentFiles, segments);
+    try {
+      segmentFiles[0] = file;
+      segments[0] = createSegment(file, compressionType, compressionBlockSize, compressionOptions);
+      for (int i = 1; i < numSegments; i++) {
+        segmentFiles[i] = File.createTempFile(logFile.getName() + "-segment" + i + "-", ".spl", parentFile);
+        segments[i] = createSegment(segmentFiles[i], compressionType, compressionBlockSize, compressionOptions);
+      }
+    } catch (IOException | RuntimeException e) {
+      writer.close();
+      throw e;
+    }
+    return writer;
+  }
+
+  private static SparkeyWriter createSegment(File file, CompressionType compressionType, int compressionBlockSize,
+                                            CompressionOptions compressionOptions) throws IOException {
+    return SingleThreadedSparkeyWriter.createNew(file, compressionType, compressionBlockSize, compressionOptions);
+  }
+
+  public int getNumSegments() {
+    return segments.length;
+  }
+
+  /**
+   * Get the writer of a segment. Each segment writer may only be used by one thread at a time,
+   * and its index should not be written.
+   *
+   * Entries of later segments override entries with the same key in earlier segments.
+   */
+  public SparkeyWriter getSegment(int index) {
+    return segments[index];
+  }
+
+  /**
+   * Close all segments and merge them into a single log. Must only be called when no thread is
+   * writing to a segment any more.
+   *
+   * @return a writer that appends to the merged log, for writing its index and any further entries.
+   */
+  public SparkeyWriter merge() throws IOException {
+    if (done) {
+      throw new IllegalStateException("The segments are already merged or closed");
+    }
+    done = true;
+    try {
+      closeSegments();
+      File logFile = Sparkey.getLogFile(file);
+      LogHeader header = LogHeader.read(logFile);
+      try (FileChannel output = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+        output.position(header.getDataEnd());
+        for (int i = 1; i < segmentFiles.length; i++) {
+          File segmentLog = Sparkey.getLogFile(segmentFiles[i]);
+          LogHeader segmentHeader = LogHeader.read(segmentLog);
+          if (Arrays.equals(header.getDictionary(), segmentHeader.getDictionary())) {
+            try (FileChannel input = FileChannel.open(segmentLog.toPath(), StandardOpenOption.READ)) {
+              long position = segmentHeader.size();
+              long end = segmentHeader.getDataEnd();
+              while (position < end) {
+                position += input.transferTo(position, end - position, output);
+              }
+            }
+          } else {
+            recompress(segmentLog, segmentHeader, header, output);
+          }
+          header.append(segmentHeader);
+          header.setDataEnd(output.position());
+        }
+      }
+      header.write(logFile, false);
+    } finally {
+      deleteSegments();
+    }
+
+    // Any index of the first segment is now stale
+    Sparkey.getIndexFile(file).delete();
+    return Sparkey.append(file);
+  }
+
+  /**
+   * Append the blocks of a segment to the channel, recompressed with the compressor of the log.
+   * The blocks keep their contents, so the block statistics of the segment still apply.
+   */
+  private static void recompress(File segmentLog, LogHeader segmentHeader, LogHeader header, FileChannel output)
+      throws IOException {
+    BlockCompressor from = ((CompressionTypeBackendCompressed) segmentHeader.getCompressionTypeBackend()).getCompressor();
+    BlockCompressor to = ((CompressionTypeBackendCompressed) header.getCompressionTypeBackend()).getCompressor();
+    int blockSize = segmentHeader.getCompressionBlockSize();
+    byte[] compressed = new byte[from.maxCompressedLength(blockSize)];
+    byte[] uncompressed = new byte[blockSize];
+    byte[] recompressed = new byte[to.maxCompressedLength(blockSize)];
+    FileInputStream file = new FileInputStream(segmentLog);
+    file.getChannel().position(segmentHeader.size());
+    try (InputStream input = new BufferedInputStream(file)) {
+      // Not closed, since that would close the channel
+      OutputStream out = new BufferedOutputStream(Channels.newOutputStream(output));
+      long position = segmentHeader.size();
+      long end = segmentHeader.getDataEnd();
+      while (position < end) {
+        int compressedSize = Util.readUnsignedVLQInt(input);
+        Util.readFully(input, compressed, compressedSize);
+        position += Util.unsignedVLQSize(compressedSize) + compressedSize;
+        int uncompressedSize = from.uncompress(compressed, compressedSize, uncompressed);
+        int recompressedSize = to.compress(uncompressed, uncompressedSize, recompressed);
+        Util.writeUnsignedVLQ(recompressedSize, out);
+        out.write(recompressed, 0, recompressedSize);
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * Discard all segments, unless they are already merged.
+   */
+  @Override
+  public void close() throws IOException {
+    if (done) {
+      return;
+    }
+    done = true;
+    try {
+      closeSegments();
+    } finally {
+      deleteSegments();
+      Sparkey.getLogFile(file).delete();
+      Sparkey.getIndexFile(file).delete();
+    }
+  }
+
+  private void closeSegments() throws IOException {
+    IOException failure = null;
+    for (SparkeyWriter segment : segments) {
+      if (segment != null) {
+        try {
+          segment.close();
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void deleteSegments() {
+    for (int i = 1; i < segmentFiles.length; i++) {
+      if (segmentFiles[i] != null) {
+        Sparkey.getLogFile(segmentFiles[i]).delete();
+        Sparkey.getIndexFile(segmentFiles[i]).delete();
+      }
+    }
+  }
+}
@@ -19,8 +19,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 class SingleThreadedSparkeyWriter implements SparkeyWriter {
   final LogWriter logWriter;
@@ -32,6 +34,15 @@ class SingleThreadedSparkeyWriter implements SparkeyWriter {
   int hashSeed;
   long maxMemory = -1;
   ConstructionMethod method = ConstructionMethod.AUTO;
+  boolean compactAddresses;
+  boolean captureHashes;
+
+  // Hashes of the written entries, if capturing and the log was empty before the first entry
+  private HashCapture capture;
+  private boolean started;
+
+  // Holds keys from buffers without an accessible array
+  private byte[] keyBuf = new byte[64];
 
   SingleThreadedSparkeyWriter(File indexFile, LogWriter logWriter) {
     this.logFile = logWriter.getFile();
@@ -44,6 +55,11 @@ class SingleThreadedSparkeyWriter implements SparkeyWriter {
   }
 
   static SingleThreadedSparkeyWriter createNew(File file, CompressionType compressionType, int blockSize) throws IOException {
+    return createNew(file, compressionType, blockSize, new CompressionOptions());
+  }
+
+  static SingleThreadedSparkeyWriter createNew(File file, CompressionType compressionType, int blockSize,
+                                               CompressionOptions compressionOptions) throws IOException {
     File indexFile = Sparkey.getIndexFile(file);
     if (indexFile.exists()) {
       indexFile.delete();
@@ -52,7 +68,7 @@ class SingleThreadedSparkeyWriter implements SparkeyWriter {
     if (logFile.exists()) {
       logFile.delete();
     }
-    LogWriter logWriter = LogWriter.createNew(logFile, compressionType, blockSize);
+    LogWriter logWriter = LogWriter.createNew(logFile, compressionType, blockSize, compressionOptions);
     return new SingleThreadedSparkeyWriter(indexFile, logWriter);
   }
 
@@ -82,31 +98,70 @@ class SingleThreadedSparkeyWriter implements SparkeyWriter {
 
   @Override
   public void close() throws IOException {
-    logWriter.close(fsync);
+    try {
+      logWriter.close(fsync);
+    } finally {
+      stopCapture();
+    }
   }
 
   @Override
   public void writeHash() throws IOException {
-    flush();
-
-    File parentFile = indexFile.getCanonicalFile().getParentFile();
-    File newFile = new File(parentFile, indexFile.getName() + "-tmp" + UUID.randomUUID().toString());
-    try {
+    writeIndex(newFile -> {
+      if (method == ConstructionMethod.INCREMENTAL && IndexHash.updateIncrementally(
+          indexFile, newFile, logFile, hashType, sparsity, fsync, this.hashSeed)) {
+        return;
+      }
       int hashSeed = this.hashSeed;
       if (hashSeed == 0) {
-        hashSeed = new Random().nextInt();
+        // The capture picked a random seed at the first entry
+        hashSeed = capture != null ? capture.getHashSeed() : new Random().nextInt();
       }
       long maxMemory = this.maxMemory;
       if (maxMemory < 0) {
         maxMemory = Runtime.getRuntime().freeMemory() / 2;
       }
-      IndexHash.createNew(newFile, logFile, hashType, sparsity, fsync, hashSeed, Math.max(maxMemory, 10*1024*1024L), method);
+      ConstructionMethod method = this.method == ConstructionMethod.INCREMENTAL ? ConstructionMethod.AUTO : this.method;
+      IndexHash.createNew(newFile, logFile, hashType, sparsity, fsync, hashSeed, Math.max(maxMemory, 10*1024*1024L), method,
+          capture, compactAddresses);
+    });
+  }
+
+  /**
+   * Like writeHash, for a log whose entries were all written in wanted slot order for the current
+   * hash settings. Falls back to writeHash if the hashes were not captured, such as for an empty log.
+   */
+  void writeHashInSlotOrder() throws IOException {
+    if (capture == null) {
+      writeHash();
+      return;
+    }
+    writeIndex(newFile -> IndexHash.createNewInSlotOrder(newFile, logFile, hashType, sparsity, fsync,
+        capture.getHashSeed(), capture, compactAddresses));
+  }
+
+  /**
+   * Write the index to a temporary file and move it in place.
+   * The captured hashes are dropped afterwards, so later entries are not captured.
+   */
+  private void writeIndex(IndexWriter indexWriter) throws IOException {
+    flush();
+
+    File parentFile = indexFile.getCanonicalFile().getParentFile();
+    File newFile = new File(parentFile, indexFile.getName() + "-tmp" + UUID.randomUUID().toString());
+    try {
+      indexWriter.write(newFile);
       Util.renameFile(newFile, indexFile);
     } finally {
       boolean deleted = newFile.delete();
+      stopCapture();
     }
   }
 
+  private interface IndexWriter {
+    void write(File newFile) throws IOException;
+  }
+
   @Override
   public void writeHash(HashType hashType) throws IOException {
     setHashType(hashType);
@@ -119,6 +174,9 @@ class SingleThreadedSparkeyWriter implements SparkeyWriter {
 
   @Override
   public void setHashType(HashType hashType) {
+    if (capture != null && hashType != null && hashType != capture.getHashType()) {
+      stopCapture();
+    }
     this.hashType = hashType;
   }
 
@@ -129,9 +187,20 @@ class SingleThreadedSparkeyWriter implements SparkeyWriter {
 
   @Override
   public void setHashSeed(final int hashSeed) {
+    if (capture != null && hashSeed != 0 && hashSeed != capture.getHashSeed()) {
+      stopCapture();
+    }
     this.hashSeed = hashSeed;
   }
 
+  @Override
+  public void setCaptureHashes(final boolean captureHashes) {
+    if (!captureHashes) {
+      stopCapture();
+    }
+    this.captureHashes = captureHashes;
+  }
+
   @Override
   public void setMaxMemory(final long maxMemory) {
     this.maxMemory = maxMemory;
@@ -142,33 +211,151 @@ class SingleThreadedSparkeyWriter implements SparkeyWriter {
     this.method = method;
   }
 
+  @Override
+  public void setCompactAddresses(final boolean compactAddresses) {
+    this.compactAddresses = compactAddresses;
+  }
+
+  @Override
+  public void setCompressionThreads(final int threads) throws IOException {
+    logWriter.setCompressionThreads(threads);
+  }
+
+  @Override
+  public void setGroupCommit(final long maxDelayMillis, final long maxBytes) throws IOException {
+    logWriter.setGroupCommit(maxDelayMillis, maxBytes);
+  }
+
   @Override
   public void put(String key, String value) throws IOException {
+    startCapture();
     logWriter.put(key, value);
   }
 
   @Override
   public void put(byte[] key, byte[] value) throws IOException {
+    startCapture();
     logWriter.put(key, value);
   }
 
   @Override
   public void put(byte[] key, InputStream valueStream, long valueLen) throws IOException {
+    startCapture();
     logWriter.put(key, valueStream, valueLen);
   }
 
+  @Override
+  public void put(byte[] key, int keyOff, int keyLen, byte[] value, int valueOff, int valueLen) throws IOException {
+    startCapture();
+    logWriter.put(key, keyOff, keyLen, value, valueOff, valueLen);
+  }
+
+  /**
+   * Like put, for a key that is already hashed with the hash type and seed of this writer.
+   */
+  void put(long hash, byte[] key, int keyOff, int keyLen, byte[] value, int valueOff, int valueLen) throws IOException {
+    startCapture();
+    logWriter.put(hash, key, keyOff, keyLen, value, valueOff, valueLen);
+  }
+
+  @Override
+  public void put(ByteBuffer key, ByteBuffer value) throws IOException {
+    startCapture();
+    int keyLen = key.remaining();
+    byte[] keyArray;
+    int keyOff;
+    if (key.hasArray()) {
+      keyArray = key.array();
+      keyOff = key.arrayOffset() + key.position();
+    } else {
+      keyArray = copyToKeyBuf(key);
+      keyOff = 0;
+    }
+    if (value.hasArray()) {
+      logWriter.put(keyArray, keyOff, keyLen, value.array(), value.arrayOffset() + value.position(), value.remaining());
+    } else {
+      logWriter.put(keyArray, keyOff, keyLen, value);
+    }
+  }
+
   @Override
   public void delete(String key) throws IOException {
+    startCapture();
     logWriter.delete(key);
   }
 
   @Override
   public void delete(byte[] key) throws IOException {
+    startCapture();
     logWriter.delete(key);
   }
 
+  @Override
+  public void delete(byte[] key, int keyOff, int keyLen) throws IOException {
+    startCapture();
+    logWriter.delete(key, keyOff, keyLen);
+  }
+
+  @Override
+  public void delete(ByteBuffer key) throws IOException {
+    if (key.hasArray()) {
+      delete(key.array(), key.arrayOffset() + key.position(), key.remaining());
+    } else {
+      int keyLen = key.remaining();
+      delete(copyToKeyBuf(key), 0, keyLen);
+    }
+  }
+
+  private byte[] copyToKeyBuf(ByteBuffer key) {
+    if (key.remaining() > keyBuf.length) {
+      keyBuf = new byte[Math.max(key.remaining(), 2 * keyBuf.length)];
+    }
+    key.duplicate().get(keyBuf, 0, key.remaining());
+    return keyBuf;
+  }
+
   @Override
   public void flush() throws IOException {
     logWriter.flush(fsync);
   }
+
+  @Override
+  public CompletableFuture<Long> flushAsync() throws IOException {
+    return logWriter.flushAsync(fsync);
+  }
+
+  @Override
+  public long getDurableOffset() {
+    return logWriter.getDurableOffset();
+  }
+
+  /**
+   * Start capturing hashes at the first entry of a new log, if enabled. Without a hash type or seed,
+   * the capture uses the default hash type and picks a random seed for writeHash to use.
+   */
+  private void startCapture() throws IOException {
+    if (started) {
+      // The default hash type depends on the number of entries
+      if (capture != null && hashType == null
+          && capture.getHashType() != IndexHash.defaultHashType(logWriter.getNumEntries())) {
+        stopCapture();
+      }
+      return;
+    }
+    started = true;
+    if (captureHashes && logWriter.getNumEntries() == 0) {
+      HashType captureHashType = hashType != null ? hashType : IndexHash.defaultHashType(0);
+      int captureHashSeed = hashSeed != 0 ? hashSeed : new Random().nextInt();
+      capture = new HashCapture(indexFile, captureHashType, captureHashSeed, logWriter.isCompressed());
+      logWriter.setCapture(capture);
+    }
+  }
+
+  private void stopCapture() {
+    if (capture != null) {
+      logWriter.setCapture(null);
+      Util.nonThrowingClose(capture);
+      capture = null;
+    }
+  }
 }
@@ -15,204 +15,390 @@
  */
 package com.spotify.sparkey;
 
-import static com.spotify.sparkey.IndexHash.calcEntryBlockBits;
-
-import com.fasterxml.sort.DataReader;
-import com.fasterxml.sort.DataReaderFactory;
-import com.fasterxml.sort.DataWriter;
-import com.fasterxml.sort.DataWriterFactory;
-import com.fasterxml.sort.SortConfig;
-import com.fasterxml.sort.Sorter;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.Comparator;
-import java.util.Iterator;
-
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorts the entries of a log by wanted slot, keeping log order for entries with the same wanted slot.
+ *
+ * Entries are collected into runs of primitive arrays, each of which is sorted with an LSD radix sort
+ * on the wanted slot. Since the sort is stable and the log is read in order, this also orders
+ * entries by address. If the log does not fit in a single run, the sorted runs are spilled to a
+ * temporary file and merged with a heap of run indices.
+ */
 final class SortHelper {
 
-  static final int ENTRY_SIZE = 40;
+  // Wanted slot, hash and address, one scratch column and the destinations of a radix sort pass
+  static final int BYTES_PER_ENTRY = 4 * 8 + 4;
 
-  static final Comparator<Entry> ENTRY_COMPARATOR = Comparator.comparingLong(SortHelper.Entry::getWantedSlot).thenComparingLong(SortHelper.Entry::getAddress);
+  // Hash and address
+  private static final int SPILLED_ENTRY_SIZE = 2 * 8;
 
-  private static final EntryDataWriterFactory ENTRY_DATA_WRITER_FACTORY = new EntryDataWriterFactory();
-  private static final int BUFFER_SIZE = 64 * 1024;
+  // Keep every array well below the maximum array size
+  private static final int MAX_RUN_ENTRIES = 1 << 26;
 
-  static Iterator<SortHelper.Entry> sort(final File logFile, final long start, final long end,
-                                         final HashType hashData, final long hashCapacity, final int hashSeed,
-                                         final long maxMemory) throws IOException {
-    SortConfig config = new SortConfig();
-    if (maxMemory > 0) {
-      config = config.withMaxMemoryUsage(maxMemory);
-    }
-    final EntryDataReaderFactory readerFactory = new EntryDataReaderFactory(hashCapacity);
-    Sorter<SortHelper.Entry>
-        sorter = new Sorter<>(config, readerFactory, ENTRY_DATA_WRITER_FACTORY, ENTRY_COMPARATOR);
+  private static final int RADIX_BITS = 11;
 
-    return sorter.sort(new LogFileEntryReader(logFile, start, end, hashData, hashCapacity, hashSeed));
-  }
+  // Buffer sizes for spilling and merging, in bytes. Multiples of the spilled entry size.
+  private static final int IO_BUFFER_SIZE = 1 << 20;
+  private static final int MIN_MERGE_BUFFER_SIZE = 1 << 12;
 
-  private static class EntryDataReader extends DataReader<Entry> {
+  private SortHelper() {
+  }
 
-    private final DataInputStream dataInputStream;
-    private final long hashCapacity;
+  /**
+   * Sort the entries of a range of a log.
+   *
+   * @param maxMemory the memory to use for sorting, in bytes
+   * @return the sorted entries. Must be closed to remove any temporary files.
+   */
+  static HashedEntries sort(final File logFile, final long start, final long end,
+                            final HashType hashData, final long hashCapacity, final int hashSeed,
+                            final long maxMemory) throws IOException {
+    final LogHeader header = LogHeader.read(logFile);
+    final HashedEntries entries = HashedEntries.fromLog(logFile, header, start, end, hashData, hashSeed);
+    return sort(entries, header.getNumPuts() + header.getNumDeletes(), hashCapacity, maxMemory);
+  }
 
-    EntryDataReader(final DataInputStream dataInputStream, final long hashCapacity) {
-      this.dataInputStream = dataInputStream;
-      this.hashCapacity = hashCapacity;
-    }
+  /**
+   * Sort entries that are given in log order.
+   *
+   * @param numEntries an upper bound of the number of entries, used for sizing the buffers
+   * @param maxMemory the memory to use for sorting, in bytes
+   * @return the sorted entries. Must be closed to remove any temporary files.
+   */
+  static HashedEntries sort(final HashedEntries entries, final long numEntries, final long hashCapacity,
+                            final long maxMemory) throws IOException {
+    final int runSize = (int) Math.max(1, Math.min(Math.min(numEntries, MAX_RUN_ENTRIES), maxMemory / BYTES_PER_ENTRY));
+    final Run run = new Run(runSize);
+
+    SpillFile spillFile = null;
+    try {
+      while (entries.next()) {
+        final long hash = entries.getHash();
+        if (run.isFull()) {
+          if (spillFile == null) {
+            spillFile = new SpillFile();
+          }
+          run.sort(hashCapacity);
+          spillFile.writeRun(run);
+          run.clear();
+        }
+        run.add(IndexHash.getWantedSlot(hash, hashCapacity), hash, entries.getAddress());
+      }
+      run.sort(hashCapacity);
 
-    @Override
-    public Entry readNext() throws IOException {
-      try {
-        return Entry.fromHash(dataInputStream.readLong(), dataInputStream.readLong(), hashCapacity);
-      } catch (EOFException e) {
-        return null;
+      if (spillFile == null) {
+        return new InMemoryEntries(run);
+      }
+      spillFile.writeRun(run);
+      final HashedEntries merged = new MergedEntries(spillFile, hashCapacity, maxMemory);
+      spillFile = null;
+      return merged;
+    } finally {
+      entries.close();
+      if (spillFile != null) {
+        spillFile.close();
       }
     }
+  }
 
-    @Override
-    public int estimateSizeInBytes(final Entry entry) {
-      return ENTRY_SIZE;
+  private static final class Run {
+    private long[] wantedSlots;
+    private long[] hashes;
+    private long[] addresses;
+    private long[] scratch;
+    private final int[] destinations;
+    private int size;
+
+    private Run(final int capacity) {
+      wantedSlots = new long[capacity];
+      hashes = new long[capacity];
+      addresses = new long[capacity];
+      scratch = new long[capacity];
+      destinations = new int[capacity];
     }
 
-    @Override
-    public void close() throws IOException {
-      dataInputStream.close();
+    boolean isFull() {
+      return size == wantedSlots.length;
     }
-  }
-
-  private static class EntryDataWriter extends DataWriter<Entry> {
-
-    private final DataOutputStream dataOutputStream;
 
-    EntryDataWriter(final DataOutputStream dataOutputStream) {this.dataOutputStream = dataOutputStream;}
-
-    @Override
-    public void writeEntry(final Entry entry) throws IOException {
-      dataOutputStream.writeLong(entry.hash);
-      dataOutputStream.writeLong(entry.address);
+    void add(final long wantedSlot, final long hash, final long address) {
+      wantedSlots[size] = wantedSlot;
+      hashes[size] = hash;
+      addresses[size] = address;
+      size++;
     }
 
-    @Override
-    public void close() throws IOException {
-      dataOutputStream.close();
+    void clear() {
+      size = 0;
     }
-  }
 
-  private static class EntryDataWriterFactory extends DataWriterFactory<Entry> {
+    /**
+     * Stable LSD radix sort on the wanted slot, using as few bits as the hash capacity needs.
+     * Each pass computes the destination of every entry once, and then moves the columns
+     * one at a time through a single scratch column.
+     */
+    void sort(final long hashCapacity) {
+      final int keyBits = 64 - Long.numberOfLeadingZeros(hashCapacity - 1);
+      if (keyBits == 0 || size < 2) {
+        return;
+      }
+      final int passes = (keyBits + RADIX_BITS - 1) / RADIX_BITS;
+      final int digitBits = (keyBits + passes - 1) / passes;
+      final int mask = (1 << digitBits) - 1;
+      final int[] offsets = new int[1 << digitBits];
+
+      for (int shift = 0; shift < keyBits; shift += digitBits) {
+        Arrays.fill(offsets, 0);
+        for (int i = 0; i < size; i++) {
+          offsets[(int) (wantedSlots[i] >>> shift) & mask]++;
+        }
+        // Skip the pass if all entries have the same digit
+        if (offsets[(int) (wantedSlots[0] >>> shift) & mask] == size) {
+          continue;
+        }
+        int sum = 0;
+        for (int digit = 0; digit < offsets.length; digit++) {
+          final int count = offsets[digit];
+          offsets[digit] = sum;
+          sum += count;
+        }
+        for (int i = 0; i < size; i++) {
+          destinations[i] = offsets[(int) (wantedSlots[i] >>> shift) & mask]++;
+        }
+        wantedSlots = scatter(wantedSlots);
+        hashes = scatter(hashes);
+        addresses = scatter(addresses);
+      }
+    }
 
-    @Override
-    public DataWriter<Entry> constructWriter(final OutputStream outputStream) {
-      return new EntryDataWriter(new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE)));
+    /**
+     * Move a column to the destinations of the current pass.
+     *
+     * @return the moved column. The given column becomes the scratch column.
+     */
+    private long[] scatter(final long[] column) {
+      final long[] target = scratch;
+      for (int i = 0; i < size; i++) {
+        target[destinations[i]] = column[i];
+      }
+      scratch = column;
+      return target;
     }
   }
 
-  private static class EntryDataReaderFactory extends DataReaderFactory<Entry> {
-
-    private final long hashCapacity;
+  private static final class InMemoryEntries extends HashedEntries {
+    private final Run run;
+    private int index;
 
-    private EntryDataReaderFactory(final long hashCapacity) {
-      this.hashCapacity = hashCapacity;
+    private InMemoryEntries(final Run run) {
+      this.run = run;
     }
 
     @Override
-    public DataReader<Entry> constructReader(final InputStream inputStream) {
-      return new EntryDataReader(new DataInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE)), hashCapacity);
+    boolean next() {
+      if (index == run.size) {
+        return false;
+      }
+      hash = run.hashes[index];
+      address = run.addresses[index];
+      index++;
+      return true;
     }
   }
 
-  private static class LogFileEntryReader extends DataReader<Entry> {
+  /**
+   * Sorted runs, stored one after another in a temporary file.
+   */
+  private static final class SpillFile implements Closeable {
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+    private final List<Long> runStarts = new ArrayList<>();
+    private long position;
+
+    private SpillFile() throws IOException {
+      file = File.createTempFile("sparkey-sort", ".tmp");
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      channel = randomAccessFile.getChannel();
+    }
 
-    final Iterator<SparkeyReader.Entry> iterator;
-    private final HashType hashData;
-    private final long hashCapacity;
-    private final int maxEntriesPerBlock;
-    private final int entryBlockBits;
-    private final int hashSeed;
+    void writeRun(final Run run) throws IOException {
+      runStarts.add(position);
+      for (int i = 0; i < run.size; i++) {
+        if (buffer.remaining() < SPILLED_ENTRY_SIZE) {
+          flush();
+        }
+        buffer.putLong(run.hashes[i]);
+        buffer.putLong(run.addresses[i]);
+      }
+      flush();
+    }
 
-    public LogFileEntryReader(final File logFile, final long start, final long end, final HashType hashData,
-                              final long hashCapacity, final int hashSeed) throws IOException {
-      this.hashData = hashData;
-      this.hashCapacity = hashCapacity;
-      this.hashSeed = hashSeed;
-      SparkeyLogIterator entries = new SparkeyLogIterator(logFile, start, end);
-      LogHeader header = entries.header;
-      maxEntriesPerBlock = header.getMaxEntriesPerBlock();
-      entryBlockBits = calcEntryBlockBits(maxEntriesPerBlock);
-      iterator = entries.iterator();
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+      buffer.clear();
     }
 
     @Override
-    public Entry readNext() {
-      if (!iterator.hasNext()) {
-        return null;
+    public void close() throws IOException {
+      try {
+        randomAccessFile.close();
+      } finally {
+        file.delete();
       }
-      // Safe cast, since the iterator is known to be a SparkeyLogIterator
-      SparkeyLogIterator.Entry entry = (SparkeyLogIterator.Entry) iterator.next();
-
-      int typeBit = entry.getType() == SparkeyReader.Type.DELETE ? 0 : 1;
-
-      long hash = hashData.hash(entry.getKeyLength(), entry.getKey(), hashSeed);
-      long position = entry.getPosition();
-      long entryIndex = entry.getEntryIndex();
-      long address = position << (entryBlockBits + 1) | (entryIndex << 1) | typeBit;
+    }
+  }
 
-      if (position < 0) {
-        throw new RuntimeException("Data size overflow");
+  private static final class MergedEntries extends HashedEntries {
+    private final SpillFile spillFile;
+    private final RunReader[] readers;
+
+    // Binary min-heap of indices into readers
+    private final int[] heap;
+    private int heapSize;
+
+    private MergedEntries(final SpillFile spillFile, final long hashCapacity, final long maxMemory) throws IOException {
+      this.spillFile = spillFile;
+      final int numRuns = spillFile.runStarts.size();
+      final long bufferSize = Math.max(MIN_MERGE_BUFFER_SIZE,
+          Math.min(Math.min(IO_BUFFER_SIZE, maxMemory / numRuns), Integer.MAX_VALUE / numRuns));
+      final int alignedBufferSize = (int) (bufferSize - bufferSize % SPILLED_ENTRY_SIZE);
+      final long[] runEnds = new long[numRuns];
+      int totalBufferSize = 0;
+      for (int i = 0; i < numRuns; i++) {
+        runEnds[i] = i + 1 < numRuns ? spillFile.runStarts.get(i + 1) : spillFile.position;
+        totalBufferSize += (int) Math.min(alignedBufferSize, runEnds[i] - spillFile.runStarts.get(i));
       }
-      return Entry.fromHash(hash, address, hashCapacity);
-    }
 
-    @Override
-    public int estimateSizeInBytes(final Entry o) {
-      return ENTRY_SIZE;
+      // All readers share one direct buffer, each using its own slice
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(totalBufferSize);
+      readers = new RunReader[numRuns];
+      heap = new int[numRuns];
+      for (int i = 0; i < numRuns; i++) {
+        final long runStart = spillFile.runStarts.get(i);
+        final int sliceSize = (int) Math.min(alignedBufferSize, runEnds[i] - runStart);
+        buffer.limit(buffer.position() + sliceSize);
+        readers[i] = new RunReader(spillFile.channel, runStart, runEnds[i], hashCapacity, buffer.slice());
+        buffer.position(buffer.limit());
+        if (readers[i].next()) {
+          heap[heapSize++] = i;
+        }
+      }
+      for (int i = heapSize / 2 - 1; i >= 0; i--) {
+        siftDown(i);
+      }
     }
 
     @Override
-    public void close() throws IOException {
+    boolean next() throws IOException {
+      if (heapSize == 0) {
+        return false;
+      }
+      final RunReader reader = readers[heap[0]];
+      hash = reader.hash;
+      address = reader.address;
+      if (!reader.next()) {
+        heap[0] = heap[--heapSize];
+      }
+      siftDown(0);
+      return true;
     }
-  }
 
-  final static class Entry {
-    final long hash;
-    final long address;
-    final long wantedSlot;
-
-    Entry(final long hash, final long address, final long wantedSlot) {
-      this.hash = hash;
-      this.address = address;
-      this.wantedSlot = wantedSlot;
+    private boolean less(final int a, final int b) {
+      final RunReader ra = readers[a];
+      final RunReader rb = readers[b];
+      if (ra.wantedSlot != rb.wantedSlot) {
+        return ra.wantedSlot < rb.wantedSlot;
+      }
+      return ra.address < rb.address;
     }
 
-    static Entry fromHash(final long hash, final long address, final long hashCapacity) {
-      return new Entry(hash, address, IndexHash.getWantedSlot(hash, hashCapacity));
+    private void siftDown(int i) {
+      final int value = heap[i];
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= heapSize) {
+          break;
+        }
+        if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+          child++;
+        }
+        if (!less(heap[child], value)) {
+          break;
+        }
+        heap[i] = heap[child];
+        i = child;
+      }
+      if (i < heapSize) {
+        heap[i] = value;
+      }
     }
 
     @Override
-    public String toString() {
-      return "Entry{" +
-             "hash=" + hash +
-             ", address=" + address +
-             '}';
+    public void close() throws IOException {
+      spillFile.close();
     }
+  }
 
-    public long getHash() {
-      return hash;
+  private static final class RunReader {
+    private final FileChannel channel;
+    private final long end;
+    private final long hashCapacity;
+    private final ByteBuffer buffer;
+    private long position;
+
+    private long wantedSlot;
+    private long hash;
+    private long address;
+
+    private RunReader(final FileChannel channel, final long start, final long end, final long hashCapacity,
+                      final ByteBuffer buffer) {
+      this.channel = channel;
+      this.position = start;
+      this.end = end;
+      this.hashCapacity = hashCapacity;
+      this.buffer = buffer;
+      buffer.flip();
     }
 
-    public long getAddress() {
-      return address;
+    boolean next() throws IOException {
+      if (buffer.remaining() < SPILLED_ENTRY_SIZE) {
+        if (position == end) {
+          return false;
+        }
+        fill();
+      }
+      hash = buffer.getLong();
+      address = buffer.getLong();
+      wantedSlot = IndexHash.getWantedSlot(hash, hashCapacity);
+      return true;
     }
 
-    public long getWantedSlot() {
-      return wantedSlot;
+    private void fill() throws IOException {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      while (buffer.hasRemaining()) {
+        final int n = channel.read(buffer, position);
+        if (n < 0) {
+          throw new EOFException();
+        }
+        position += n;
+      }
+      buffer.flip();
     }
   }
 }
@@ -56,6 +56,23 @@ public final class Sparkey {
     return SingleThreadedSparkeyWriter.createNew(file, compressionType, compressionBlockSize);
   }
 
+  /**
+   * Creates a new sparkey writer with the specified compression and compression options,
+   * such as the compression level. The options are recorded in the log, and used when appending to it.
+   *
+   * This is not a thread-safe class, only use it from one thread.
+   *
+   * @param file File base to use, the actual file endings will be set to .spi and .spl
+   * @param compressionType
+   * @param compressionBlockSize The maximum compression block size in bytes
+   * @param compressionOptions
+   * @return a new writer,
+   */
+  public static SparkeyWriter createNew(File file, CompressionType compressionType, int compressionBlockSize,
+                                        CompressionOptions compressionOptions) throws IOException {
+    return SingleThreadedSparkeyWriter.createNew(file, compressionType, compressionBlockSize, compressionOptions);
+  }
+
   /**
    * Opens an existing file for append.
    *
@@ -83,6 +100,80 @@ public final class Sparkey {
     return SingleThreadedSparkeyWriter.appendOrCreate(file, compressionType, compressionBlockSize);
   }
 
+  /**
+   * Creates a new log that is written as a number of segments in parallel, one thread per segment,
+   * and then merged into a single log. See {@link SegmentedSparkeyWriter}.
+   *
+   * @param file File base to use, the actual file endings will be set to .spi and .spl
+   * @param compressionType
+   * @param compressionBlockSize The maximum compression block size in bytes
+   * @param numSegments the number of segments
+   * @return a new segmented writer
+   */
+  public static SegmentedSparkeyWriter createSegmented(File file, CompressionType compressionType,
+                                                       int compressionBlockSize, int numSegments) throws IOException {
+    return SegmentedSparkeyWriter.createNew(file, compressionType, compressionBlockSize, new CompressionOptions(),
+        numSegments);
+  }
+
+  /**
+   * Like {@link #createSegmented(File, CompressionType, int, int)}, with compression options for all segments.
+   */
+  public static SegmentedSparkeyWriter createSegmented(File file, CompressionType compressionType,
+                                                       int compressionBlockSize, CompressionOptions compressionOptions,
+                                                       int numSegments) throws IOException {
+    return SegmentedSparkeyWriter.createNew(file, compressionType, compressionBlockSize, compressionOptions,
+        numSegments);
+  }
+
+  /**
+   * Creates a builder for a new file from key/value pairs in any order, which lays out the log in
+   * hash table order and fills the index in one sequential pass. See {@link SparkeyBulkBuilder}.
+   *
+   * @param file File base to use, the actual file endings will be set to .spi and .spl
+   * @param compressionType
+   * @param compressionBlockSize The maximum compression block size in bytes
+   * @return a new bulk builder
+   */
+  public static SparkeyBulkBuilder bulkBuilder(File file, CompressionType compressionType, int compressionBlockSize)
+      throws IOException {
+    return SparkeyBulkBuilder.createNew(file, compressionType, compressionBlockSize);
+  }
+
+  /**
+   * Writes a new file with only the live entries of an existing one, as determined by its index,
+   * and builds a new index for it. The index must cover the whole log, so write the hash after the last
+   * entry before compacting.
+   *
+   * The log is split into parts that are copied in parallel, and the live entries keep their order.
+   * The compression type and block size can be changed in the same pass.
+   *
+   * @param src File base of the existing file, the actual file endings will be set to .spi and .spl
+   * @param dst File base of the compacted file, which is overwritten if it exists
+   * @param options the compaction options
+   * @throws IllegalArgumentException if entries were appended to the log after its index was written
+   */
+  public static void compact(File src, File dst, CompactionOptions options) throws IOException {
+    Compactor.compact(src, dst, options);
+  }
+
+  /**
+   * Wraps a writer so that many threads can use it at the same time.
+   *
+   * Puts and deletes only copy the entry into a batch, and the batches are written to the wrapped writer
+   * by a single background thread. Operations on the same key are written in the order they were made.
+   * All other operations, such as flush and writeHash, first write the entries of all threads.
+   * Errors from writing the batches are thrown from a later operation.
+   *
+   * The wrapped writer must not be used directly afterwards, and is closed when the returned writer is closed.
+   *
+   * @param writer the writer to wrap, from one of the other factory methods
+   * @return a thread-safe writer
+   */
+  public static SparkeyWriter concurrent(SparkeyWriter writer) {
+    return new ConcurrentSparkeyWriter(writer);
+  }
+
   /**
    * Create a builder for configuring a SparkeyReader.
    *
@@ -192,7 +283,7 @@ public final class Sparkey {
    * Write (or rewrite) the index file for a given sparkey file.
    *
    * @param file File base to use, the actual file endings will be set to .spi and .spl
-   * @param hashType choice of hash type, can be 32 or 64 bits.
+   * @param hashType choice of hash type, can be 32 or 64 bits, or 64 bit XXH3.
    */
   public static void writeHash(File file, HashType hashType) throws IOException {
     SparkeyWriter writer = append(file);
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Builds a new file from key/value pairs in any order, laid out in the order of the hash table.
+ *
+ * The pairs are first spilled to a temporary file next to the log. When building, they are sorted by
+ * wanted slot with bounded memory, hashing every key once, and the log is written in that order while
+ * the sorted pairs are streamed back. The index is then filled in one sequential pass, since every entry
+ * goes at or after the slots of the previous ones, and neighbouring slots point to neighbouring log positions.
+ *
+ * If a key is put more than once, the last value wins, just like for a {@link SparkeyWriter}.
+ *
+ * <p>Example usage:
+ * <pre>{@code
+ * SparkeyBulkBuilder builder = Sparkey.bulkBuilder(file, CompressionType.SNAPPY, 4096);
+ * builder.put(key, value);
+ * ...
+ * builder.build();
+ * }</pre>
+ *
+ * This is not a thread-safe class, only use it from one thread.
+ */
+public final class SparkeyBulkBuilder implements Closeable {
+  private static final int IO_BUFFER_SIZE = 1 << 20;
+
+  private final File file;
+  private final CompressionType compressionType;
+  private final int compressionBlockSize;
+  private final File spillFile;
+  private final DataOutputStream spill;
+  private long spillSize;
+  private long numEntries;
+
+  private HashType hashType;
+  private int hashSeed;
+  private double sparsity;
+  private long maxMemory = -1;
+  private boolean fsync;
+  private boolean done;
+
+  private SparkeyBulkBuilder(File file, CompressionType compressionType, int compressionBlockSize) throws IOException {
+    this.file = file;
+    this.compressionType = compressionType;
+    this.compressionBlockSize = compressionBlockSize;
+    File logFile = Sparkey.getLogFile(file);
+    spillFile = File.createTempFile(logFile.getName() + "-bulk", ".tmp", logFile.getCanonicalFile().getParentFile());
+    spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), IO_BUFFER_SIZE));
+  }
+
+  static SparkeyBulkBuilder createNew(File file, CompressionType compressionType, int compressionBlockSize)
+      throws IOException {
+    return new SparkeyBulkBuilder(file, compressionType, compressionBlockSize);
+  }
+
+  /**
+   * Add the key/value pair, as UTF-8.
+   */
+  public void put(String key, String value) throws IOException {
+    put(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Add the key/value pair.
+   */
+  public void put(byte[] key, byte[] value) throws IOException {
+    if (done) {
+      throw new IllegalStateException("The builder is already built or closed");
+    }
+    spill.writeInt(key.length);
+    spill.writeInt(value.length);
+    spill.write(key);
+    spill.write(value);
+    spillSize += RecordSorter.RECORD_HEADER_SIZE + key.length + value.length;
+    numEntries++;
+  }
+
+  /**
+   * Set the hash type. Default: chosen by the number of entries, like for {@link SparkeyWriter#setHashType(HashType)}.
+   */
+  public void setHashType(HashType hashType) {
+    this.hashType = hashType;
+  }
+
+  /**
+   * Set the hash seed. Default: a random seed
+   */
+  public void setHashSeed(int hashSeed) {
+    this.hashSeed = hashSeed;
+  }
+
+  /**
+   * Set the sparsity of the hash table, see {@link SparkeyWriter#setHashSparsity(double)}.
+   */
+  public void setHashSparsity(double sparsity) {
+    this.sparsity = sparsity;
+  }
+
+  /**
+   * Set the maximum amount of memory to use for sorting.
+   * Default: Runtime.freeMemory() / 2
+   */
+  public void setMaxMemory(long maxMemory) {
+    this.maxMemory = maxMemory;
+  }
+
+  /**
+   * Set whether the log and index should be synced to disk.
+   */
+  public void setFsync(boolean fsync) {
+    this.fsync = fsync;
+  }
+
+  /**
+   * Sort the entries and write the log and index. Closes the builder.
+   */
+  public void build() throws IOException {
+    if (done) {
+      throw new IllegalStateException("The builder is already built or closed");
+    }
+    done = true;
+    try {
+      spill.close();
+      HashType hashType = this.hashType != null ? this.hashType : IndexHash.defaultHashType(numEntries);
+      int hashSeed = this.hashSeed;
+      while (hashSeed == 0) {
+        hashSeed = new Random().nextInt();
+      }
+      long maxMemory = this.maxMemory;
+      if (maxMemory < 0) {
+        maxMemory = Runtime.getRuntime().freeMemory() / 2;
+      }
+      long hashCapacity = IndexHash.calcHashCapacity(numEntries, sparsity);
+
+      RecordSorter.SortedRecords sorted = RecordSorter.sort(spillFile, spillSize, numEntries, hashType, hashSeed,
+          hashCapacity, spillFile.getName() + "-runs", Math.max(maxMemory, 10 * 1024 * 1024L));
+      SingleThreadedSparkeyWriter writer =
+          SingleThreadedSparkeyWriter.createNew(file, compressionType, compressionBlockSize);
+      try {
+        writer.setHashType(hashType);
+        writer.setHashSeed(hashSeed);
+        writer.setCaptureHashes(true);
+        writer.setHashSparsity(sparsity);
+        writer.setFsync(fsync);
+        writeSorted(sorted, writer);
+        writer.writeHashInSlotOrder();
+      } finally {
+        Util.nonThrowingClose(sorted);
+        writer.close();
+      }
+    } finally {
+      spillFile.delete();
+    }
+  }
+
+  private static void writeSorted(RecordSorter.SortedRecords sorted, SingleThreadedSparkeyWriter writer)
+      throws IOException {
+    while (sorted.next()) {
+      byte[] buffer = sorted.getBuffer();
+      writer.put(sorted.getHash(), buffer, sorted.getKeyOffset(), sorted.getKeyLength(),
+          buffer, sorted.getValueOffset(), sorted.getValueLength());
+    }
+  }
+
+  /**
+   * Discard the entries, unless already built.
+   */
+  @Override
+  public void close() throws IOException {
+    if (done) {
+      return;
+    }
+    done = true;
+    try {
+      spill.close();
+    } finally {
+      spillFile.delete();
+    }
+  }
+}
@@ -38,6 +38,14 @@ class SparkeyImplSelector {
     throw new UnsupportedOperationException("Requires Java 22+");
   }
 
+  /**
+   * Map an index file for writing its hash table. Overridden in J22 MRJAR variant
+   * to map the whole table as one segment.
+   */
+  static ReadWriteData mapIndex(long size, File file, IndexHeader header, boolean fsync) throws IOException {
+    return new ReadWriteMemMap(size, file, header, fsync);
+  }
+
   static SparkeyReader open(SparkeyReaderBuilder builder) throws IOException {
     File indexFile = builder.indexFile();
     File logFile = builder.logFile();
@@ -17,7 +17,9 @@ package com.spotify.sparkey;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -51,6 +53,48 @@ public final class SparkeyLogIterator implements Iterable<SparkeyReader.Entry> {
     this.end = end;
   }
 
+  SparkeyLogIterator(File logFile, LogHeader header, long start, long end) {
+    this.header = header;
+    this.logFile = logFile;
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Split this log iterator into consecutive, non-overlapping parts of roughly equal size.
+   *
+   * Parts start on block boundaries (or entry boundaries for uncompressed logs),
+   * so they can be iterated independently, for instance from different threads.
+   * If the corresponding index file exists it is used to find the boundaries quickly,
+   * otherwise the log is scanned.
+   * Iterating over all parts in order yields the same entries as iterating over this.
+   *
+   * @param parts the wanted number of parts
+   * @return at most {@code parts} log iterators, possibly fewer for small logs
+   */
+  public List<SparkeyLogIterator> split(int parts) throws IOException {
+    long[] boundaries = LogSplitter.split(logFile, Sparkey.getIndexFile(logFile), header, start, end, parts);
+    List<SparkeyLogIterator> result = new ArrayList<>(boundaries.length - 1);
+    for (int i = 0; i + 1 < boundaries.length; i++) {
+      result.add(new SparkeyLogIterator(logFile, header, boundaries[i], boundaries[i + 1]));
+    }
+    return result;
+  }
+
+  /**
+   * @return the log position where this iterator starts
+   */
+  public long getStart() {
+    return start;
+  }
+
+  /**
+   * @return the log position where this iterator ends
+   */
+  public long getEnd() {
+    return end;
+  }
+
   /**
    * Get an iterator over all the entries in the log file.
    *
@@ -60,6 +104,8 @@ public final class SparkeyLogIterator implements Iterable<SparkeyReader.Entry> {
    * iteration step. Don't leak this entry,
    * copy whatever data you want from it instead.
    *
+   * Blocks of compressed logs are decompressed ahead of the consumer by background threads.
+   *
    * @return an iterator
    */
   @Override
@@ -71,7 +117,7 @@ public final class SparkeyLogIterator implements Iterable<SparkeyReader.Entry> {
         Sparkey.incrOpenFiles();
         stream2.skip(start);
 
-        stream = header.getCompressionTypeBackend().createBlockInput(stream2, header.getCompressionBlockSize(), start);
+        stream = header.getCompressionTypeBackend().createBlockInput(stream2, header.getCompressionBlockSize(), start, end);
       }
 
       return new Iterator<SparkeyReader.Entry>() {
@@ -18,8 +18,16 @@ package com.spotify.sparkey;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface SparkeyReader extends Iterable<SparkeyReader.Entry>, Closeable {
   /**
@@ -43,6 +51,50 @@ public interface SparkeyReader extends Iterable<SparkeyReader.Entry>, Closeable
    */
   Entry getAsEntry(byte[] key) throws IOException;
 
+  /**
+   * @param key an array holding the key to search for
+   * @param keyOff the offset of the key in the array
+   * @param keyLen the length of the key
+   * @return null if the key/value pair was not found, otherwise the raw byte array value
+   */
+  default byte[] getAsByteArray(byte[] key, int keyOff, int keyLen) throws IOException {
+    return getAsByteArray(Arrays.copyOfRange(key, keyOff, keyOff + keyLen));
+  }
+
+  /**
+   * @param key the key to search for, as the remaining bytes of the buffer. Its position is not changed.
+   *            Keys in heap buffers are looked up in place, keys in direct buffers are copied.
+   * @return null if the key/value pair was not found, otherwise the raw byte array value
+   */
+  default byte[] getAsByteArray(ByteBuffer key) throws IOException {
+    if (key.hasArray()) {
+      return getAsByteArray(key.array(), key.arrayOffset() + key.position(), key.remaining());
+    }
+    return getAsByteArray(Util.remaining(key));
+  }
+
+  /**
+   * @param key an array holding the key to search for
+   * @param keyOff the offset of the key in the array
+   * @param keyLen the length of the key
+   * @return null if the key/value pair was not found, otherwise the entry.
+   */
+  default Entry getAsEntry(byte[] key, int keyOff, int keyLen) throws IOException {
+    return getAsEntry(Arrays.copyOfRange(key, keyOff, keyOff + keyLen));
+  }
+
+  /**
+   * @param key the key to search for, as the remaining bytes of the buffer. Its position is not changed.
+   *            Keys in heap buffers are looked up in place, keys in direct buffers are copied.
+   * @return null if the key/value pair was not found, otherwise the entry.
+   */
+  default Entry getAsEntry(ByteBuffer key) throws IOException {
+    if (key.hasArray()) {
+      return getAsEntry(key.array(), key.arrayOffset() + key.position(), key.remaining());
+    }
+    return getAsEntry(Util.remaining(key));
+  }
+
   IndexHeader getIndexHeader();
   LogHeader getLogHeader();
 
@@ -65,11 +117,118 @@ public interface SparkeyReader extends Iterable<SparkeyReader.Entry>, Closeable
    * iteration step. Don't leak this entry,
    * copy whatever data you want from it instead.
    *
+   * Entries are returned in log order. This scans the whole log
+   * and probes the index for every entry to check if it is live. When the
+   * order doesn't matter, {@link #indexIterator()} is usually faster
+   * since it only reads live entries.
+   *
    * @return an iterator
    */
   @Override
   Iterator<Entry> iterator();
 
+  /**
+   * Get an iterator over all the live entries, found by scanning the index slots
+   * instead of the log.
+   *
+   * The slots are scanned sequentially, without probing the index for
+   * every entry, and dead entries in the log are never read. Entries are read
+   * in log order within chunks of slots, so the overall order is neither slot
+   * order nor log order.
+   *
+   * The same restrictions as for {@link #iterator()} apply to the
+   * iterator and its entries. Readers that can't scan their index fall back to {@link #iterator()}.
+   *
+   * @return an iterator
+   */
+  default Iterator<Entry> indexIterator() {
+    return iterator();
+  }
+
+  /**
+   * Get an iterator over the live entries referenced by the index slots
+   * in the range [fromSlot, toSlot), like {@link #indexIterator()} for a part of the index.
+   *
+   * Slot ranges are disjoint, so iterating over non-overlapping ranges
+   * from different threads visits every live entry exactly once.
+   * The total number of slots is {@link IndexHeader#getHashCapacity()}.
+   *
+   * The same restrictions as for {@link #iterator()} apply to the
+   * iterator and its entries. Readers that can't scan their index instead
+   * filter {@link #iterator()} by the slot each key hashes to. The ranges are still
+   * disjoint, but every range scans the whole log, and such ranges don't line up with
+   * the ranges of the built-in readers.
+   *
+   * @param fromSlot the first slot to include
+   * @param toSlot the slot after the last slot to include
+   * @return an iterator
+   * @throws IndexOutOfBoundsException if the range is outside the hash table
+   */
+  default Iterator<Entry> iterator(long fromSlot, long toSlot) {
+    IndexSlotIterator.checkSlotRange(getIndexHeader(), fromSlot, toSlot);
+    return new WantedSlotIterator(getIndexHeader(), iterator(), fromSlot, toSlot);
+  }
+
+  /**
+   * Split the live entries into disjoint partitions by index slot ranges.
+   *
+   * The partitions only depend on the index file, so independent workers,
+   * possibly on different machines, can each open the same file and process
+   * partition {@code i} of {@code numPartitions} without reading the rest of it.
+   * Together the partitions contain every live entry exactly once.
+   *
+   * No resources are allocated until {@link Iterable#iterator()} is called on a
+   * partition, see {@link #iterator(long, long)}.
+   *
+   * @param numPartitions the number of partitions
+   * @return a list of numPartitions partitions of roughly equal size
+   */
+  default List<Iterable<Entry>> partitions(int numPartitions) {
+    if (numPartitions < 1) {
+      throw new IllegalArgumentException("numPartitions must be positive: " + numPartitions);
+    }
+    final long capacity = getIndexHeader().getHashCapacity();
+    final long slotsPerPartition = capacity / numPartitions;
+    final long extraSlots = capacity % numPartitions;
+    final List<Iterable<Entry>> partitions = new ArrayList<>(numPartitions);
+    long fromSlot = 0;
+    for (int i = 0; i < numPartitions; i++) {
+      final long start = fromSlot;
+      final long end = start + slotsPerPartition + (i < extraSlots ? 1 : 0);
+      partitions.add(() -> iterator(start, end));
+      fromSlot = end;
+    }
+    return partitions;
+  }
+
+  /**
+   * Get a spliterator over all the live entries.
+   *
+   * The built-in readers split the log at block (or entry) boundaries, and every
+   * split checks liveness with its own index cursor, so splits can be consumed
+   * from different threads. The same restrictions as for {@link #iterator()}
+   * apply to the entries: they are reused within a split, so copy the data you
+   * need before the split advances.
+   *
+   * @return a spliterator
+   */
+  @Override
+  default Spliterator<Entry> spliterator() {
+    return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.NONNULL | Spliterator.ORDERED);
+  }
+
+  /**
+   * Get a stream of all the live entries, see {@link #spliterator()}.
+   *
+   * Use {@code stream().parallel()} to process the entries on multiple threads, for example
+   * {@code reader.stream().parallel().map(SparkeyReader.Entry::getKeyAsString)}.
+   *
+   * @return a sequential stream
+   */
+  default Stream<Entry> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
   interface Entry {
     int getKeyLength();
     byte[] getKey();
@@ -18,6 +18,9 @@ package com.spotify.sparkey;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 public interface SparkeyWriter extends Closeable {
   /**
@@ -37,6 +40,29 @@ public interface SparkeyWriter extends Closeable {
    */
   void put(byte[] key, InputStream valueStream, long valueLen) throws IOException;
 
+  /**
+   * Append the key/value pair to the writer, from slices of larger arrays.
+   *
+   * The arrays are not kept after the call returns, so they may be reused.
+   */
+  default void put(byte[] key, int keyOff, int keyLen, byte[] value, int valueOff, int valueLen) throws IOException {
+    put(Arrays.copyOfRange(key, keyOff, keyOff + keyLen), Arrays.copyOfRange(value, valueOff, valueOff + valueLen));
+  }
+
+  /**
+   * Append the key/value pair to the writer, from the remaining bytes of the buffers.
+   *
+   * The positions of the buffers are not changed, and the buffers are not kept after the call returns.
+   */
+  default void put(ByteBuffer key, ByteBuffer value) throws IOException {
+    if (key.hasArray() && value.hasArray()) {
+      put(key.array(), key.arrayOffset() + key.position(), key.remaining(),
+          value.array(), value.arrayOffset() + value.position(), value.remaining());
+    } else {
+      put(Util.remaining(key), Util.remaining(value));
+    }
+  }
+
   /**
    * Deletes the key from the writer, as UTF-8
    */
@@ -47,6 +73,26 @@ public interface SparkeyWriter extends Closeable {
    */
   void delete(byte[] key) throws IOException;
 
+  /**
+   * Deletes the key from the writer, from a slice of a larger array.
+   */
+  default void delete(byte[] key, int keyOff, int keyLen) throws IOException {
+    delete(Arrays.copyOfRange(key, keyOff, keyOff + keyLen));
+  }
+
+  /**
+   * Deletes the key from the writer, from the remaining bytes of the buffer.
+   *
+   * The position of the buffer is not changed.
+   */
+  default void delete(ByteBuffer key) throws IOException {
+    if (key.hasArray()) {
+      delete(key.array(), key.arrayOffset() + key.position(), key.remaining());
+    } else {
+      delete(Util.remaining(key));
+    }
+  }
+
   /**
    * Flush all pending writes to file.
    */
@@ -83,6 +129,10 @@ public interface SparkeyWriter extends Closeable {
 
   /**
    * Set the hash type for all subsequent writeHash operations.
+   *
+   * When capturing hashes, see {@link #setCaptureHashes(boolean)}, set the hash type and seed before
+   * the first entry, since changing either of them afterwards falls back to reading the log.
+   *
    * @param hashType choice of hash type, can be 32 or 64 bits.
    *                 if null, will use the default.
    */
@@ -99,10 +149,25 @@ public interface SparkeyWriter extends Closeable {
   /**
    * Set the hash seed to use. Default: a random seed
    * If set to 0, a random seed will be used.
+   * See {@link #setHashType(HashType)} for why it should be set before the first entry.
    * @param hashSeed
    */
   void setHashSeed(int hashSeed);
 
+  /**
+   * Record the hash and position of every entry of a new log as it is written,
+   * so that writeHash doesn't need to read and decompress the log again.
+   * Must be set before the first entry, and has no effect for logs that already have entries.
+   * Every put and delete then hashes its key on the calling thread, and the records take 20 bytes
+   * per entry in a temporary file next to the index, until writeHash or close deletes it.
+   * Without a hash seed, a random seed is picked at the first entry.
+   * Default: false
+   * Writers that can't capture hashes ignore this.
+   * @param captureHashes
+   */
+  default void setCaptureHashes(boolean captureHashes) {
+  }
+
   /**
    * Set the maximum amount of memory to use for index construction.
    * Default: Runtime.freeMemory() / 2
@@ -117,9 +182,70 @@ public interface SparkeyWriter extends Closeable {
    */
   void setConstructionMethod(ConstructionMethod method);
 
+  /**
+   * Let the hash index use 5 or 6 byte addresses into the log, when 4 bytes are not enough.
+   * This shrinks each slot by 2 or 3 bytes for logs that are up to 256 or 64k times larger
+   * than what fits in 4 bytes, at the cost of a slightly slower address decode.
+   * Such indexes have minor version 2 and can not be read by older readers.
+   * Default: false, which uses 4 or 8 byte addresses
+   * Writers that don't build indexes with compact addresses ignore this.
+   * @param compactAddresses
+   */
+  default void setCompactAddresses(boolean compactAddresses) {
+  }
+
+  /**
+   * Set the number of background threads to compress blocks with. Only applies to compressed logs.
+   * With a positive number, filled blocks are compressed concurrently and written in order by a separate
+   * I/O thread, so put and delete mostly just copy bytes. Errors from the background threads are thrown
+   * from a later put, delete, flush or close.
+   * Default: 0, which compresses and writes blocks on the calling thread.
+   * Writers without background compression ignore this.
+   * @param threads
+   */
+  default void setCompressionThreads(int threads) throws IOException {
+  }
+
+  /**
+   * Sync the log to disk in groups on a background thread, so that many flushes share the same fsync.
+   * A commit is started when maxDelayMillis has passed since the first flush waiting for it,
+   * or when at least maxBytes of data is waiting, whichever comes first.
+   * After this, flush waits until its data is synced, regardless of {@link #setFsync(boolean)},
+   * and {@link #flushAsync()} returns without waiting.
+   * Default: disabled, and flushes are synced by the calling thread if fsync is set.
+   * @param maxDelayMillis how long to wait for more flushes before syncing
+   * @param maxBytes how much data to let through before syncing without waiting
+   * @throws UnsupportedOperationException if the writer doesn't support group commit
+   */
+  default void setGroupCommit(long maxDelayMillis, long maxBytes) throws IOException {
+    throw new UnsupportedOperationException("Group commit is not supported by " + getClass().getName());
+  }
+
+  /**
+   * Flush all pending writes to file, and with group commit, request a sync of them without waiting for it.
+   * Without group commit, this is the same as {@link #flush()}.
+   *
+   * @return a future that completes with the durable offset once the flushed writes are synced
+   */
+  default CompletableFuture<Long> flushAsync() throws IOException {
+    flush();
+    return CompletableFuture.completedFuture(getDurableOffset());
+  }
+
+  /**
+   * @return the end of the part of the log that is synced to disk, along with a log header that covers it.
+   * Entries written before this offset survive a crash.
+   * Writers that don't track what is synced return -1.
+   */
+  default long getDurableOffset() {
+    return -1;
+  }
+
   enum ConstructionMethod {
     /**
      * Chooses construction method dynamically based on size of data and available memory.
+     * Uses IN_MEMORY if the hash index fits in the max memory, MAPPED if it fits in half of the
+     * physical memory, and SORTING otherwise.
      */
     AUTO,
 
@@ -131,6 +257,25 @@ public interface SparkeyWriter extends Closeable {
     /**
      * Sort hash entries before writing to the hash index.
      */
-    SORTING
+    SORTING,
+
+    /**
+     * Write hash index in memory, using all available processors.
+     * Produces the same index as SORTING, but needs about 16 bytes of extra memory per log entry.
+     */
+    PARALLEL,
+
+    /**
+     * Write hash index directly into a memory mapped index file, like IN_MEMORY but off-heap.
+     * Runs at memory speed as long as the index fits in the page cache.
+     */
+    MAPPED,
+
+    /**
+     * Update the existing index with only the entries appended to the log since it was written.
+     * Falls back to AUTO if there is no such index, if the hash type or seed is set to something else,
+     * or if the index doesn't have room for the new entries at the wanted sparsity.
+     */
+    INCREMENTAL
   }
 }
@@ -18,39 +18,59 @@ package com.spotify.sparkey;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
 
 final class UncompressedBlockOutput implements BlockOutput {
   private final byte[] buf = new byte[1024*1024];
-  private final OutputStream outputStream;
+  private final ChannelOutputStream outputStream;
   private final FileDescriptor fileDescriptor;
+  private long written;
+  private long lastEntryOffset;
 
-  UncompressedBlockOutput(OutputStream outputStream, FileDescriptor fileDescriptor) {
+  UncompressedBlockOutput(ChannelOutputStream outputStream) throws IOException {
     this.outputStream = outputStream;
-    this.fileDescriptor = fileDescriptor;
+    this.fileDescriptor = outputStream.getFD();
   }
 
   @Override
-  public void put(byte[] key, int keyLen, byte[] value, int valueLen) throws IOException {
-    Util.writeUnsignedVLQ(keyLen + 1, outputStream);
-    Util.writeUnsignedVLQ(valueLen, outputStream);
-    outputStream.write(key, 0, keyLen);
-    outputStream.write(value, 0, valueLen);
+  public void put(byte[] key, int keyOff, int keyLen, byte[] value, int valueOff, int valueLen) throws IOException {
+    lastEntryOffset = written;
+    written += Util.unsignedVLQSize(keyLen + 1) + Util.unsignedVLQSize(valueLen) + keyLen + valueLen;
+    outputStream.writeUnsignedVLQ(keyLen + 1);
+    outputStream.writeUnsignedVLQ(valueLen);
+    outputStream.write(key, keyOff, keyLen);
+    outputStream.write(value, valueOff, valueLen);
   }
 
   @Override
-  public void put(byte[] key, int keyLen, InputStream value, long valueLen) throws IOException {
-    Util.writeUnsignedVLQ(keyLen + 1, outputStream);
-    Util.writeUnsignedVLQ(valueLen, outputStream);
-    outputStream.write(key, 0, keyLen);
+  public void put(byte[] key, int keyOff, int keyLen, InputStream value, long valueLen) throws IOException {
+    lastEntryOffset = written;
+    written += Util.unsignedVLQSize(keyLen + 1) + Util.unsignedVLQSize(valueLen) + keyLen + valueLen;
+    outputStream.writeUnsignedVLQ(keyLen + 1);
+    outputStream.writeUnsignedVLQ(valueLen);
+    outputStream.write(key, keyOff, keyLen);
     Util.copy(valueLen, value, outputStream, buf);
   }
 
   @Override
-  public void delete(byte[] key, int keyLen) throws IOException {
+  public void put(byte[] key, int keyOff, int keyLen, ByteBuffer value) throws IOException {
+    int valueLen = value.remaining();
+    lastEntryOffset = written;
+    written += Util.unsignedVLQSize(keyLen + 1) + Util.unsignedVLQSize(valueLen) + keyLen + valueLen;
+    outputStream.writeUnsignedVLQ(keyLen + 1);
+    outputStream.writeUnsignedVLQ(valueLen);
+    outputStream.write(key, keyOff, keyLen);
+    outputStream.write(value);
+  }
+
+  @Override
+  public void delete(byte[] key, int keyOff, int keyLen) throws IOException {
+    lastEntryOffset = written;
+    written += 1 + Util.unsignedVLQSize(keyLen) + keyLen;
     outputStream.write(0);
-    Util.writeUnsignedVLQ(keyLen, outputStream);
-    outputStream.write(key, 0, keyLen);
+    outputStream.writeUnsignedVLQ(keyLen);
+    outputStream.write(key, keyOff, keyLen);
   }
 
   @Override
@@ -61,6 +81,14 @@ final class UncompressedBlockOutput implements BlockOutput {
     }
   }
 
+  @Override
+  public void setCompressionThreads(int threads) {
+  }
+
+  @Override
+  public void setBlockListener(LongConsumer blockListener) {
+  }
+
   @Override
   public void close(boolean fsync) throws IOException {
     flush(fsync);
@@ -71,4 +99,14 @@ final class UncompressedBlockOutput implements BlockOutput {
   public int getMaxEntriesPerBlock() {
     return 1;
   }
+
+  @Override
+  public long getLastEntryBlock() {
+    return lastEntryOffset;
+  }
+
+  @Override
+  public int getLastEntryIndex() {
+    return 0;
+  }
 }
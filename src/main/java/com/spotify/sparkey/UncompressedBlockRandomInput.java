@@ -45,8 +45,8 @@ class UncompressedBlockRandomInput implements BlockRandomInput {
   }
 
   @Override
-  public boolean readFullyCompare(int length, byte[] key) throws IOException {
-    return data.readFullyCompare(length, key);
+  public boolean readFullyCompare(int length, byte[] key, int keyOff) throws IOException {
+    return data.readFullyCompare(length, key, keyOff);
   }
 
   @Override
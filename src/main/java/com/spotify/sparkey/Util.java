@@ -25,27 +25,26 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.util.UUID;
 
 final class Util {
   private static final Logger log = LoggerFactory.getLogger(Util.class);
 
-  static int unsignedByte(byte b) {
-    return ((int) b) & 0xFF;
-  }
-
-  static void writeLittleEndianInt(int value, RandomAccessFile rw) throws IOException {
-    rw.write((value) & 0xFF);
-    rw.write((value >>> 8) & 0xFF);
-    rw.write((value >>> 16) & 0xFF);
-    rw.write((value >>> 24) & 0xFF);
+  /**
+   * @return a copy of the remaining bytes of buffer, without changing its position
+   */
+  static byte[] remaining(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
   }
 
-  static void writeLittleEndianLong(long value, RandomAccessFile rw) throws IOException {
-    writeLittleEndianInt((int) value, rw);
-    writeLittleEndianInt((int) (value >>> 32), rw);
+  static int unsignedByte(byte b) {
+    return ((int) b) & 0xFF;
   }
 
   static long readLittleEndianLongSlowly(RandomAccessData data) throws IOException {
@@ -317,4 +316,15 @@ final class Util {
   private static void rename(File destFile, File backupFile) throws IOException {
     Files.move(destFile.toPath(), backupFile.toPath());
   }
+
+  /**
+   * @return the total physical memory of the machine, or of the container if limited, or 0 if unknown.
+   */
+  static long physicalMemory() {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+    }
+    return 0;
+  }
 }
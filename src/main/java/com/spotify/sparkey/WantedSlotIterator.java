@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Filters live entries down to the ones whose wanted slot is in [fromSlot, toSlot).
+ *
+ * Used by readers that can't scan their index slots. Every key has exactly one wanted slot,
+ * so disjoint ranges still give disjoint sets of entries, but every range reads the whole log.
+ */
+final class WantedSlotIterator implements Iterator<SparkeyReader.Entry> {
+  private final Iterator<SparkeyReader.Entry> entries;
+  private final HashType hashType;
+  private final int hashSeed;
+  private final long hashCapacity;
+  private final long fromSlot;
+  private final long toSlot;
+
+  private SparkeyReader.Entry next;
+
+  WantedSlotIterator(IndexHeader header, Iterator<SparkeyReader.Entry> entries, long fromSlot, long toSlot) {
+    this.entries = entries;
+    this.hashType = header.getHashType();
+    this.hashSeed = header.getHashSeed();
+    this.hashCapacity = header.getHashCapacity();
+    this.fromSlot = fromSlot;
+    this.toSlot = toSlot;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (next == null && entries.hasNext()) {
+      SparkeyReader.Entry entry = entries.next();
+      int keyLen = entry.getKeyLength();
+      long slot = IndexHash.getWantedSlot(hashType.hash(keyLen, entry.getKey(), 0, hashSeed), hashCapacity);
+      if (slot >= fromSlot && slot < toSlot) {
+        next = entry;
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public SparkeyReader.Entry next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    SparkeyReader.Entry entry = next;
+    next = null;
+    return entry;
+  }
+}
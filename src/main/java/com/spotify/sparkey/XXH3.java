@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import static com.spotify.sparkey.HashPrimitives.getInt;
+import static com.spotify.sparkey.HashPrimitives.getLong;
+
+/**
+ * The 64 bit variant of XXH3, from xxHash 0.8, with a seed.
+ *
+ * Keys are read eight bytes at a time and mixed with 64 to 128 bit multiplications, which takes
+ * far fewer operations per byte than MurmurHash3. The output matches XXH3_64bits_withSeed.
+ */
+final class XXH3 {
+  private static final long PRIME32_1 = 0x9E3779B1L;
+  private static final long PRIME32_2 = 0x85EBCA77L;
+  private static final long PRIME32_3 = 0xC2B2AE3DL;
+  private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME64_3 = 0x165667B19E3779F9L;
+  private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+  private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+  private static final int SECRET_SIZE = 192;
+  private static final int STRIPE_LEN = 64;
+  private static final int SECRET_CONSUME_RATE = 8;
+  private static final int STRIPES_PER_BLOCK = (SECRET_SIZE - STRIPE_LEN) / SECRET_CONSUME_RATE;
+  private static final int BLOCK_LEN = STRIPE_LEN * STRIPES_PER_BLOCK;
+  private static final int MIDSIZE_MAX = 240;
+
+  // Layout of the secret words for long keys: the aligned words, then the unaligned words for the last stripe,
+  // then the unaligned words for merging the accumulators
+  private static final int ALIGNED_WORDS = SECRET_SIZE / 8;
+  private static final int LAST_STRIPE_WORDS = ALIGNED_WORDS;
+  private static final int MERGE_WORDS = LAST_STRIPE_WORDS + 8;
+  private static final int LAST_STRIPE_SECRET_START = SECRET_SIZE - STRIPE_LEN - 7;
+  private static final int MERGE_SECRET_START = 11;
+
+  private static final byte[] SECRET = {
+      (byte) 0xb8, (byte) 0xfe, (byte) 0x6c, (byte) 0x39, (byte) 0x23, (byte) 0xa4, (byte) 0x4b, (byte) 0xbe,
+      (byte) 0x7c, (byte) 0x01, (byte) 0x81, (byte) 0x2c, (byte) 0xf7, (byte) 0x21, (byte) 0xad, (byte) 0x1c,
+      (byte) 0xde, (byte) 0xd4, (byte) 0x6d, (byte) 0xe9, (byte) 0x83, (byte) 0x90, (byte) 0x97, (byte) 0xdb,
+      (byte) 0x72, (byte) 0x40, (byte) 0xa4, (byte) 0xa4, (byte) 0xb7, (byte) 0xb3, (byte) 0x67, (byte) 0x1f,
+      (byte) 0xcb, (byte) 0x79, (byte) 0xe6, (byte) 0x4e, (byte) 0xcc, (byte) 0xc0, (byte) 0xe5, (byte) 0x78,
+      (byte) 0x82, (byte) 0x5a, (byte) 0xd0, (byte) 0x7d, (byte) 0xcc, (byte) 0xff, (byte) 0x72, (byte) 0x21,
+      (byte) 0xb8, (byte) 0x08, (byte) 0x46, (byte) 0x74, (byte) 0xf7, (byte) 0x43, (byte) 0x24, (byte) 0x8e,
+      (byte) 0xe0, (byte) 0x35, (byte) 0x90, (byte) 0xe6, (byte) 0x81, (byte) 0x3a, (byte) 0x26, (byte) 0x4c,
+      (byte) 0x3c, (byte) 0x28, (byte) 0x52, (byte) 0xbb, (byte) 0x91, (byte) 0xc3, (byte) 0x00, (byte) 0xcb,
+      (byte) 0x88, (byte) 0xd0, (byte) 0x65, (byte) 0x8b, (byte) 0x1b, (byte) 0x53, (byte) 0x2e, (byte) 0xa3,
+      (byte) 0x71, (byte) 0x64, (byte) 0x48, (byte) 0x97, (byte) 0xa2, (byte) 0x0d, (byte) 0xf9, (byte) 0x4e,
+      (byte) 0x38, (byte) 0x19, (byte) 0xef, (byte) 0x46, (byte) 0xa9, (byte) 0xde, (byte) 0xac, (byte) 0xd8,
+      (byte) 0xa8, (byte) 0xfa, (byte) 0x76, (byte) 0x3f, (byte) 0xe3, (byte) 0x9c, (byte) 0x34, (byte) 0x3f,
+      (byte) 0xf9, (byte) 0xdc, (byte) 0xbb, (byte) 0xc7, (byte) 0xc7, (byte) 0x0b, (byte) 0x4f, (byte) 0x1d,
+      (byte) 0x8a, (byte) 0x51, (byte) 0xe0, (byte) 0x4b, (byte) 0xcd, (byte) 0xb4, (byte) 0x59, (byte) 0x31,
+      (byte) 0xc8, (byte) 0x9f, (byte) 0x7e, (byte) 0xc9, (byte) 0xd9, (byte) 0x78, (byte) 0x73, (byte) 0x64,
+      (byte) 0xea, (byte) 0xc5, (byte) 0xac, (byte) 0x83, (byte) 0x34, (byte) 0xd3, (byte) 0xeb, (byte) 0xc3,
+      (byte) 0xc5, (byte) 0x81, (byte) 0xa0, (byte) 0xff, (byte) 0xfa, (byte) 0x13, (byte) 0x63, (byte) 0xeb,
+      (byte) 0x17, (byte) 0x0d, (byte) 0xdd, (byte) 0x51, (byte) 0xb7, (byte) 0xf0, (byte) 0xda, (byte) 0x49,
+      (byte) 0xd3, (byte) 0x16, (byte) 0x55, (byte) 0x26, (byte) 0x29, (byte) 0xd4, (byte) 0x68, (byte) 0x9e,
+      (byte) 0x2b, (byte) 0x16, (byte) 0xbe, (byte) 0x58, (byte) 0x7d, (byte) 0x47, (byte) 0xa1, (byte) 0xfc,
+      (byte) 0x8f, (byte) 0xf8, (byte) 0xb8, (byte) 0xd1, (byte) 0x7a, (byte) 0xd0, (byte) 0x31, (byte) 0xce,
+      (byte) 0x45, (byte) 0xcb, (byte) 0x3a, (byte) 0x8f, (byte) 0x95, (byte) 0x16, (byte) 0x04, (byte) 0x28,
+      (byte) 0xaf, (byte) 0xd7, (byte) 0xfb, (byte) 0xca, (byte) 0xbb, (byte) 0x4b, (byte) 0x40, (byte) 0x7e,
+  };
+
+  // The secret as a little endian long at every byte offset, so that reading it takes a single load
+  private static final long[] SECRET_WORDS = words(SECRET);
+
+  // The secret words for long keys with the most recently used seed. Readers use the seed of their index for every
+  // lookup, so this is almost always a hit. Racy, but safe, since the secret is published through final fields.
+  private static SeededSecret lastSecret = new SeededSecret(0);
+
+  private XXH3() {
+  }
+
+  static long hash64(byte[] data, int off, int len, long seed) {
+    if (len <= 16) {
+      return hash0To16(data, off, len, seed);
+    }
+    if (len <= 128) {
+      return hash17To128(data, off, len, seed);
+    }
+    if (len <= MIDSIZE_MAX) {
+      return hash129To240(data, off, len, seed);
+    }
+    return hashLong(data, off, len, secretFor(seed));
+  }
+
+  private static long hash0To16(byte[] data, int off, int len, long seed) {
+    if (len > 8) {
+      long bitflip1 = (SECRET_WORDS[24] ^ SECRET_WORDS[32]) + seed;
+      long bitflip2 = (SECRET_WORDS[40] ^ SECRET_WORDS[48]) - seed;
+      long low = getLong(data, off) ^ bitflip1;
+      long high = getLong(data, off + len - 8) ^ bitflip2;
+      long acc = len + Long.reverseBytes(low) + high + multiplyFold(low, high);
+      return avalanche(acc);
+    }
+    if (len >= 4) {
+      seed ^= (long) Integer.reverseBytes((int) seed) << 32;
+      long input1 = getInt(data, off) & 0xFFFFFFFFL;
+      long input2 = getInt(data, off + len - 4) & 0xFFFFFFFFL;
+      long bitflip = (SECRET_WORDS[8] ^ SECRET_WORDS[16]) - seed;
+      long keyed = (input2 + (input1 << 32)) ^ bitflip;
+      return rrmxmx(keyed, len);
+    }
+    if (len > 0) {
+      int c1 = data[off] & 0xff;
+      int c2 = data[off + (len >> 1)] & 0xff;
+      int c3 = data[off + len - 1] & 0xff;
+      int combined = c1 << 16 | c2 << 24 | c3 | len << 8;
+      long bitflip = ((getInt(SECRET, 0) ^ getInt(SECRET, 4)) & 0xFFFFFFFFL) + seed;
+      return xxh64Avalanche((combined & 0xFFFFFFFFL) ^ bitflip);
+    }
+    return xxh64Avalanche(seed ^ SECRET_WORDS[56] ^ SECRET_WORDS[64]);
+  }
+
+  private static long hash17To128(byte[] data, int off, int len, long seed) {
+    long acc = len * PRIME64_1;
+    // Pairs of 16 bytes from both ends, as a loop rather than unrolled, to keep the method small enough to inline
+    int rounds = (len - 1) / 32;
+    for (int i = 0; i <= rounds; i++) {
+      acc += mix16(data, off + 16 * i, 32 * i, seed);
+      acc += mix16(data, off + len - 16 * (i + 1), 32 * i + 16, seed);
+    }
+    return avalanche(acc);
+  }
+
+  private static long hash129To240(byte[] data, int off, int len, long seed) {
+    long acc = len * PRIME64_1;
+    int rounds = len / 16;
+    for (int i = 0; i < 8; i++) {
+      acc += mix16(data, off + 16 * i, 16 * i, seed);
+    }
+    acc = avalanche(acc);
+    for (int i = 8; i < rounds; i++) {
+      acc += mix16(data, off + 16 * i, 16 * (i - 8) + 3, seed);
+    }
+    acc += mix16(data, off + len - 16, 136 - 17, seed);
+    return avalanche(acc);
+  }
+
+  private static long hashLong(byte[] data, int off, int len, long[] secret) {
+    long[] acc = {PRIME32_3, PRIME64_1, PRIME64_2, PRIME64_3, PRIME64_4, PRIME32_2, PRIME64_5, PRIME32_1};
+    int blocks = (len - 1) / BLOCK_LEN;
+    for (int n = 0; n < blocks; n++) {
+      accumulate(acc, data, off + n * BLOCK_LEN, secret, STRIPES_PER_BLOCK);
+      scramble(acc, secret, (SECRET_SIZE - STRIPE_LEN) / 8);
+    }
+    int stripes = (len - 1 - BLOCK_LEN * blocks) / STRIPE_LEN;
+    accumulate(acc, data, off + blocks * BLOCK_LEN, secret, stripes);
+    accumulateStripe(acc, data, off + len - STRIPE_LEN, secret, LAST_STRIPE_WORDS);
+
+    long result = len * PRIME64_1;
+    for (int i = 0; i < 4; i++) {
+      result += multiplyFold(acc[2 * i] ^ secret[MERGE_WORDS + 2 * i], acc[2 * i + 1] ^ secret[MERGE_WORDS + 2 * i + 1]);
+    }
+    return avalanche(result);
+  }
+
+  private static void accumulate(long[] acc, byte[] data, int off, long[] secret, int stripes) {
+    for (int n = 0; n < stripes; n++) {
+      accumulateStripe(acc, data, off + n * STRIPE_LEN, secret, n * SECRET_CONSUME_RATE / 8);
+    }
+  }
+
+  private static void accumulateStripe(long[] acc, byte[] data, int off, long[] secret, int secretWord) {
+    for (int i = 0; i < 8; i++) {
+      long value = getLong(data, off + 8 * i);
+      long key = value ^ secret[secretWord + i];
+      acc[i ^ 1] += value;
+      acc[i] += (key & 0xFFFFFFFFL) * (key >>> 32);
+    }
+  }
+
+  private static void scramble(long[] acc, long[] secret, int secretWord) {
+    for (int i = 0; i < 8; i++) {
+      long a = acc[i];
+      a ^= a >>> 47;
+      a ^= secret[secretWord + i];
+      acc[i] = a * PRIME32_1;
+    }
+  }
+
+  /**
+   * The secret words for long keys, where the seed is added to every other word of the default secret.
+   * Only the words that hashLong reads are derived, and the unaligned ones are shifted together from
+   * the aligned ones, since this is done again whenever the seed changes.
+   */
+  private static long[] longSecret(long seed) {
+    long[] secret = new long[MERGE_WORDS + 8];
+    for (int i = 0; i < ALIGNED_WORDS; i += 2) {
+      secret[i] = SECRET_WORDS[8 * i] + seed;
+      secret[i + 1] = SECRET_WORDS[8 * i + 8] - seed;
+    }
+    for (int i = 0; i < 8; i++) {
+      secret[LAST_STRIPE_WORDS + i] = unaligned(secret, LAST_STRIPE_SECRET_START + 8 * i);
+      secret[MERGE_WORDS + i] = unaligned(secret, MERGE_SECRET_START + 8 * i);
+    }
+    return secret;
+  }
+
+  private static long[] secretFor(long seed) {
+    SeededSecret secret = lastSecret;
+    if (secret.seed != seed) {
+      secret = new SeededSecret(seed);
+      lastSecret = secret;
+    }
+    return secret.words;
+  }
+
+  private static long unaligned(long[] aligned, int off) {
+    int shift = 8 * (off & 7);
+    return aligned[off >>> 3] >>> shift | aligned[(off >>> 3) + 1] << (64 - shift);
+  }
+
+  private static long[] words(byte[] secret) {
+    long[] words = new long[secret.length - 7];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = getLong(secret, i);
+    }
+    return words;
+  }
+
+  private static long mix16(byte[] data, int off, int secretOff, long seed) {
+    return multiplyFold(
+        getLong(data, off) ^ (SECRET_WORDS[secretOff] + seed),
+        getLong(data, off + 8) ^ (SECRET_WORDS[secretOff + 8] - seed));
+  }
+
+  private static long multiplyFold(long x, long y) {
+    return x * y ^ HashPrimitives.unsignedMultiplyHigh(x, y);
+  }
+
+  private static long avalanche(long h) {
+    h ^= h >>> 37;
+    h *= 0x165667919E3779F9L;
+    return h ^ h >>> 32;
+  }
+
+  private static long xxh64Avalanche(long h) {
+    h ^= h >>> 33;
+    h *= PRIME64_2;
+    h ^= h >>> 29;
+    h *= PRIME64_3;
+    return h ^ h >>> 32;
+  }
+
+  private static long rrmxmx(long h, int len) {
+    h ^= Long.rotateLeft(h, 49) ^ Long.rotateLeft(h, 24);
+    h *= 0x9FB21C651E98DF25L;
+    h ^= (h >>> 35) + len;
+    h *= 0x9FB21C651E98DF25L;
+    return h ^ h >>> 28;
+  }
+
+  private static final class SeededSecret {
+    private final long seed;
+    private final long[] words;
+
+    private SeededSecret(long seed) {
+      this.seed = seed;
+      this.words = longSecret(seed);
+    }
+  }
+}
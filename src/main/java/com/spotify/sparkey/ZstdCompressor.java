@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdException;
+
+/**
+ * ZSTD with per-log settings: a compression level, a long window, and a dictionary that is
+ * trained on, and stored in, the log it compresses.
+ *
+ * Small blocks have too little data of their own for ZSTD to find repetitions in, but they share
+ * most of their structure with the other blocks of the log. The dictionary holds that shared
+ * structure, so small blocks, down to single entries, still compress well, and a lookup only
+ * decompresses a small block.
+ *
+ * The settings and the dictionary are applied once, and each thread keeps its own contexts with them.
+ */
+final class ZstdCompressor implements BlockCompressor {
+  // The largest window that ZSTD decompresses without raising its limits
+  private static final int MAX_WINDOW_LOG = 27;
+  private static final int MIN_WINDOW_LOG = 10;
+
+  static final int MAX_DICTIONARY_SIZE = 64 * 1024;
+  // ZSTD recommends about a hundred times the dictionary size of samples
+  static final int MAX_SAMPLE_SIZE = 100 * MAX_DICTIONARY_SIZE;
+
+  private final ThreadLocal<ZstdCompressCtx> compressCtx;
+  private final ThreadLocal<ZstdDecompressCtx> decompressCtx;
+
+  /**
+   * @param dictionary the dictionary, or null or empty for none
+   * @param windowLog the log2 of the long distance matching window, or 0 to disable it
+   */
+  ZstdCompressor(byte[] dictionary, int level, int windowLog) {
+    boolean hasDictionary = dictionary != null && dictionary.length > 0;
+    ZstdDictCompress compressDict = hasDictionary ? new ZstdDictCompress(dictionary, level) : null;
+    ZstdDictDecompress decompressDict = hasDictionary ? new ZstdDictDecompress(dictionary) : null;
+    compressCtx = ThreadLocal.withInitial(() -> {
+      ZstdCompressCtx ctx = new ZstdCompressCtx().setLevel(level);
+      if (windowLog > 0) {
+        ctx.setLong(windowLog);
+      }
+      if (compressDict != null) {
+        // The log holds a single dictionary, so the blocks don't need to name it
+        ctx.setDictID(false).loadDict(compressDict);
+      }
+      return ctx;
+    });
+    decompressCtx = ThreadLocal.withInitial(() -> {
+      ZstdDecompressCtx ctx = new ZstdDecompressCtx();
+      if (decompressDict != null) {
+        ctx.loadDict(decompressDict);
+      }
+      return ctx;
+    });
+  }
+
+  /**
+   * @return the window for long distance matching over a whole block
+   */
+  static int windowLog(int blockSize) {
+    int windowLog = 32 - Integer.numberOfLeadingZeros(Math.max(blockSize - 1, 1));
+    return Math.max(MIN_WINDOW_LOG, Math.min(MAX_WINDOW_LOG, windowLog));
+  }
+
+  /**
+   * Train a dictionary on samples of the data.
+   *
+   * @return the dictionary, which is empty if there were too few or too similar samples to train on
+   */
+  static byte[] train(List<byte[]> samples) {
+    if (samples.isEmpty()) {
+      return new byte[0];
+    }
+    byte[] buffer = new byte[MAX_DICTIONARY_SIZE];
+    try {
+      long size = Zstd.trainFromBuffer(samples.toArray(new byte[0][]), buffer);
+      if (Zstd.isError(size)) {
+        return new byte[0];
+      }
+      return Arrays.copyOf(buffer, (int) size);
+    } catch (ZstdException e) {
+      return new byte[0];
+    }
+  }
+
+  @Override
+  public int maxCompressedLength(int blockSize) {
+    return (int) Zstd.compressBound(blockSize);
+  }
+
+  @Override
+  public int uncompress(byte[] compressed, int compressedSize, byte[] uncompressed) throws IOException {
+    try {
+      return decompressCtx.get().decompressByteArray(uncompressed, 0, uncompressed.length, compressed, 0, compressedSize);
+    } catch (ZstdException e) {
+      throw new IOException("Corrupt ZSTD block", e);
+    }
+  }
+
+  @Override
+  public int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) throws IOException {
+    try {
+      return compressCtx.get().compressByteArray(compressed, 0, compressed.length, uncompressed, 0, uncompressedSize);
+    } catch (ZstdException e) {
+      throw new IOException("ZSTD compression failed", e);
+    }
+  }
+}
@@ -22,7 +22,9 @@ import com.spotify.sparkey.LogHeader;
 import com.spotify.sparkey.SparkeyReader;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.Spliterator;
 
 /**
  * A superclass for Sparkey readers that delegate to another {@link SparkeyReader}.
@@ -49,6 +51,26 @@ public abstract class AbstractDelegatingSparkeyReader implements SparkeyReader {
     return getDelegateReader().getAsEntry(key);
   }
 
+  @Override
+  public byte[] getAsByteArray(byte[] key, int keyOff, int keyLen) throws IOException {
+    return getDelegateReader().getAsByteArray(key, keyOff, keyLen);
+  }
+
+  @Override
+  public byte[] getAsByteArray(ByteBuffer key) throws IOException {
+    return getDelegateReader().getAsByteArray(key);
+  }
+
+  @Override
+  public Entry getAsEntry(byte[] key, int keyOff, int keyLen) throws IOException {
+    return getDelegateReader().getAsEntry(key, keyOff, keyLen);
+  }
+
+  @Override
+  public Entry getAsEntry(ByteBuffer key) throws IOException {
+    return getDelegateReader().getAsEntry(key);
+  }
+
   @Override
   public void close() {
     getDelegateReader().close();
@@ -74,6 +96,21 @@ public abstract class AbstractDelegatingSparkeyReader implements SparkeyReader {
     return getDelegateReader().iterator();
   }
 
+  @Override
+  public Spliterator<Entry> spliterator() {
+    return getDelegateReader().spliterator();
+  }
+
+  @Override
+  public Iterator<Entry> indexIterator() {
+    return getDelegateReader().indexIterator();
+  }
+
+  @Override
+  public Iterator<Entry> iterator(long fromSlot, long toSlot) {
+    return getDelegateReader().iterator(fromSlot, toSlot);
+  }
+
   @Override
   public LoadResult load(LoadMode mode, java.util.concurrent.Executor executor) {
     return getDelegateReader().load(mode, executor);
@@ -24,7 +24,9 @@ import com.spotify.sparkey.SparkeyReader;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.Spliterator;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicIntegerArray;
 
@@ -349,6 +351,32 @@ public class PooledSparkeyReader implements SparkeyReader {
     });
   }
 
+  @Override
+  public byte[] getAsByteArray(byte[] key, int keyOff, int keyLen) throws IOException {
+    return executeOnPooledReader(reader -> reader.getAsByteArray(key, keyOff, keyLen));
+  }
+
+  @Override
+  public byte[] getAsByteArray(ByteBuffer key) throws IOException {
+    return executeOnPooledReader(reader -> reader.getAsByteArray(key));
+  }
+
+  @Override
+  public Entry getAsEntry(byte[] key, int keyOff, int keyLen) throws IOException {
+    return executeOnPooledReader(reader -> {
+      Entry entry = reader.getAsEntry(key, keyOff, keyLen);
+      return entry == null ? null : new ImmutableEntry(entry);
+    });
+  }
+
+  @Override
+  public Entry getAsEntry(ByteBuffer key) throws IOException {
+    return executeOnPooledReader(reader -> {
+      Entry entry = reader.getAsEntry(key);
+      return entry == null ? null : new ImmutableEntry(entry);
+    });
+  }
+
   // Non-critical methods that read immutable data or create isolated state
   // These don't need busy tracking
 
@@ -369,6 +397,24 @@ public class PooledSparkeyReader implements SparkeyReader {
     return baseReader.iterator();
   }
 
+  @Override
+  public Spliterator<Entry> spliterator() {
+    // Every split creates its own duplicate of the index, just like iterator()
+    return baseReader.spliterator();
+  }
+
+  @Override
+  public Iterator<Entry> indexIterator() {
+    // Like iterator(), this works on an isolated duplicate of the index
+    return baseReader.indexIterator();
+  }
+
+  @Override
+  public Iterator<Entry> iterator(long fromSlot, long toSlot) {
+    // Like iterator(), this works on an isolated duplicate of the index
+    return baseReader.iterator(fromSlot, toSlot);
+  }
+
   @Override
   public LoadResult load(LoadMode mode, java.util.concurrent.Executor executor) {
     return baseReader.load(mode, executor);
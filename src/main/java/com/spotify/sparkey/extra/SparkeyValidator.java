@@ -1,5 +1,6 @@
 package com.spotify.sparkey.extra;
 
+import com.spotify.sparkey.IndexHeader;
 import com.spotify.sparkey.LogHeader;
 import com.spotify.sparkey.Sparkey;
 import com.spotify.sparkey.SparkeyLogIterator;
@@ -7,95 +8,277 @@ import com.spotify.sparkey.SparkeyReader;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Validates that a sparkey log file and its index are consistent.
+ *
+ * Validation runs in two phases, both of which are spread out over a number of threads:
+ * <ol>
+ *   <li>The log is split at block (or entry) boundaries and every segment is
+ *   iterated and validated against the log header, doing a lookup for every key.</li>
+ *   <li>The index is split into slot ranges and every live entry is compared with
+ *   the result of a random lookup for the same key.</li>
+ * </ol>
+ * Finally the entry counts are compared with the log and index headers.
+ */
 public class SparkeyValidator {
-  public static void main(String[] args) throws IOException {
-    if (args.length < 1) {
-      System.err.println("Usage: sparkey-validator <input file>");
-      System.exit(1);
-      return;
+  // Number of work units per thread, to even out differences in segment cost
+  private static final int PARTS_PER_THREAD = 16;
+  private static final long PROGRESS_INTERVAL_MILLIS = 10000;
+
+  private final File indexFile;
+  private final File logFile;
+  private final int threads;
+  private final Throttle throttle;
+  private final long progressIntervalMillis;
+  private final PrintStream out;
+  private final PrintStream err;
+
+  private final AtomicBoolean inconsistent = new AtomicBoolean();
+  private final AtomicLong logBytesDone = new AtomicLong();
+  private final AtomicLong entriesDone = new AtomicLong();
+  private volatile String phase = "Starting";
+  private volatile long phaseTotal;
+
+  SparkeyValidator(File input, int threads, long maxBytesPerSecond, long progressIntervalMillis,
+                   PrintStream out, PrintStream err) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be positive: " + threads);
     }
+    this.indexFile = Sparkey.getIndexFile(input);
+    this.logFile = Sparkey.getLogFile(input);
+    this.threads = threads;
+    this.throttle = maxBytesPerSecond > 0 ? new Throttle(maxBytesPerSecond) : null;
+    this.progressIntervalMillis = progressIntervalMillis;
+    this.out = out;
+    this.err = err;
+  }
 
-    File input = new File(args[0]);
-    final File logFile = Sparkey.getLogFile(input);
-    if (!logFile.exists()) {
-      System.err.println(logFile.getAbsolutePath() + " does not exist");
-      System.exit(1);
-      return;
+  public static void main(String[] args) throws IOException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    long maxBytesPerSecond = 0;
+    String input = null;
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--threads":
+            threads = Integer.parseInt(args[++i]);
+            break;
+          case "--max-mb-per-second":
+            maxBytesPerSecond = Long.parseLong(args[++i]) * 1024 * 1024;
+            break;
+          default:
+            if (input != null) {
+              throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            input = args[i];
+        }
+      }
+    } catch (RuntimeException e) {
+      input = null;
     }
-    if (!logFile.isFile()) {
-      System.err.println(logFile.getAbsolutePath() + " is not a file");
+    if (input == null || threads < 1) {
+      System.err.println("Usage: sparkey-validator [--threads <n>] [--max-mb-per-second <n>] <input file>");
       System.exit(1);
       return;
     }
 
-    final File indexFile = Sparkey.getIndexFile(input);
-    if (!indexFile.exists()) {
-      System.err.println(indexFile.getAbsolutePath() + " does not exist");
-      System.exit(1);
-      return;
-    }
-    if (!indexFile.isFile()) {
-      System.err.println(indexFile.getAbsolutePath() + " is not a file");
+    if (!validate(new File(input), threads, maxBytesPerSecond)) {
       System.exit(1);
-      return;
     }
+  }
 
-    LogHeader logHeader = Sparkey.getLogHeader(logFile);
+  /**
+   * Validate a sparkey file pair, printing progress to stdout and problems to stderr.
+   *
+   * @param input File base to use, the actual file endings will be set to .spi and .spl
+   * @param threads number of threads to validate with
+   * @param maxBytesPerSecond upper bound on the read throughput, or 0 for no limit.
+   *                          Log data is accounted for in uncompressed bytes.
+   * @return true if the files are consistent
+   */
+  public static boolean validate(File input, int threads, long maxBytesPerSecond) throws IOException {
+    return new SparkeyValidator(input, threads, maxBytesPerSecond, PROGRESS_INTERVAL_MILLIS, System.out, System.err).run();
+  }
+
+  boolean run() throws IOException {
+    if (!checkFile(logFile) || !checkFile(indexFile)) {
+      return false;
+    }
 
+    final LogHeader logHeader = Sparkey.getLogHeader(logFile);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, daemonThreads("sparkey-validator"));
+    final ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(daemonThreads("sparkey-validator-progress"));
     final SparkeyReader reader = Sparkey.open(indexFile);
-    final SparkeyReader reader2 = Sparkey.open(indexFile);
+    try {
+      progress.scheduleAtFixedRate(this::reportProgress, progressIntervalMillis, progressIntervalMillis, TimeUnit.MILLISECONDS);
 
-    boolean inconsistent = false;
+      out.println("Validating log iterator.");
+      final List<SparkeyLogIterator> segments = new SparkeyLogIterator(logFile).split(threads * PARTS_PER_THREAD);
+      startPhase("Log", logHeader.getDataEnd() - logHeader.size());
+      final List<Future<long[]>> logResults = new ArrayList<>();
+      for (final SparkeyLogIterator segment : segments) {
+        logResults.add(executor.submit(() -> validateSegment(logHeader, reader.duplicate(), segment)));
+      }
+      long numPuts = 0;
+      long numDeletes = 0;
+      for (int i = 0; i < segments.size(); i++) {
+        long[] counts = await(logResults.get(i), "log segment [" + segments.get(i).getStart() + ", " + segments.get(i).getEnd() + ")");
+        if (counts != null) {
+          numPuts += counts[0];
+          numDeletes += counts[1];
+        }
+      }
+      checkCount("puts in the log", logHeader.getNumPuts(), numPuts);
+      checkCount("deletes in the log", logHeader.getNumDeletes(), numDeletes);
 
-    System.out.println("Validating log iterator.");
+      out.println("Validating hash iterator and random lookups.");
+      final IndexHeader indexHeader = reader.getIndexHeader();
+      final List<Iterable<SparkeyReader.Entry>> partitions = reader.partitions(threads * PARTS_PER_THREAD);
+      startPhase("Index", indexHeader.getNumEntries());
+      final List<Future<long[]>> indexResults = new ArrayList<>();
+      for (final Iterable<SparkeyReader.Entry> partition : partitions) {
+        indexResults.add(executor.submit(() -> validateSlots(logHeader, indexHeader, reader.duplicate(), partition)));
+      }
+      long numEntries = 0;
+      for (int i = 0; i < partitions.size(); i++) {
+        long[] counts = await(indexResults.get(i), "index partition " + i + " of " + partitions.size());
+        if (counts != null) {
+          numEntries += counts[0];
+        }
+      }
+      checkCount("live entries in the index", indexHeader.getNumEntries(), numEntries);
+    } finally {
+      progress.shutdownNow();
+      executor.shutdownNow();
+      reader.close();
+    }
 
-    final SparkeyLogIterator iterator = new SparkeyLogIterator(logFile);
-    for (SparkeyReader.Entry entry : iterator) {
+    out.println("Done!");
+    return !inconsistent.get();
+  }
+
+  private long[] validateSegment(LogHeader logHeader, SparkeyReader reader, SparkeyLogIterator segment) throws IOException {
+    long numPuts = 0;
+    long numDeletes = 0;
+    for (SparkeyReader.Entry entry : segment) {
       switch (entry.getType()) {
         case PUT:
           validateKey(logHeader, entry);
           validateValue(logHeader, entry);
-
-          // Just make sure this doesn't crash
-          reader.getAsByteArray(entry.getKey());
-
+          numPuts++;
           break;
         case DELETE:
           validateKey(logHeader, entry);
           checkState(0 == entry.getValueLength());
-
-          // Just make sure this doesn't crash
-          reader.getAsByteArray(entry.getKey());
-
+          numDeletes++;
           break;
         default:
           throw new RuntimeException("Unknown type: " + entry.getType());
       }
+
+      // Just make sure this doesn't crash
+      reader.getAsByteArray(entry.getKey());
+
+      throttle(entry.getKeyLength() + entry.getValueLength());
     }
+    logBytesDone.addAndGet(segment.getEnd() - segment.getStart());
+    return new long[] {numPuts, numDeletes};
+  }
 
-    System.out.println("Validating hash iterator and random lookups.");
-    for (SparkeyReader.Entry entry : reader) {
+  private long[] validateSlots(LogHeader logHeader, IndexHeader indexHeader, SparkeyReader lookupReader,
+                               Iterable<SparkeyReader.Entry> partition) throws IOException {
+    long numEntries = 0;
+    for (SparkeyReader.Entry entry : partition) {
       final byte[] value = entry.getValue();
 
       validateKey(logHeader, entry);
       validateValue(logHeader, entry, value);
 
-
-      final byte[] value2 = reader2.getAsByteArray(entry.getKey());
+      final byte[] value2 = lookupReader.getAsByteArray(entry.getKey());
       if (!Arrays.equals(value, value2)) {
-        System.err.println("Inconsistency for key: " + entry.getKeyAsString() + " when iterating and doing a lookup");
-        inconsistent = true;
+        err.println("Inconsistency for key: " + entry.getKeyAsString() + " when iterating and doing a lookup");
+        inconsistent.set(true);
       }
+      numEntries++;
 
+      throttle(indexHeader.getSlotSize() + entry.getKeyLength() + 2 * entry.getValueLength());
     }
+    entriesDone.addAndGet(numEntries);
+    return new long[] {numEntries};
+  }
 
-    System.out.println("Done!");
+  private <T> T await(Future<T> future, String description) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while validating " + description, e);
+    } catch (ExecutionException e) {
+      err.println("Failed to validate " + description + ": " + e.getCause());
+      inconsistent.set(true);
+      return null;
+    }
+  }
 
-    if (inconsistent) {
-      System.exit(1);
+  private void checkCount(String description, long expected, long actual) {
+    if (expected != actual) {
+      err.println("Inconsistent number of " + description + ": expected " + expected + " but found " + actual);
+      inconsistent.set(true);
+    }
+  }
+
+  private void startPhase(String phase, long total) {
+    this.phaseTotal = total;
+    this.phase = phase;
+  }
+
+  private void reportProgress() {
+    final String phase = this.phase;
+    final long done = "Log".equals(phase) ? logBytesDone.get() : entriesDone.get();
+    final long total = Math.max(1, phaseTotal);
+    out.printf("%s: %d / %d %s (%.1f%%)%n", phase, done, total,
+        "Log".equals(phase) ? "bytes" : "entries", 100.0 * done / total);
+  }
+
+  private void throttle(long bytes) {
+    if (throttle != null) {
+      throttle.acquire(bytes);
+    }
+  }
+
+  private boolean checkFile(File file) {
+    if (!file.exists()) {
+      err.println(file.getAbsolutePath() + " does not exist");
+      return false;
     }
+    if (!file.isFile()) {
+      err.println(file.getAbsolutePath() + " is not a file");
+      return false;
+    }
+    return true;
+  }
+
+  private static ThreadFactory daemonThreads(final String name) {
+    final AtomicLong counter = new AtomicLong();
+    return runnable -> {
+      Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
   }
 
   private static void validateKey(LogHeader logHeader, SparkeyReader.Entry entry) {
@@ -119,5 +302,49 @@ public class SparkeyValidator {
     }
   }
 
+  /**
+   * Shared rate limiter. Callers reserve bytes up front and sleep until the
+   * reservation is within the allowed rate. Small reservations are batched
+   * per thread to keep contention down.
+   */
+  static final class Throttle {
+    private static final long BATCH_BYTES = 1024 * 1024;
+
+    private final double nanosPerByte;
+    private final ThreadLocal<long[]> pending = ThreadLocal.withInitial(() -> new long[1]);
+    private long nextFree = System.nanoTime();
+
+    Throttle(long maxBytesPerSecond) {
+      this.nanosPerByte = 1e9 / maxBytesPerSecond;
+    }
 
+    void acquire(long bytes) {
+      final long[] pending = this.pending.get();
+      pending[0] += bytes;
+      if (pending[0] < BATCH_BYTES) {
+        return;
+      }
+      final long reserved = pending[0];
+      pending[0] = 0;
+      final long waitNanos = reserve(reserved);
+      if (waitNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        }
+      }
+    }
+
+    private synchronized long reserve(long bytes) {
+      final long now = System.nanoTime();
+      if (nextFree - now < 0) {
+        nextFree = now;
+      }
+      final long waitNanos = nextFree - now;
+      nextFree += (long) (bytes * nanosPerByte);
+      return waitNanos;
+    }
+  }
 }
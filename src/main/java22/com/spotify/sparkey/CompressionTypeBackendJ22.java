@@ -30,9 +30,9 @@ class CompressionTypeBackendJ22Uncompressed implements CompressionTypeBackendJ22
 }
 
 class CompressionTypeBackendJ22Compressed implements CompressionTypeBackendJ22 {
-    private final CompressorType compressor;
+    private final BlockCompressor compressor;
 
-    public CompressionTypeBackendJ22Compressed(CompressorType compressor) {
+    public CompressionTypeBackendJ22Compressed(BlockCompressor compressor) {
         this.compressor = compressor;
     }
 
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Java 22+ version of HashPrimitives. Reads each value with a single, possibly unaligned, load
+ * through a byte array view instead of assembling it from bytes, and multiplies with the intrinsic.
+ */
+final class HashPrimitives {
+  private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private HashPrimitives() {
+  }
+
+  static int getInt(byte[] data, int off) {
+    return (int) INT.get(data, off);
+  }
+
+  static long getLong(byte[] data, int off) {
+    return (long) LONG.get(data, off);
+  }
+
+  static long unsignedMultiplyHigh(long x, long y) {
+    return Math.unsignedMultiplyHigh(x, y);
+  }
+}
@@ -22,7 +22,7 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 
-final class IndexHashJ22 {
+final class IndexHashJ22 implements LiveEntrySpliterator.Cursor {
   private final File indexFile;
   final IndexHeader header;
   private final File logFile;
@@ -66,17 +66,12 @@ final class IndexHashJ22 {
   }
 
   private static CompressionTypeBackendJ22 getCompressionTypeBackendJ22(LogHeader logHeader) {
-    CompressionType compressionType = logHeader.getCompressionType();
-    switch (compressionType) {
-      case NONE:
-        return new CompressionTypeBackendJ22Uncompressed();
-      case SNAPPY:
-        return new CompressionTypeBackendJ22Compressed(CompressorType.SNAPPY);
-      case ZSTD:
-        return new CompressionTypeBackendJ22Compressed(CompressorType.ZSTD);
-      default:
-        throw new IllegalArgumentException("Unknown compression type: " + compressionType);
+    if (logHeader.getCompressionType() == CompressionType.NONE) {
+      return new CompressionTypeBackendJ22Uncompressed();
     }
+    // The compressor depends on the compression options and dictionary of the log
+    return new CompressionTypeBackendJ22Compressed(
+        ((CompressionTypeBackendCompressed) logHeader.getCompressionTypeBackend()).getCompressor());
   }
 
   static IndexHashJ22 open(File indexFile, File logFile) throws IOException {
@@ -140,7 +135,8 @@ final class IndexHashJ22 {
     }
     LogHeader logHeader = LogHeader.read(logFile);
 
-    int addressSize = calcAddressSize(logHeader) ? 4 : 8;
+    int entryBlockBits = calcEntryBlockBits(logHeader.getMaxEntriesPerBlock());
+    int addressSize = AddressSize.forLog(logHeader.getDataEnd(), entryBlockBits, false).size();
     if (hashType == null) {
       hashType = logHeader.getNumPuts() < (1 << 23) ? HashType.HASH_32_BITS : HashType.HASH_64_BITS;
     }
@@ -148,9 +144,9 @@ final class IndexHashJ22 {
     long capacity = 1L | (long) (logHeader.getNumPuts() * sparsity);
 
     IndexHeader header = new IndexHeader(logHeader.getFileIdentifier(), logHeader.getDataEnd(),
-        logHeader.getMaxKeyLen(), logHeader.getMaxValueLen(), addressSize, hashType.size(), capacity, logHeader.getNumPuts(),
+        logHeader.getMaxKeyLen(), logHeader.getMaxValueLen(), addressSize, hashType, capacity, logHeader.getNumPuts(),
         hashSeed,
-        calcEntryBlockBits(logHeader.getMaxEntriesPerBlock()));
+        entryBlockBits);
 
     long hashLength = header.getHashLength();
 
@@ -247,11 +243,6 @@ final class IndexHashJ22 {
     header.setHashCollisions(numHashCollisions);
   }
 
-  private static boolean calcAddressSize(LogHeader logHeader) {
-    int entryBlockBits = calcEntryBlockBits(logHeader.getMaxEntriesPerBlock());
-    return logHeader.getDataEnd() <= (1L << (30 - entryBlockBits));
-  }
-
   void close() {
     this.indexData.close();
     this.logData.close();
@@ -319,7 +310,7 @@ final class IndexHashJ22 {
         getCompressionTypeBackendJ22(logHeader).createRandomAccessData(new ReadOnlyMemMapJ22(logFile), logHeader.getCompressionBlockSize());
 
     try {
-      final Iterator<SortHelper.Entry> iterator2 = SortHelper.sort(
+      final HashedEntries entries = SortHelper.sort(
           logFile, start, end, hashData, hashCapacity, header.getHashSeed(), maxMemory);
 
       final int maxEntriesPerBlock = logHeader.getMaxEntriesPerBlock();
@@ -327,25 +318,26 @@ final class IndexHashJ22 {
 
       final byte[] keyBuf1 = new byte[(int) logHeader.getMaxKeyLen()];
       final byte[] keyBuf2 = new byte[(int) logHeader.getMaxKeyLen()];
-      while (iterator2.hasNext()) {
-        final SortHelper.Entry entry = iterator2.next();
-
-        // Safe cast, since the iterator is known to be a SparkeyLogIterator
-        final SparkeyReader.Type type = (entry.address & 1) == 0 ? SparkeyReader.Type.DELETE : SparkeyReader.Type.PUT;
-        final long address = entry.address >>> 1;
-        final long hash = entry.hash;
-        switch (type) {
-          case PUT:
-            put(indexData, header, hashCapacity, -1, keyBuf1,
-                logData, keyBuf2, hashData, addressData, header.getEntryBlockBitsBitmask(), entryIndexbits,
-                hash, address);
-            break;
-          case DELETE:
-            delete(indexData, header, hashCapacity, -1, keyBuf1, logData, keyBuf2,
-                hashData, addressData, header.getEntryBlockBitsBitmask(), entryIndexbits,
-                hash, address);
-            break;
+      try {
+        while (entries.next()) {
+          final SparkeyReader.Type type = (entries.getAddress() & 1) == 0 ? SparkeyReader.Type.DELETE : SparkeyReader.Type.PUT;
+          final long address = entries.getAddress() >>> 1;
+          final long hash = entries.getHash();
+          switch (type) {
+            case PUT:
+              put(indexData, header, hashCapacity, -1, keyBuf1,
+                  logData, keyBuf2, hashData, addressData, header.getEntryBlockBitsBitmask(), entryIndexbits,
+                  hash, address);
+              break;
+            case DELETE:
+              delete(indexData, header, hashCapacity, -1, keyBuf1, logData, keyBuf2,
+                  hashData, addressData, header.getEntryBlockBitsBitmask(), entryIndexbits,
+                  hash, address);
+              break;
+          }
         }
+      } finally {
+        entries.close();
       }
     } finally {
       logData.close();
@@ -358,7 +350,8 @@ final class IndexHashJ22 {
     }
   }
 
-  boolean isAt(int keyLen, byte[] key, long position, int entryIndex) throws IOException {
+  @Override
+  public boolean isAt(int keyLen, byte[] key, long position, int entryIndex) throws IOException {
     HashType hashData = header.getHashType();
     AddressSize addressData = header.getAddressData();
     long hash = hashData.hash(keyLen, key, hashSeed);
@@ -397,9 +390,13 @@ final class IndexHashJ22 {
   }
 
   SparkeyReader.Entry get(int keyLen, byte[] key) throws IOException {
+    return get(keyLen, key, 0);
+  }
+
+  SparkeyReader.Entry get(int keyLen, byte[] key, int keyOff) throws IOException {
     HashType hashData = header.getHashType();
     AddressSize addressData = header.getAddressData();
-    long hash = hashData.hash(keyLen, key, hashSeed);
+    long hash = hashData.hash(keyLen, key, keyOff, hashSeed);
     long wantedSlot = getWantedSlot(hash, hashCapacity);
 
     int start = indexStart;
@@ -429,7 +426,7 @@ final class IndexHashJ22 {
         if (keyLen == keyLen2) {
           int valueLen2 = Util.readUnsignedVLQInt(logData);
           logData.readFully(keyBuf, 0, keyLen2);
-          if (Util.equals(keyLen, key, keyBuf)) {
+          if (Util.equals(keyLen, key, keyOff, keyBuf, 0)) {
             entry.keyLen = keyLen2;
             entry.valueLen = valueLen2;
             stream.remaining = valueLen2;
@@ -676,11 +673,22 @@ final class IndexHashJ22 {
     }
   }
 
+  Iterator<SparkeyReader.Entry> slotIterator(long fromSlot, long toSlot) {
+    IndexSlotIterator.checkSlotRange(header, fromSlot, toSlot);
+    final IndexHashJ22 indexHash = duplicate();
+    final AddressSize addressData = header.getAddressData();
+    final int addressOffset = indexStart + header.getHashSize();
+    return new IndexSlotIterator(header,
+        slot -> addressData.readAddress(indexHash.indexData, addressOffset + slot * slotSize),
+        indexHash.logData, fromSlot, toSlot, indexHash::closeDuplicate);
+  }
+
   IndexHashJ22 duplicate() {
     return new IndexHashJ22(indexFile, logFile, header, logHeader, indexData.duplicate(), maxBlockSize, logData.duplicate());
   }
 
-  void closeDuplicate() {
+  @Override
+  public void closeDuplicate() {
     indexData.closeDuplicate();
     logData.closeDuplicate();
   }
@@ -154,10 +154,10 @@ final class ReadOnlyMemMapJ22 implements RandomAccessDataStateless {
    * Compare bytes in the memory segment with a byte array without copying.
    * Uses byte-by-byte comparison.
    */
-  boolean equalsBytes(long position, int length, byte[] key) throws IOException {
+  boolean equalsBytes(long position, int length, byte[] key, int keyOff) throws IOException {
     try {
       for (int i = 0; i < length; i++) {
-        if (segment.get(JAVA_BYTE, position + i) != key[i]) {
+        if (segment.get(JAVA_BYTE, position + i) != key[keyOff + i]) {
           return false;
         }
       }
@@ -186,8 +186,8 @@ final class ReadOnlyMemMapJ22 implements RandomAccessDataStateless {
   /**
    * Compare bytes at position with provided byte array, matching readFullyCompare semantics.
    */
-  boolean readFullyCompare(long position, int length, byte[] key) throws IOException {
-    return equalsBytes(position, length, key);
+  boolean readFullyCompare(long position, int length, byte[] key, int keyOff) throws IOException {
+    return equalsBytes(position, length, key, keyOff);
   }
 
   /**
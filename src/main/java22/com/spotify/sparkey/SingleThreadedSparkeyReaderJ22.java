@@ -19,6 +19,7 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
 import java.util.concurrent.Executor;
 
 public final class SingleThreadedSparkeyReaderJ22 implements SparkeyReader {
@@ -85,6 +86,20 @@ public final class SingleThreadedSparkeyReaderJ22 implements SparkeyReader {
     return index.get(key.length, key);
   }
 
+  @Override
+  public byte[] getAsByteArray(byte[] key, int keyOff, int keyLen) throws IOException {
+    Entry entry = getAsEntry(key, keyOff, keyLen);
+    if (entry == null) {
+      return null;
+    }
+    return entry.getValue();
+  }
+
+  @Override
+  public SparkeyReader.Entry getAsEntry(byte[] key, int keyOff, int keyLen) throws IOException {
+    return index.get(keyLen, key, keyOff);
+  }
+
 
   /**
    * @return a new iterator that can be safely used from a single thread.
@@ -149,6 +164,35 @@ public final class SingleThreadedSparkeyReaderJ22 implements SparkeyReader {
     };
   }
 
+  /**
+   * @return a spliterator over all the live entries, that can be split at log block boundaries
+   * for parallel processing. Every split uses its own duplicate of the index.
+   */
+  @Override
+  public Spliterator<SparkeyReader.Entry> spliterator() {
+    return new LiveEntrySpliterator(logFile, indexFile, logHeader, logHeader.size(), header.getDataEnd(), index::duplicate);
+  }
+
+  /**
+   * @return a new iterator over the live entries in index slot order that can be safely used from a single thread.
+   * Note that entries will be reused and modified, so any data you want from it must be consumed before
+   * continuing iteration. You should not pass this entry on in any way.
+   */
+  @Override
+  public Iterator<SparkeyReader.Entry> indexIterator() {
+    return index.slotIterator(0, header.getHashCapacity());
+  }
+
+  /**
+   * @return a new iterator over the live entries in the slot range that can be safely used from a single thread.
+   * Note that entries will be reused and modified, so any data you want from it must be consumed before
+   * continuing iteration. You should not pass this entry on in any way.
+   */
+  @Override
+  public Iterator<SparkeyReader.Entry> iterator(long fromSlot, long toSlot) {
+    return index.slotIterator(fromSlot, toSlot);
+  }
+
   @Override
   public LoadResult load(LoadMode mode, Executor executor) {
     return LoadResult.load(mode, executor,
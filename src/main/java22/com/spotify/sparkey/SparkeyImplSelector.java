@@ -35,6 +35,13 @@ class SparkeyImplSelector {
     return SingleThreadedSparkeyReaderJ22.open(indexFile, logFile);
   }
 
+  /**
+   * Map an index file for writing its hash table, as a single segment without 1 GB chunks.
+   */
+  static ReadWriteData mapIndex(long size, File file, IndexHeader header, boolean fsync) throws IOException {
+    return new ReadWriteMemMapJ22(size, file, header, fsync);
+  }
+
   static SparkeyReader open(SparkeyReaderBuilder builder) throws IOException {
     File indexFile = builder.indexFile();
     File logFile = builder.logFile();
@@ -93,8 +93,8 @@ class UncompressedBlockRandomInputJ22 implements BlockRandomInput {
   }
 
   @Override
-  public boolean readFullyCompare(int length, byte[] key) throws IOException {
-    boolean result = data.readFullyCompare(position, length, key);
+  public boolean readFullyCompare(int length, byte[] key, int keyOff) throws IOException {
+    boolean result = data.readFullyCompare(position, length, key, keyOff);
     position += length;
     return result;
   }
@@ -16,6 +16,7 @@
 package com.spotify.sparkey;
 
 import java.io.IOException;
+import java.util.Iterator;
 
 /**
  * Fully immutable index hash reader for UNCOMPRESSED files.
@@ -27,7 +28,7 @@ import java.io.IOException;
  * - entryIndex = always 0
  * - logPosition = address (no shift needed)
  */
-final class UncompressedIndexHashJ22 {
+final class UncompressedIndexHashJ22 implements LiveEntrySpliterator.Cursor {
   private final ReadOnlyMemMapJ22 indexData;
   private final UncompressedLogReaderJ22 logReader;
   private final IndexHeader header;
@@ -75,13 +76,20 @@ final class UncompressedIndexHashJ22 {
    * Fully inlined to avoid reading VLQs twice (hash table walk + log entry parsing in one pass).
    */
   byte[] getValueBytes(int keyLen, byte[] key) throws IOException {
+    return getValueBytes(keyLen, key, 0);
+  }
+
+  /**
+   * Like {@link #getValueBytes(int, byte[])}, for a key starting at keyOff in the array.
+   */
+  byte[] getValueBytes(int keyLen, byte[] key, int keyOff) throws IOException {
     // Hash the key
-    long hash = hashType.hash(keyLen, key, hashSeed);
+    long hash = hashType.hash(keyLen, key, keyOff, hashSeed);
     long wantedSlot = Long.remainderUnsigned(hash, numSlots);
 
     // Create MemorySegment for vectorized comparison (1.3-8x faster at all sizes)
     java.lang.foreign.MemorySegment keySegment =
-        java.lang.foreign.MemorySegment.ofArray(key).asSlice(0, keyLen);
+        java.lang.foreign.MemorySegment.ofArray(key).asSlice(keyOff, keyLen);
 
     // Start at hash bucket
     long slot = wantedSlot;
@@ -160,13 +168,20 @@ final class UncompressedIndexHashJ22 {
    * Fully inlined to avoid reading VLQs twice (hash table walk + log entry parsing in one pass).
    */
   SparkeyReader.Entry get(int keyLen, byte[] key) throws IOException {
+    return get(keyLen, key, 0);
+  }
+
+  /**
+   * Like {@link #get(int, byte[])}, for a key starting at keyOff in the array.
+   */
+  SparkeyReader.Entry get(int keyLen, byte[] key, int keyOff) throws IOException {
     // Hash the key
-    long hash = hashType.hash(keyLen, key, hashSeed);
+    long hash = hashType.hash(keyLen, key, keyOff, hashSeed);
     long wantedSlot = Long.remainderUnsigned(hash, numSlots);
 
     // Create MemorySegment for vectorized comparison (1.3-8x faster at all sizes)
     java.lang.foreign.MemorySegment keySegment =
-        java.lang.foreign.MemorySegment.ofArray(key).asSlice(0, keyLen);
+        java.lang.foreign.MemorySegment.ofArray(key).asSlice(keyOff, keyLen);
 
     // Start at hash bucket
     long slot = wantedSlot;
@@ -211,7 +226,7 @@ final class UncompressedIndexHashJ22 {
             if (logReader.data.equalsBytes(p, keyLen, key, keySegment)) {
               // Found it! Create entry with lazy value loading (VLQs already parsed - no re-read!)
               p += keyLen; // Skip past key to value position
-              return new UncompressedLogReaderJ22.ImmutableEntry(keyLen, key, valueLen, p, logReader.data);
+              return new UncompressedLogReaderJ22.ImmutableEntry(keyLen, key, keyOff, valueLen, p, logReader.data);
             }
           }
         }
@@ -243,7 +258,8 @@ final class UncompressedIndexHashJ22 {
    * @param entryIndex Entry index within block (always 0 for uncompressed)
    * @return true if index points to this exact position, false otherwise
    */
-  boolean isAt(int keyLen, byte[] key, long position, int entryIndex) throws IOException {
+  @Override
+  public boolean isAt(int keyLen, byte[] key, long position, int entryIndex) throws IOException {
     // Hash the key
     long hash = hashType.hash(keyLen, key, hashSeed);
     long wantedSlot = Long.remainderUnsigned(hash, numSlots);
@@ -290,6 +306,23 @@ final class UncompressedIndexHashJ22 {
     }
   }
 
+  /**
+   * Iterate over the live entries referenced by a range of slots.
+   * The log position wrapper is private to the iterator, so no duplicates are needed.
+   */
+  Iterator<SparkeyReader.Entry> slotIterator(long fromSlot, long toSlot) {
+    IndexSlotIterator.checkSlotRange(header, fromSlot, toSlot);
+    final long addressOffset = headerSize + hashSize;
+    return new IndexSlotIterator(header,
+        slot -> addressSize.readAddress(indexData, addressOffset + slot * slotSize),
+        new UncompressedBlockRandomInputJ22(logReader.data), fromSlot, toSlot, () -> { });
+  }
+
+  @Override
+  public void closeDuplicate() {
+    // Stateless, so the same instance is shared by all cursors
+  }
+
   IndexHeader getIndexHeader() {
     return header;
   }
@@ -49,11 +49,11 @@ final class UncompressedLogReaderJ22 {
     private final long valuePosition;
     private final ReadOnlyMemMapJ22 data;
 
-    ImmutableEntry(int keyLen, byte[] key,
+    ImmutableEntry(int keyLen, byte[] key, int keyOff,
                    long valueLen, long valuePosition, ReadOnlyMemMapJ22 data) {
       this.keyLen = keyLen;
       // Defensive copy: ensure immutability even if caller reuses the key array
-      this.key = java.util.Arrays.copyOf(key, keyLen);
+      this.key = java.util.Arrays.copyOfRange(key, keyOff, keyOff + keyLen);
       this.valueLen = valueLen;
       this.valuePosition = valuePosition;
       this.data = data;
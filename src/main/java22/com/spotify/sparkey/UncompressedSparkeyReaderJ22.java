@@ -19,6 +19,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.Spliterator;
 import java.util.concurrent.Executor;
 
 /**
@@ -157,6 +158,16 @@ public final class UncompressedSparkeyReaderJ22 implements SparkeyReader {
     return indexHash.get(key.length, key);
   }
 
+  @Override
+  public byte[] getAsByteArray(byte[] key, int keyOff, int keyLen) throws IOException {
+    return indexHash.getValueBytes(keyLen, key, keyOff);
+  }
+
+  @Override
+  public Entry getAsEntry(byte[] key, int keyOff, int keyLen) throws IOException {
+    return indexHash.get(keyLen, key, keyOff);
+  }
+
   @Override
   public IndexHeader getIndexHeader() {
     return indexHash.getIndexHeader();
@@ -244,6 +255,23 @@ public final class UncompressedSparkeyReaderJ22 implements SparkeyReader {
     };
   }
 
+  @Override
+  public Spliterator<Entry> spliterator() {
+    // The index hash is stateless, so all splits can share it as their cursor
+    return new LiveEntrySpliterator(logFile, indexFile, logHeader, logHeader.size(),
+        indexHash.getIndexHeader().getDataEnd(), () -> indexHash);
+  }
+
+  @Override
+  public Iterator<Entry> indexIterator() {
+    return indexHash.slotIterator(0, indexHash.getIndexHeader().getHashCapacity());
+  }
+
+  @Override
+  public Iterator<Entry> iterator(long fromSlot, long toSlot) {
+    return indexHash.slotIterator(fromSlot, toSlot);
+  }
+
   @Override
   public LoadResult load(LoadMode mode, Executor executor) {
     return LoadResult.load(mode, executor,
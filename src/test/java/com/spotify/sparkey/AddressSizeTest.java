@@ -46,4 +46,54 @@ public class AddressSizeTest extends OpenMapsAsserter {
       Assert.assertEquals(imd.readUnsignedByte(), b);
     }
   }
+
+  @Test
+  public void testAddressSizeInt40() throws IOException {
+    byte[] BYTES = new byte[] {0x01, 0x02, 0x03, 0x04, (byte) 0xf5};
+    InMemoryData imd = new InMemoryData(BYTES.length);
+    for (byte b : BYTES) {
+      imd.writeUnsignedByte(b);
+    }
+    imd.seek(0);
+    Assert.assertEquals(0xf504030201L, AddressSize.INT40.readAddress(imd));
+    imd.seek(0);
+    AddressSize.INT40.writeAddress(0xf504030201L, imd);
+    imd.seek(0);
+    for (byte b : BYTES) {
+      Assert.assertEquals((byte) imd.readUnsignedByte(), b);
+    }
+  }
+
+  @Test
+  public void testAddressSizeInt48() throws IOException {
+    byte[] BYTES = new byte[] {0x01, 0x02, 0x03, (byte) 0x84, 0x05, (byte) 0xf6};
+    InMemoryData imd = new InMemoryData(BYTES.length);
+    for (byte b : BYTES) {
+      imd.writeUnsignedByte(b);
+    }
+    imd.seek(0);
+    Assert.assertEquals(0xf60584030201L, AddressSize.INT48.readAddress(imd));
+    imd.seek(0);
+    AddressSize.INT48.writeAddress(0xf60584030201L, imd);
+    imd.seek(0);
+    for (byte b : BYTES) {
+      Assert.assertEquals((byte) imd.readUnsignedByte(), b);
+    }
+  }
+
+  @Test
+  public void testForLog() {
+    Assert.assertEquals(1L << 30, AddressSize.INT.maxDataEnd(0));
+    Assert.assertEquals(1L << 28, AddressSize.INT.maxDataEnd(2));
+    Assert.assertEquals(1L << 38, AddressSize.INT40.maxDataEnd(0));
+    Assert.assertEquals(1L << 36, AddressSize.INT48.maxDataEnd(10));
+    Assert.assertEquals(Long.MAX_VALUE, AddressSize.LONG.maxDataEnd(10));
+
+    Assert.assertEquals(AddressSize.INT, AddressSize.forLog(1L << 28, 2, true));
+    Assert.assertEquals(AddressSize.INT40, AddressSize.forLog((1L << 28) + 1, 2, true));
+    Assert.assertEquals(AddressSize.INT48, AddressSize.forLog((1L << 36) + 1, 2, true));
+    Assert.assertEquals(AddressSize.LONG, AddressSize.forLog((1L << 44) + 1, 2, true));
+    Assert.assertEquals(AddressSize.LONG, AddressSize.forLog((1L << 28) + 1, 2, false));
+    Assert.assertEquals(AddressSize.INT, AddressSize.forLog(1L << 28, 2, false));
+  }
 }
@@ -0,0 +1,69 @@
+package com.spotify.sparkey;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests ChannelOutputStream
+ */
+public class ChannelOutputStreamTest {
+    @Test
+    public void testSameAsOutputStream() throws IOException {
+        File testFile = File.createTempFile("sparkey-test", "");
+        try {
+            Files.write(testFile.toPath(), new byte[] {1, 2, 3, 4, 5, 6});
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(new byte[] {1, 2, 3, 4});
+
+            Random random = new Random(4711);
+            // Small buffer, so that writes both fit, drain and bypass it
+            ChannelOutputStream os = new ChannelOutputStream(testFile, 4, 100);
+            for (int i = 0; i < 1000; i++) {
+                int value = random.nextInt() >>> random.nextInt(32);
+                long longValue = random.nextLong() >>> random.nextInt(64);
+                byte[] data = new byte[random.nextInt(250)];
+                random.nextBytes(data);
+
+                os.writeUnsignedVLQ(value);
+                Util.writeUnsignedVLQ(value, expected);
+                os.writeUnsignedVLQ(longValue);
+                Util.writeUnsignedVLQ(longValue, expected);
+                os.write(data);
+                expected.write(data);
+                os.write(i);
+                expected.write(i);
+                assertEquals(expected.size(), os.position());
+            }
+            os.close();
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(testFile.toPath()));
+        } finally {
+            testFile.delete();
+        }
+    }
+
+    @Test
+    public void testPositionalWrite() throws IOException {
+        File testFile = File.createTempFile("sparkey-test", "");
+        try {
+            ChannelOutputStream os = new ChannelOutputStream(testFile, 0, 100);
+            os.write(new byte[10]);
+            os.flush();
+            os.getChannel().write(ByteBuffer.wrap(new byte[] {7, 8}), 2);
+            assertEquals(10, os.position());
+            os.write(9);
+            os.close();
+            assertArrayEquals(new byte[] {0, 0, 7, 8, 0, 0, 0, 0, 0, 0, 9}, Files.readAllBytes(testFile.toPath()));
+        } finally {
+            testFile.delete();
+        }
+    }
+}
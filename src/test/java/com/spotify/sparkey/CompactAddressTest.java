@@ -0,0 +1,114 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactAddressTest extends BaseSystemTest {
+  // Many small entries per compressed block leave few bits for the block offset in 4 byte addresses
+  private static final int NUM_KEYS = 50000;
+
+  @Test
+  public void testCompactAddresses() throws IOException {
+    writeEntries(true, 0, NUM_KEYS);
+    IndexHeader header = IndexHeader.read(indexFile);
+    assertTrue(header.getDataEnd() > AddressSize.INT.maxDataEnd(header.getEntryBlockBits()));
+    assertEquals(5, header.getAddressSize());
+    assertEquals(2, header.getMinorVersion());
+    // With 32 bit hashes
+    assertEquals(9, header.getSlotSize());
+    assertEntries(NUM_KEYS);
+  }
+
+  @Test
+  public void testDefaultAddresses() throws IOException {
+    writeEntries(false, 0, NUM_KEYS);
+    IndexHeader header = IndexHeader.read(indexFile);
+    assertEquals(8, header.getAddressSize());
+    assertEquals(1, header.getMinorVersion());
+    assertEntries(NUM_KEYS);
+  }
+
+  @Test
+  public void testSmallLogKeepsIntAddresses() throws IOException {
+    writeEntries(true, 0, 100);
+    IndexHeader header = IndexHeader.read(indexFile);
+    assertEquals(4, header.getAddressSize());
+    assertEquals(1, header.getMinorVersion());
+    assertEntries(100);
+  }
+
+  @Test
+  public void testIncrementalUpdate() throws IOException {
+    writeEntries(true, 0, NUM_KEYS);
+    IndexHeader before = IndexHeader.read(indexFile);
+
+    SparkeyWriter writer = Sparkey.append(indexFile);
+    writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.INCREMENTAL);
+    put(writer, NUM_KEYS, NUM_KEYS + 10);
+    writer.writeHash();
+    writer.close();
+
+    IndexHeader after = IndexHeader.read(indexFile);
+    assertEquals(5, after.getAddressSize());
+    assertEquals(before.getHashCapacity(), after.getHashCapacity());
+    assertEntries(NUM_KEYS + 10);
+  }
+
+  @Test
+  public void testCompactKeepsAddressSize() throws IOException {
+    writeEntries(true, 0, NUM_KEYS);
+
+    File dst = File.createTempFile("sparkey-compacted", ".spi");
+    try {
+      Sparkey.compact(indexFile, dst, new CompactionOptions());
+      assertEquals(5, IndexHeader.read(dst).getAddressSize());
+    } finally {
+      UtilTest.delete(dst);
+      UtilTest.delete(Sparkey.getLogFile(dst));
+    }
+  }
+
+  private void writeEntries(boolean compactAddresses, int from, int to) throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.SNAPPY, 64 * 1024);
+    writer.setCompactAddresses(compactAddresses);
+    // Leaves room for incremental updates
+    writer.setHashSparsity(2.0);
+    put(writer, from, to);
+    writer.writeHash();
+    writer.close();
+  }
+
+  private static void put(SparkeyWriter writer, int from, int to) throws IOException {
+    for (int i = from; i < to; i++) {
+      writer.put(("k" + i).getBytes(), value(i));
+    }
+  }
+
+  private void assertEntries(int numKeys) throws IOException {
+    SparkeyReader reader = Sparkey.open(indexFile);
+    try {
+      for (int i = 0; i < numKeys; i++) {
+        assertArrayEquals("k" + i, value(i), reader.getAsByteArray(("k" + i).getBytes()));
+      }
+      assertNull(reader.getAsByteArray(("k" + numKeys).getBytes()));
+    } finally {
+      reader.close();
+    }
+  }
+
+  // Random, so that the log stays large when compressed
+  private static byte[] value(int i) {
+    byte[] value = new byte[8];
+    new Random(i).nextBytes(value);
+    return value;
+  }
+}
@@ -0,0 +1,181 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompactorTest extends BaseSystemTest {
+  private static final int NUM_KEYS = 3000;
+
+  @Test
+  public void testCompact() throws IOException {
+    for (CompressionType from : CompressionType.values()) {
+      for (CompressionType to : CompressionType.values()) {
+        writeGarbage(from);
+        for (int threads : new int[] {1, 4}) {
+          File dst = File.createTempFile("sparkey-compacted", ".spi");
+          try {
+            Sparkey.compact(indexFile, dst, new CompactionOptions()
+                .compressionType(to)
+                .compressionBlockSize(300)
+                .threads(threads));
+            assertCompacted(dst, from + " -> " + to + ", " + threads + " threads");
+          } finally {
+            UtilTest.delete(dst);
+            UtilTest.delete(Sparkey.getLogFile(dst));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDefaultOptions() throws IOException {
+    writeGarbage(CompressionType.SNAPPY);
+    File dst = File.createTempFile("sparkey-compacted", ".spi");
+    try {
+      Sparkey.compact(indexFile, dst, new CompactionOptions());
+      assertCompacted(dst, "defaults");
+      LogHeader logHeader = LogHeader.read(Sparkey.getLogFile(dst));
+      assertEquals(CompressionType.SNAPPY, logHeader.getCompressionType());
+      assertEquals(100, logHeader.getCompressionBlockSize());
+      assertEquals(HashType.HASH_32_BITS, IndexHeader.read(dst).getHashType());
+    } finally {
+      UtilTest.delete(dst);
+      UtilTest.delete(Sparkey.getLogFile(dst));
+    }
+  }
+
+  @Test
+  public void testHotEntriesFirst() throws IOException {
+    writeGarbage(CompressionType.ZSTD);
+    assertHotEntriesFirst();
+  }
+
+  @Test
+  public void testHotEntriesWithSameKeyLength() throws IOException {
+    // Every key has the maximum key length
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.SNAPPY, 100);
+    for (int i = 0; i < NUM_KEYS; i++) {
+      writer.put(String.format("key%05d", i), "value" + i);
+    }
+    writer.writeHash();
+    writer.close();
+    assertHotEntriesFirst();
+  }
+
+  private void assertHotEntriesFirst() throws IOException {
+    Map<String, Long> accessCounts = new HashMap<>();
+    Map<String, String> values = new HashMap<>();
+    List<String> hotKeys = new ArrayList<>();
+    List<String> coldKeys = new ArrayList<>();
+    SparkeyReader source = Sparkey.open(indexFile);
+    int i = 0;
+    for (SparkeyReader.Entry entry : source) {
+      String key = entry.getKeyAsString();
+      values.put(key, entry.getValueAsString());
+      if (i++ % 7 == 0) {
+        // Decreasing counts, with some ties that keep the log order
+        long count = 1000 - hotKeys.size() / 2;
+        accessCounts.put(key, count);
+        hotKeys.add(key);
+      } else {
+        coldKeys.add(key);
+      }
+    }
+    source.close();
+
+    File dst = File.createTempFile("sparkey-compacted", ".spi");
+    try {
+      Sparkey.compact(indexFile, dst, new CompactionOptions()
+          .threads(3)
+          .accessCounts(key -> accessCounts.getOrDefault(new String(key, StandardCharsets.UTF_8), 0L)));
+      List<String> expected = new ArrayList<>(hotKeys);
+      expected.addAll(coldKeys);
+      List<String> actual = new ArrayList<>();
+      SparkeyReader reader = Sparkey.open(dst);
+      for (SparkeyReader.Entry entry : reader) {
+        actual.add(entry.getKeyAsString());
+        assertEquals(values.get(entry.getKeyAsString()), entry.getValueAsString());
+      }
+      reader.close();
+      assertEquals(expected, actual);
+    } finally {
+      UtilTest.delete(dst);
+      UtilTest.delete(Sparkey.getLogFile(dst));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnindexedEntries() throws IOException {
+    writeGarbage(CompressionType.SNAPPY);
+    SparkeyWriter writer = Sparkey.append(indexFile);
+    writer.put("unindexed", "value");
+    writer.close();
+    File dst = File.createTempFile("sparkey-compacted", ".spi");
+    try {
+      Sparkey.compact(indexFile, dst, new CompactionOptions());
+    } finally {
+      UtilTest.delete(dst);
+      UtilTest.delete(Sparkey.getLogFile(dst));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCompactIntoItself() throws IOException {
+    writeGarbage(CompressionType.NONE);
+    Sparkey.compact(indexFile, logFile, new CompactionOptions());
+  }
+
+  private void writeGarbage(CompressionType compressionType) throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 100);
+    Random random = new Random(4711);
+    for (int i = 0; i < 5 * NUM_KEYS; i++) {
+      String key = "key" + random.nextInt(NUM_KEYS);
+      if (random.nextInt(4) == 0) {
+        writer.delete(key);
+      } else {
+        writer.put(key, "value" + i + (random.nextInt(10) == 0 ? new String(new char[200]) : ""));
+      }
+    }
+    writer.setHashType(HashType.HASH_32_BITS);
+    writer.writeHash();
+    writer.close();
+  }
+
+  private void assertCompacted(File dst, String message) throws IOException {
+    List<String> expected = new ArrayList<>();
+    SparkeyReader source = Sparkey.open(indexFile);
+    for (SparkeyReader.Entry entry : source) {
+      expected.add(entry.getKeyAsString() + "=" + entry.getValueAsString());
+    }
+    source.close();
+
+    List<String> actual = new ArrayList<>();
+    SparkeyReader reader = Sparkey.open(dst);
+    try {
+      for (SparkeyReader.Entry entry : reader) {
+        String value = entry.getValueAsString();
+        actual.add(entry.getKeyAsString() + "=" + value);
+        assertEquals(message, value, reader.getAsString(entry.getKeyAsString()));
+      }
+      assertEquals(message, expected.size(), reader.getLogHeader().getNumPuts());
+      assertEquals(message, 0, reader.getLogHeader().getNumDeletes());
+      assertEquals(message, 0, reader.getIndexHeader().getGarbageSize());
+    } finally {
+      reader.close();
+    }
+    // Live entries keep their log order
+    assertEquals(message, expected, actual);
+  }
+}
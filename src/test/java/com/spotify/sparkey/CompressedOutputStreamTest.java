@@ -3,6 +3,10 @@ package com.spotify.sparkey;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 
 /**
  * Tests CompressedOutputStream
@@ -22,4 +26,39 @@ public class CompressedOutputStreamTest {
             testFile.delete();
         }
     }
+
+    @Test
+    public void testPipelinedSameAsSynchronous() throws IOException {
+        for (CompressorType compressor : CompressorType.values()) {
+            byte[] expected = writeBlocks(compressor, 0);
+            assertArrayEquals(compressor.name(), expected, writeBlocks(compressor, 1));
+            assertArrayEquals(compressor.name(), expected, writeBlocks(compressor, 3));
+        }
+    }
+
+    private static byte[] writeBlocks(CompressorType compressor, int threads) throws IOException {
+        File testFile = File.createTempFile("sparkey-test", "");
+        testFile.deleteOnExit();
+        try {
+            FileOutputStream fos = new FileOutputStream(testFile);
+            CompressedOutputStream os = new CompressedOutputStream(compressor, 1000, fos, fos.getFD());
+            os.setCompressionThreads(threads);
+            Random random = new Random(4711);
+            for (int i = 0; i < 1000; i++) {
+                byte[] buf = new byte[random.nextInt(300)];
+                random.nextBytes(buf);
+                os.write(buf);
+                if (i == 500) {
+                    os.flush();
+                    // Switching ends the pending block, just like a flush
+                    os.setCompressionThreads(threads == 0 ? 2 : 0);
+                    os.setCompressionThreads(threads);
+                }
+            }
+            os.close();
+            return Files.readAllBytes(testFile.toPath());
+        } finally {
+            testFile.delete();
+        }
+    }
 }
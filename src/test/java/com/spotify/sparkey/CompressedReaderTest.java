@@ -7,7 +7,7 @@ import java.io.*;
 import static org.junit.Assert.assertEquals;
 
 /**
- * Tests CompressedReader
+ * Tests ReadAheadCompressedReader on an endless stream of blocks
  */
 public class CompressedReaderTest {
     // A stream that reads the same array repeatedly, forever.
@@ -44,7 +44,7 @@ public class CompressedReaderTest {
         }
     }
 
-    private CompressedReader reader(CompressorType compressor) throws IOException {
+    private ReadAheadCompressedReader reader(CompressorType compressor) throws IOException {
         byte[] uncompressed = new byte[10];
         for (int i = 0; i < uncompressed.length; ++i) {
             uncompressed[i] = (byte)i;
@@ -57,7 +57,7 @@ public class CompressedReaderTest {
         bytes.write(compressed, 0, length);
 
         InputStream buf = new RepeatingInputStream(bytes.toByteArray());
-        return new CompressedReader(compressor, buf, uncompressed.length, 0);
+        return new ReadAheadCompressedReader(compressor, buf, uncompressed.length, 0, Long.MAX_VALUE);
     }
 
     @Test
@@ -0,0 +1,157 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionOptionsTest extends BaseSystemTest {
+  private static final int NUM_KEYS = 1000;
+
+  @Test
+  public void testRecordedInHeader() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      if (compressionType == CompressionType.NONE) {
+        continue;
+      }
+      CompressionOptions options = new CompressionOptions().adaptive(10);
+      if (compressionType != CompressionType.SNAPPY) {
+        options.level(compressionType == CompressionType.LZ4 ? 9 : 19);
+      }
+      if (compressionType == CompressionType.ZSTD || compressionType == CompressionType.ZSTD_DICTIONARY) {
+        options.longWindow(true);
+      }
+      SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 4096, options);
+      writeEntries(writer, 0, NUM_KEYS / 2);
+      writer.close();
+
+      writer = Sparkey.append(indexFile);
+      writeEntries(writer, NUM_KEYS / 2, NUM_KEYS);
+      writer.writeHash();
+      writer.close();
+
+      LogHeader header = LogHeader.read(logFile);
+      assertEquals(1, header.getMinorVersion());
+      CompressionOptions recorded = header.getCompressionOptions();
+      assertEquals(options.getLevel(), recorded.getLevel());
+      assertTrue(recorded.isAdaptive());
+      assertEquals(10, recorded.getMinSavingsPercent());
+      assertEquals(options.isLongWindow(), recorded.isLongWindow());
+      assertEntries(compressionType);
+    }
+  }
+
+  @Test
+  public void testDefaultOptionsKeepMinorVersion() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.ZSTD, 4096, new CompressionOptions());
+    writer.close();
+    assertEquals(0, LogHeader.read(logFile).getMinorVersion());
+    assertTrue(LogHeader.read(logFile).getCompressionOptions().isDefault());
+  }
+
+  @Test
+  public void testCompactKeepsOptions() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.ZSTD, 4096,
+        new CompressionOptions().level(7).adaptive(0));
+    writeEntries(writer, 0, NUM_KEYS);
+    writer.writeHash();
+    writer.close();
+
+    File dst = File.createTempFile("sparkey-compacted", ".spi");
+    try {
+      Sparkey.compact(indexFile, dst, new CompactionOptions().threads(2));
+      CompressionOptions options = LogHeader.read(Sparkey.getLogFile(dst)).getCompressionOptions();
+      assertEquals(7, options.getLevel());
+      assertTrue(options.isAdaptive());
+    } finally {
+      UtilTest.delete(dst);
+      UtilTest.delete(Sparkey.getLogFile(dst));
+    }
+  }
+
+  @Test
+  public void testAdaptiveStoresIncompressibleBlocks() throws IOException {
+    BlockCompressor compressor = new AdaptiveCompressor(CompressorType.ZSTD, 10);
+    byte[] random = new byte[4096];
+    new Random(4711).nextBytes(random);
+    byte[] compressed = new byte[compressor.maxCompressedLength(random.length)];
+    int compressedSize = compressor.compress(random, random.length, compressed);
+    // Stored as is, plus the flag
+    assertEquals(random.length + 1, compressedSize);
+    byte[] uncompressed = new byte[random.length];
+    assertEquals(random.length, compressor.uncompress(compressed, compressedSize, uncompressed));
+    assertArrayEquals(random, uncompressed);
+
+    byte[] zeros = new byte[4096];
+    compressedSize = compressor.compress(zeros, zeros.length, compressed);
+    Arrays.fill(uncompressed, (byte) 1);
+    assertEquals(zeros.length, compressor.uncompress(compressed, compressedSize, uncompressed));
+    assertArrayEquals(zeros, uncompressed);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLongWindowRequiresZstd() throws IOException {
+    Sparkey.createNew(indexFile, CompressionType.LZ4, 4096, new CompressionOptions().longWindow(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOptionsRequireCompression() throws IOException {
+    Sparkey.createNew(indexFile, CompressionType.NONE, 0, new CompressionOptions().level(5));
+  }
+
+  @Test
+  public void testEncode() {
+    CompressionOptions options = CompressionOptions.decode(
+        new CompressionOptions().level(-5).adaptive(42).longWindow(true).encode());
+    assertEquals(-5, options.getLevel());
+    assertTrue(options.isAdaptive());
+    assertEquals(42, options.getMinSavingsPercent());
+    assertTrue(options.isLongWindow());
+    assertFalse(CompressionOptions.decode(0).isAdaptive());
+    assertEquals(17, ZstdCompressor.windowLog(100000));
+    assertEquals(10, ZstdCompressor.windowLog(16));
+  }
+
+  private static void writeEntries(SparkeyWriter writer, int from, int to) throws IOException {
+    Random random = new Random(from);
+    for (int i = from; i < to; i++) {
+      byte[] value = new byte[i % 200];
+      // Half of the values are incompressible
+      if (i % 2 == 0) {
+        random.nextBytes(value);
+      }
+      writer.put(("key" + i).getBytes(), value);
+    }
+  }
+
+  private void assertEntries(CompressionType compressionType) throws IOException {
+    SparkeyReader reader = Sparkey.open(indexFile);
+    try {
+      for (int half : new int[] {0, NUM_KEYS / 2}) {
+        Random random = new Random(half);
+        for (int i = half; i < half + NUM_KEYS / 2; i++) {
+          byte[] value = new byte[i % 200];
+          if (i % 2 == 0) {
+            random.nextBytes(value);
+          }
+          assertArrayEquals(compressionType + ": " + i, value, reader.getAsByteArray(("key" + i).getBytes()));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    int count = 0;
+    for (SparkeyReader.Entry entry : new SparkeyLogIterator(logFile)) {
+      count++;
+    }
+    assertEquals(NUM_KEYS, count);
+  }
+}
@@ -0,0 +1,124 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ConcurrentSparkeyWriterTest extends BaseSystemTest {
+  private static final int NUM_THREADS = 8;
+  private static final int NUM_KEYS = 2000;
+
+  @Test
+  public void testManyWriters() throws Exception {
+    SparkeyWriter writer = Sparkey.concurrent(Sparkey.createNew(indexFile, CompressionType.SNAPPY, 1024));
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < NUM_THREADS; t++) {
+        final int thread = t;
+        futures.add(executor.submit(() -> {
+          for (int version = 0; version < 3; version++) {
+            for (int i = 0; i < NUM_KEYS; i++) {
+              writer.put("key_" + thread + "_" + i, "value_" + version);
+            }
+          }
+          for (int i = 0; i < NUM_KEYS; i += 2) {
+            writer.delete("key_" + thread + "_" + i);
+          }
+          writer.put(("stream_" + thread).getBytes(), new ByteArrayInputStream("streamed".getBytes()), 8);
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    writer.writeHash();
+    writer.close();
+
+    SparkeyReader reader = Sparkey.open(indexFile);
+    try {
+      for (int t = 0; t < NUM_THREADS; t++) {
+        for (int i = 0; i < NUM_KEYS; i++) {
+          String value = reader.getAsString("key_" + t + "_" + i);
+          if (i % 2 == 0) {
+            assertNull(value);
+          } else {
+            assertEquals("value_2", value);
+          }
+        }
+        assertEquals("streamed", reader.getAsString("stream_" + t));
+      }
+      assertEquals(NUM_THREADS * (3 * NUM_KEYS + 1), reader.getLogHeader().getNumPuts());
+      assertEquals(NUM_THREADS * NUM_KEYS / 2, reader.getLogHeader().getNumDeletes());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testOrderAcrossThreads() throws Exception {
+    SparkeyWriter writer = Sparkey.concurrent(Sparkey.createNew(indexFile));
+    SynchronousQueue<String> handOff = new SynchronousQueue<>();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?> first = executor.submit(() -> {
+        for (int i = 0; i < NUM_KEYS; i++) {
+          writer.put("key" + i, "first");
+          handOff.put("key" + i);
+        }
+        return null;
+      });
+      Future<?> second = executor.submit(() -> {
+        for (int i = 0; i < NUM_KEYS; i++) {
+          writer.put(handOff.take(), "second");
+        }
+        return null;
+      });
+      first.get();
+      second.get();
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+    writer.writeHash();
+    writer.close();
+
+    SparkeyReader reader = Sparkey.open(indexFile);
+    try {
+      for (int i = 0; i < NUM_KEYS; i++) {
+        assertEquals("second", reader.getAsString("key" + i));
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testClosed() throws IOException {
+    SparkeyWriter writer = Sparkey.concurrent(Sparkey.createNew(indexFile));
+    writer.put("key", "value");
+    writer.close();
+    writer.close();
+    try {
+      writer.put("key", "value");
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitTest extends BaseSystemTest {
+
+  @Test
+  public void testFlushAsync() throws Exception {
+    for (CompressionType compressionType : CompressionType.values()) {
+      SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 100);
+      writer.setGroupCommit(50, Long.MAX_VALUE);
+      long start = writer.getDurableOffset();
+      List<CompletableFuture<Long>> futures = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        writer.put("key" + i, "value" + i);
+        futures.add(writer.flushAsync());
+      }
+      long prev = start;
+      for (CompletableFuture<Long> future : futures) {
+        long offset = future.get();
+        assertTrue(offset > start);
+        assertTrue(offset >= prev);
+        prev = offset;
+      }
+      assertEquals(prev, writer.getDurableOffset());
+      // The header on disk covers the synced data
+      assertEquals(prev, LogHeader.read(logFile).getDataEnd());
+
+      writer.put("last", "value");
+      writer.flush();
+      assertTrue(writer.getDurableOffset() > prev);
+      writer.writeHash();
+      writer.close();
+
+      assertEquals(LogHeader.read(logFile).getDataEnd(), writer.getDurableOffset());
+      SparkeyReader reader = Sparkey.open(indexFile);
+      try {
+        for (int i = 0; i < 1000; i++) {
+          assertEquals("value" + i, reader.getAsString("key" + i));
+        }
+        assertEquals("value", reader.getAsString("last"));
+      } finally {
+        reader.close();
+      }
+    }
+  }
+
+  @Test
+  public void testMaxBytes() throws Exception {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.NONE, 0);
+    // Only the size triggers a commit
+    writer.setGroupCommit(3600 * 1000, 1000);
+    long start = writer.getDurableOffset();
+    for (int i = 0; i < 100; i++) {
+      writer.put("key" + i, "value" + i);
+    }
+    long deadline = System.currentTimeMillis() + 10000;
+    while (writer.getDurableOffset() == start && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertTrue(writer.getDurableOffset() > start);
+    // Closing doesn't wait for the delay
+    writer.close();
+    assertEquals(LogHeader.read(logFile).getDataEnd(), writer.getDurableOffset());
+  }
+
+  @Test
+  public void testConcurrent() throws Exception {
+    SparkeyWriter writer = Sparkey.concurrent(Sparkey.createNew(indexFile, CompressionType.SNAPPY, 100));
+    writer.setGroupCommit(10, Long.MAX_VALUE);
+    List<Thread> threads = new ArrayList<>();
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final int thread = t;
+      threads.add(new Thread(() -> {
+        try {
+          for (int i = 0; i < 100; i++) {
+            writer.put("key" + thread + "-" + i, "value" + i);
+            CompletableFuture<Long> future = writer.flushAsync();
+            synchronized (futures) {
+              futures.add(future);
+            }
+          }
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(400, futures.size());
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+    writer.writeHash();
+    writer.close();
+
+    SparkeyReader reader = Sparkey.open(indexFile);
+    try {
+      for (int t = 0; t < 4; t++) {
+        for (int i = 0; i < 100; i++) {
+          assertEquals("value" + i, reader.getAsString("key" + t + "-" + i));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testAlreadyEnabled() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile);
+    try {
+      writer.setGroupCommit(10, 1000);
+      writer.setGroupCommit(10, 1000);
+    } finally {
+      writer.close();
+    }
+  }
+}
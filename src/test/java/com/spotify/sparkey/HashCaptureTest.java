@@ -0,0 +1,178 @@
+package com.spotify.sparkey;
+
+import com.google.common.io.Files;
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashCaptureTest extends BaseSystemTest {
+  private static final int HASH_SEED = 4711;
+
+  @Test
+  public void testSameIndexAsFromLog() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      for (HashType hashType : HashType.values()) {
+        for (SparkeyWriter.ConstructionMethod method : SparkeyWriter.ConstructionMethod.values()) {
+          SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 100);
+          writer.setHashType(hashType);
+          writer.setHashSeed(HASH_SEED);
+          writer.setCaptureHashes(true);
+          writeEntries(writer, new Random(hashType.ordinal()));
+          assertTrue(hasCaptureFile());
+
+          writer.setConstructionMethod(method);
+          writer.writeHash();
+          writer.close();
+          assertFalse(hasCaptureFile());
+          byte[] captured = Files.toByteArray(indexFile);
+
+          // Appending writers never capture, since the log already has entries
+          writer = Sparkey.append(indexFile);
+          writer.setHashType(hashType);
+          writer.setHashSeed(HASH_SEED);
+          writer.setConstructionMethod(method);
+          writer.writeHash();
+          writer.close();
+          assertArrayEquals(compressionType + " " + hashType + " " + method, Files.toByteArray(indexFile), captured);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testPipelinedWriter() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 100);
+      writer.setHashType(HashType.HASH_64_BITS);
+      writer.setHashSeed(HASH_SEED);
+      writer.setCaptureHashes(true);
+      writer.setCompressionThreads(3);
+      writeEntries(writer, new Random(compressionType.ordinal()));
+      writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.SORTING);
+      writer.writeHash();
+      writer.close();
+      byte[] captured = Files.toByteArray(indexFile);
+
+      writer = Sparkey.append(indexFile);
+      writer.setHashType(HashType.HASH_64_BITS);
+      writer.setHashSeed(HASH_SEED);
+      writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.SORTING);
+      writer.writeHash();
+      writer.close();
+      assertArrayEquals(compressionType.name(), Files.toByteArray(indexFile), captured);
+    }
+  }
+
+  @Test
+  public void testChangedSeedReadsLog() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.SNAPPY, 100);
+    writer.setHashType(HashType.HASH_64_BITS);
+    writer.setHashSeed(HASH_SEED);
+    writer.setCaptureHashes(true);
+    writer.put("key", "value");
+    assertTrue(hasCaptureFile());
+
+    writer.setHashSeed(HASH_SEED + 1);
+    assertFalse(hasCaptureFile());
+    writer.put("key2", "value2");
+    writer.writeHash();
+    writer.close();
+
+    SparkeyReader reader = Sparkey.open(indexFile);
+    assertEquals("value", reader.getAsString("key"));
+    assertEquals("value2", reader.getAsString("key2"));
+    reader.close();
+  }
+
+  @Test
+  public void testNoCaptureByDefault() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.SNAPPY, 100);
+    writeEntries(writer, new Random(1));
+    assertFalse(hasCaptureFile());
+    writer.writeHash();
+    writer.close();
+  }
+
+  @Test
+  public void testCaptureWithoutHashSettings() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.SNAPPY, 100);
+    writer.setCaptureHashes(true);
+    writeEntries(writer, new Random(1));
+    assertTrue(hasCaptureFile());
+
+    // The index is built from the capture, which is deleted afterwards
+    writer.writeHash();
+    assertFalse(hasCaptureFile());
+    writer.put("key", "value");
+    writer.writeHash();
+    writer.close();
+
+    SparkeyReader reader = Sparkey.open(indexFile);
+    assertEquals(IndexHash.defaultHashType(0), reader.getIndexHeader().getHashType());
+    assertEquals("value", reader.getAsString("key"));
+    reader.close();
+  }
+
+  @Test
+  public void testSeedSetAfterFirstEntry() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile);
+    writer.setCaptureHashes(true);
+    writer.put("key", "value");
+    assertTrue(hasCaptureFile());
+    writer.setHashSeed(HASH_SEED);
+    assertFalse(hasCaptureFile());
+    writer.writeHash();
+    writer.close();
+
+    SparkeyReader reader = Sparkey.open(indexFile);
+    assertEquals(HASH_SEED, reader.getIndexHeader().getHashSeed());
+    assertEquals("value", reader.getAsString("key"));
+    reader.close();
+  }
+
+  @Test
+  public void testDisableCapture() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile);
+    writer.setCaptureHashes(true);
+    writer.put("key", "value");
+    assertTrue(hasCaptureFile());
+    writer.setCaptureHashes(false);
+    assertFalse(hasCaptureFile());
+    writer.put("key2", "value2");
+    writer.writeHash();
+    writer.close();
+
+    SparkeyReader reader = Sparkey.open(indexFile);
+    assertEquals("value", reader.getAsString("key"));
+    assertEquals("value2", reader.getAsString("key2"));
+    reader.close();
+  }
+
+  private static void writeEntries(SparkeyWriter writer, Random random) throws IOException {
+    for (int i = 0; i < 5000; i++) {
+      String key = "key" + random.nextInt(1000);
+      if (random.nextInt(5) == 0) {
+        writer.delete(key);
+      } else {
+        // Some values span several blocks
+        byte[] value = new byte[random.nextInt(10) == 0 ? random.nextInt(500) : random.nextInt(20)];
+        random.nextBytes(value);
+        writer.put(key.getBytes(), value);
+      }
+    }
+  }
+
+  private boolean hasCaptureFile() throws IOException {
+    File dir = indexFile.getCanonicalFile().getParentFile();
+    String[] names = dir.list((d, name) -> name.startsWith(indexFile.getName() + "-hashes"));
+    return names != null && names.length > 0;
+  }
+}
@@ -0,0 +1,126 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalIndexTest extends BaseSystemTest {
+
+  @Test
+  public void testUpdate() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      Map<String, String> expected = new HashMap<>();
+      SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 100);
+      writer.setHashSparsity(4.0);
+      for (int i = 0; i < 2000; i++) {
+        writer.put("key" + i, "value" + i);
+        expected.put("key" + i, "value" + i);
+      }
+      writer.writeHash();
+      writer.close();
+      IndexHeader before = IndexHeader.read(indexFile);
+
+      writer = Sparkey.append(indexFile);
+      writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.INCREMENTAL);
+      for (int i = 1500; i < 2500; i++) {
+        writer.put("key" + i, "new" + i);
+        expected.put("key" + i, "new" + i);
+      }
+      writer.flush();
+      // The index may be older than the previous append
+      writer.close();
+      writer = Sparkey.append(indexFile);
+      writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.INCREMENTAL);
+      for (int i = 0; i < 2500; i += 7) {
+        writer.delete("key" + i);
+        expected.remove("key" + i);
+      }
+      writer.writeHash();
+      writer.close();
+
+      IndexHeader after = IndexHeader.read(indexFile);
+      // Updated, not rebuilt
+      assertEquals(before.getHashCapacity(), after.getHashCapacity());
+      assertEquals(before.getHashSeed(), after.getHashSeed());
+      assertEquals(LogHeader.read(logFile).getDataEnd(), after.getDataEnd());
+      assertEquals(expected.size(), after.getNumEntries());
+      assertReaderMatches(expected);
+    }
+  }
+
+  @Test
+  public void testFallbackWhenFull() throws IOException {
+    Map<String, String> expected = new HashMap<>();
+    SparkeyWriter writer = Sparkey.createNew(indexFile);
+    for (int i = 0; i < 100; i++) {
+      writer.put("key" + i, "value" + i);
+      expected.put("key" + i, "value" + i);
+    }
+    writer.writeHash();
+    writer.close();
+    IndexHeader before = IndexHeader.read(indexFile);
+
+    writer = Sparkey.append(indexFile);
+    writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.INCREMENTAL);
+    for (int i = 100; i < 1000; i++) {
+      writer.put("key" + i, "value" + i);
+      expected.put("key" + i, "value" + i);
+    }
+    writer.writeHash();
+    writer.close();
+
+    IndexHeader after = IndexHeader.read(indexFile);
+    assertTrue(after.getHashCapacity() > before.getHashCapacity());
+    assertReaderMatches(expected);
+  }
+
+  @Test
+  public void testFallbackForOtherSeed() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile);
+    writer.setHashSeed(1);
+    writer.setHashSparsity(10.0);
+    writer.put("a", "1");
+    writer.writeHash();
+    writer.close();
+
+    writer = Sparkey.append(indexFile);
+    writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.INCREMENTAL);
+    writer.setHashSeed(2);
+    writer.put("b", "2");
+    writer.writeHash();
+    writer.close();
+
+    assertEquals(2, IndexHeader.read(indexFile).getHashSeed());
+    Map<String, String> expected = new HashMap<>();
+    expected.put("a", "1");
+    expected.put("b", "2");
+    assertReaderMatches(expected);
+  }
+
+  private void assertReaderMatches(Map<String, String> expected) throws IOException {
+    SparkeyReader reader = Sparkey.open(indexFile);
+    try {
+      for (int i = 0; i < 2500; i++) {
+        String key = "key" + i;
+        if (expected.containsKey(key)) {
+          assertEquals(expected.get(key), reader.getAsString(key));
+        } else {
+          assertNull(reader.getAsString(key));
+        }
+      }
+      for (Map.Entry<String, String> entry : expected.entrySet()) {
+        assertEquals(entry.getValue(), reader.getAsString(entry.getKey()));
+      }
+      assertEquals(expected.size(), reader.getIndexHeader().getNumEntries());
+    } finally {
+      reader.close();
+    }
+  }
+}
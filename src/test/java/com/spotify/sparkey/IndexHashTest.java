@@ -48,6 +48,16 @@ public class IndexHashTest extends BaseSystemTest {
     assertEquals(0, Sparkey.getOpenMaps());
   }
 
+  @Test
+  public void testAutoMethod() {
+    long gb = 1L << 30;
+    assertEquals(SparkeyWriter.ConstructionMethod.IN_MEMORY, IndexHash.autoMethod(gb, 2 * gb, 16 * gb));
+    assertEquals(SparkeyWriter.ConstructionMethod.MAPPED, IndexHash.autoMethod(4 * gb, 2 * gb, 16 * gb));
+    assertEquals(SparkeyWriter.ConstructionMethod.SORTING, IndexHash.autoMethod(10 * gb, 2 * gb, 16 * gb));
+    // Unknown physical memory
+    assertEquals(SparkeyWriter.ConstructionMethod.SORTING, IndexHash.autoMethod(4 * gb, 2 * gb, 0));
+  }
+
   private void corruptFile(File indexFile) throws IOException {
     RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "rw");
     randomAccessFile.setLength(randomAccessFile.length() - 100);
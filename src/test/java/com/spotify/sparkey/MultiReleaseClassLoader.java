@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the classes of this library like a multi-release jar would on a given Java version.
+ *
+ * The test class path only sees one variant of each class: the test sources include the Java 22 variants,
+ * which shadow the rest. This loader picks the variants from the META-INF/versions directories of the main
+ * classes instead, so that tests can run the base, Java 9 and Java 22 variants side by side.
+ */
+final class MultiReleaseClassLoader extends ClassLoader {
+  private static final String PACKAGE = "com.spotify.sparkey.";
+  private static final int BASE_VERSION = 8;
+
+  private final File root;
+  private final int version;
+  private final Map<String, Integer> loadedVersions = new HashMap<>();
+
+  MultiReleaseClassLoader(int version) {
+    super(MultiReleaseClassLoader.class.getClassLoader());
+    this.root = classesRoot();
+    this.version = version;
+  }
+
+  /**
+   * @return the base version, followed by every version with compiled variants that this JVM can load
+   */
+  static List<Integer> versions() {
+    List<Integer> versions = new ArrayList<>();
+    versions.add(BASE_VERSION);
+    int current = Runtime.version().feature();
+    for (int version = BASE_VERSION + 1; version <= current; version++) {
+      if (new File(classesRoot(), "META-INF/versions/" + version).isDirectory()) {
+        versions.add(version);
+      }
+    }
+    return versions;
+  }
+
+  /**
+   * @return the version of the variant that a class was loaded from
+   */
+  synchronized int getLoadedVersion(String name) {
+    Integer loaded = loadedVersions.get(name);
+    if (loaded == null) {
+      throw new IllegalArgumentException("Not loaded: " + name);
+    }
+    return loaded;
+  }
+
+  @Override
+  protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    if (!name.startsWith(PACKAGE)) {
+      return super.loadClass(name, resolve);
+    }
+    synchronized (getClassLoadingLock(name)) {
+      Class<?> loaded = findLoadedClass(name);
+      if (loaded == null) {
+        loaded = define(name);
+      }
+      if (resolve) {
+        resolveClass(loaded);
+      }
+      return loaded;
+    }
+  }
+
+  private Class<?> define(String name) throws ClassNotFoundException {
+    String path = name.replace('.', '/') + ".class";
+    for (int v = version; v >= BASE_VERSION; v--) {
+      File file = new File(root, v == BASE_VERSION ? path : "META-INF/versions/" + v + "/" + path);
+      if (file.isFile()) {
+        byte[] bytes;
+        try {
+          bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+          throw new ClassNotFoundException(name, e);
+        }
+        synchronized (this) {
+          loadedVersions.put(name, v);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+      }
+    }
+    throw new ClassNotFoundException(name);
+  }
+
+  private static File classesRoot() {
+    // XXH3 has no variants, so it is only in the main classes
+    try {
+      return new File(XXH3.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
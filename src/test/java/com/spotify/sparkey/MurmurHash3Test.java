@@ -18,6 +18,8 @@ package com.spotify.sparkey;
 import com.google.common.io.BaseEncoding;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.junit.Assert.assertEquals;
 
 public class MurmurHash3Test {
@@ -489,6 +491,7 @@ public class MurmurHash3Test {
   private static void assert_murmurhash3_x86_32(long expected, String s, int seed) {
     long result = MurmurHash3.murmurHash3_x86_32(s.getBytes(), s.length(), seed);
     assertEquals(expected, result);
+    assertEquals(expected, MurmurHash3.murmurHash3_x86_32(embed(s.getBytes()), 3, s.length(), seed));
   }
 
   private static void assert_murmurhash3_x64_64(long expected, String s, int seed) {
@@ -498,6 +501,15 @@ public class MurmurHash3Test {
   private static void assert_murmurhash3_x64_64(long expected, byte[] data, int seed) {
     long result = MurmurHash3.murmurHash3_x64_64(data, data.length, seed);
     assertEquals(expected, result);
+    assertEquals(expected, MurmurHash3.murmurHash3_x64_64(embed(data), 3, data.length, seed));
+  }
+
+  // The data at offset 3 of a larger array
+  private static byte[] embed(byte[] data) {
+    byte[] embedded = new byte[data.length + 5];
+    Arrays.fill(embedded, (byte) 0x55);
+    System.arraycopy(data, 0, embedded, 3, data.length);
+    return embedded;
   }
 }
 
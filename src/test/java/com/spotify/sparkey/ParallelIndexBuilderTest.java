@@ -0,0 +1,129 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelIndexBuilderTest extends BaseSystemTest {
+  private int numThreads;
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    numThreads = ParallelIndexBuilder.NUM_THREADS;
+    ParallelIndexBuilder.NUM_THREADS = 4;
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ParallelIndexBuilder.NUM_THREADS = numThreads;
+    super.tearDown();
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile);
+    TestSparkeyWriter.writeHashAndCompare(writer);
+    writer.close();
+  }
+
+  @Test
+  public void testOverwritesAndDeletes() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      for (HashType hashType : HashType.values()) {
+        Random random = new Random(compressionType.ordinal() * 31 + hashType.ordinal());
+        SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 512);
+        writer.setHashType(hashType);
+        for (int i = 0; i < 20000; i++) {
+          String key = "key" + random.nextInt(3000);
+          if (random.nextInt(4) == 0) {
+            writer.delete(key);
+          } else {
+            writer.put(key, "value" + i);
+          }
+        }
+        TestSparkeyWriter.writeParallelHashAndCompare(writer);
+        writer.close();
+      }
+    }
+  }
+
+  @Test
+  public void testValuesSpanningBlocks() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      Random random = new Random(compressionType.ordinal());
+      SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 100);
+      for (int i = 0; i < 5000; i++) {
+        byte[] value = new byte[random.nextInt(8) == 0 ? random.nextInt(1000) : random.nextInt(20)];
+        random.nextBytes(value);
+        writer.put(("key" + random.nextInt(2000)).getBytes(), value);
+      }
+      TestSparkeyWriter.writeParallelHashAndCompare(writer);
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testHashCollisions() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.SNAPPY, 4096);
+    writer.setHashType(HashType.HASH_32_BITS);
+    writer.setHashSeed(1234);
+
+    Map<Long, String> seen = new HashMap<>();
+    List<String> colliding = new ArrayList<>();
+    for (int i = 0; i < 200000; i++) {
+      String key = "key" + i;
+      byte[] bytes = key.getBytes();
+      String previous = seen.put(HashType.HASH_32_BITS.hash(bytes.length, bytes, 1234), key);
+      if (previous != null) {
+        colliding.add(previous);
+        colliding.add(key);
+      }
+      writer.put(key, "value");
+    }
+    assertTrue("Expected hash collisions", colliding.size() > 0);
+
+    // Interleave overwrites and deletes of keys that share a hash with another key
+    for (int i = 0; i < colliding.size(); i++) {
+      String key = colliding.get(i);
+      if (i % 4 == 0) {
+        writer.delete(key);
+      } else {
+        writer.put(key, "value2");
+      }
+    }
+    for (int i = 0; i < colliding.size(); i += 8) {
+      writer.put(colliding.get(i), "value3");
+    }
+    TestSparkeyWriter.writeParallelHashAndCompare(writer);
+
+    writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.PARALLEL);
+    writer.writeHash();
+    writer.close();
+
+    SparkeyReader reader = Sparkey.open(indexFile);
+    for (int i = 0; i < colliding.size(); i++) {
+      String value = reader.getAsString(colliding.get(i));
+      if (i % 8 == 0) {
+        assertEquals("value3", value);
+      } else if (i % 4 == 0) {
+        assertNull(value);
+      } else {
+        assertEquals("value2", value);
+      }
+    }
+    reader.close();
+  }
+}
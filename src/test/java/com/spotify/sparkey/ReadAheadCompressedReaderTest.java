@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests ReadAheadCompressedReader
+ */
+public class ReadAheadCompressedReaderTest {
+  private static final int BLOCK_SIZE = 100;
+  private static final int NUM_BLOCKS = 50;
+
+  private File file;
+  private long[] blockStarts;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("sparkey", ".bin");
+    file.deleteOnExit();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    file.delete();
+  }
+
+  private void writeBlocks(CompressorType compressor) throws IOException {
+    blockStarts = new long[NUM_BLOCKS + 1];
+    byte[] uncompressed = new byte[BLOCK_SIZE];
+    byte[] compressed = new byte[compressor.maxCompressedLength(BLOCK_SIZE)];
+    try (OutputStream out = new FileOutputStream(file)) {
+      long pos = 0;
+      for (int block = 0; block < NUM_BLOCKS; block++) {
+        blockStarts[block] = pos;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+          uncompressed[i] = (byte) (block * BLOCK_SIZE + i);
+        }
+        int length = compressor.compress(uncompressed, BLOCK_SIZE, compressed);
+        Util.writeUnsignedVLQ(length, out);
+        out.write(compressed, 0, length);
+        pos += Util.unsignedVLQSize(length) + length;
+      }
+      blockStarts[NUM_BLOCKS] = pos;
+    }
+  }
+
+  private ReadAheadCompressedReader reader(CompressorType compressor, int fromBlock, int toBlock) throws IOException {
+    InputStream input = new FileInputStream(file);
+    input.skip(blockStarts[fromBlock]);
+    return new ReadAheadCompressedReader(compressor, input, BLOCK_SIZE, blockStarts[fromBlock], blockStarts[toBlock]);
+  }
+
+  @Test
+  public void testReadAll() throws IOException {
+    for (CompressorType compressor : CompressorType.values()) {
+      writeBlocks(compressor);
+      ReadAheadCompressedReader reader = reader(compressor, 0, NUM_BLOCKS);
+      byte[] buf = new byte[NUM_BLOCKS * BLOCK_SIZE];
+      assertEquals(buf.length, reader.read(buf));
+      for (int i = 0; i < buf.length; i++) {
+        assertEquals((byte) i, buf[i]);
+      }
+      assertEquals(blockStarts[NUM_BLOCKS], reader.getBlockPosition());
+      assertEof(reader);
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testBlockPositions() throws IOException {
+    for (CompressorType compressor : CompressorType.values()) {
+      writeBlocks(compressor);
+      ReadAheadCompressedReader reader = reader(compressor, 3, 20);
+      for (int block = 3; block < 20; block++) {
+        assertEquals(blockStarts[block], reader.getBlockPosition());
+        assertEquals((block * BLOCK_SIZE) & 0xFF, reader.read());
+        assertEquals(blockStarts[block], reader.getBlockPosition());
+        assertEquals(BLOCK_SIZE - 2, reader.skip(BLOCK_SIZE - 2));
+        assertEquals((block * BLOCK_SIZE + BLOCK_SIZE - 1) & 0xFF, reader.read());
+      }
+      assertEquals(blockStarts[20], reader.getBlockPosition());
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testReadAcrossBlocks() throws IOException {
+    for (CompressorType compressor : CompressorType.values()) {
+      writeBlocks(compressor);
+      ReadAheadCompressedReader reader = reader(compressor, 10, NUM_BLOCKS);
+      assertEquals(BLOCK_SIZE / 2, reader.skip(BLOCK_SIZE / 2));
+      byte[] buf = new byte[3 * BLOCK_SIZE];
+      reader.read(buf);
+      byte[] expected = new byte[buf.length];
+      for (int i = 0; i < expected.length; i++) {
+        expected[i] = (byte) (10 * BLOCK_SIZE + BLOCK_SIZE / 2 + i);
+      }
+      assertArrayEquals(expected, buf);
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testCloseEarly() throws IOException {
+    for (CompressorType compressor : CompressorType.values()) {
+      writeBlocks(compressor);
+      ReadAheadCompressedReader reader = reader(compressor, 0, NUM_BLOCKS);
+      reader.read();
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testReadPastEnd() throws IOException {
+    for (CompressorType compressor : CompressorType.values()) {
+      writeBlocks(compressor);
+      ReadAheadCompressedReader reader = reader(compressor, 5, 7);
+      assertEquals(2 * BLOCK_SIZE, reader.skip(2 * BLOCK_SIZE));
+      assertEquals(blockStarts[7], reader.getBlockPosition());
+
+      // Blocks past the end are read on demand
+      assertEquals((7 * BLOCK_SIZE) & 0xFF, reader.read());
+      assertEquals(blockStarts[7], reader.getBlockPosition());
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testEmptyRange() throws IOException {
+    for (CompressorType compressor : CompressorType.values()) {
+      writeBlocks(compressor);
+      ReadAheadCompressedReader reader = reader(compressor, NUM_BLOCKS, NUM_BLOCKS);
+      assertEquals(blockStarts[NUM_BLOCKS], reader.getBlockPosition());
+      assertEof(reader);
+      reader.close();
+    }
+  }
+
+  private static void assertEof(ReadAheadCompressedReader reader) throws IOException {
+    try {
+      reader.read();
+      fail("Expected EOFException");
+    } catch (EOFException expected) {
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class SegmentedSparkeyWriterTest extends BaseSystemTest {
+  private static final int NUM_SEGMENTS = 4;
+  private static final int NUM_KEYS = 1000;
+
+  @Test
+  public void testMerge() throws Exception {
+    for (CompressionType compressionType : CompressionType.values()) {
+      SegmentedSparkeyWriter segments = Sparkey.createSegmented(indexFile, compressionType, 200, NUM_SEGMENTS);
+      ExecutorService executor = Executors.newFixedThreadPool(NUM_SEGMENTS);
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+          final SparkeyWriter segment = segments.getSegment(i);
+          final int index = i;
+          futures.add(executor.submit(() -> {
+            writeSegment(segment, index);
+            return null;
+          }));
+        }
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      } finally {
+        executor.shutdown();
+      }
+      SparkeyWriter writer = segments.merge();
+      writer.writeHash();
+      writer.close();
+
+      File expectedFile = File.createTempFile("sparkey-expected", ".spi");
+      try {
+        SparkeyWriter expectedWriter = Sparkey.createNew(expectedFile, compressionType, 200);
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+          writeSegment(expectedWriter, i);
+        }
+        expectedWriter.close();
+        LogHeader expected = LogHeader.read(Sparkey.getLogFile(expectedFile));
+        LogHeader actual = LogHeader.read(logFile);
+        assertEquals(expected.getNumPuts(), actual.getNumPuts());
+        assertEquals(expected.getNumDeletes(), actual.getNumDeletes());
+        assertEquals(expected.getPutSize(), actual.getPutSize());
+        assertEquals(expected.getDeleteSize(), actual.getDeleteSize());
+        assertEquals(expected.getMaxKeyLen(), actual.getMaxKeyLen());
+        assertEquals(expected.getMaxValueLen(), actual.getMaxValueLen());
+        if (compressionType == CompressionType.NONE) {
+          assertEquals(expected.getDataEnd(), actual.getDataEnd());
+        }
+      } finally {
+        UtilTest.delete(expectedFile);
+        UtilTest.delete(Sparkey.getLogFile(expectedFile));
+      }
+
+      SparkeyReader reader = Sparkey.open(indexFile);
+      try {
+        for (int i = 0; i < NUM_KEYS; i++) {
+          String value = reader.getAsString("key" + i);
+          if (i % 10 == 0) {
+            // Deleted by the last segment
+            assertNull(value);
+          } else {
+            assertEquals(compressionType + " key" + i, "value_" + (NUM_SEGMENTS - 1) + "_" + i, value);
+          }
+          assertEquals("only_" + (i % NUM_SEGMENTS), reader.getAsString("only" + i));
+        }
+      } finally {
+        reader.close();
+      }
+      assertEquals(0, countSegmentFiles());
+    }
+  }
+
+  @Test
+  public void testCloseDiscardsSegments() throws IOException {
+    SegmentedSparkeyWriter segments = Sparkey.createSegmented(indexFile, CompressionType.SNAPPY, 200, NUM_SEGMENTS);
+    for (int i = 0; i < NUM_SEGMENTS; i++) {
+      segments.getSegment(i).put("key", "value");
+    }
+    assertEquals(NUM_SEGMENTS - 1, countSegmentFiles());
+    segments.close();
+    assertEquals(0, countSegmentFiles());
+    assertFalse(logFile.exists());
+  }
+
+  private static void writeSegment(SparkeyWriter writer, int segment) throws IOException {
+    for (int i = 0; i < NUM_KEYS; i++) {
+      writer.put("key" + i, "value_" + segment + "_" + i);
+      if (i % NUM_SEGMENTS == segment) {
+        writer.put("only" + i, "only_" + segment);
+      }
+    }
+    if (segment == NUM_SEGMENTS - 1) {
+      for (int i = 0; i < NUM_KEYS; i += 10) {
+        writer.delete("key" + i);
+      }
+    }
+  }
+
+  private int countSegmentFiles() throws IOException {
+    File dir = logFile.getCanonicalFile().getParentFile();
+    String[] names = dir.list((d, name) -> name.startsWith(logFile.getName() + "-segment"));
+    return names == null ? 0 : names.length;
+  }
+}
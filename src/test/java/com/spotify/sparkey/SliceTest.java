@@ -0,0 +1,110 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SliceTest extends BaseSystemTest {
+  private static final int NUM_KEYS = 1000;
+
+  @Test
+  public void testSlices() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 100);
+      // Set before writing, so that the hashes of the slices are captured
+      writer.setHashType(HashType.HASH_64_BITS);
+      writer.setHashSeed(4711);
+      writer.setCaptureHashes(true);
+      byte[] pool = new byte[64 * 1024];
+      ByteBuffer direct = ByteBuffer.allocateDirect(64 * 1024);
+      for (int i = 0; i < NUM_KEYS; i++) {
+        byte[] key = key(i);
+        byte[] value = value(i);
+        switch (i % 3) {
+          case 0:
+            System.arraycopy(key, 0, pool, 7, key.length);
+            System.arraycopy(value, 0, pool, 7 + key.length + 3, value.length);
+            writer.put(pool, 7, key.length, pool, 7 + key.length + 3, value.length);
+            break;
+          case 1:
+            ByteBuffer heap = ByteBuffer.wrap(pool, 5, key.length + value.length).slice();
+            heap.put(key).put(value).flip();
+            writer.put(slice(heap, 0, key.length), slice(heap, key.length, value.length));
+            break;
+          default:
+            direct.clear();
+            direct.put(key).put(value).flip();
+            ByteBuffer directKey = slice(direct, 0, key.length);
+            writer.put(directKey, slice(direct, key.length, value.length));
+            assertEquals(0, directKey.position());
+        }
+      }
+      for (int i = 0; i < NUM_KEYS; i += 10) {
+        byte[] key = key(i);
+        if (i % 20 == 0) {
+          System.arraycopy(key, 0, pool, 11, key.length);
+          writer.delete(pool, 11, key.length);
+        } else {
+          direct.clear();
+          direct.put(key).flip();
+          writer.delete(direct);
+        }
+      }
+      writer.writeHash();
+      writer.close();
+
+      SparkeyReader reader = Sparkey.open(indexFile);
+      try {
+        for (int i = 0; i < NUM_KEYS; i++) {
+          byte[] key = key(i);
+          byte[] expected = i % 10 == 0 ? null : value(i);
+          String message = compressionType + ": " + i;
+          assertArrayEquals(message, expected, reader.getAsByteArray(key));
+
+          System.arraycopy(key, 0, pool, 13, key.length);
+          assertArrayEquals(message, expected, reader.getAsByteArray(pool, 13, key.length));
+          SparkeyReader.Entry entry = reader.getAsEntry(pool, 13, key.length);
+          if (expected == null) {
+            assertNull(message, entry);
+          } else {
+            assertArrayEquals(message, key, entry.getKey());
+            assertArrayEquals(message, expected, entry.getValue());
+          }
+
+          direct.clear();
+          direct.put(key).flip();
+          assertArrayEquals(message, expected, reader.getAsByteArray(direct));
+          assertArrayEquals(message, expected, reader.getAsByteArray(ByteBuffer.wrap(pool, 13, key.length)));
+          assertEquals(0, direct.position());
+        }
+      } finally {
+        reader.close();
+      }
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.limit(offset + length);
+    duplicate.position(offset);
+    return duplicate.slice();
+  }
+
+  private static byte[] key(int i) {
+    return ("key" + i).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] value(int i) {
+    byte[] value = new byte[i % 300];
+    Arrays.fill(value, (byte) i);
+    return value;
+  }
+}
@@ -3,52 +3,75 @@ package com.spotify.sparkey;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
-import static com.spotify.sparkey.SortHelper.ENTRY_COMPARATOR;
-
 @BenchmarkMode(Mode.AverageTime)
-@OutputTimeUnit(TimeUnit.NANOSECONDS)
-@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
 @Fork(value = 1, warmups = 1)
 @Measurement(iterations = 5, time = 10)
 @Warmup(iterations = 5, time = 10)
 public class SortHelperBenchmark {
-  private static final SortHelper.Entry E1 = new SortHelper.Entry(123, 456, 1);
-  private static final SortHelper.Entry E2 = new SortHelper.Entry(123, 456, 2);
-  private static final SortHelper.Entry E3 = new SortHelper.Entry(7567, 222, 1);
-  private static final SortHelper.Entry E4 = new SortHelper.Entry(7567, 222, 2);
+  private static final int NUM_ELEMENTS = 1000000;
 
-  @Benchmark
-  public int measureRealE1_E1() {
-    return ENTRY_COMPARATOR.compare(E1, E1);
-  }
+  private File indexFile;
+  private File logFile;
+  private LogHeader header;
+  private long capacity;
 
-  @Benchmark
-  public int measureRealE1_E2() {
-    return ENTRY_COMPARATOR.compare(E1, E2);
-  }
+  // Number of sorted runs to spill and merge, or 1 to sort in memory
+  @Param({"1", "4", "64"})
+  public int numRuns;
 
-  @Benchmark
-  public int measureRealE2_E1() {
-    return ENTRY_COMPARATOR.compare(E2, E2);
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    indexFile = File.createTempFile("sparkey", ".spi");
+    logFile = Sparkey.getLogFile(indexFile);
+    indexFile.deleteOnExit();
+    logFile.deleteOnExit();
+
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.NONE, 1024);
+    for (int i = 0; i < NUM_ELEMENTS; i++) {
+      writer.put("key_" + i, "value_" + i);
+    }
+    writer.flush();
+    writer.close();
+    header = LogHeader.read(logFile);
+    capacity = (long) (NUM_ELEMENTS * 1.3);
   }
 
-  @Benchmark
-  public int measureRealE1_E3() {
-    return ENTRY_COMPARATOR.compare(E1, E3);
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    UtilTest.delete(indexFile);
+    UtilTest.delete(logFile);
   }
 
   @Benchmark
-  public int measureRealE1_E4() {
-    return ENTRY_COMPARATOR.compare(E1, E4);
+  public long sort() throws IOException {
+    long maxMemory = (long) (NUM_ELEMENTS + numRuns - 1) / numRuns * SortHelper.BYTES_PER_ENTRY;
+    long sum = 0;
+    HashedEntries entries = SortHelper.sort(
+        logFile, header.size(), header.getDataEnd(), HashType.HASH_64_BITS, capacity, 0, maxMemory);
+    try {
+      while (entries.next()) {
+        sum += entries.getAddress();
+      }
+    } finally {
+      entries.close();
+    }
+    return sum;
   }
-
 }
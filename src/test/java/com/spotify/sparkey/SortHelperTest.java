@@ -1,16 +1,91 @@
 package com.spotify.sparkey;
 
-import com.carrotsearch.sizeof.RamUsageEstimator;
+import com.spotify.sparkey.system.BaseSystemTest;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SortHelperTest extends BaseSystemTest {
+  private static final int NUM_ENTRIES = 10000;
+  private static final long CAPACITY = 13001;
+
+  @Test
+  public void testSortInMemory() throws IOException {
+    writeLog();
+    LogHeader header = LogHeader.read(logFile);
+    long[] sorted = sort(Long.MAX_VALUE);
+    assertEquals(2 * (header.getNumPuts() + header.getNumDeletes()), sorted.length);
+    assertSorted(sorted);
+  }
 
-public class SortHelperTest {
+  @Test
+  public void testSortWithSpilledRuns() throws IOException {
+    writeLog();
+    long[] expected = sort(Long.MAX_VALUE);
+    for (int runSize : new int[]{1, 7, 100, NUM_ENTRIES - 1}) {
+      assertArrayEquals(expected, sort((long) runSize * SortHelper.BYTES_PER_ENTRY));
+    }
+  }
 
   @Test
-  public void testEntrySize() {
-    long size = RamUsageEstimator.sizeOf(SortHelper.Entry.fromHash(123, 456, 789));
-    assertEquals(SortHelper.ENTRY_SIZE, size);
+  public void testEmpty() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile);
+    writer.flush();
+    writer.close();
+    assertEquals(0, sort(Long.MAX_VALUE).length);
+    assertEquals(0, sort(1).length);
+  }
+
+  private void writeLog() throws IOException {
+    Random random = new Random(4711);
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.SNAPPY, 1024);
+    for (int i = 0; i < NUM_ENTRIES; i++) {
+      String key = "key" + random.nextInt(NUM_ENTRIES / 2);
+      if (random.nextInt(5) == 0) {
+        writer.delete(key);
+      } else {
+        writer.put(key, "value" + i);
+      }
+    }
+    writer.flush();
+    writer.close();
+  }
+
+  // Returns pairs of hash and address
+  private long[] sort(long maxMemory) throws IOException {
+    LogHeader header = LogHeader.read(logFile);
+    List<Long> result = new ArrayList<>();
+    HashedEntries entries = SortHelper.sort(
+        logFile, header.size(), header.getDataEnd(), HashType.HASH_64_BITS, CAPACITY, 123, maxMemory);
+    try {
+      while (entries.next()) {
+        result.add(entries.getHash());
+        result.add(entries.getAddress());
+      }
+      assertFalse(entries.next());
+    } finally {
+      entries.close();
+    }
+    long[] array = new long[result.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = result.get(i);
+    }
+    return array;
+  }
 
+  private static void assertSorted(long[] sorted) {
+    for (int i = 2; i < sorted.length; i += 2) {
+      long prevSlot = IndexHash.getWantedSlot(sorted[i - 2], CAPACITY);
+      long slot = IndexHash.getWantedSlot(sorted[i], CAPACITY);
+      assertTrue(prevSlot < slot || (prevSlot == slot && sorted[i - 1] < sorted[i + 1]));
+    }
   }
-}
\ No newline at end of file
+}
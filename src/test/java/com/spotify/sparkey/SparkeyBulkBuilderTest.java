@@ -0,0 +1,121 @@
+package com.spotify.sparkey;
+
+import com.google.common.io.Files;
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SparkeyBulkBuilderTest extends BaseSystemTest {
+  private static final int HASH_SEED = 4711;
+
+  @Test
+  public void testBuild() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      Map<String, String> expected = new HashMap<>();
+      SparkeyBulkBuilder builder = Sparkey.bulkBuilder(indexFile, compressionType, 200);
+      builder.setHashSeed(HASH_SEED);
+      Random random = new Random(compressionType.ordinal());
+      for (int i = 0; i < 20000; i++) {
+        String key = "key" + random.nextInt(15000);
+        String value = "value" + i;
+        builder.put(key, value);
+        expected.put(key, value);
+      }
+      builder.build();
+      assertEquals(0, countSpillFiles());
+
+      SparkeyReader reader = Sparkey.open(indexFile);
+      try {
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+          assertEquals(entry.getValue(), reader.getAsString(entry.getKey()));
+        }
+        assertEquals(expected.size(), reader.getIndexHeader().getNumEntries());
+        assertLogInSlotOrder(reader.getIndexHeader());
+      } finally {
+        reader.close();
+      }
+
+      // Same index as from sorting the log
+      byte[] built = Files.toByteArray(indexFile);
+      SparkeyWriter writer = Sparkey.append(indexFile);
+      writer.setHashType(IndexHeader.read(indexFile).getHashType());
+      writer.setHashSeed(HASH_SEED);
+      writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.SORTING);
+      writer.writeHash();
+      writer.close();
+      assertArrayEquals(compressionType.name(), Files.toByteArray(indexFile), built);
+    }
+  }
+
+  @Test
+  public void testBuildWithSpilledRuns() throws IOException {
+    // Larger than the minimum sort memory, so the records are sorted in several runs and merged
+    Map<String, String> expected = new HashMap<>();
+    SparkeyBulkBuilder builder = Sparkey.bulkBuilder(indexFile, CompressionType.NONE, 0);
+    builder.setMaxMemory(0);
+    Random random = new Random(4711);
+    char[] padding = new char[1000];
+    for (int i = 0; i < 30000; i++) {
+      String key = "key" + random.nextInt(20000);
+      String value = "value" + i + new String(padding, 0, random.nextInt(padding.length));
+      builder.put(key, value);
+      expected.put(key, value);
+    }
+    builder.build();
+    assertEquals(0, countSpillFiles());
+
+    SparkeyReader reader = Sparkey.open(indexFile);
+    try {
+      for (Map.Entry<String, String> entry : expected.entrySet()) {
+        assertEquals(entry.getValue(), reader.getAsString(entry.getKey()));
+      }
+      assertEquals(expected.size(), reader.getIndexHeader().getNumEntries());
+      assertLogInSlotOrder(reader.getIndexHeader());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    SparkeyBulkBuilder builder = Sparkey.bulkBuilder(indexFile, CompressionType.NONE, 0);
+    builder.build();
+    SparkeyReader reader = Sparkey.open(indexFile);
+    assertEquals(0, reader.getIndexHeader().getNumEntries());
+    reader.close();
+  }
+
+  @Test
+  public void testCloseDiscardsEntries() throws IOException {
+    SparkeyBulkBuilder builder = Sparkey.bulkBuilder(indexFile, CompressionType.NONE, 0);
+    builder.put("key", "value");
+    assertEquals(1, countSpillFiles());
+    builder.close();
+    assertEquals(0, countSpillFiles());
+  }
+
+  private void assertLogInSlotOrder(IndexHeader header) throws IOException {
+    long prevWantedSlot = -1;
+    for (SparkeyReader.Entry entry : new SparkeyLogIterator(logFile)) {
+      long hash = header.getHashType().hash(entry.getKeyLength(), entry.getKey(), header.getHashSeed());
+      long wantedSlot = IndexHash.getWantedSlot(hash, header.getHashCapacity());
+      assertTrue(wantedSlot >= prevWantedSlot);
+      prevWantedSlot = wantedSlot;
+    }
+  }
+
+  private int countSpillFiles() throws IOException {
+    File dir = logFile.getCanonicalFile().getParentFile();
+    String[] names = dir.list((d, name) -> name.startsWith(logFile.getName() + "-bulk"));
+    return names == null ? 0 : names.length;
+  }
+}
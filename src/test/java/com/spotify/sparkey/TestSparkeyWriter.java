@@ -29,9 +29,62 @@ public class TestSparkeyWriter {
             "Files are not equal: " + indexFile + ", " + memFile + "\n" +
             sortHeader.toString() + "\n" + memHeader.toString());
       }
+
+      writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.PARALLEL);
+      writer.writeHash();
+      final IndexHeader parallelHeader = IndexHeader.read(indexFile);
+
+      if (!Files.equal(indexFile, memFile)) {
+        throw new RuntimeException(
+            "Files are not equal: " + indexFile + ", " + memFile + "\n" +
+            parallelHeader.toString() + "\n" + memHeader.toString());
+      }
+
+      writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.MAPPED);
+      writer.writeHash();
+      final IndexHeader mappedHeader = IndexHeader.read(indexFile);
+
+      if (!Files.equal(indexFile, memFile)) {
+        throw new RuntimeException(
+            "Files are not equal: " + indexFile + ", " + memFile + "\n" +
+            mappedHeader.toString() + "\n" + memHeader.toString());
+      }
     } finally {
       writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.AUTO);
       memFile.delete();
     }
   }
+
+  /**
+   * Like writeHashAndCompare, but only compares PARALLEL to SORTING.
+   * IN_MEMORY may order entries in the same slot run differently once keys have been deleted.
+   */
+  public static void writeParallelHashAndCompare(final SparkeyWriter writer2) throws IOException {
+    final SingleThreadedSparkeyWriter writer = (SingleThreadedSparkeyWriter) writer2;
+
+    final File indexFile = writer.indexFile;
+    final File sortFile = Sparkey.setEnding(indexFile, ".sort.spi");
+
+    try {
+      writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.SORTING);
+      writer.writeHash();
+      indexFile.renameTo(sortFile);
+      final IndexHeader sortHeader = IndexHeader.read(sortFile);
+
+      writer.setHashSeed(sortHeader.getHashSeed());
+
+      writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.PARALLEL);
+      writer.writeHash();
+      final IndexHeader parallelHeader = IndexHeader.read(indexFile);
+
+      if (!Files.equal(indexFile, sortFile)) {
+        throw new RuntimeException(
+            "Files are not equal: " + indexFile + ", " + sortFile + "\n" +
+            parallelHeader.toString() + "\n" + sortHeader.toString());
+      }
+    } finally {
+      writer.setConstructionMethod(SparkeyWriter.ConstructionMethod.AUTO);
+      sortFile.delete();
+    }
+  }
 }
@@ -10,6 +10,7 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.reflect.Method;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -190,7 +191,7 @@ public class UtilTest {
     }
 
     @Override
-    public boolean readFullyCompare(int length, byte[] key) {
+    public boolean readFullyCompare(int length, byte[] key, int keyOff) {
       throw new UnsupportedOperationException();
     }
 
@@ -275,4 +276,21 @@ public class UtilTest {
       dest.delete();
     }
   }
+
+  @Test
+  public void testArrayUtilForEveryVariant() throws Exception {
+    byte[] a = "xxkeyvalue".getBytes();
+    byte[] b = "keyvaluexx".getBytes();
+    for (int version : MultiReleaseClassLoader.versions()) {
+      MultiReleaseClassLoader loader = new MultiReleaseClassLoader(version);
+      Method equals = Class.forName(ArrayUtil.class.getName(), true, loader)
+          .getDeclaredMethod("equals", int.class, byte[].class, int.class, byte[].class, int.class);
+      equals.setAccessible(true);
+      assertEquals(true, equals.invoke(null, 8, a, 2, b, 0));
+      assertEquals(true, equals.invoke(null, 2, a, 0, b, 8));
+      assertEquals(true, equals.invoke(null, 0, a, 10, b, 10));
+      assertEquals(false, equals.invoke(null, 8, a, 1, b, 0));
+      assertEquals(false, equals.invoke(null, 3, a, 1, b, 7));
+    }
+  }
 }
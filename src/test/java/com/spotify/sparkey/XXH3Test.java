@@ -0,0 +1,116 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+public class XXH3Test extends BaseSystemTest {
+
+  // Computed with XXH3_64bits_withSeed from xxHash 0.8.1, covering every length class:
+  // {length, hash with seed 0, hash with seed 0x9e3779b1}
+  private static final long[][] REFERENCE_VALUES = {
+      {0, 0x2d06800538d394c2L, 0xf702ca3814de2125L},
+      {1, 0x4c5cca45d0f4811fL, 0x98b2647a1f47f3a7L},
+      {3, 0x15f7093b173d005cL, 0x1067f4429b2f3d02L},
+      {4, 0xdca012f95811b6b9L, 0xdc5e8ef70a23c40fL},
+      {8, 0xdec6a9a43575982eL, 0xb8216561470c0259L},
+      {9, 0xcbe393399f17ffbdL, 0x273c21082341b742L},
+      {16, 0x7e484c18d74895d0L, 0x53f5a2500d18b902L},
+      {17, 0x208bde5ee2bed407L, 0x1bc0cf86eda33cb3L},
+      {64, 0xdd30702ab46b3745L, 0x885a1b80a2edf0c7L},
+      {128, 0xf92b70eaa21a6288L, 0x0868f56a3a848bc0L},
+      {129, 0xf8f76713f2bb60faL, 0xcefc4bea073d6e00L},
+      {200, 0x12fdb864685f344dL, 0x6b63ae819e1e4ec9L},
+      {240, 0xccc7375172c41f03L, 0x4725f6766083d823L},
+      {241, 0x0b3b630948ce4a00L, 0x1a1438b40914acb6L},
+      {1024, 0x23bc880ebf0d29c6L, 0x9386cb3d9245ee2dL},
+      {2048, 0x19f6f9c987331373L, 0x143bb954fba822f7L},
+  };
+
+  @Test
+  public void testReferenceValues() {
+    for (long[] reference : REFERENCE_VALUES) {
+      byte[] data = referenceData((int) reference[0]);
+      assertEquals(reference[1], XXH3.hash64(data, 3, (int) reference[0], 0));
+      assertEquals(reference[2], XXH3.hash64(data, 3, (int) reference[0], 0x9e3779b1L));
+    }
+  }
+
+  @Test
+  public void testReferenceValuesForEveryVariant() throws Exception {
+    List<Integer> versions = MultiReleaseClassLoader.versions();
+    for (int version : versions) {
+      MultiReleaseClassLoader loader = new MultiReleaseClassLoader(version);
+      Method hash64 = Class.forName(XXH3.class.getName(), true, loader)
+          .getDeclaredMethod("hash64", byte[].class, int.class, int.class, long.class);
+      hash64.setAccessible(true);
+      for (long[] reference : REFERENCE_VALUES) {
+        byte[] data = referenceData((int) reference[0]);
+        String message = "Java " + version + ", length " + reference[0];
+        assertEquals(message, reference[1], hash64.invoke(null, data, 3, (int) reference[0], 0L));
+        assertEquals(message, reference[2], hash64.invoke(null, data, 3, (int) reference[0], 0x9e3779b1L));
+      }
+      assertEquals(version, loader.getLoadedVersion(HashPrimitives.class.getName()));
+    }
+    // Only compiled by the build, not by IDEs that only compile the test class path
+    assumeTrue("The Java 9 variants are not compiled", versions.contains(9));
+  }
+
+  @Test
+  public void testHashType() {
+    byte[] key = "xxsparkey".getBytes(StandardCharsets.UTF_8);
+    assertEquals(0xd37c52299105f492L, HashType.HASH_64_BITS_XXH3.hash(7, key, 2, 0));
+    assertEquals(0xc8298d7fe69056c1L, HashType.HASH_64_BITS_XXH3.hash(7, key, 2, 4711));
+    // Seeds are unsigned 32 bit values
+    assertEquals(XXH3.hash64(key, 0, key.length, 0xffffffffL), HashType.HASH_64_BITS_XXH3.hash(key.length, key, -1));
+  }
+
+  @Test
+  public void testRecordedInHeader() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile);
+    for (int i = 0; i < 1000; i++) {
+      writer.put("key" + i, "value" + i);
+    }
+    writer.setHashType(HashType.HASH_64_BITS_XXH3);
+    writer.writeHash();
+    writer.close();
+
+    IndexHeader header = IndexHeader.read(indexFile);
+    assertEquals(HashType.HASH_64_BITS_XXH3, header.getHashType());
+    assertEquals(8, header.getHashSize());
+    assertEquals(2, header.getMinorVersion());
+
+    SparkeyReader reader = Sparkey.open(indexFile);
+    try {
+      for (int i = 0; i < 1000; i++) {
+        assertEquals("value" + i, reader.getAsString("key" + i));
+      }
+      assertNull(reader.getAsString("key1000"));
+    } finally {
+      reader.close();
+    }
+
+    // Murmur indexes keep the old minor version, so older readers can still open them
+    Sparkey.writeHash(indexFile, HashType.HASH_64_BITS);
+    header = IndexHeader.read(indexFile);
+    assertEquals(HashType.HASH_64_BITS, header.getHashType());
+    assertEquals(1, header.getMinorVersion());
+  }
+
+  private static byte[] referenceData(int len) {
+    // At an offset, so that reads must honor it
+    byte[] data = new byte[len + 3];
+    for (int i = 0; i < len; i++) {
+      data[i + 3] = (byte) (i * 31 + 7);
+    }
+    return data;
+  }
+}
@@ -0,0 +1,103 @@
+package com.spotify.sparkey;
+
+import com.spotify.sparkey.system.BaseSystemTest;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZstdDictionaryTest extends BaseSystemTest {
+  private static final int NUM_KEYS = 2000;
+
+  @Test
+  public void testDictionary() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.ZSTD_DICTIONARY, 64);
+    for (int i = 0; i < NUM_KEYS; i++) {
+      if (i % 3 == 0) {
+        byte[] value = value(i).getBytes(StandardCharsets.UTF_8);
+        writer.put(("key" + i).getBytes(StandardCharsets.UTF_8), new ByteArrayInputStream(value), value.length);
+      } else {
+        writer.put("key" + i, value(i));
+      }
+    }
+    // Held back along with the puts, and replayed in order
+    writer.delete("key7");
+    writer.put("key7", "again");
+    writer.writeHash();
+    writer.close();
+
+    LogHeader header = LogHeader.read(logFile);
+    assertEquals(1, header.getMinorVersion());
+    assertTrue(header.getDictionary().length > 0);
+    assertEquals(88 + header.getDictionary().length, header.size());
+    assertEquals(NUM_KEYS + 1, header.getNumPuts());
+    assertEquals(1, header.getNumDeletes());
+    assertReaderMatches(NUM_KEYS);
+
+    int count = 0;
+    for (SparkeyReader.Entry entry : new SparkeyLogIterator(logFile)) {
+      count++;
+    }
+    assertEquals(NUM_KEYS + 2, count);
+  }
+
+  @Test
+  public void testAppend() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.ZSTD_DICTIONARY, 64);
+    for (int i = 0; i < NUM_KEYS / 2; i++) {
+      writer.put("key" + i, value(i));
+    }
+    writer.close();
+    byte[] dictionary = LogHeader.read(logFile).getDictionary();
+
+    writer = Sparkey.append(indexFile);
+    for (int i = NUM_KEYS / 2; i < NUM_KEYS; i++) {
+      writer.put("key" + i, value(i));
+    }
+    writer.put("key7", "again");
+    writer.writeHash();
+    writer.close();
+
+    // Appended blocks use the same dictionary
+    assertEquals(dictionary.length, LogHeader.read(logFile).getDictionary().length);
+    assertReaderMatches(NUM_KEYS);
+  }
+
+  @Test
+  public void testEmptyDictionary() throws IOException {
+    SparkeyWriter writer = Sparkey.createNew(indexFile, CompressionType.ZSTD_DICTIONARY, 64);
+    writer.close();
+    // Closing the log writes the dictionary region, even without entries to train on
+    assertEquals(0, LogHeader.read(logFile).getDictionary().length);
+    assertEquals(88, LogHeader.read(logFile).size());
+
+    // Too few entries to train on, so the blocks are compressed without a dictionary
+    writer = Sparkey.append(indexFile);
+    writer.put("key7", "again");
+    writer.writeHash();
+    writer.close();
+    assertReaderMatches(0);
+  }
+
+  private void assertReaderMatches(int numKeys) throws IOException {
+    SparkeyReader reader = Sparkey.open(indexFile);
+    try {
+      for (int i = 0; i < numKeys; i++) {
+        assertEquals(i == 7 ? "again" : value(i), reader.getAsString("key" + i));
+      }
+      assertEquals("again", reader.getAsString("key7"));
+      assertNull(reader.getAsString("key" + numKeys));
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static String value(int i) {
+    return "{\"id\":" + i + ",\"name\":\"user" + i + "\",\"active\":" + (i % 2 == 0) + "}";
+  }
+}
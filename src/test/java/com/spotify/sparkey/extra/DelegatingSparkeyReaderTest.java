@@ -46,6 +46,12 @@ public class DelegatingSparkeyReaderTest {
     reader.iterator();
     verify(delegate).iterator();
 
+    reader.indexIterator();
+    verify(delegate).indexIterator();
+
+    reader.iterator(0, 1);
+    verify(delegate).iterator(0, 1);
+
     reader.getTotalBytes();
     verify(delegate).getTotalBytes();
 
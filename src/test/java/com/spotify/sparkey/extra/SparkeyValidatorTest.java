@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey.extra;
+
+import com.spotify.sparkey.CompressionType;
+import com.spotify.sparkey.IndexHeader;
+import com.spotify.sparkey.OpenMapsAsserter;
+import com.spotify.sparkey.Sparkey;
+import com.spotify.sparkey.SparkeyWriter;
+import com.spotify.sparkey.UtilTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SparkeyValidatorTest extends OpenMapsAsserter {
+  private File indexFile;
+  private File logFile;
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    indexFile = File.createTempFile("sparkey", ".spi");
+    logFile = Sparkey.getLogFile(indexFile);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    UtilTest.delete(indexFile);
+    UtilTest.delete(logFile);
+    super.tearDown();
+  }
+
+  @Test
+  public void testValidFiles() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      writeData(compressionType);
+      assertTrue(validate(1, 0));
+      assertTrue(validate(4, 0));
+    }
+  }
+
+  @Test
+  public void testThrottled() throws IOException {
+    writeData(CompressionType.NONE);
+    assertTrue(validate(2, 10 * 1024 * 1024));
+  }
+
+  @Test
+  public void testCorruptIndex() throws IOException {
+    writeData(CompressionType.NONE);
+    IndexHeader header = Sparkey.getIndexHeader(indexFile);
+    try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+      // Flip the stored hash of the first non-empty slot, which no longer matches its key or its slot
+      for (long slot = 0; slot < header.getHashCapacity(); slot++) {
+        long pos = header.size() + slot * header.getSlotSize();
+        file.seek(pos + header.getHashSize());
+        byte[] address = new byte[header.getAddressSize()];
+        file.readFully(address);
+        if (!Arrays.equals(new byte[address.length], address)) {
+          file.seek(pos);
+          int b = file.read();
+          file.seek(pos);
+          file.write(b ^ 0xff);
+          break;
+        }
+      }
+    }
+    assertFalse(validate(2, 0));
+  }
+
+  private boolean validate(int threads, long maxBytesPerSecond) throws IOException {
+    PrintStream out = new PrintStream(new ByteArrayOutputStream());
+    return new SparkeyValidator(indexFile, threads, maxBytesPerSecond, 10, out, out).run();
+  }
+
+  private void writeData(CompressionType compressionType) throws IOException {
+    indexFile.delete();
+    try (SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 1024)) {
+      for (int i = 0; i < 2000; i++) {
+        writer.put("key" + i, "value" + i);
+      }
+      for (int i = 0; i < 2000; i += 10) {
+        writer.delete("key" + i);
+      }
+      writer.writeHash();
+    }
+  }
+}
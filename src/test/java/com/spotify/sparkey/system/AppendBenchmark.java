@@ -57,7 +57,7 @@ public class AppendBenchmark {
     UtilTest.delete(logFile);
   }
 
-  @Param({"NONE", "SNAPPY", "ZSTD"})
+  @Param({"NONE", "SNAPPY", "ZSTD", "LZ4", "ZSTD_DICTIONARY"})
   public String type;
 
   @Benchmark
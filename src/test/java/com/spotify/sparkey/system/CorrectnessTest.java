@@ -58,6 +58,9 @@ public class CorrectnessTest extends BaseSystemTest {
         testHelper(size, CompressionType.ZSTD, 64, hashType);
         testHelper(size, CompressionType.ZSTD, 1024, hashType);
         testHelper(size, CompressionType.ZSTD, 4096, hashType);
+        testHelper(size, CompressionType.LZ4, 64, hashType);
+        testHelper(size, CompressionType.LZ4, 1024, hashType);
+        testHelper(size, CompressionType.LZ4, 4096, hashType);
       }
     }
   }
@@ -210,6 +213,9 @@ public class CorrectnessTest extends BaseSystemTest {
         testHelperWithDeletes(size, CompressionType.ZSTD, 64, hashType);
         testHelperWithDeletes(size, CompressionType.ZSTD, 1024, hashType);
         testHelperWithDeletes(size, CompressionType.ZSTD, 4096, hashType);
+        testHelperWithDeletes(size, CompressionType.LZ4, 64, hashType);
+        testHelperWithDeletes(size, CompressionType.LZ4, 1024, hashType);
+        testHelperWithDeletes(size, CompressionType.LZ4, 4096, hashType);
       }
     }
   }
@@ -200,7 +200,7 @@ public class FocusedReaderBenchmark {
     @Param({"POOLED_MMAP_FORCE_JDK8", "POOLED_HEAP"})
     public String readerType;
 
-    @Param({"SNAPPY", "ZSTD"})
+    @Param({"SNAPPY", "ZSTD", "LZ4", "ZSTD_DICTIONARY"})
     public String compressionType;
 
     private File indexFile;
@@ -239,7 +239,7 @@ public class FocusedReaderBenchmark {
     @Param({"POOLED_MMAP_FORCE_JDK8", "POOLED_HEAP"})
     public String readerType;
 
-    @Param({"SNAPPY", "ZSTD"})
+    @Param({"SNAPPY", "ZSTD", "LZ4", "ZSTD_DICTIONARY"})
     public String compressionType;
 
     private File indexFile;
@@ -84,7 +84,7 @@ public class LookupBenchmark {
   @Param({"1000", "10000", "100000", "1000000", "10000000", "100000000"})
   public int numElements;
 
-  @Param({"NONE", "SNAPPY", "ZSTD"})
+  @Param({"NONE", "SNAPPY", "ZSTD", "LZ4", "ZSTD_DICTIONARY"})
   public String type;
 
   @Benchmark
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2011-2013 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.spotify.sparkey.system;
+
+import com.spotify.sparkey.CompressionType;
+import com.spotify.sparkey.Sparkey;
+import com.spotify.sparkey.SparkeyLogIterator;
+import com.spotify.sparkey.SparkeyReader;
+import com.spotify.sparkey.SparkeyWriter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelIterationTest extends BaseSystemTest {
+
+  private static final int NUM_KEYS = 20000;
+
+  @Test
+  public void testSplitLog() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      writeData(compressionType, true);
+      assertSplitMatches();
+      writeData(compressionType, false);
+      assertSplitMatches();
+    }
+  }
+
+  @Test
+  public void testSplitValuesSpanningBlocks() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      indexFile.delete();
+      Random random = new Random(compressionType.ordinal());
+      try (SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 100)) {
+        for (int i = 0; i < 2000; i++) {
+          byte[] value = new byte[random.nextInt(8) == 0 ? random.nextInt(1000) : random.nextInt(20)];
+          random.nextBytes(value);
+          writer.put(("key" + i).getBytes(), value);
+        }
+      }
+      assertSplitMatches();
+    }
+  }
+
+  @Test
+  public void testIndexIterator() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      writeData(compressionType, true);
+      try (SparkeyReader reader = Sparkey.open(indexFile)) {
+        Map<String, String> expected = new HashMap<>();
+        for (SparkeyReader.Entry entry : reader) {
+          expected.put(entry.getKeyAsString(), entry.getValueAsString());
+        }
+
+        Map<String, String> actual = new HashMap<>();
+        Iterator<SparkeyReader.Entry> iterator = reader.indexIterator();
+        while (iterator.hasNext()) {
+          SparkeyReader.Entry entry = iterator.next();
+          assertEquals(SparkeyReader.Type.PUT, entry.getType());
+          String previous = actual.put(entry.getKeyAsString(), entry.getValueAsString());
+          assertEquals(null, previous);
+        }
+        assertEquals(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testIndexIteratorSkippingValues() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      writeData(compressionType, true);
+      try (SparkeyReader reader = Sparkey.open(indexFile)) {
+        Iterator<SparkeyReader.Entry> iterator = reader.indexIterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+          SparkeyReader.Entry entry = iterator.next();
+          // Only consume some of the values, to make sure the rest are skipped correctly
+          if (count % 3 == 0) {
+            assertEquals(reader.getAsString(entry.getKeyAsString()), entry.getValueAsString());
+          } else if (count % 3 == 1) {
+            int first = entry.getValueAsStream().read();
+            assertTrue(first == 'v' || first == 'o');
+          }
+          count++;
+        }
+        assertEquals(reader.getIndexHeader().getNumEntries(), count);
+      }
+    }
+  }
+
+  @Test
+  public void testSlotRanges() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      writeData(compressionType, true);
+      try (SparkeyReader reader = Sparkey.open(indexFile)) {
+        Map<String, String> expected = new HashMap<>();
+        for (SparkeyReader.Entry entry : reader) {
+          expected.put(entry.getKeyAsString(), entry.getValueAsString());
+        }
+
+        long capacity = reader.getIndexHeader().getHashCapacity();
+        Map<String, String> actual = new HashMap<>();
+        for (int i = 0; i < 7; i++) {
+          Iterator<SparkeyReader.Entry> iterator = reader.iterator(capacity * i / 7, capacity * (i + 1) / 7);
+          while (iterator.hasNext()) {
+            SparkeyReader.Entry entry = iterator.next();
+            assertEquals(SparkeyReader.Type.PUT, entry.getType());
+            String previous = actual.put(entry.getKeyAsString(), entry.getValueAsString());
+            assertEquals(null, previous);
+          }
+        }
+        assertEquals(expected, actual);
+        assertTrue(!reader.iterator(0, 0).hasNext());
+      }
+    }
+  }
+
+  @Test
+  public void testPartitions() throws IOException {
+    writeData(CompressionType.ZSTD, true);
+    try (SparkeyReader reader = Sparkey.open(indexFile)) {
+      for (int numPartitions : new int[] {1, 3, 64}) {
+        List<Iterable<SparkeyReader.Entry>> partitions = reader.partitions(numPartitions);
+        assertEquals(numPartitions, partitions.size());
+        Map<String, String> actual = new HashMap<>();
+        for (Iterable<SparkeyReader.Entry> partition : partitions) {
+          for (SparkeyReader.Entry entry : partition) {
+            assertEquals(null, actual.put(entry.getKeyAsString(), entry.getValueAsString()));
+          }
+        }
+        assertEquals(reader.getIndexHeader().getNumEntries(), actual.size());
+        for (Map.Entry<String, String> entry : actual.entrySet()) {
+          assertEquals(reader.getAsString(entry.getKey()), entry.getValue());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testPartitionsWithDefaultSlotIteration() throws IOException {
+    writeData(CompressionType.SNAPPY, true);
+    try (SparkeyReader reader = Sparkey.open(indexFile)) {
+      SparkeyReader defaultReader = withDefaultSlotIteration(reader);
+      Map<String, String> actual = new HashMap<>();
+      for (Iterable<SparkeyReader.Entry> partition : defaultReader.partitions(7)) {
+        for (SparkeyReader.Entry entry : partition) {
+          assertEquals(null, actual.put(entry.getKeyAsString(), entry.getValueAsString()));
+        }
+      }
+      assertEquals(reader.getIndexHeader().getNumEntries(), actual.size());
+      for (Map.Entry<String, String> entry : actual.entrySet()) {
+        assertEquals(reader.getAsString(entry.getKey()), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Wrap a reader so that slot iteration uses the default methods of {@link SparkeyReader},
+   * like a reader implemented outside of this library.
+   */
+  private static SparkeyReader withDefaultSlotIteration(SparkeyReader reader) {
+    return (SparkeyReader) Proxy.newProxyInstance(SparkeyReader.class.getClassLoader(), new Class<?>[] {SparkeyReader.class},
+        (proxy, method, args) -> {
+          if (method.getName().equals("partitions")
+              || (method.getName().equals("iterator") && method.getParameterCount() == 2)) {
+            return InvocationHandler.invokeDefault(proxy, method, args);
+          }
+          try {
+            return method.invoke(reader, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testSlotRangeOutOfBounds() throws IOException {
+    writeData(CompressionType.NONE, true);
+    try (SparkeyReader reader = Sparkey.open(indexFile)) {
+      reader.iterator(0, reader.getIndexHeader().getHashCapacity() + 1);
+    }
+  }
+
+  @Test
+  public void testParallelStream() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      writeData(compressionType, true);
+      try (SparkeyReader reader = Sparkey.open(indexFile)) {
+        Map<String, String> expected = new HashMap<>();
+        for (SparkeyReader.Entry entry : reader) {
+          expected.put(entry.getKeyAsString(), entry.getValueAsString());
+        }
+
+        Map<String, String> actual = reader.stream().parallel()
+            .collect(Collectors.toConcurrentMap(SparkeyReader.Entry::getKeyAsString, ParallelIterationTest::valueAsString));
+        assertEquals(expected, actual);
+
+        List<String> sequential = reader.stream().map(SparkeyReader.Entry::getKeyAsString).collect(Collectors.toList());
+        assertEquals(expected.size(), sequential.size());
+      }
+    }
+  }
+
+  @Test
+  public void testSpliteratorSplits() throws IOException {
+    writeData(CompressionType.SNAPPY, true);
+    try (SparkeyReader reader = Sparkey.open(indexFile)) {
+      Spliterator<SparkeyReader.Entry> first = reader.spliterator();
+      Spliterator<SparkeyReader.Entry> second = first.trySplit();
+      assertNotNull(second);
+      AtomicInteger count = new AtomicInteger();
+      first.forEachRemaining(entry -> count.incrementAndGet());
+      second.forEachRemaining(entry -> count.incrementAndGet());
+      assertEquals(reader.getIndexHeader().getNumEntries(), count.get());
+    }
+  }
+
+  @Test
+  public void testSpliteratorSplitsRecursively() throws IOException {
+    for (CompressionType compressionType : CompressionType.values()) {
+      writeData(compressionType, true);
+      try (SparkeyReader reader = Sparkey.open(indexFile)) {
+        List<Spliterator<SparkeyReader.Entry>> parts = new ArrayList<>();
+        split(reader.spliterator(), parts);
+        assertTrue(parts.size() > 2);
+        Map<String, String> actual = new HashMap<>();
+        for (Spliterator<SparkeyReader.Entry> part : parts) {
+          part.forEachRemaining(entry -> assertEquals(null, actual.put(entry.getKeyAsString(), valueAsString(entry))));
+        }
+        assertEquals(reader.getIndexHeader().getNumEntries(), actual.size());
+        for (Map.Entry<String, String> entry : actual.entrySet()) {
+          assertEquals(reader.getAsString(entry.getKey()), entry.getValue());
+        }
+      }
+    }
+  }
+
+  private static void split(Spliterator<SparkeyReader.Entry> spliterator, List<Spliterator<SparkeyReader.Entry>> parts) {
+    Spliterator<SparkeyReader.Entry> prefix = spliterator.trySplit();
+    if (prefix != null) {
+      split(prefix, parts);
+      split(spliterator, parts);
+    } else {
+      parts.add(spliterator);
+    }
+  }
+
+  private static String valueAsString(SparkeyReader.Entry entry) {
+    try {
+      return entry.getValueAsString();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeData(CompressionType compressionType, boolean writeHash) throws IOException {
+    indexFile.delete();
+    try (SparkeyWriter writer = Sparkey.createNew(indexFile, compressionType, 512)) {
+      for (int i = 0; i < NUM_KEYS; i++) {
+        writer.put("key" + i, "value" + i);
+      }
+      for (int i = 0; i < NUM_KEYS; i += 3) {
+        writer.delete("key" + i);
+      }
+      for (int i = 0; i < NUM_KEYS; i += 5) {
+        writer.put("key" + i, "other" + i);
+      }
+      if (writeHash) {
+        writer.writeHash();
+      }
+    }
+  }
+
+  private void assertSplitMatches() throws IOException {
+    List<String> expected = collect(new SparkeyLogIterator(logFile));
+    for (int parts : new int[] {1, 2, 3, 16, 100000}) {
+      List<SparkeyLogIterator> split = new SparkeyLogIterator(logFile).split(parts);
+      assertTrue(split.size() >= 1 && split.size() <= parts);
+      List<String> actual = new ArrayList<>();
+      long prevEnd = split.get(0).getStart();
+      for (SparkeyLogIterator part : split) {
+        assertEquals(prevEnd, part.getStart());
+        prevEnd = part.getEnd();
+        actual.addAll(collect(part));
+      }
+      assertEquals(expected, actual);
+    }
+  }
+
+  private static List<String> collect(SparkeyLogIterator iterator) throws IOException {
+    List<String> result = new ArrayList<>();
+    for (SparkeyReader.Entry entry : iterator) {
+      result.add(entry.getType() + ":" + entry.getKeyAsString() + ":"
+          + (entry.getType() == SparkeyReader.Type.PUT ? entry.getValueAsString() : ""));
+    }
+    return result;
+  }
+}
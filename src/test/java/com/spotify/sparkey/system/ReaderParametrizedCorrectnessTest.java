@@ -74,6 +74,16 @@ public class ReaderParametrizedCorrectnessTest extends BaseSystemTest {
     testBasicReadWrite(CompressionType.ZSTD, 1024);
   }
 
+  @Test
+  public void testBasicReadWrite_Lz4() throws IOException {
+    if (!readerType.supports(CompressionType.LZ4)) {
+      return; // Skip for readers that don't support compression
+    }
+    testBasicReadWrite(CompressionType.LZ4, 64);
+    testBasicReadWrite(CompressionType.LZ4, 1024);
+    testBasicReadWrite(CompressionType.LZ4, 4096);
+  }
+
   private void testBasicReadWrite(CompressionType compressionType, int blockSize) throws IOException {
     int N = 100;
 
@@ -125,6 +135,16 @@ public class ReaderParametrizedCorrectnessTest extends BaseSystemTest {
     testWithDeletes(CompressionType.ZSTD, 1024);
   }
 
+  @Test
+  public void testWithDeletes_Lz4() throws IOException {
+    if (!readerType.supports(CompressionType.LZ4)) {
+      return;
+    }
+    testWithDeletes(CompressionType.LZ4, 64);
+    testWithDeletes(CompressionType.LZ4, 1024);
+    testWithDeletes(CompressionType.LZ4, 4096);
+  }
+
   private void testWithDeletes(CompressionType compressionType, int blockSize) throws IOException {
     int N = 100;
 
@@ -318,6 +338,14 @@ public class ReaderParametrizedCorrectnessTest extends BaseSystemTest {
     testPutWithInputStream(CompressionType.ZSTD, 40);
   }
 
+  @Test
+  public void testPutWithInputStream_Lz4() throws IOException {
+    if (!readerType.supports(CompressionType.LZ4)) {
+      return;
+    }
+    testPutWithInputStream(CompressionType.LZ4, 40);
+  }
+
   private void testPutWithInputStream(CompressionType compressionType, int blockSize) throws IOException {
     String expectedValue = "value";
     while (expectedValue.length() < 1000) {
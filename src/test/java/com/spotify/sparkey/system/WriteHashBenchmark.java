@@ -64,7 +64,7 @@ public class WriteHashBenchmark {
   @Param({"1000", "10000", "100000", "1000000", "10000000"})
   public int numElements;
 
-  @Param({"IN_MEMORY", "SORTING"})
+  @Param({"IN_MEMORY", "MAPPED", "SORTING"})
   public SparkeyWriter.ConstructionMethod constructionMethod;
 
   @Benchmark